@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.wordnik.swagger.annotations.ApiModel;
+import com.wordnik.swagger.annotations.ApiModelProperty;
+
+/**
+ * The combined data of a group of numeric metrics.
+ */
+@ApiModel(value = "The data of several metrics combined into one value per bucket.")
+public class AggregatedOutput {
+
+    private String tenantId;
+
+    private String function;
+
+    @JsonInclude(Include.NON_NULL)
+    private String groupBy;
+
+    @JsonInclude(Include.NON_NULL)
+    private String group;
+
+    private int numberOfSeries;
+
+    @JsonInclude(Include.NON_EMPTY)
+    private List<DataPoint> data = new ArrayList<>();
+
+    public AggregatedOutput() {
+    }
+
+    public AggregatedOutput(String tenantId, String function, String groupBy, String group, int numberOfSeries) {
+        this.tenantId = tenantId;
+        this.function = function;
+        this.groupBy = groupBy;
+        this.group = group;
+        this.numberOfSeries = numberOfSeries;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    @ApiModelProperty(value = "The function with which the metrics were combined")
+    public String getFunction() {
+        return function;
+    }
+
+    public void setFunction(String function) {
+        this.function = function;
+    }
+
+    @ApiModelProperty(value = "The tag by which the metrics were grouped")
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    public void setGroupBy(String groupBy) {
+        this.groupBy = groupBy;
+    }
+
+    @ApiModelProperty(value = "The value of the groupBy tag shared by the metrics. It is absent for the metrics that "
+        + "do not have the tag.")
+    public String getGroup() {
+        return group;
+    }
+
+    public void setGroup(String group) {
+        this.group = group;
+    }
+
+    @ApiModelProperty(value = "The number of metrics in the group")
+    public int getNumberOfSeries() {
+        return numberOfSeries;
+    }
+
+    public void setNumberOfSeries(int numberOfSeries) {
+        this.numberOfSeries = numberOfSeries;
+    }
+
+    @ApiModelProperty(value = "One data point per bucket in which at least one of the metrics has data. The timestamp "
+        + "is the start of the bucket.")
+    public List<DataPoint> getData() {
+        return data;
+    }
+
+    public void setData(List<DataPoint> data) {
+        this.data = data;
+    }
+
+    public void add(DataPoint d) {
+        data.add(d);
+    }
+
+}
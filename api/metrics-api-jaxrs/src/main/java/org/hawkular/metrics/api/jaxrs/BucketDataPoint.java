@@ -16,8 +16,13 @@
  */
 package org.hawkular.metrics.api.jaxrs;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.xml.bind.annotation.XmlRootElement;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.wordnik.swagger.annotations.ApiModel;
 import com.wordnik.swagger.annotations.ApiModelProperty;
 
@@ -34,6 +39,8 @@ public class BucketDataPoint extends IdDataPoint {
     private double min;
     private double max;
     private double avg;
+    @JsonInclude(Include.NON_EMPTY)
+    private List<Percentile> percentiles = new ArrayList<>();
 
     public BucketDataPoint() {
     }
@@ -74,6 +81,16 @@ public class BucketDataPoint extends IdDataPoint {
         this.avg = avg;
     }
 
+    @ApiModelProperty(value = "Estimated percentiles of the data points of the bucket. They are only included when "
+            + "requested.")
+    public List<Percentile> getPercentiles() {
+        return percentiles;
+    }
+
+    public void setPercentiles(List<Percentile> percentiles) {
+        this.percentiles = percentiles;
+    }
+
     public boolean isEmpty() {
         return Double.isNaN(avg) || Double.isNaN(max) || Double.isNaN(min);
     }
@@ -84,6 +101,7 @@ public class BucketDataPoint extends IdDataPoint {
             "min=" + min +
             ", max=" + max +
             ", avg=" + avg +
+            ", percentiles=" + percentiles +
             '}';
     }
 }
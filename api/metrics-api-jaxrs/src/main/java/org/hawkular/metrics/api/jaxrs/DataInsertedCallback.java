@@ -17,6 +17,7 @@
 package org.hawkular.metrics.api.jaxrs;
 
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.MediaType;
@@ -47,9 +48,11 @@ public class DataInsertedCallback implements FutureCallback<Void> {
 
     @Override
     public void onFailure(Throwable t) {
-        Map<String, String> errors = ImmutableMap.of("errorMsg", errorMsg + ": " +
-            Throwables.getRootCause(t).getMessage());
-        response.resume(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(errors).type(
-            MediaType.APPLICATION_JSON_TYPE).build());
+        Throwable cause = Throwables.getRootCause(t);
+        Map<String, String> errors = ImmutableMap.of("errorMsg", errorMsg + ": " + cause.getMessage());
+        // The writes are rejected when too many of them are queued, so the client should retry later
+        Response.Status status = cause instanceof RejectedExecutionException ? Response.Status.SERVICE_UNAVAILABLE :
+            Response.Status.INTERNAL_SERVER_ERROR;
+        response.resume(Response.status(status).entity(errors).type(MediaType.APPLICATION_JSON_TYPE).build());
     }
 }
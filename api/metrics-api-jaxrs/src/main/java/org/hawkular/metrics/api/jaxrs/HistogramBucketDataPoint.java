@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import com.wordnik.swagger.annotations.ApiModel;
+import com.wordnik.swagger.annotations.ApiModelProperty;
+
+@ApiModel(value = "A bucket of histogram data with the number of values along with their min/avg/max and "
+    + "percentiles.")
+public class HistogramBucketDataPoint extends BucketDataPoint {
+
+    private long count;
+
+    public HistogramBucketDataPoint() {
+    }
+
+    public HistogramBucketDataPoint(String id, long timestamp, double min, double avg, double max, long count) {
+        super(id, timestamp, min, avg, max);
+        this.count = count;
+    }
+
+    @ApiModelProperty(value = "The number of values during the time span of the bucket.")
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    @Override
+    public String toString() {
+        return "HistogramBucketDataPoint{" +
+            "count=" + count +
+            ", min=" + getMin() +
+            ", max=" + getMax() +
+            ", avg=" + getAvg() +
+            ", percentiles=" + getPercentiles() +
+            '}';
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Objects;
+import com.wordnik.swagger.annotations.ApiModel;
+
+@ApiModel
+public class HistogramDataParams extends MetricDataParams {
+
+    private List<HistogramDataPoint> data = new ArrayList<>();
+
+    public List<HistogramDataPoint> getData() {
+        return data;
+    }
+
+    public void setData(List<HistogramDataPoint> data) {
+        this.data = data;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("tenantId", tenantId)
+            .add("name", name)
+            .add("metadata", tags)
+            .add("data", data)
+            .toString();
+    }
+}
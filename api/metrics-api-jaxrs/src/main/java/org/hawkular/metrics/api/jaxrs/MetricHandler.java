@@ -18,27 +18,28 @@ package org.hawkular.metrics.api.jaxrs;
 
 import static java.lang.Double.NaN;
 import static java.util.Arrays.asList;
-import static java.util.Arrays.stream;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.summarizingDouble;
-import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toMap;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
 import static javax.ws.rs.core.Response.Status;
 import static org.hawkular.metrics.api.jaxrs.CustomMediaTypes.APPLICATION_VND_HAWKULAR_WRAPPED_JSON;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.MAX_QUERY_METRICS;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.QUERY_PARALLELISM;
 import static org.hawkular.metrics.core.api.MetricsService.DEFAULT_TENANT_ID;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.DoubleSummaryStatistics;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.LongStream;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
@@ -54,10 +55,11 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
-import com.google.common.base.Function;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -67,12 +69,16 @@ import com.wordnik.swagger.annotations.ApiParam;
 import com.wordnik.swagger.annotations.ApiResponse;
 import com.wordnik.swagger.annotations.ApiResponses;
 
-import gnu.trove.map.TLongObjectMap;
-import gnu.trove.map.hash.TLongObjectHashMap;
-
+import org.hawkular.metrics.api.jaxrs.config.Configurable;
+import org.hawkular.metrics.api.jaxrs.config.ConfigurationProperty;
+import org.hawkular.metrics.core.api.AggregatedSeries;
+import org.hawkular.metrics.core.api.AggregationTemplate;
 import org.hawkular.metrics.core.api.Availability;
 import org.hawkular.metrics.core.api.AvailabilityMetric;
 import org.hawkular.metrics.core.api.Counter;
+import org.hawkular.metrics.core.api.HistogramData;
+import org.hawkular.metrics.core.api.HistogramMetric;
+import org.hawkular.metrics.core.api.Interval;
 import org.hawkular.metrics.core.api.Metric;
 import org.hawkular.metrics.core.api.MetricAlreadyExistsException;
 import org.hawkular.metrics.core.api.MetricId;
@@ -80,7 +86,15 @@ import org.hawkular.metrics.core.api.MetricType;
 import org.hawkular.metrics.core.api.MetricsService;
 import org.hawkular.metrics.core.api.NumericData;
 import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.api.NumericSeries;
+import org.hawkular.metrics.core.api.QuantileSketch;
+import org.hawkular.metrics.core.api.SeriesFunction;
+import org.hawkular.metrics.core.api.Tenant;
 import org.hawkular.metrics.core.impl.cassandra.MetricUtils;
+import org.hawkular.metrics.core.impl.cassandra.RollupScheduler;
+import org.hawkular.metrics.core.impl.downsample.BucketStats;
+import org.hawkular.metrics.core.impl.downsample.Downsampler;
+import org.hawkular.metrics.core.impl.util.BoundedFanOut;
 
 /**
  * Interface to deal with metrics
@@ -88,12 +102,43 @@ import org.hawkular.metrics.core.impl.cassandra.MetricUtils;
  */
 @Api(value = "/", description = "Metrics related REST interface")
 @Path("/")
+@RateLimited
 public class MetricHandler {
     private static final long EIGHT_HOURS = MILLISECONDS.convert(8, HOURS);
 
+    private static final int DEFAULT_QUERY_PARALLELISM = 16;
+
+    /**
+     * The default maximum number of metrics that a multi-metric query can read. The results of the metrics are held
+     * until they are written in order, so the number of metrics bounds the memory that a query uses.
+     */
+    private static final int DEFAULT_MAX_QUERY_METRICS = 1000;
+
+    /**
+     * Gaps between rollups that are separated by at most this many rollup time slices are fetched with a single raw
+     * data query. Sparse metrics have no rollup for the time slices without data, so without merging there would be
+     * one query per empty time slice.
+     */
+    static final int MAX_MERGED_ROLLUP_SLICES = 4;
+
+    /**
+     * The maximum number of raw data queries executing at the same time for the gaps between the rollups of a metric.
+     */
+    private static final int MAX_RAW_QUERIES_PER_METRIC = 4;
+
     @Inject
     private MetricsService metricsService;
 
+    @Inject
+    @Configurable
+    @ConfigurationProperty(QUERY_PARALLELISM)
+    private String queryParallelism;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(MAX_QUERY_METRICS)
+    private String maxQueryMetrics;
+
     @POST
     @Path("/{tenantId}/metrics/numeric")
     @ApiOperation(value = "Create numeric metric definition.", notes = "Clients are not required to explicitly create "
@@ -126,6 +171,21 @@ public class MetricHandler {
         Futures.addCallback(future, new MetricCreatedCallback(asyncResponse, params));
     }
 
+    @POST
+    @Path("/{tenantId}/metrics/histogram")
+    @ApiOperation(value = "Create histogram metric definition. Same notes as creating numeric metric apply.")
+    @ApiResponses(value = { @ApiResponse(code = 400, message = "Metric with given id already exists"),
+            @ApiResponse(code = 200, message = "Metric definition created successfully"),
+            @ApiResponse(code = 500, message = "Metric definition creation failed due to an unexpected error")})
+    @Consumes(APPLICATION_JSON)
+    public void createHistogramMetric(@Suspended AsyncResponse asyncResponse, @PathParam("tenantId") String tenantId,
+                                      @ApiParam(required = true) MetricParams params) {
+        HistogramMetric metric = new HistogramMetric(tenantId, new MetricId(params.getName()),
+            MetricUtils.getTags(params.getTags()), params.getDataRetention());
+        ListenableFuture<Void> future = metricsService.createMetric(metric);
+        Futures.addCallback(future, new MetricCreatedCallback(asyncResponse, params));
+    }
+
     private class MetricCreatedCallback implements FutureCallback<Void> {
 
         AsyncResponse response;
@@ -267,7 +327,8 @@ public class MetricHandler {
     @POST
     @Path("/{tenantId}/metrics/numeric/{id}/data")
     @ApiOperation(value = "Add data for a single numeric metric.")
-    @ApiResponses(value = { @ApiResponse(code = 500, message = "Unexpected error happened while storing the data")})
+    @ApiResponses(value = { @ApiResponse(code = 500, message = "Unexpected error happened while storing the data"),
+            @ApiResponse(code = 503, message = "Too many writes are waiting to be executed.")})
     @Consumes(APPLICATION_JSON)
     public void addDataForMetric(@Suspended final AsyncResponse asyncResponse,
                                  @PathParam("tenantId") final String tenantId, @PathParam("id") String id,
@@ -287,7 +348,8 @@ public class MetricHandler {
     @Consumes(APPLICATION_JSON)
     @ApiOperation(value = "Add data for a single availability metric.")
     @ApiResponses(value = { @ApiResponse(code = 200, message = "Adding data succeeded."),
-            @ApiResponse(code = 500, message = "Unexpected error happened while storing the data")})
+            @ApiResponse(code = 500, message = "Unexpected error happened while storing the data"),
+            @ApiResponse(code = 503, message = "Too many writes are waiting to be executed.")})
     public void addAvailabilityForMetric(@Suspended final AsyncResponse asyncResponse,
         @PathParam("tenantId") final String tenantId, @PathParam("id") String id,
         @ApiParam(value = "List of availability datapoints", required = true) List<AvailabilityDataPoint> data) {
@@ -305,7 +367,8 @@ public class MetricHandler {
     @Path("/{tenantId}/metrics/numeric/data")
     @ApiOperation(value = "Add metric data for multiple numeric metrics in a single call.")
     @ApiResponses(value = { @ApiResponse(code = 200, message = "Adding data succeeded."),
-            @ApiResponse(code = 500, message = "Unexpected error happened while storing the data")})
+            @ApiResponse(code = 500, message = "Unexpected error happened while storing the data"),
+            @ApiResponse(code = 503, message = "Too many writes are waiting to be executed.")})
     @Consumes(APPLICATION_JSON)
     public void addNumericData(@ApiParam(access = "internal") @Suspended final AsyncResponse asyncResponse,
                                @PathParam("tenantId") String tenantId,
@@ -333,7 +396,8 @@ public class MetricHandler {
     @Path("/{tenantId}/metrics/availability/data")
     @ApiOperation(value = "Add metric data for multiple availability metrics in a single call.")
     @ApiResponses(value = { @ApiResponse(code = 200, message = "Adding data succeeded."),
-            @ApiResponse(code = 500, message = "Unexpected error happened while storing the data")})
+            @ApiResponse(code = 500, message = "Unexpected error happened while storing the data"),
+            @ApiResponse(code = 503, message = "Too many writes are waiting to be executed.")})
     @Consumes(APPLICATION_JSON)
     public void addAvailabilityData(@Suspended final AsyncResponse asyncResponse,
         @PathParam("tenantId") String tenantId, @ApiParam(value = "List of availability metrics", required = true)
@@ -356,6 +420,75 @@ public class MetricHandler {
         Futures.addCallback(future, new DataInsertedCallback(asyncResponse, "Failed to insert data"));
     }
 
+    @POST
+    @Path("/{tenantId}/metrics/histogram/{id}/data")
+    @Consumes(APPLICATION_JSON)
+    @ApiOperation(value = "Add data for a single histogram metric.", notes = "Each data point holds the values, "
+            + "e.g., timings, observed in an interval and is stored as a single histogram, which replaces any "
+            + "histogram with the same timestamp. Null values and data points without values are ignored.")
+    @ApiResponses(value = { @ApiResponse(code = 200, message = "Adding data succeeded."),
+            @ApiResponse(code = 500, message = "Unexpected error happened while storing the data"),
+            @ApiResponse(code = 503, message = "Too many writes are waiting to be executed.")})
+    public void addHistogramForMetric(@Suspended final AsyncResponse asyncResponse,
+        @PathParam("tenantId") final String tenantId, @PathParam("id") String id,
+        @ApiParam(value = "List of histogram datapoints", required = true) List<HistogramDataPoint> data) {
+        HistogramMetric metric = new HistogramMetric(tenantId, new MetricId(id));
+        addHistograms(metric, data);
+
+        ListenableFuture<Void> future = metricsService.addHistogramData(asList(metric));
+        Futures.addCallback(future, new DataInsertedCallback(asyncResponse, "Failed to insert data"));
+    }
+
+    @POST
+    @Path("/{tenantId}/metrics/histogram/data")
+    @ApiOperation(value = "Add metric data for multiple histogram metrics in a single call.")
+    @ApiResponses(value = { @ApiResponse(code = 200, message = "Adding data succeeded."),
+            @ApiResponse(code = 500, message = "Unexpected error happened while storing the data"),
+            @ApiResponse(code = 503, message = "Too many writes are waiting to be executed.")})
+    @Consumes(APPLICATION_JSON)
+    public void addHistogramData(@Suspended final AsyncResponse asyncResponse,
+        @PathParam("tenantId") String tenantId, @ApiParam(value = "List of histogram metrics", required = true)
+        List<HistogramDataParams> paramsList) {
+        if (paramsList.isEmpty()) {
+            asyncResponse.resume(Response.ok().type(APPLICATION_JSON_TYPE).build());
+            return;
+        }
+
+        List<HistogramMetric> metrics = new ArrayList<>(paramsList.size());
+
+        for (HistogramDataParams params : paramsList) {
+            HistogramMetric metric = new HistogramMetric(tenantId, new MetricId(params.getName()),
+                MetricUtils.getTags(params.getTags()));
+            addHistograms(metric, params.getData());
+            metrics.add(metric);
+        }
+        ListenableFuture<Void> future = metricsService.addHistogramData(metrics);
+        Futures.addCallback(future, new DataInsertedCallback(asyncResponse, "Failed to insert data"));
+    }
+
+    /**
+     * Builds a sketch of the values of each data point and adds it to the metric. Null values are skipped, and so are
+     * data points that do not have any other values.
+     */
+    static void addHistograms(HistogramMetric metric, List<HistogramDataPoint> dataPoints) {
+        for (HistogramDataPoint p : dataPoints) {
+            if (p.getValues() == null) {
+                continue;
+            }
+            QuantileSketch sketch = new QuantileSketch();
+            boolean hasValues = false;
+            for (Double value : p.getValues()) {
+                if (value != null) {
+                    sketch.add(value);
+                    hasValues = true;
+                }
+            }
+            if (hasValues) {
+                metric.addData(p.getTimestamp(), sketch);
+            }
+        }
+    }
+
     @GET
     @ApiOperation(value = "Find numeric metrics data by their tags.", response = MetricOut.class,
             responseContainer = "List")
@@ -365,9 +498,18 @@ public class MetricHandler {
     public void findNumericDataByTags(@Suspended final AsyncResponse asyncResponse,
         @PathParam("tenantId") String tenantId,
         @ApiParam(allowMultiple = true, required = true, value = "A list of tags in the format of name:value")
-        @QueryParam("tags") String encodedTags) {
+        @QueryParam("tags") String encodedTags,
+        @ApiParam(value = "Defaults to now - 8 hours", required = false) @QueryParam("start") Long start,
+        @ApiParam(value = "Defaults to now", required = false) @QueryParam("end") Long end) {
+        long now = System.currentTimeMillis();
+        if (start == null) {
+            start = now - EIGHT_HOURS;
+        }
+        if (end == null) {
+            end = now;
+        }
         ListenableFuture<Map<MetricId, Set<NumericData>>> queryFuture = metricsService.findNumericDataByTags(
-            tenantId, MetricUtils.decodeTags(encodedTags));
+            tenantId, MetricUtils.decodeTags(encodedTags), start, end);
         Futures.addCallback(queryFuture, new FutureCallback<Map<MetricId, Set<NumericData>>>() {
             @Override
             public void onSuccess(Map<MetricId, Set<NumericData>> taggedDataMap) {
@@ -406,9 +548,18 @@ public class MetricHandler {
     public void findAvailabilityDataByTags(@Suspended final AsyncResponse asyncResponse,
         @PathParam("tenantId") String tenantId,
         @ApiParam(allowMultiple = true, required = true, value = "A list of tags in the format of name:value")
-        @QueryParam("tags") String encodedTags) {
+        @QueryParam("tags") String encodedTags,
+        @ApiParam(value = "Defaults to now - 8 hours", required = false) @QueryParam("start") Long start,
+        @ApiParam(value = "Defaults to now", required = false) @QueryParam("end") Long end) {
+        long now = System.currentTimeMillis();
+        if (start == null) {
+            start = now - EIGHT_HOURS;
+        }
+        if (end == null) {
+            end = now;
+        }
         ListenableFuture<Map<MetricId, Set<Availability>>> queryFuture = metricsService.findAvailabilityByTags(
-            tenantId, MetricUtils.decodeTags(encodedTags));
+            tenantId, MetricUtils.decodeTags(encodedTags), start, end);
         Futures.addCallback(queryFuture, new FutureCallback<Map<MetricId, Set<Availability>>>() {
             @Override
             public void onSuccess(Map<MetricId, Set<Availability>> taggedDataMap) {
@@ -445,6 +596,7 @@ public class MetricHandler {
     @ApiOperation(value = "Retrieve numeric data.", response = MetricOut.class)
     @ApiResponses(value = { @ApiResponse(code = 200, message = "Successfully fetched numeric data."),
             @ApiResponse(code = 204, message = "No numeric data was found."),
+            @ApiResponse(code = 400, message = "The percentiles or the time range are invalid."),
             @ApiResponse(code = 500, message = "Unexpected error occurred while fetching numeric data.")})
     @Path("/{tenantId}/metrics/numeric/{id}/data")
     public void findNumericData(
@@ -458,7 +610,9 @@ public class MetricHandler {
                 + "having max/min/avg calculated for each bucket.") @QueryParam("buckets") final int numberOfBuckets,
         @QueryParam("bucketWidthSeconds") final int bucketWidthSeconds,
         @QueryParam("skipEmpty") @DefaultValue("false") final boolean skipEmpty,
-        @QueryParam("bucketCluster") @DefaultValue("true") final boolean bucketCluster) {
+        @QueryParam("bucketCluster") @DefaultValue("true") final boolean bucketCluster,
+        @ApiParam(value = "Comma-separated list of percentiles to estimate for each bucket, e.g., 50,95,99")
+        @QueryParam("percentiles") String percentiles) {
 
         long now = System.currentTimeMillis();
         if (start == null) {
@@ -468,23 +622,28 @@ public class MetricHandler {
             end = now;
         }
 
+        double[] quantiles = decodePercentiles(percentiles);
+        if (quantiles == null) {
+            response.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg",
+                "[" + percentiles + "] is not a valid list of percentiles. The expected format is 50,95,99"))
+                .type(APPLICATION_JSON_TYPE).build());
+            return;
+        }
+
         NumericMetric metric = new NumericMetric(tenantId, new MetricId(id));
-        ListenableFuture<NumericMetric> dataFuture = metricsService.findNumericData(metric, start, end);
         ListenableFuture<? extends Object> outputFuture = null;
         if (numberOfBuckets == 0) {
-            outputFuture = Futures.transform(dataFuture, new MetricOutMapper());
+            outputFuture = streamNumericData(metric, start, end);
         } else {
             if (bucketWidthSeconds == 0) {
-                outputFuture = Futures.transform(dataFuture, new CreateSimpleBuckets(start, end, numberOfBuckets,
-                    skipEmpty));
+                outputFuture = findSimpleBuckets(metric, start, end, numberOfBuckets, skipEmpty, quantiles);
             } else {
-                ListenableFuture<List<? extends Object>> bucketsFuture = Futures.transform(dataFuture,
-                    new CreateFixedNumberOfBuckets(numberOfBuckets, bucketWidthSeconds));
+                ListenableFuture<NumericSeries> dataFuture = metricsService.findNumericSeries(metric, start, end);
                 if (bucketCluster) {
-                    outputFuture = Futures.transform(bucketsFuture, new FlattenBuckets(numberOfBuckets,
-                        bucketWidthSeconds, skipEmpty));
+                    outputFuture = Futures.transform(dataFuture, new FlattenBuckets(numberOfBuckets,
+                        bucketWidthSeconds, skipEmpty, quantiles));
                 } else {
-                    outputFuture = Futures.transform(bucketsFuture, new ClusterBucketData(numberOfBuckets,
+                    outputFuture = Futures.transform(dataFuture, new ClusterBucketData(numberOfBuckets,
                         bucketWidthSeconds));
                 }
             }
@@ -499,6 +658,9 @@ public class MetricHandler {
             public void onFailure(Throwable t) {
                 if (t instanceof NoResultsException) {
                     response.resume(Response.ok().status(Status.NO_CONTENT).build());
+                } else if (t instanceof IllegalArgumentException) {
+                    response.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg",
+                        t.getMessage())).type(APPLICATION_JSON_TYPE).build());
                 } else {
                     Map<String, String> errors = ImmutableMap.of("errorMsg", "Failed to retrieve data due to " +
                         "an unexpected error: " + Throwables.getRootCause(t).getMessage());
@@ -509,148 +671,524 @@ public class MetricHandler {
         });
     }
 
-    private class MetricOutMapper extends MetricMapper<MetricOut> {
-        @Override
-        public MetricOut doApply(NumericMetric metric) {
-            MetricOut output = new MetricOut(metric.getTenantId(), metric.getId().getName(),
-                MetricUtils.flattenTags(metric.getTags()), metric.getDataRetention());
-            List<DataPointOut> dataPoints = new ArrayList<>();
-            for (NumericData d : metric.getData()) {
-                dataPoints.add(new DataPointOut(d.getTimestamp(), d.getValue(), MetricUtils.flattenTags(d.getTags())));
-            }
-            output.setData(dataPoints);
+    @POST
+    @Path("/{tenantId}/metrics/numeric/query")
+    @Consumes(APPLICATION_JSON)
+    @ApiOperation(value = "Retrieve the numeric data of several metrics over the same time range in a single call.",
+            notes = "The metrics are given by their ids, by tag filters, or both. They are read concurrently, and each "
+            + "one is written to the response as soon as it is available. Metrics without data are left out.",
+            response = MetricOut.class, responseContainer = "List")
+    @ApiResponses(value = { @ApiResponse(code = 200, message = "Successfully fetched numeric data."),
+            @ApiResponse(code = 204, message = "No metrics matched the query."),
+            @ApiResponse(code = 400, message = "No metrics, invalid tag filters or too many metrics were given."),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching numeric data.")})
+    public void queryNumericData(@Suspended final AsyncResponse response, @PathParam("tenantId") String tenantId,
+        @ApiParam(required = true) NumericQueryParams params) {
+        long now = System.currentTimeMillis();
+        long start = params.getStart() == null ? now - EIGHT_HOURS : params.getStart();
+        long end = params.getEnd() == null ? now : params.getEnd();
+        double[] percentiles = decodePercentiles(params.getPercentiles());
+        if (percentiles == null) {
+            response.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg",
+                "[" + params.getPercentiles() + "] is not a valid list of percentiles. The expected format is "
+                + "50,95,99")).type(APPLICATION_JSON_TYPE).build());
+            return;
+        }
 
-            return output;
+        ListenableFuture<List<String>> idsFuture;
+        if (params.getTags() == null) {
+            if (params.getIds().isEmpty()) {
+                response.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg",
+                    "Either ids or tags are required")).type(APPLICATION_JSON_TYPE).build());
+                return;
+            }
+            idsFuture = Futures.immediateFuture(params.getIds());
+        } else {
+            Map<String, String> tagFilters = decodeTagFilters(params.getTags());
+            if (tagFilters == null) {
+                response.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg",
+                    "[" + params.getTags() + "] is not a valid list of tag filters. The expected format is "
+                    + "name1:filter1,name2:filter2")).type(APPLICATION_JSON_TYPE).build());
+                return;
+            }
+            ListenableFuture<List<Metric>> metricsFuture = metricsService.findMetricsWithTags(tenantId,
+                MetricType.NUMERIC, tagFilters);
+            idsFuture = Futures.transform(metricsFuture, (List<Metric> metrics) -> {
+                Set<String> ids = new LinkedHashSet<>(params.getIds());
+                metrics.forEach(metric -> ids.add(metric.getId().getName()));
+                return new ArrayList<>(ids);
+            });
         }
-    }
 
-    private class CreateSimpleBuckets extends MetricMapper<BucketedOutput> {
+        int parallelism = getPositiveInt(queryParallelism, DEFAULT_QUERY_PARALLELISM);
+        int maxMetrics = getPositiveInt(maxQueryMetrics, DEFAULT_MAX_QUERY_METRICS);
+        Futures.addCallback(idsFuture, new FutureCallback<List<String>>() {
+            @Override
+            public void onSuccess(List<String> ids) {
+                if (ids.isEmpty()) {
+                    response.resume(Response.status(Status.NO_CONTENT).type(APPLICATION_JSON_TYPE).build());
+                    return;
+                }
+                if (ids.size() > maxMetrics) {
+                    response.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg",
+                        "The query matches " + ids.size() + " metrics, which is more than the " + maxMetrics +
+                        " that can be read in a single query")).type(APPLICATION_JSON_TYPE).build());
+                    return;
+                }
+                List<ListenableFuture<Object>> results = new BoundedFanOut<String, Object>(ids, parallelism,
+                    id -> queryNumericData(new NumericMetric(tenantId, new MetricId(id)), start, end,
+                        params.getBuckets(), params.isSkipEmpty(), percentiles)).start();
+                response.resume(Response.ok(new MultiMetricStreamingOutput(results)).type(APPLICATION_JSON_TYPE)
+                    .build());
+            }
 
-        private long startTime;
-        private long endTime;
-        private int numberOfBuckets;
-        private boolean skipEmpty;
+            @Override
+            public void onFailure(Throwable t) {
+                Map<String, String> errors = ImmutableMap.of("errorMsg", "Failed to retrieve data due to " +
+                    "an unexpected error: " + Throwables.getRootCause(t).getMessage());
+                response.resume(Response.status(Status.INTERNAL_SERVER_ERROR).entity(errors)
+                    .type(APPLICATION_JSON_TYPE).build());
+            }
+        });
+    }
 
-        public CreateSimpleBuckets(long startTime, long endTime, int numberOfBuckets, boolean skipEmpty) {
-            this.startTime = startTime;
-            this.endTime = endTime;
-            this.numberOfBuckets = numberOfBuckets;
-            this.skipEmpty = skipEmpty;
+    @GET
+    @Path("/{tenantId}/metrics/numeric/aggregate")
+    @ApiOperation(value = "Combine the numeric data of the metrics that match tag filters.",
+            notes = "The time range is divided into buckets. The value of a metric in a bucket is the average of its "
+            + "data points in the bucket, and the values of the metrics are combined with the function. The metrics "
+            + "can be grouped by the value of a tag, in which case there is one result per group.",
+            response = AggregatedOutput.class, responseContainer = "List")
+    @ApiResponses(value = { @ApiResponse(code = 200, message = "Successfully aggregated numeric data."),
+            @ApiResponse(code = 204, message = "No metrics matched the tag filters."),
+            @ApiResponse(code = 400, message = "Invalid tag filters, function, or number of buckets were given, or "
+                + "the tag filters match too many metrics."),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while aggregating numeric data."),
+            @ApiResponse(code = 503, message = "Too many aggregations are in progress.")})
+    public void aggregateNumericData(
+        @Suspended final AsyncResponse response,
+        @PathParam("tenantId") String tenantId,
+        @ApiParam(value = "Tag filters that select the metrics", required = true,
+            allowableValues = "Comma-separated list of name:filter pairs") @QueryParam("tags") String tags,
+        @ApiParam(value = "The tag by whose value the metrics are grouped", required = false)
+        @QueryParam("groupBy") String groupBy,
+        @ApiParam(value = "Defaults to avg", allowableValues = "sum, avg, min, max, or a percentile like p95")
+        @QueryParam("function") @DefaultValue("avg") String function,
+        @ApiParam(value = "Defaults to now - 8 hours", required = false) @QueryParam("start") Long start,
+        @ApiParam(value = "Defaults to now", required = false) @QueryParam("end") Long end,
+        @ApiParam(value = "The number of buckets in which to divide the time range")
+        @QueryParam("buckets") @DefaultValue("60") int numberOfBuckets) {
+
+        long now = System.currentTimeMillis();
+        long startTime = start == null ? now - EIGHT_HOURS : start;
+        long endTime = end == null ? now : end;
+
+        Map<String, String> tagFilters = tags == null ? null : decodeTagFilters(tags);
+        if (tagFilters == null) {
+            response.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg",
+                "[" + tags + "] is not a valid list of tag filters. The expected format is "
+                + "name1:filter1,name2:filter2")).type(APPLICATION_JSON_TYPE).build());
+            return;
+        }
+        if (numberOfBuckets <= 0) {
+            response.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg",
+                "The number of buckets must be greater than zero")).type(APPLICATION_JSON_TYPE).build());
+            return;
+        }
+        SeriesFunction seriesFunction;
+        try {
+            seriesFunction = SeriesFunction.parse(function);
+        } catch (IllegalArgumentException e) {
+            response.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg", e.getMessage()))
+                .type(APPLICATION_JSON_TYPE).build());
+            return;
         }
 
-        @Override
-        public BucketedOutput doApply(NumericMetric metric) {
-            // we will have numberOfBuckets buckets over the whole time span
-            BucketedOutput output = new BucketedOutput(metric.getTenantId(), metric.getId().getName(),
-                MetricUtils.flattenTags(metric.getTags()));
-            long bucketSize = (endTime - startTime) / numberOfBuckets;
+        ListenableFuture<List<AggregatedSeries>> future = metricsService.aggregateNumericData(tenantId, tagFilters,
+            groupBy, seriesFunction, startTime, endTime, numberOfBuckets);
+        Futures.addCallback(future, new FutureCallback<List<AggregatedSeries>>() {
+            @Override
+            public void onSuccess(List<AggregatedSeries> results) {
+                if (results.isEmpty()) {
+                    response.resume(Response.status(Status.NO_CONTENT).type(APPLICATION_JSON_TYPE).build());
+                    return;
+                }
+                List<AggregatedOutput> output = new ArrayList<>(results.size());
+                for (AggregatedSeries series : results) {
+                    AggregatedOutput out = new AggregatedOutput(tenantId, seriesFunction.toString(), groupBy,
+                        series.getGroup(), series.getNumberOfSeries());
+                    for (int i = 0; i < series.size(); ++i) {
+                        out.add(new DataPoint(series.getTimestamp(i), series.getValue(i)));
+                    }
+                    output.add(out);
+                }
+                response.resume(Response.ok(output).type(APPLICATION_JSON_TYPE).build());
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof IllegalArgumentException) {
+                    response.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg",
+                        t.getMessage())).type(APPLICATION_JSON_TYPE).build());
+                    return;
+                }
+                if (t instanceof RejectedExecutionException) {
+                    response.resume(Response.status(Status.SERVICE_UNAVAILABLE).entity(ImmutableMap.of("errorMsg",
+                        t.getMessage())).type(APPLICATION_JSON_TYPE).build());
+                    return;
+                }
+                Map<String, String> errors = ImmutableMap.of("errorMsg", "Failed to aggregate data due to " +
+                    "an unexpected error: " + Throwables.getRootCause(t).getMessage());
+                response.resume(Response.status(Status.INTERNAL_SERVER_ERROR).entity(errors)
+                    .type(APPLICATION_JSON_TYPE).build());
+            }
+        });
+    }
 
-            long[] buckets = LongStream.iterate(0, i -> i + 1).limit(numberOfBuckets)
-                .map(i -> startTime + (i * bucketSize)).toArray();
+    private ListenableFuture<?> queryNumericData(NumericMetric metric, long start, long end, int numberOfBuckets,
+        boolean skipEmpty, double[] percentiles) {
+        if (numberOfBuckets > 0) {
+            return findSimpleBuckets(metric, start, end, numberOfBuckets, skipEmpty, percentiles);
+        }
+        ListenableFuture<Metric> metadataFuture = metricsService.findMetric(metric.getTenantId(), MetricType.NUMERIC,
+            metric.getId());
+        ListenableFuture<NumericSeries> dataFuture = metricsService.findNumericSeries(metric, start, end);
+        return Futures.transform(dataFuture, new AsyncFunction<NumericSeries, MetricOut>() {
+            @Override
+            public ListenableFuture<MetricOut> apply(NumericSeries series) {
+                if (series.isEmpty()) {
+                    throw new NoResultsException();
+                }
+                return Futures.transform(metadataFuture, (Metric metadata) -> {
+                    // The same output as the single metric query, which lists the newest data points first
+                    MetricOut output = metadata == null ? new MetricOut(series.getTenantId(),
+                        series.getId().getName(), MetricUtils.flattenTags(series.getTags())) :
+                        new MetricOut(series.getTenantId(), series.getId().getName(),
+                            MetricUtils.flattenTags(metadata.getTags()), metadata.getDataRetention());
+                    for (int i = series.size() - 1; i >= 0; --i) {
+                        output.getData().add(new DataPointOut(series.getTimestamp(i), series.getValue(i)));
+                    }
+                    return output;
+                });
+            }
+        });
+    }
 
-            Map<Long, List<NumericData>> map = metric.getData().stream().collect(
-                groupingBy(dataPoint -> findBucket(buckets, bucketSize, dataPoint.getTimestamp())));
+    private static int getPositiveInt(String value, int defaultValue) {
+        if (value != null && !value.isEmpty()) {
+            try {
+                int number = Integer.parseInt(value);
+                if (number > 0) {
+                    return number;
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        return defaultValue;
+    }
 
-            Map<Long, DoubleSummaryStatistics> statsMap = map.entrySet().stream()
-                .collect(toMap(Map.Entry::getKey, entry -> entry.getValue().stream().collect(summarizingDouble(
-                    NumericData::getValue))));
+    /**
+     * Raw data is streamed to the client as it is read so that the size of the time range does not affect the memory
+     * usage of the request.
+     */
+    private ListenableFuture<StreamingOutput> streamNumericData(NumericMetric metric, long start, long end) {
+        ListenableFuture<Metric> metadataFuture = metricsService.findMetric(metric.getTenantId(), MetricType.NUMERIC,
+            metric.getId());
+        ListenableFuture<Iterator<NumericData>> dataFuture = metricsService.streamNumericData(metric, start, end);
+        return Futures.transform(dataFuture, new AsyncFunction<Iterator<NumericData>, StreamingOutput>() {
+            @Override
+            public ListenableFuture<StreamingOutput> apply(Iterator<NumericData> data) {
+                if (data == null) {
+                    throw new NoResultsException();
+                }
+                return Futures.transform(metadataFuture,
+                    (Metric metadata) -> new NumericDataStreamingOutput(metric, metadata, data));
+            }
+        });
+    }
+
+    /**
+     * Plans a bucketed query. The buckets are computed from the coarsest rollups configured for the tenant whose
+     * interval still fits inside a bucket. Raw data is only loaded when there are no such rollups. Percentiles are
+     * estimated from the quantile sketches stored with the rollups.
+     */
+    private ListenableFuture<BucketedOutput> findSimpleBuckets(NumericMetric metric, long start, long end,
+        int numberOfBuckets, boolean skipEmpty, double[] percentiles) {
+        ListenableFuture<Tenant> tenantFuture = metricsService.findTenant(metric.getTenantId());
+        return Futures.transform(tenantFuture, new AsyncFunction<Tenant, BucketedOutput>() {
+            @Override
+            public ListenableFuture<BucketedOutput> apply(Tenant tenant) {
+                Interval rollupInterval = getRollupInterval(tenant, (end - start) / numberOfBuckets);
+                if (rollupInterval == null) {
+                    ListenableFuture<NumericSeries> dataFuture = metricsService.findNumericSeries(metric, start,
+                        end);
+                    return Futures.transform(dataFuture, new CreateSimpleBuckets(start, end, numberOfBuckets,
+                        skipEmpty, percentiles));
+                }
+                return findBucketsFromRollups(metric, rollupInterval, start, end, numberOfBuckets, skipEmpty,
+                    percentiles);
+            }
+        });
+    }
 
-            for (Long bucket : buckets) {
-                statsMap.computeIfAbsent(bucket, key -> new DoubleSummaryStatistics());
+    /**
+     * @param tenant The tenant, which can be null if it has not been explicitly created
+     * @param bucketSize The bucket width in milliseconds
+     * @return The coarsest numeric rollup interval of the tenant that is not wider than a bucket or null if there is
+     * none
+     */
+    static Interval getRollupInterval(Tenant tenant, long bucketSize) {
+        if (tenant == null) {
+            return null;
+        }
+        Interval rollupInterval = null;
+        long rollupIntervalMillis = 0;
+        for (AggregationTemplate template : tenant.getAggregationTemplates()) {
+            if (template.getType() != MetricType.NUMERIC) {
+                continue;
+            }
+            long intervalMillis = toMillis(template.getInterval());
+            if (intervalMillis <= bucketSize && intervalMillis > rollupIntervalMillis) {
+                rollupInterval = template.getInterval();
+                rollupIntervalMillis = intervalMillis;
             }
+        }
+        return rollupInterval;
+    }
 
-            output.setData(statsMap.entrySet().stream()
-                .sorted((left, right) -> left.getKey().compareTo(right.getKey()))
-                .filter(e -> !skipEmpty || e.getValue().getCount() > 0)
-                .map(e -> getBucketedDataPoint(metric.getId(), e.getKey(), e.getValue()))
-                .collect(toList()));
+    private static long toMillis(Interval interval) {
+        switch (interval.getUnits()) {
+            case MINUTES: return MILLISECONDS.convert(interval.getLength(), TimeUnit.MINUTES);
+            case HOURS: return MILLISECONDS.convert(interval.getLength(), TimeUnit.HOURS);
+            case DAYS: return MILLISECONDS.convert(interval.getLength(), TimeUnit.DAYS);
+            default: throw new IllegalArgumentException(interval + " is not a supported interval");
+        }
+    }
 
-            return output;
+    /**
+     * Computes the buckets from the rollups of the metric. Raw data is fetched for the parts of the time range that
+     * are not covered by rollups, which is typically the most recent, not yet aggregated time slice. Gaps that are
+     * close to each other are fetched with one query, and the raw data points that fall in time slices covered by a
+     * rollup are dropped so that they are not counted twice.
+     */
+    private ListenableFuture<BucketedOutput> findBucketsFromRollups(NumericMetric metric, Interval interval,
+        long start, long end, int numberOfBuckets, boolean skipEmpty, double[] percentiles) {
+        long intervalMillis = toMillis(interval);
+        // Only rollups whose time slice ends within the time range are used
+        ListenableFuture<NumericMetric> rollupsFuture = metricsService.findAggregatedData(metric, interval, start,
+            end - intervalMillis + 1);
+        return Futures.transform(rollupsFuture, new AsyncFunction<NumericMetric, BucketedOutput>() {
+            @Override
+            public ListenableFuture<BucketedOutput> apply(NumericMetric rollups) {
+                Set<Long> covered = new HashSet<>();
+                if (rollups != null) {
+                    for (NumericData d : rollups.getData()) {
+                        covered.add(d.getTimestamp());
+                    }
+                }
+                List<long[]> ranges = getRawDataRanges(covered, start, end, intervalMillis);
+                List<ListenableFuture<NumericMetric>> rawFutures = new BoundedFanOut<long[], NumericMetric>(ranges,
+                    MAX_RAW_QUERIES_PER_METRIC, range -> metricsService.findNumericData(metric, range[0], range[1]))
+                    .start();
+                CreateBucketsFromRollups createBuckets = new CreateBucketsFromRollups(start, end, numberOfBuckets,
+                    skipEmpty, percentiles, covered, intervalMillis);
+                return Futures.transform(Futures.allAsList(rawFutures),
+                    (List<NumericMetric> raw) -> createBuckets.apply(rollups, raw));
+            }
+        });
+    }
+
+    /**
+     * Computes the time ranges for which raw data has to be fetched because they are not covered by rollups. Gaps
+     * separated by at most {@link #MAX_MERGED_ROLLUP_SLICES} rollups are merged into one range.
+     *
+     * @param covered The start times of the time slices for which there is a rollup
+     * @param start The start time of the query, inclusive
+     * @param end The end time of the query, exclusive
+     * @param intervalMillis The rollup interval
+     * @return The ranges as {start, end} pairs in ascending order
+     */
+    static List<long[]> getRawDataRanges(Set<Long> covered, long start, long end, long intervalMillis) {
+        List<Long> timestamps = new ArrayList<>(covered);
+        Collections.sort(timestamps);
+        List<long[]> ranges = new ArrayList<>();
+        long next = start;
+        for (long timestamp : timestamps) {
+            if (timestamp > next) {
+                addRawDataRange(ranges, next, timestamp, intervalMillis);
+            }
+            next = Math.max(next, timestamp + intervalMillis);
         }
+        if (next < end) {
+            addRawDataRange(ranges, next, end, intervalMillis);
+        }
+        return ranges;
     }
 
-    private BucketDataPoint getBucketedDataPoint(MetricId id, long timestamp, DoubleSummaryStatistics stats) {
-        // Currently, if a bucket does not contain any data, we set max/min/avg to Double.NaN.
-        // DoubleSummaryStatistics however uses Double.Infinity for max/min and 0.0 for avg.
-        if (stats.getCount() > 0) {
-            return new BucketDataPoint(id.getName(), timestamp, stats.getMin(), stats.getAverage(), stats.getMax());
+    private static void addRawDataRange(List<long[]> ranges, long from, long to, long intervalMillis) {
+        if (!ranges.isEmpty()) {
+            long[] last = ranges.get(ranges.size() - 1);
+            if (from - last[1] <= MAX_MERGED_ROLLUP_SLICES * intervalMillis) {
+                last[1] = to;
+                return;
+            }
         }
-        return new BucketDataPoint(id.getName(), timestamp, Double.NaN, Double.NaN, Double.NaN);
+        ranges.add(new long[] {from, to});
     }
 
-    private class CreateFixedNumberOfBuckets extends MetricMapper<List<? extends Object>> {
+    private class CreateSimpleBuckets extends MetricMapper<BucketedOutput> {
 
-        private int numberOfBuckets;
-        private int bucketWidthSeconds;
+        private Downsampler downsampler;
+        private boolean skipEmpty;
+        private double[] percentiles;
 
-        public CreateFixedNumberOfBuckets(int numberOfBuckets, int bucketWidthSeconds) {
-            this.numberOfBuckets = numberOfBuckets;
-            this.bucketWidthSeconds = bucketWidthSeconds;
+        public CreateSimpleBuckets(long startTime, long endTime, int numberOfBuckets, boolean skipEmpty,
+            double[] percentiles) {
+            this.downsampler = new Downsampler(startTime, Math.max(1, (endTime - startTime) / numberOfBuckets),
+                numberOfBuckets);
+            this.skipEmpty = skipEmpty;
+            this.percentiles = percentiles;
         }
 
         @Override
-        public List<? extends Object> doApply(NumericMetric metric) {
-            long totalLength = (long) numberOfBuckets * bucketWidthSeconds * 1000L;
-            long minTs = Long.MAX_VALUE;
-            for (NumericData d : metric.getData()) {
-                if (d.getTimestamp() < minTs) {
-                    minTs = d.getTimestamp();
+        public BucketedOutput doApply(NumericSeries series) {
+            // we will have numberOfBuckets buckets over the whole time span
+            BucketedOutput output = new BucketedOutput(series.getTenantId(), series.getId().getName(),
+                MetricUtils.flattenTags(series.getTags()));
+            BucketStats stats = downsampler.downsample(series);
+            for (int i = 0; i < stats.getNumberOfBuckets(); ++i) {
+                if (!skipEmpty || !stats.isEmpty(i)) {
+                    output.add(getBucketDataPoint(series.getId().getName(), stats.getTimestamp(i), stats, i,
+                        percentiles));
                 }
             }
-            TLongObjectMap<List<NumericData>> buckets = new TLongObjectHashMap<>(numberOfBuckets);
-            for (NumericData d : metric.getData()) {
-                long bucket = d.getTimestamp() - minTs;
-                bucket = bucket % totalLength;
-                bucket = bucket / (bucketWidthSeconds * 1000L);
-                List<NumericData> tmpList = buckets.get(bucket);
-                if (tmpList == null) {
-                    tmpList = new ArrayList<>();
-                    buckets.put(bucket, tmpList);
+            return output;
+        }
+    }
+
+    /**
+     * Like {@link CreateSimpleBuckets} but the buckets are computed from rollups in addition to raw data. The average
+     * of a bucket is computed from the sums and counts of the rollups so that it is weighted correctly. A rollup is
+     * put in the bucket in which its time slice starts. When the bucket width is not a multiple of the rollup interval,
+     * a bucket can therefore include up to one rollup interval of data from the next bucket. Percentiles are estimated
+     * by merging the quantile sketches of the rollups with that of the raw data. They are left out for buckets with
+     * rollups that were stored without a sketch.
+     */
+    private static class CreateBucketsFromRollups {
+
+        private Downsampler downsampler;
+        private boolean skipEmpty;
+        private double[] percentiles;
+        private Set<Long> covered;
+        private long intervalMillis;
+
+        public CreateBucketsFromRollups(long startTime, long endTime, int numberOfBuckets, boolean skipEmpty,
+            double[] percentiles, Set<Long> covered, long intervalMillis) {
+            this.downsampler = new Downsampler(startTime, Math.max(1, (endTime - startTime) / numberOfBuckets),
+                numberOfBuckets);
+            this.skipEmpty = skipEmpty;
+            this.percentiles = percentiles;
+            this.covered = covered;
+            this.intervalMillis = intervalMillis;
+        }
+
+        public BucketedOutput apply(NumericMetric rollups, List<NumericMetric> raw) {
+            NumericMetric metric = rollups;
+            List<NumericData> rawData = new ArrayList<>();
+            for (NumericMetric rawMetric : raw) {
+                if (rawMetric != null) {
+                    if (metric == null) {
+                        metric = rawMetric;
+                    }
+                    for (NumericData d : rawMetric.getData()) {
+                        // Merged ranges span time slices that are already accounted for by their rollup
+                        long slice = d.getTimestamp() - Math.floorMod(d.getTimestamp(), intervalMillis);
+                        if (!covered.contains(slice)) {
+                            rawData.add(d);
+                        }
+                    }
                 }
-                tmpList.add(d);
             }
-            return asList(metric, buckets);
+            if (metric == null) {
+                throw new NoResultsException();
+            }
+
+            BucketStats stats = downsampler.downsample(rawData);
+            if (rollups != null) {
+                for (NumericData d : rollups.getData()) {
+                    Double rollupCount = d.getAggregatedValue(RollupScheduler.COUNT);
+                    int bucket = downsampler.getBucket(d.getTimestamp());
+                    if (rollupCount == null || bucket < 0) {
+                        continue;
+                    }
+                    if (d.getSketch() == null) {
+                        stats.merge(bucket, d.getAggregatedValue(RollupScheduler.MIN),
+                            d.getAggregatedValue(RollupScheduler.MAX), d.getAggregatedValue(RollupScheduler.SUM),
+                            rollupCount.longValue());
+                    } else {
+                        stats.merge(bucket, d.getAggregatedValue(RollupScheduler.MIN),
+                            d.getAggregatedValue(RollupScheduler.MAX), d.getAggregatedValue(RollupScheduler.SUM),
+                            rollupCount.longValue(), d.getSketch());
+                    }
+                }
+            }
+
+            BucketedOutput output = new BucketedOutput(metric.getTenantId(), metric.getId().getName(),
+                MetricUtils.flattenTags(metric.getTags()));
+            for (int i = 0; i < stats.getNumberOfBuckets(); ++i) {
+                if (!skipEmpty || !stats.isEmpty(i)) {
+                    output.add(getBucketDataPoint(metric.getId().getName(), stats.getTimestamp(i), stats, i,
+                        percentiles));
+                }
+            }
+            return output;
         }
     }
 
-    private class FlattenBuckets implements Function<List<? extends Object>, BucketedOutput> {
+    /**
+     * Puts the data into a fixed number of buckets of the given width. The buckets start at the oldest data point. Data
+     * that is newer than the last bucket wraps around to the first one so that consecutive periods are overlaid.
+     */
+    private static BucketStats createFixedNumberOfBuckets(NumericSeries series, int numberOfBuckets,
+        int bucketWidthSeconds) {
+        return Downsampler.periodic(series.getTimestamp(0), bucketWidthSeconds * 1000L, numberOfBuckets)
+            .downsample(series);
+    }
+
+    private class FlattenBuckets extends MetricMapper<BucketedOutput> {
 
         private int numberOfBuckets;
         private boolean skipEmpty;
         private int bucketWidthSeconds;
+        private double[] percentiles;
 
-        public FlattenBuckets(int numberOfBuckets, int bucketWidthSeconds, boolean skipEmpty) {
+        public FlattenBuckets(int numberOfBuckets, int bucketWidthSeconds, boolean skipEmpty, double[] percentiles) {
             this.numberOfBuckets = numberOfBuckets;
             this.bucketWidthSeconds = bucketWidthSeconds;
             this.skipEmpty = skipEmpty;
+            this.percentiles = percentiles;
         }
 
         @Override
-        public BucketedOutput apply(List<? extends Object> args) {
+        public BucketedOutput doApply(NumericSeries series) {
             // Now that stuff is in buckets - we need to "flatten" them out.
             // As we collapse stuff from a lot of input timestamps into some
             // buckets, we only use a relative time for the bucket timestamps.
-            NumericMetric metric = (NumericMetric) args.get(0);
-            TLongObjectMap<List<NumericData>> buckets = (TLongObjectMap<List<NumericData>>) args.get(1);
-            BucketedOutput output = new BucketedOutput(metric.getTenantId(), metric.getId().getName(),
-                MetricUtils.flattenTags(metric.getTags()));
+            BucketStats stats = createFixedNumberOfBuckets(series, numberOfBuckets, bucketWidthSeconds);
+            BucketedOutput output = new BucketedOutput(series.getTenantId(), series.getId().getName(),
+                MetricUtils.flattenTags(series.getTags()));
             for (int i = 0; i < numberOfBuckets; ++i) {
-                List<NumericData> tmpList = buckets.get(i);
-                if (tmpList == null) {
-                    if (!skipEmpty) {
-                        output.add(new BucketDataPoint(metric.getId().getName(), 1000 * i * bucketWidthSeconds, NaN,
-                            NaN, NaN));
-                    }
-                } else {
-                    output.add(getBucketDataPoint(tmpList.get(0).getMetric().getId().getName(),
-                        1000L * i * bucketWidthSeconds, tmpList));
+                if (!skipEmpty || !stats.isEmpty(i)) {
+                    output.add(getBucketDataPoint(series.getId().getName(), 1000L * i * bucketWidthSeconds, stats,
+                        i, percentiles));
                 }
             }
             return output;
         }
     }
 
-    private class ClusterBucketData implements Function<List<? extends Object>, BucketedOutput> {
+    private class ClusterBucketData extends MetricMapper<BucketedOutput> {
 
         private int numberOfBuckets;
         private int bucketWidthSeconds;
@@ -661,22 +1199,19 @@ public class MetricHandler {
         }
 
         @Override
-        public BucketedOutput apply(List<? extends Object> args) {
+        public BucketedOutput doApply(NumericSeries series) {
             // We want to keep the raw values, but put them into clusters anyway
             // without collapsing them into a single min/avg/max tuple
-            NumericMetric metric = (NumericMetric) args.get(0);
-            TLongObjectMap<List<NumericData>> buckets = (TLongObjectMap<List<NumericData>>) args.get(1);
-            BucketedOutput output = new BucketedOutput(metric.getTenantId(), metric.getId().getName(),
-                MetricUtils.flattenTags(metric.getTags()));
+            BucketStats stats = createFixedNumberOfBuckets(series, numberOfBuckets, bucketWidthSeconds);
+            BucketedOutput output = new BucketedOutput(series.getTenantId(), series.getId().getName(),
+                MetricUtils.flattenTags(series.getTags()));
             for (int i = 0; i < numberOfBuckets; ++i) {
-                List<NumericData> tmpList = buckets.get(i);
-                if (tmpList != null) {
-                    for (NumericData d : tmpList) {
-                        BucketDataPoint p = new BucketDataPoint(metric.getId().getName(),
-                            1000L * i * bucketWidthSeconds, NaN, d.getValue(), NaN);
-                        p.setValue(d.getValue());
-                        output.add(p);
-                    }
+                for (int j = 0; j < stats.getSize(i); ++j) {
+                    double value = series.getValue(stats.getIndex(i, j));
+                    BucketDataPoint p = new BucketDataPoint(series.getId().getName(),
+                        1000L * i * bucketWidthSeconds, NaN, value, NaN);
+                    p.setValue(value);
+                    output.add(p);
                 }
             }
             return output;
@@ -730,20 +1265,153 @@ public class MetricHandler {
         });
     }
 
+    @GET
+    @ApiOperation(value = "Retrieve histogram data.", notes = "Without buckets, every stored histogram is returned "
+            + "as a bucket of its own. With buckets, the histograms are merged into equally spaced buckets.",
+            response = BucketedOutput.class)
+    @ApiResponses(value = { @ApiResponse(code = 200, message = "Successfully fetched histogram data."),
+            @ApiResponse(code = 204, message = "No histogram data was found."),
+            @ApiResponse(code = 400, message = "The number of buckets, the percentiles or the time range are invalid."),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching histogram data.")})
+    @Path("/{tenantId}/metrics/histogram/{id}/data")
+    public void findHistogramData(@Suspended final AsyncResponse asyncResponse,
+        @PathParam("tenantId") String tenantId, @PathParam("id") final String id,
+        @ApiParam(value = "Defaults to now - 8 hours", required = false) @QueryParam("start") Long start,
+        @ApiParam(value = "Defaults to now", required = false) @QueryParam("end") Long end,
+        @ApiParam(value = "The number of buckets in which to divide the time range", required = false)
+        @QueryParam("buckets") Integer numberOfBuckets,
+        @QueryParam("skipEmpty") @DefaultValue("false") final boolean skipEmpty,
+        @ApiParam(value = "Comma-separated list of percentiles to estimate for each bucket")
+        @QueryParam("percentiles") @DefaultValue("50,95,99") String percentiles) {
+
+        long now = System.currentTimeMillis();
+        if (start == null) {
+            start = now - EIGHT_HOURS;
+        }
+        if (end == null) {
+            end = now;
+        }
+
+        if (numberOfBuckets != null && numberOfBuckets <= 0) {
+            asyncResponse.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg",
+                "The number of buckets must be greater than zero")).type(APPLICATION_JSON_TYPE).build());
+            return;
+        }
+        double[] quantiles = decodePercentiles(percentiles);
+        if (quantiles == null) {
+            asyncResponse.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg",
+                "[" + percentiles + "] is not a valid list of percentiles. The expected format is 50,95,99"))
+                .type(APPLICATION_JSON_TYPE).build());
+            return;
+        }
+
+        final long startTime = start;
+        final long endTime = end;
+        HistogramMetric metric = new HistogramMetric(tenantId, new MetricId(id));
+        ListenableFuture<HistogramMetric> future = metricsService.findHistogramData(metric, start, end);
+        Futures.addCallback(future, new FutureCallback<HistogramMetric>() {
+            @Override
+            public void onSuccess(HistogramMetric metric) {
+                if (metric == null) {
+                    asyncResponse.resume(Response.ok().status(Status.NO_CONTENT).build());
+                } else if (numberOfBuckets == null) {
+                    BucketedOutput output = new BucketedOutput(metric.getTenantId(), metric.getId().getName(),
+                        MetricUtils.flattenTags(metric.getTags()));
+                    for (HistogramData d : metric.getData()) {
+                        output.add(getHistogramDataPoint(metric.getId().getName(), d.getTimestamp(), d.getSketch(),
+                            quantiles));
+                    }
+                    asyncResponse.resume(Response.ok(output).type(APPLICATION_JSON_TYPE).build());
+                } else {
+                    asyncResponse.resume(Response.ok(createHistogramBuckets(metric, startTime, endTime,
+                        numberOfBuckets, skipEmpty, quantiles)).type(APPLICATION_JSON_TYPE).build());
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof IllegalArgumentException) {
+                    asyncResponse.resume(Response.status(Status.BAD_REQUEST).entity(ImmutableMap.of("errorMsg",
+                        t.getMessage())).type(APPLICATION_JSON_TYPE).build());
+                    return;
+                }
+                Map<String, String> errors = ImmutableMap.of("errorMsg", "Failed to retrieve data due to " +
+                    "an unexpected error: " + Throwables.getRootCause(t).getMessage());
+                asyncResponse.resume(Response.status(Status.INTERNAL_SERVER_ERROR).entity(errors)
+                    .type(APPLICATION_JSON_TYPE).build());
+            }
+        });
+    }
+
+    /**
+     * Merges the histograms of the metric into equally spaced buckets. A histogram is put in the bucket in which its
+     * interval starts.
+     */
+    static BucketedOutput createHistogramBuckets(HistogramMetric metric, long start, long end, int numberOfBuckets,
+        boolean skipEmpty, double[] percentiles) {
+        Downsampler downsampler = new Downsampler(start, Math.max(1, (end - start) / numberOfBuckets),
+            numberOfBuckets);
+        QuantileSketch[] sketches = new QuantileSketch[numberOfBuckets];
+        for (int i = 0; i < numberOfBuckets; ++i) {
+            sketches[i] = new QuantileSketch();
+        }
+        for (HistogramData d : metric.getData()) {
+            int bucket = downsampler.getBucket(d.getTimestamp());
+            if (bucket >= 0) {
+                sketches[bucket].merge(d.getSketch());
+            }
+        }
+        BucketedOutput output = new BucketedOutput(metric.getTenantId(), metric.getId().getName(),
+            MetricUtils.flattenTags(metric.getTags()));
+        for (int i = 0; i < numberOfBuckets; ++i) {
+            if (!skipEmpty || !sketches[i].isEmpty()) {
+                output.add(getHistogramDataPoint(metric.getId().getName(), downsampler.getBucketStart(i),
+                    sketches[i], percentiles));
+            }
+        }
+        return output;
+    }
+
+    /**
+     * @return A count/min/avg/max data point with estimated percentiles, which is NaN if the sketch is empty
+     */
+    static HistogramBucketDataPoint getHistogramDataPoint(String id, long timestamp, QuantileSketch sketch,
+        double[] percentiles) {
+        if (sketch.isEmpty()) {
+            return new HistogramBucketDataPoint(id, timestamp, NaN, NaN, NaN, 0);
+        }
+        HistogramBucketDataPoint dataPoint = new HistogramBucketDataPoint(id, timestamp, sketch.getMin(),
+            sketch.getSum() / sketch.getCount(), sketch.getMax(), sketch.getCount());
+        for (double percentile : percentiles) {
+            dataPoint.getPercentiles().add(new Percentile(percentile, sketch.getQuantile(percentile / 100)));
+        }
+        return dataPoint;
+    }
+
     @POST
-    @ApiOperation(value = "Add or update numeric metric's tags.")
+    @ApiOperation(value = "Add or update numeric metric's tags.", notes = "The data of several metrics can be "
+            + "tagged at once by listing them in metrics, which is much faster than tagging them one at a time.")
     @ApiResponses(value = { @ApiResponse(code = 200, message = "Tags were modified successfully.")})
     @Path("/{tenantId}/tags/numeric")
     public void tagNumericData(@Suspended final AsyncResponse asyncResponse, @PathParam("tenantId") String tenantId,
         @ApiParam(required = true) TagParams params) {
         ListenableFuture<List<NumericData>> future;
-        NumericMetric metric = new NumericMetric(tenantId, new MetricId(params.getMetric()));
-        if (params.getTimestamp() != null) {
-            future = metricsService.tagNumericData(metric, MetricUtils.getTags(params.getTags()),
-                params.getTimestamp());
+        if (params.getMetrics().isEmpty()) {
+            NumericMetric metric = new NumericMetric(tenantId, new MetricId(params.getMetric()));
+            if (params.getTimestamp() != null) {
+                future = metricsService.tagNumericData(metric, MetricUtils.getTags(params.getTags()),
+                    params.getTimestamp());
+            } else {
+                future = metricsService.tagNumericData(metric, MetricUtils.getTags(params.getTags()),
+                    params.getStart(), params.getEnd());
+            }
         } else {
-            future = metricsService.tagNumericData(metric, MetricUtils.getTags(params.getTags()), params.getStart(),
-                params.getEnd());
+            List<NumericMetric> metrics = new ArrayList<>();
+            for (String id : getMetricIds(params)) {
+                metrics.add(new NumericMetric(tenantId, new MetricId(id)));
+            }
+            future = metricsService.tagNumericData(metrics, MetricUtils.getTags(params.getTags()),
+                getStart(params), getEnd(params));
         }
         Futures.addCallback(future, new FutureCallback<List<NumericData>>() {
             @Override
@@ -759,19 +1427,29 @@ public class MetricHandler {
     }
 
     @POST
-    @ApiOperation(value = "Add or update availability metric's tags.")
+    @ApiOperation(value = "Add or update availability metric's tags.", notes = "The data of several metrics can "
+            + "be tagged at once by listing them in metrics, which is much faster than tagging them one at a time.")
     @ApiResponses(value = { @ApiResponse(code = 200, message = "Tags were modified successfully.")})
     @Path("/{tenantId}/tags/availability")
     public void tagAvailabilityData(@Suspended final AsyncResponse asyncResponse,
         @PathParam("tenantId") String tenantId, @ApiParam(required = true) TagParams params) {
         ListenableFuture<List<Availability>> future;
-        AvailabilityMetric metric = new AvailabilityMetric(tenantId, new MetricId(params.getMetric()));
-        if (params.getTimestamp() != null) {
-            future = metricsService.tagAvailabilityData(metric, MetricUtils.getTags(params.getTags()),
-                params.getTimestamp());
+        if (params.getMetrics().isEmpty()) {
+            AvailabilityMetric metric = new AvailabilityMetric(tenantId, new MetricId(params.getMetric()));
+            if (params.getTimestamp() != null) {
+                future = metricsService.tagAvailabilityData(metric, MetricUtils.getTags(params.getTags()),
+                    params.getTimestamp());
+            } else {
+                future = metricsService.tagAvailabilityData(metric, MetricUtils.getTags(params.getTags()),
+                    params.getStart(), params.getEnd());
+            }
         } else {
-            future = metricsService.tagAvailabilityData(metric, MetricUtils.getTags(params.getTags()),
-                params.getStart(), params.getEnd());
+            List<AvailabilityMetric> metrics = new ArrayList<>();
+            for (String id : getMetricIds(params)) {
+                metrics.add(new AvailabilityMetric(tenantId, new MetricId(id)));
+            }
+            future = metricsService.tagAvailabilityData(metrics, MetricUtils.getTags(params.getTags()),
+                getStart(params), getEnd(params));
         }
         Futures.addCallback(future, new FutureCallback<List<Availability>>() {
             @Override
@@ -786,6 +1464,23 @@ public class MetricHandler {
         });
     }
 
+    private static List<String> getMetricIds(TagParams params) {
+        List<String> ids = new ArrayList<>(params.getMetrics());
+        if (params.getMetric() != null && !ids.contains(params.getMetric())) {
+            ids.add(params.getMetric());
+        }
+        return ids;
+    }
+
+    // A timestamp tags the data point at that time, which is the range [timestamp, timestamp + 1)
+    private static long getStart(TagParams params) {
+        return params.getTimestamp() == null ? params.getStart() : params.getTimestamp();
+    }
+
+    private static long getEnd(TagParams params) {
+        return params.getTimestamp() == null ? params.getEnd() : params.getTimestamp() + 1;
+    }
+
     @GET
     @ApiOperation(value = "Find numeric metric data with given tags.", response = MetricOut.class,
             responseContainer = "List")
@@ -795,9 +1490,18 @@ public class MetricHandler {
     public void findTaggedNumericData(@Suspended final AsyncResponse asyncResponse,
         @PathParam("tenantId") String tenantId,
         @ApiParam(allowMultiple = true, required = true, value = "A list of tags in the format of name:value")
-        @PathParam("tag") String encodedTag) {
+        @PathParam("tag") String encodedTag,
+        @ApiParam(value = "Defaults to now - 8 hours", required = false) @QueryParam("start") Long start,
+        @ApiParam(value = "Defaults to now", required = false) @QueryParam("end") Long end) {
+        long now = System.currentTimeMillis();
+        if (start == null) {
+            start = now - EIGHT_HOURS;
+        }
+        if (end == null) {
+            end = now;
+        }
         ListenableFuture<Map<MetricId, Set<NumericData>>> future = metricsService.findNumericDataByTags(
-                tenantId, MetricUtils.decodeTags(encodedTag));
+                tenantId, MetricUtils.decodeTags(encodedTag), start, end);
         Futures.addCallback(future, new FutureCallback<Map<MetricId, Set<NumericData>>>() {
             @Override
             public void onSuccess(Map<MetricId, Set<NumericData>> taggedDataMap) {
@@ -845,9 +1549,18 @@ public class MetricHandler {
     public void findTaggedAvailabilityData(@Suspended final AsyncResponse asyncResponse,
         @PathParam("tenantId") String tenantId,
         @ApiParam(allowMultiple = true, required = true, value = "A list of tags in the format of name:value")
-        @PathParam("tag") String encodedTag) {
+        @PathParam("tag") String encodedTag,
+        @ApiParam(value = "Defaults to now - 8 hours", required = false) @QueryParam("start") Long start,
+        @ApiParam(value = "Defaults to now", required = false) @QueryParam("end") Long end) {
+        long now = System.currentTimeMillis();
+        if (start == null) {
+            start = now - EIGHT_HOURS;
+        }
+        if (end == null) {
+            end = now;
+        }
         ListenableFuture<Map<MetricId, Set<Availability>>> future = metricsService.findAvailabilityByTags(tenantId,
-            MetricUtils.decodeTags(encodedTag));
+            MetricUtils.decodeTags(encodedTag), start, end);
         Futures.addCallback(future, new FutureCallback<Map<MetricId, Set<Availability>>>() {
             @Override
             public void onSuccess(Map<MetricId, Set<Availability>> taggedDataMap) {
@@ -1000,25 +1713,44 @@ public class MetricHandler {
     @GET
     @Path("/{tenantId}/metrics")
     @Produces(APPLICATION_JSON)
-    @ApiOperation(value = "Find tenant's metric definitions.", notes = "Does not include any metric values. ",
+    @ApiOperation(value = "Find tenant's metric definitions.", notes = "Does not include any metric values. "
+            + "The metrics can be filtered by their tags. A tag filter is a value, values separated by | to match "
+            + "any of them, values prefixed with ! to match metrics without any of them, or * to match any value.",
             response = MetricOut.class, responseContainer = "List")
     @ApiResponses(value = { @ApiResponse(code = 200, message = "Successfully retrieved at least one metric "
             + "definition."),
             @ApiResponse(code = 204, message = "No metrics found."),
-            @ApiResponse(code = 400, message = "Given type is not a valid type."),
+            @ApiResponse(code = 400, message = "Given type is not a valid type or the tag filters are invalid."),
             @ApiResponse(code = 500, message = "Failed to retrieve metrics due to unexpected error.")})
     public void findMetrics(@Suspended final AsyncResponse response, @PathParam("tenantId") final String tenantId,
-        @ApiParam(value = "Queried metric type", required = true, allowableValues = "[num, avail, log]")
-        @QueryParam("type") String type) {
+        @ApiParam(value = "Queried metric type", required = true, allowableValues = "[num, avail, hist, log]")
+        @QueryParam("type") String type,
+        @ApiParam(value = "Tag filters, all of which have to match", required = false,
+            allowableValues = "Comma-separated list of name:filter pairs")
+        @QueryParam("tags") String tags) {
         MetricType metricType = null;
         try {
             metricType = MetricType.fromTextCode(type);
         } catch (IllegalArgumentException e) {
             ImmutableMap<String, String> errors = ImmutableMap.of("errorMsg", "[" + type + "] is not a valid type. " +
-                "Accepted values are num|avail|log");
+                "Accepted values are num|avail|hist|log");
             response.resume(Response.status(Status.BAD_REQUEST).entity(errors).type(APPLICATION_JSON_TYPE).build());
+            return;
+        }
+        ListenableFuture<List<Metric>> future;
+        if (tags == null) {
+            future = metricsService.findMetrics(tenantId, metricType);
+        } else {
+            Map<String, String> tagFilters = decodeTagFilters(tags);
+            if (tagFilters == null) {
+                ImmutableMap<String, String> errors = ImmutableMap.of("errorMsg", "[" + tags + "] is not a valid "
+                    + "list of tag filters. The expected format is name1:filter1,name2:filter2");
+                response.resume(Response.status(Status.BAD_REQUEST).entity(errors).type(APPLICATION_JSON_TYPE)
+                    .build());
+                return;
+            }
+            future = metricsService.findMetricsWithTags(tenantId, metricType, tagFilters);
         }
-        ListenableFuture<List<Metric>> future = metricsService.findMetrics(tenantId, metricType);
         Futures.addCallback(future, new FutureCallback<List<Metric>>() {
             @Override
             public void onSuccess(List<Metric> metrics) {
@@ -1044,48 +1776,68 @@ public class MetricHandler {
         });
     }
 
-//    static BucketDataPoint createPointInSimpleBucket(String id, long startTime, long bucketsize,
-//        List<NumericData> metrics) {
-//        List<NumericData> bucketMetrics = new ArrayList<>(metrics.size());
-//        // Find matching metrics
-//        for (NumericData raw : metrics) {
-//            if (raw.getTimestamp() >= startTime && raw.getTimestamp() < startTime + bucketsize) {
-//                bucketMetrics.add((NumericData) raw);
-//            }
-//        }
-//
-//        return getBucketDataPoint(id, startTime, bucketMetrics);
-//    }
-
-    static long findBucket(long[] buckets, long bucketSize, long timestamp) {
-        return stream(buckets).filter(bucket -> timestamp >= bucket && timestamp < bucket + bucketSize)
-            .findFirst().getAsLong();
+    /**
+     * Decodes tag filters in the format name1:filter1,name2:filter2. The filter is everything after the first colon.
+     *
+     * @return The filters keyed by tag name, or null if the filters are malformed
+     */
+    static Map<String, String> decodeTagFilters(String tags) {
+        Map<String, String> filters = new HashMap<>();
+        for (String tag : tags.split(",")) {
+            int separator = tag.indexOf(':');
+            if (separator <= 0 || separator == tag.length() - 1) {
+                return null;
+            }
+            filters.put(tag.substring(0, separator), tag.substring(separator + 1));
+        }
+        return filters;
     }
 
-    static BucketDataPoint getBucketDataPoint(String id, long startTime, List<NumericData> bucketMetrics) {
-
-        Double min = null;
-        Double max = null;
-        double sum = 0;
-        for (NumericData raw : bucketMetrics) {
-            if (max==null || raw.getValue() > max) {
-                max = raw.getValue();
+    /**
+     * Decodes a comma-separated list of percentiles between 0 and 100.
+     *
+     * @return The percentiles, which are empty if the list is null or empty, or null if the list is malformed
+     */
+    static double[] decodePercentiles(String percentiles) {
+        if (percentiles == null || percentiles.trim().isEmpty()) {
+            return new double[0];
+        }
+        String[] items = percentiles.split(",");
+        double[] decoded = new double[items.length];
+        for (int i = 0; i < items.length; ++i) {
+            try {
+                decoded[i] = Double.parseDouble(items[i].trim());
+            } catch (NumberFormatException e) {
+                return null;
             }
-            if (min==null || raw.getValue() < min) {
-                min = raw.getValue();
+            if (!(decoded[i] >= 0 && decoded[i] <= 100)) {
+                return null;
             }
-            sum += raw.getValue();
-        }
-        double avg = bucketMetrics.size()>0 ? sum / bucketMetrics.size() : NaN;
-        if (min == null) {
-            min = NaN;
         }
-        if (max == null) {
-            max = NaN;
-        }
-        BucketDataPoint result = new BucketDataPoint(id,startTime,min, avg,max);
+        return decoded;
+    }
 
-        return result;
+    /**
+     * @return A min/avg/max data point for the bucket, which is NaN if the bucket is empty
+     */
+    static BucketDataPoint getBucketDataPoint(String id, long timestamp, BucketStats stats, int bucket) {
+        return new BucketDataPoint(id, timestamp, stats.getMin(bucket), stats.getAvg(bucket), stats.getMax(bucket));
+    }
+
+    /**
+     * Like {@link #getBucketDataPoint(String, long, BucketStats, int)} but with percentiles estimated from the quantile
+     * sketch of the bucket. Percentiles are left out for buckets for which they cannot be estimated, e.g., empty ones.
+     */
+    static BucketDataPoint getBucketDataPoint(String id, long timestamp, BucketStats stats, int bucket,
+        double[] percentiles) {
+        BucketDataPoint dataPoint = getBucketDataPoint(id, timestamp, stats, bucket);
+        for (double percentile : percentiles) {
+            double value = stats.getEstimatedPercentile(bucket, percentile);
+            if (!Double.isNaN(value)) {
+                dataPoint.getPercentiles().add(new Percentile(percentile, value));
+            }
+        }
+        return dataPoint;
     }
 
 }
@@ -18,20 +18,20 @@ package org.hawkular.metrics.api.jaxrs;
 
 import com.google.common.base.Function;
 
-import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.api.NumericSeries;
 
 /**
  * @author John Sanda
  */
-public abstract class MetricMapper<T> implements Function<NumericMetric, T> {
+public abstract class MetricMapper<T> implements Function<NumericSeries, T> {
 
     @Override
-    public T apply(NumericMetric metric) {
-        if (metric == null) {
+    public T apply(NumericSeries series) {
+        if (series.isEmpty()) {
             throw new NoResultsException();
         }
-        return doApply(metric);
+        return doApply(series);
     }
 
-    abstract T doApply(NumericMetric metric);
+    abstract T doApply(NumericSeries series);
 }
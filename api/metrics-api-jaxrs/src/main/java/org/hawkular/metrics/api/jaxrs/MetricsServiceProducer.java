@@ -16,9 +16,37 @@
  */
 package org.hawkular.metrics.api.jaxrs;
 
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.AGGREGATION_THREADS;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.CASSANDRA_CQL_PORT;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.CASSANDRA_KEYSPACE;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.CASSANDRA_NODES;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.COMPRESSION;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.CONNECT_TIMEOUT;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.CORE_CONNECTIONS;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.DATA_PARTITION_SIZE;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.FETCH_SIZE;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.LOCAL_DATACENTER;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.MAX_AGGREGATED_SERIES;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.MAX_CONNECTIONS;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.MAX_QUERY_PARTITIONS;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.MAX_REQUESTS_PER_CONNECTION;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.METRICS_INDEX_CACHE_EXPIRATION;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.METRICS_INDEX_CACHE_SIZE;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.METRIC_CACHE_EXPIRATION;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.METRIC_CACHE_SIZE;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.PAGE_SIZE;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.PARTITION_QUERY_PARALLELISM;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.READ_LEGACY_PARTITION;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.READ_LEGACY_TAGS;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.READ_TIMEOUT;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.RETENTIONS_CACHE_SIZE;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.TAG_INDEX_RELOAD_INTERVAL;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.TASK_THREADS;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.TENANTS_REFRESH_INTERVAL;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.WRITE_BATCHES_IN_FLIGHT;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.WRITE_BATCH_BYTES;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.WRITE_BATCH_ROWS;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.WRITE_QUEUE_SIZE;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -58,6 +86,146 @@ public class MetricsServiceProducer {
     @ConfigurationProperty(CASSANDRA_KEYSPACE)
     private String keyspace;
 
+    @Inject
+    @Configurable
+    @ConfigurationProperty(DATA_PARTITION_SIZE)
+    private String partitionSize;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(PAGE_SIZE)
+    private String pageSize;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(PARTITION_QUERY_PARALLELISM)
+    private String partitionQueryParallelism;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(MAX_QUERY_PARTITIONS)
+    private String maxQueryPartitions;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(READ_LEGACY_PARTITION)
+    private String readLegacyPartition;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(READ_LEGACY_TAGS)
+    private String readLegacyTags;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(WRITE_BATCH_ROWS)
+    private String writeBatchRows;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(WRITE_BATCH_BYTES)
+    private String writeBatchBytes;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(WRITE_BATCHES_IN_FLIGHT)
+    private String writeBatchesInFlight;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(WRITE_QUEUE_SIZE)
+    private String writeQueueSize;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(METRICS_INDEX_CACHE_SIZE)
+    private String metricsIndexCacheSize;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(METRICS_INDEX_CACHE_EXPIRATION)
+    private String metricsIndexCacheExpiration;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(METRIC_CACHE_SIZE)
+    private String metricCacheSize;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(METRIC_CACHE_EXPIRATION)
+    private String metricCacheExpiration;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(RETENTIONS_CACHE_SIZE)
+    private String retentionsCacheSize;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(TENANTS_REFRESH_INTERVAL)
+    private String tenantsRefreshInterval;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(TAG_INDEX_RELOAD_INTERVAL)
+    private String tagIndexReloadInterval;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(TASK_THREADS)
+    private String taskThreads;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(AGGREGATION_THREADS)
+    private String aggregationThreads;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(MAX_AGGREGATED_SERIES)
+    private String maxAggregatedSeries;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(LOCAL_DATACENTER)
+    private String localDataCenter;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(COMPRESSION)
+    private String compression;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(CORE_CONNECTIONS)
+    private String coreConnections;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(MAX_CONNECTIONS)
+    private String maxConnections;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(MAX_REQUESTS_PER_CONNECTION)
+    private String maxRequestsPerConnection;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(CONNECT_TIMEOUT)
+    private String connectTimeout;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(READ_TIMEOUT)
+    private String readTimeout;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(FETCH_SIZE)
+    private String fetchSize;
+
     private MetricsService metricsService;
 
     @PostConstruct
@@ -74,6 +242,34 @@ public class MetricsServiceProducer {
             options.put("cqlport", cqlPort);
             options.put("nodes", nodes);
             options.put("keyspace", keyspace);
+            options.put("partition-size", partitionSize);
+            options.put("page-size", pageSize);
+            options.put("partition-query-parallelism", partitionQueryParallelism);
+            options.put("max-query-partitions", maxQueryPartitions);
+            options.put("read-legacy-partition", readLegacyPartition);
+            options.put("read-legacy-tags", readLegacyTags);
+            options.put("write-batch-rows", writeBatchRows);
+            options.put("write-batch-bytes", writeBatchBytes);
+            options.put("write-batches-in-flight", writeBatchesInFlight);
+            options.put("write-queue-size", writeQueueSize);
+            options.put("metrics-index-cache-size", metricsIndexCacheSize);
+            options.put("metrics-index-cache-expiration", metricsIndexCacheExpiration);
+            options.put("metric-cache-size", metricCacheSize);
+            options.put("metric-cache-expiration", metricCacheExpiration);
+            options.put("retentions-cache-size", retentionsCacheSize);
+            options.put("tenants-refresh-interval", tenantsRefreshInterval);
+            options.put("tag-index-reload-interval", tagIndexReloadInterval);
+            options.put("task-threads", taskThreads);
+            options.put("aggregation-threads", aggregationThreads);
+            options.put("max-aggregated-series", maxAggregatedSeries);
+            options.put("local-datacenter", localDataCenter);
+            options.put("compression", compression);
+            options.put("core-connections", coreConnections);
+            options.put("max-connections", maxConnections);
+            options.put("max-requests-per-connection", maxRequestsPerConnection);
+            options.put("connect-timeout", connectTimeout);
+            options.put("read-timeout", readTimeout);
+            options.put("fetch-size", fetchSize);
 
             metricsServiceBuilder.withOptions(options);
             metricsService = metricsServiceBuilder.build();
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Writes the results of a multi-metric query as a JSON array while the queries are still running. The results are
+ * written in the order of the queries, each one as soon as it and those before it are available, so the client
+ * receives the first metrics without waiting for the slowest one. Metrics without data are left out.
+ */
+public class MultiMetricStreamingOutput implements StreamingOutput {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final List<ListenableFuture<Object>> results;
+
+    /**
+     * @param results The output of each metric, e.g., a {@link MetricOut} or a {@link BucketedOutput}. A result that
+     *                fails with {@link NoResultsException} is skipped.
+     */
+    public MultiMetricStreamingOutput(List<ListenableFuture<Object>> results) {
+        this.results = results;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        JsonGenerator generator = MAPPER.getFactory().createGenerator(output);
+        generator.writeStartArray();
+        for (ListenableFuture<Object> result : results) {
+            Object value;
+            try {
+                value = Uninterruptibles.getUninterruptibly(result);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof NoResultsException) {
+                    continue;
+                }
+                // The status code has already been sent, so all we can do is abort the response
+                throw new IOException("Failed to retrieve data", e.getCause());
+            }
+            generator.writeObject(value);
+            generator.flush();
+        }
+        generator.writeEndArray();
+        generator.flush();
+    }
+}
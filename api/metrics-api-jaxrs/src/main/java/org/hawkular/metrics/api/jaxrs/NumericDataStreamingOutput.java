@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.hawkular.metrics.core.api.Metric;
+import org.hawkular.metrics.core.api.NumericData;
+import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.impl.cassandra.MetricUtils;
+
+/**
+ * Writes numeric data in the same JSON format as {@link MetricOut} while it is being read from the database. Data
+ * points are written out as soon as they are read rather than after the whole time range has been loaded. The
+ * response therefore does not have to be held in memory, and clients receive the first data points sooner.
+ */
+public class NumericDataStreamingOutput implements StreamingOutput {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final String tenantId;
+
+    private final String name;
+
+    private final Map<String, String> tags;
+
+    private final Integer dataRetention;
+
+    private final Iterator<NumericData> data;
+
+    /**
+     * @param metric The queried metric
+     * @param metadata The metric as stored in the metrics index, which provides the tags and data retention. It can
+     *                 be null if the metric was not explicitly created.
+     * @param data The data points to write
+     */
+    public NumericDataStreamingOutput(NumericMetric metric, Metric<?> metadata, Iterator<NumericData> data) {
+        this.tenantId = metric.getTenantId();
+        this.name = metric.getId().getName();
+        if (metadata == null) {
+            this.tags = MetricUtils.flattenTags(metric.getTags());
+            this.dataRetention = metric.getDataRetention();
+        } else {
+            this.tags = MetricUtils.flattenTags(metadata.getTags());
+            this.dataRetention = metadata.getDataRetention();
+        }
+        this.data = data;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        // The generator buffers a few kilobytes at a time before writing them to the output
+        JsonGenerator generator = JSON_FACTORY.createGenerator(output);
+        generator.writeStartObject();
+        generator.writeStringField("tenantId", tenantId);
+        generator.writeStringField("name", name);
+        writeTags(generator, tags);
+        generator.writeArrayFieldStart("data");
+        while (data.hasNext()) {
+            NumericData d = data.next();
+            generator.writeStartObject();
+            generator.writeNumberField("timestamp", d.getTimestamp());
+            generator.writeNumberField("value", d.getValue());
+            writeTags(generator, MetricUtils.flattenTags(d.getTags()));
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        if (dataRetention != null) {
+            generator.writeNumberField("dataRetention", dataRetention);
+        }
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    private static void writeTags(JsonGenerator generator, Map<String, String> tags) throws IOException {
+        if (tags.isEmpty()) {
+            return;
+        }
+        generator.writeObjectFieldStart("tags");
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            generator.writeStringField(tag.getKey(), tag.getValue());
+        }
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Objects;
+import com.wordnik.swagger.annotations.ApiModel;
+import com.wordnik.swagger.annotations.ApiModelProperty;
+
+/**
+ * The parameters of a query for the data of several numeric metrics over the same time range.
+ */
+@ApiModel
+public class NumericQueryParams {
+
+    private List<String> ids = new ArrayList<>();
+
+    private String tags;
+
+    private Long start;
+
+    private Long end;
+
+    private int buckets;
+
+    private boolean skipEmpty;
+
+    private String percentiles;
+
+    @ApiModelProperty(value = "The ids of the metrics to query")
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<String> ids) {
+        this.ids = ids;
+    }
+
+    @ApiModelProperty(value = "Tag filters in the format name1:filter1,name2:filter2. The matching metrics are "
+            + "queried in addition to those listed in ids.")
+    public String getTags() {
+        return tags;
+    }
+
+    public void setTags(String tags) {
+        this.tags = tags;
+    }
+
+    @ApiModelProperty(value = "Defaults to now - 8 hours")
+    public Long getStart() {
+        return start;
+    }
+
+    public void setStart(Long start) {
+        this.start = start;
+    }
+
+    @ApiModelProperty(value = "Defaults to now")
+    public Long getEnd() {
+        return end;
+    }
+
+    public void setEnd(Long end) {
+        this.end = end;
+    }
+
+    @ApiModelProperty(value = "The number of buckets in which to divide the time range. Raw data is returned if this "
+            + "is 0.")
+    public int getBuckets() {
+        return buckets;
+    }
+
+    public void setBuckets(int buckets) {
+        this.buckets = buckets;
+    }
+
+    public boolean isSkipEmpty() {
+        return skipEmpty;
+    }
+
+    public void setSkipEmpty(boolean skipEmpty) {
+        this.skipEmpty = skipEmpty;
+    }
+
+    @ApiModelProperty(value = "Comma-separated list of percentiles to estimate for each bucket, e.g., 50,95,99")
+    public String getPercentiles() {
+        return percentiles;
+    }
+
+    public void setPercentiles(String percentiles) {
+        this.percentiles = percentiles;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("ids", ids)
+            .add("tags", tags)
+            .add("start", start)
+            .add("end", end)
+            .add("buckets", buckets)
+            .add("skipEmpty", skipEmpty)
+            .add("percentiles", percentiles)
+            .toString();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import com.google.common.base.Objects;
+import com.wordnik.swagger.annotations.ApiModel;
+import com.wordnik.swagger.annotations.ApiModelProperty;
+
+@ApiModel(value = "An estimated percentile of the data points of a bucket.")
+public class Percentile {
+
+    private double quantile;
+
+    private double value;
+
+    public Percentile() {
+    }
+
+    public Percentile(double quantile, double value) {
+        this.quantile = quantile;
+        this.value = value;
+    }
+
+    @ApiModelProperty(value = "The percentile between 0 and 100, e.g., 95 for the 95th percentile")
+    public double getQuantile() {
+        return quantile;
+    }
+
+    public void setQuantile(double quantile) {
+        this.quantile = quantile;
+    }
+
+    @ApiModelProperty(value = "The estimated value, which is within 1% of the exact one")
+    public double getValue() {
+        return value;
+    }
+
+    public void setValue(double value) {
+        this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Percentile that = (Percentile) o;
+        return Double.compare(quantile, that.quantile) == 0 && Double.compare(value, that.value) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(quantile, value);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("quantile", quantile)
+            .add("value", value)
+            .toString();
+    }
+}
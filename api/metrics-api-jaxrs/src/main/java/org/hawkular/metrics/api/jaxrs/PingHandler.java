@@ -30,6 +30,7 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 
 import com.wordnik.swagger.annotations.ApiOperation;
 
@@ -53,4 +54,16 @@ public class PingHandler {
     public Response ping() {
         return Response.ok(new StringValue(new Date().toString())).build();
     }
+
+    @GET
+    @Path("/ready")
+    @Produces({ APPLICATION_JSON, APPLICATION_XML, APPLICATION_VND_HAWKULAR_WRAPPED_JSON, APPLICATION_JAVASCRIPT })
+    @ApiOperation(value = "Returns 200 once the service has warmed up its caches and 503 while it is still warming "
+            + "up. Requests are served in either case.", response = String.class, responseContainer = "Map")
+    public Response ready() {
+        if (metricsService.isWarmedUp()) {
+            return Response.ok(new StringValue("ready")).build();
+        }
+        return Response.status(Status.SERVICE_UNAVAILABLE).entity(new StringValue("warming up")).build();
+    }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+
+import com.wordnik.swagger.annotations.ApiOperation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the statistics that the metrics service registers as MXBeans, e.g., the latencies of the Cassandra
+ * operations and the queue of the task executor, so that they can be read without a JMX client.
+ */
+@Path("/stats")
+public class StatsHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(StatsHandler.class);
+
+    static final String DOMAIN = "org.hawkular.metrics";
+
+    @GET
+    @Produces(APPLICATION_JSON)
+    @ApiOperation(value = "Returns the internal statistics of the service grouped by type and name. Latencies are in "
+            + "milliseconds.", response = Map.class)
+    public Response getStats() {
+        return Response.ok(getStats(ManagementFactory.getPlatformMBeanServer())).build();
+    }
+
+    static Map<String, Map<String, Map<String, Object>>> getStats(MBeanServer server) {
+        Map<String, Map<String, Map<String, Object>>> stats = new TreeMap<>();
+        try {
+            for (ObjectName name : server.queryNames(new ObjectName(DOMAIN + ":*"), null)) {
+                Map<String, Object> values = new TreeMap<>();
+                try {
+                    MBeanAttributeInfo[] attributes = server.getMBeanInfo(name).getAttributes();
+                    String[] attributeNames = new String[attributes.length];
+                    for (int i = 0; i < attributes.length; ++i) {
+                        attributeNames[i] = attributes[i].getName();
+                    }
+                    for (Attribute attribute : server.getAttributes(name, attributeNames).asList()) {
+                        values.put(attribute.getName(), attribute.getValue());
+                    }
+                } catch (JMException e) {
+                    // The MBean was most likely unregistered in the meantime
+                    LOG.debug("Failed to read the attributes of " + name, e);
+                    continue;
+                }
+                stats.computeIfAbsent(name.getKeyProperty("type"), type -> new TreeMap<>())
+                    .put(name.getKeyProperty("name"), values);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+        return stats;
+    }
+}
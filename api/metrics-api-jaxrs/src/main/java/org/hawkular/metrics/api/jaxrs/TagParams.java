@@ -16,7 +16,9 @@
  */
 package org.hawkular.metrics.api.jaxrs;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.google.common.base.Objects;
@@ -34,6 +36,8 @@ public class TagParams {
 
     private String metric;
 
+    private List<String> metrics = new ArrayList<>();
+
     private String interval;
 
     private String metricType;
@@ -68,6 +72,17 @@ public class TagParams {
         this.metric = metric;
     }
 
+    /**
+     * @return The ids of the metrics to tag along with {@link #getMetric() metric}
+     */
+    public List<String> getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(List<String> metrics) {
+        this.metrics = metrics;
+    }
+
     public String getInterval() {
         return interval;
     }
@@ -113,6 +128,7 @@ public class TagParams {
         return Objects.toStringHelper(this)
             .add("tenantId", tenantId)
             .add("metric", metric)
+            .add("metrics", metrics)
             .add("interval", interval)
             .add("metricType", metricType)
             .add("tags", tags)
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.TENANT_REQUEST_BURST;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.TENANT_REQUEST_RATE;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.hawkular.metrics.api.jaxrs.config.Configurable;
+import org.hawkular.metrics.api.jaxrs.config.ConfigurationProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rejects the requests of a tenant that is over its request rate with a 429 (Too Many Requests) response. The
+ * Retry-After header tells the client how many seconds to wait. Requests are rejected before any work is done for
+ * them, so a single tenant cannot flood the node with queries and writes.
+ *
+ * @see RateLimited
+ */
+@Provider
+@RateLimited
+@ApplicationScoped
+public class TenantRateLimitFilter implements ContainerRequestFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(TenantRateLimitFilter.class);
+
+    public static final int TOO_MANY_REQUESTS = 429;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(TENANT_REQUEST_RATE)
+    private String requestRate;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(TENANT_REQUEST_BURST)
+    private String requestBurst;
+
+    private TenantRateLimiter rateLimiter;
+
+    @PostConstruct
+    void init() {
+        double rate = parse(TENANT_REQUEST_RATE.getExternalForm(), requestRate, 0);
+        int burst = (int) parse(TENANT_REQUEST_BURST.getExternalForm(), requestBurst, rate);
+        rateLimiter = new TenantRateLimiter(rate, burst);
+        if (rate > 0) {
+            LOG.info("Limiting the requests of each tenant to {}/s with bursts of {}", rate, burst);
+        }
+    }
+
+    private static double parse(String key, String value, double defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid value for {}, not a number. Will use a default of {}", key, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        String tenantId = requestContext.getUriInfo().getPathParameters().getFirst("tenantId");
+        if (tenantId == null) {
+            return;
+        }
+        long waitNanos = rateLimiter.tryAcquire(tenantId);
+        if (waitNanos > 0) {
+            long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+            Map<String, String> errors = ImmutableMap.of("errorMsg", "Too many requests for tenant [" + tenantId +
+                "]");
+            requestContext.abortWith(Response.status(TOO_MANY_REQUESTS).header("Retry-After", retryAfter)
+                .entity(errors).type(APPLICATION_JSON_TYPE).build());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Per-tenant token buckets. Each tenant starts with a full bucket of <code>burst</code> tokens that is refilled at
+ * <code>rate</code> tokens per second, and each request takes one token. Buckets of tenants that have been idle for
+ * ten minutes are dropped, which is the same as them being full again.
+ */
+public class TenantRateLimiter {
+
+    private class TokenBucket {
+        private double tokens = burst;
+        private long lastRefill = ticker.getAsLong();
+
+        synchronized long tryAcquire() {
+            long now = ticker.getAsLong();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+    }
+
+    private final double tokensPerNano;
+
+    private final double burst;
+
+    private final LongSupplier ticker;
+
+    private final Cache<String, TokenBucket> buckets = CacheBuilder.newBuilder()
+        .expireAfterAccess(10, TimeUnit.MINUTES)
+        .build();
+
+    /**
+     * @param rate The sustained number of requests per second allowed for each tenant, or 0 for no limit
+     * @param burst The number of requests a tenant can make at once after being idle
+     */
+    public TenantRateLimiter(double rate, int burst) {
+        this(rate, burst, System::nanoTime);
+    }
+
+    TenantRateLimiter(double rate, int burst, LongSupplier ticker) {
+        this.tokensPerNano = rate / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.ticker = ticker;
+    }
+
+    /**
+     * Takes a token from the bucket of the tenant if one is available.
+     *
+     * @return 0 if the request is admitted, or otherwise the number of nanoseconds until a token is available
+     */
+    public long tryAcquire(String tenantId) {
+        if (tokensPerNano <= 0) {
+            return 0;
+        }
+        try {
+            return buckets.get(tenantId, TokenBucket::new).tryAcquire();
+        } catch (ExecutionException e) {
+            // The loader does not throw checked exceptions
+            throw new IllegalStateException(e);
+        }
+    }
+}
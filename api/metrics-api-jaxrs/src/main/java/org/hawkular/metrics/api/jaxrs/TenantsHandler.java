@@ -77,6 +77,8 @@ public class TenantsHandler {
                 tenant.setRetention(MetricType.NUMERIC, params.getRetentions().get(type));
             } else if (type.equals(MetricType.AVAILABILITY.getText())) {
                 tenant.setRetention(MetricType.AVAILABILITY, params.getRetentions().get(type));
+            } else if (type.equals(MetricType.HISTOGRAM.getText())) {
+                tenant.setRetention(MetricType.HISTOGRAM, params.getRetentions().get(type));
             } else {
                 Map<String, String> errors = ImmutableMap.of("errorMessage", "The retentions property is invalid. ["
                     + type + "] is not a recognized metric type");
@@ -130,12 +132,16 @@ public class TenantsHandler {
                     Map<String, Integer> retentions = new HashMap<>();
                     Integer numericRetention = t.getRetentionSettings().get(MetricType.NUMERIC);
                     Integer availabilityRetention = t.getRetentionSettings().get(MetricType.AVAILABILITY);
+                    Integer histogramRetention = t.getRetentionSettings().get(MetricType.HISTOGRAM);
                     if (numericRetention != null) {
                         retentions.put(MetricType.NUMERIC.getText(), numericRetention);
                     }
                     if (availabilityRetention != null) {
                         retentions.put(MetricType.AVAILABILITY.getText(), availabilityRetention);
                     }
+                    if (histogramRetention != null) {
+                        retentions.put(MetricType.HISTOGRAM.getText(), histogramRetention);
+                    }
                     output.add(new TenantParams(t.getId(), retentions));
                 }
                 response.resume(Response.status(Status.OK).entity(output).type(APPLICATION_JSON_TYPE).build());
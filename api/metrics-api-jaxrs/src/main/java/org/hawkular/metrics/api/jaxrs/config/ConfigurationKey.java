@@ -26,7 +26,39 @@ public enum ConfigurationKey {
 
     CASSANDRA_CQL_PORT("hawkular-metrics.cassandra-cql-port"),
     CASSANDRA_NODES("hawkular-metrics.cassandra-nodes"),
-    CASSANDRA_KEYSPACE("cassandra.keyspace");
+    CASSANDRA_KEYSPACE("cassandra.keyspace"),
+    DATA_PARTITION_SIZE("hawkular-metrics.data-partition-size"),
+    PAGE_SIZE("hawkular-metrics.page-size"),
+    PARTITION_QUERY_PARALLELISM("hawkular-metrics.partition-query-parallelism"),
+    MAX_QUERY_PARTITIONS("hawkular-metrics.max-query-partitions"),
+    READ_LEGACY_PARTITION("hawkular-metrics.read-legacy-partition"),
+    READ_LEGACY_TAGS("hawkular-metrics.read-legacy-tags"),
+    WRITE_BATCH_ROWS("hawkular-metrics.write-batch-rows"),
+    WRITE_BATCH_BYTES("hawkular-metrics.write-batch-bytes"),
+    WRITE_BATCHES_IN_FLIGHT("hawkular-metrics.write-batches-in-flight"),
+    WRITE_QUEUE_SIZE("hawkular-metrics.write-queue-size"),
+    METRICS_INDEX_CACHE_SIZE("hawkular-metrics.metrics-index-cache-size"),
+    METRICS_INDEX_CACHE_EXPIRATION("hawkular-metrics.metrics-index-cache-expiration"),
+    METRIC_CACHE_SIZE("hawkular-metrics.metric-cache-size"),
+    METRIC_CACHE_EXPIRATION("hawkular-metrics.metric-cache-expiration"),
+    RETENTIONS_CACHE_SIZE("hawkular-metrics.retentions-cache-size"),
+    TENANTS_REFRESH_INTERVAL("hawkular-metrics.tenants-refresh-interval"),
+    TAG_INDEX_RELOAD_INTERVAL("hawkular-metrics.tag-index-reload-interval"),
+    TASK_THREADS("hawkular-metrics.task-threads"),
+    AGGREGATION_THREADS("hawkular-metrics.aggregation-threads"),
+    MAX_AGGREGATED_SERIES("hawkular-metrics.max-aggregated-series"),
+    TENANT_REQUEST_RATE("hawkular-metrics.tenant-request-rate"),
+    TENANT_REQUEST_BURST("hawkular-metrics.tenant-request-burst"),
+    LOCAL_DATACENTER("hawkular-metrics.local-datacenter"),
+    COMPRESSION("hawkular-metrics.compression"),
+    CORE_CONNECTIONS("hawkular-metrics.core-connections"),
+    MAX_CONNECTIONS("hawkular-metrics.max-connections"),
+    MAX_REQUESTS_PER_CONNECTION("hawkular-metrics.max-requests-per-connection"),
+    CONNECT_TIMEOUT("hawkular-metrics.connect-timeout"),
+    READ_TIMEOUT("hawkular-metrics.read-timeout"),
+    FETCH_SIZE("hawkular-metrics.fetch-size"),
+    QUERY_PARALLELISM("hawkular-metrics.query-parallelism"),
+    MAX_QUERY_METRICS("hawkular-metrics.max-query-metrics");
 
     private String externalForm;
 
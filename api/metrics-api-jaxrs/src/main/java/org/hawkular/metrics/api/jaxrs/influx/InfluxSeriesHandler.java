@@ -25,12 +25,7 @@ import static org.hawkular.metrics.api.jaxrs.influx.query.parse.InfluxQueryParse
 import static org.hawkular.metrics.core.api.MetricsService.DEFAULT_TENANT_ID;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
@@ -54,6 +49,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import org.hawkular.metrics.api.jaxrs.DataInsertedCallback;
+import org.hawkular.metrics.api.jaxrs.RateLimited;
 import org.hawkular.metrics.api.jaxrs.StringValue;
 import org.hawkular.metrics.api.jaxrs.influx.query.InfluxQueryParseTreeWalker;
 import org.hawkular.metrics.api.jaxrs.influx.query.parse.InfluxQueryParser;
@@ -81,6 +77,8 @@ import org.hawkular.metrics.core.api.MetricType;
 import org.hawkular.metrics.core.api.MetricsService;
 import org.hawkular.metrics.core.api.NumericData;
 import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.impl.downsample.BucketStats;
+import org.hawkular.metrics.core.impl.downsample.Downsampler;
 import org.joda.time.Instant;
 import org.joda.time.Interval;
 import org.slf4j.Logger;
@@ -94,6 +92,7 @@ import org.slf4j.LoggerFactory;
 @Path("/tenants/{tenantId}/influx/series")
 @Produces(APPLICATION_JSON)
 @ApplicationScoped
+@RateLimited
 public class InfluxSeriesHandler {
     private static final Logger LOG = LoggerFactory.getLogger(InfluxSeriesHandler.class);
 
@@ -245,7 +244,8 @@ public class InfluxSeriesHandler {
         }
         String columnName = getColumnName(queryDefinitions);
 
-        ListenableFuture<Boolean> idExistsFuture = metricsService.idExists(metric);
+        ListenableFuture<Boolean> idExistsFuture = metricsService.idExists(tenantId, MetricType.NUMERIC,
+            new MetricId(metric));
         ListenableFuture<List<NumericData>> loadMetricsFuture = Futures.transform(idExistsFuture,
                 (AsyncFunction<Boolean, List<NumericData>>) idExists -> {
                     if (idExists != Boolean.TRUE) {
@@ -342,179 +342,117 @@ public class InfluxSeriesHandler {
      * @param endTime  End time of the query
      * @return The mapped list of values, which could be the input or a longer or shorter list
      */
-    private List<NumericData> applyMapping(String aggregationFunction,
+    static List<NumericData> applyMapping(String aggregationFunction,
         List<FunctionArgument> aggregationFunctionArguments, List<NumericData> in, int bucketLengthSec, long startTime,
         long endTime) {
 
-        long timeDiff = endTime - startTime; // Millis
-        int numBuckets = (int) ((timeDiff /1000 ) / bucketLengthSec);
-        Map<Integer,List<NumericData>> tmpMap = new HashMap<>(numBuckets);
-
-        // Bucketize
-        for (NumericData rnm: in) {
-            int pos = (int) ((rnm.getTimestamp()-startTime)/1000) /bucketLengthSec;
-            List<NumericData> bucket = tmpMap.get(pos);
-            if (bucket==null) {
-                bucket = new ArrayList<>();
-                tmpMap.put(pos, bucket);
-            }
-            bucket.add(rnm);
-        }
+        long bucketSize = bucketLengthSec * 1000L;
+        int numBuckets = (int) Math.max(1, (endTime - startTime + bucketSize - 1) / bucketSize);
+        BucketStats stats = new Downsampler(startTime, bucketSize, numBuckets).downsample(in);
 
         List<NumericData> out = new ArrayList<>(numBuckets);
+        AggregationFunction function = AggregationFunction.findByName(aggregationFunction);
         // Apply mapping to buckets to create final value
-        SortedSet<Integer> keySet = new TreeSet<>(tmpMap.keySet());
-        for (Integer pos: keySet ) {
-            List<NumericData> list = tmpMap.get(pos);
+        for (int pos = 0; pos < numBuckets; ++pos) {
+            int size = stats.getSize(pos);
+            if (size == 0) {
+                continue;
+            }
             double retVal = 0.0;
             boolean isSingleValue = true;
-            if (list!=null) {
-                int size = list.size();
-                NumericData lastElementInList = list.get(size - 1);
-                NumericData firstElementInList = list.get(0);
-                AggregationFunction function = AggregationFunction.findByName(aggregationFunction);
-                switch (function) {
-                case MEAN:
-                    for (NumericData rnm : list) {
-                        retVal += rnm.getValue();
-                    }
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Applying mean mapping, total = {}, size = {}", retVal, size);
-                    }
-                    retVal /= size;
-                    break;
-                case MAX:
-                    retVal = Double.MIN_VALUE;
-                    for (NumericData rnm : list) {
-                        if (rnm.getValue() > retVal) {
-                            retVal = rnm.getValue();
-                        }
-                    }
-                    break;
-                case MIN:
-                    retVal = Double.MAX_VALUE;
-                    for (NumericData rnm : list) {
-                        if (rnm.getValue() < retVal) {
-                            retVal = rnm.getValue();
-                        }
-                    }
-                    break;
-                case SUM:
-                    for (NumericData rnm : list) {
-                        retVal += rnm.getValue();
-                    }
-                    break;
-                case COUNT:
-                    retVal = size;
-                    break;
-                case FIRST:
-                    if (!list.isEmpty()) {
-                        retVal = firstElementInList.getValue();
-                    }
-                    break;
-                case LAST:
-                    if (!list.isEmpty()) {
-                        retVal = lastElementInList.getValue();
-                    }
-                    break;
-                case DIFFERENCE:
-                    if (!list.isEmpty()) {
-                        retVal = (lastElementInList.getValue()) - (firstElementInList.getValue());
-                    }
-                    break;
-                case DERIVATIVE:
-                    if (!list.isEmpty()) {
-                        double y = (lastElementInList.getValue()) - (firstElementInList.getValue());
-                        long t = (lastElementInList.getTimestamp() - (firstElementInList.getTimestamp())) / 1000; // sec
-                        retVal = y/(double)t;
-                    }
-                    break;
-                case MEDIAN:
-                    retVal = quantil(list,50.0);
-                    break;
-                case PERCENTILE:
-                    NumberFunctionArgument argument = (NumberFunctionArgument) aggregationFunctionArguments.get(1);
-                    retVal = quantil(list, argument.getDoubleValue());
-                    break;
-                case TOP:
-                    isSingleValue = false;
-                    argument = (NumberFunctionArgument) aggregationFunctionArguments.get(1);
-                    int numberOfTopElement = list.size() < (int)argument.getDoubleValue() ?
-                            list.size() : (int)argument.getDoubleValue();
-                    for(int elementPos =0; elementPos<numberOfTopElement; elementPos++){
-                        out.add(list.get(elementPos));
-                    }
-                    break;
-                case BOTTOM:
-                    isSingleValue = false;
-                    argument = (NumberFunctionArgument) aggregationFunctionArguments.get(1);
-                    int numberOfBottomElement = list.size() < (int)argument.getDoubleValue() ?
-                            list.size() : (int)argument.getDoubleValue();
-                    for(int elementPos = 0; elementPos<numberOfBottomElement; elementPos++){
-                        out.add(list.get(list.size() - 1 - elementPos));
-                    }
-                    break;
-                case HISTOGRAM:
-                case MODE:
-                    int maxCount=0;
-                    for (NumericData rnm : list) {
-                        int count = 0;
-                        for (NumericData rnm2 : list) {
-                            if (rnm.getValue() == rnm2.getValue()){
-                                ++count;
-                            }
-                        }
-                        if (count > maxCount) {
-                            maxCount = count;
-                            retVal = rnm.getValue();
+            NumericData lastElementInList = in.get(stats.getLast(pos));
+            NumericData firstElementInList = in.get(stats.getFirst(pos));
+            switch (function) {
+            case MEAN:
+                retVal = stats.getAvg(pos);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Applying mean mapping, total = {}, size = {}", stats.getSum(pos), size);
+                }
+                break;
+            case MAX:
+                retVal = stats.getMax(pos);
+                break;
+            case MIN:
+                retVal = stats.getMin(pos);
+                break;
+            case SUM:
+                retVal = stats.getSum(pos);
+                break;
+            case COUNT:
+                retVal = size;
+                break;
+            case FIRST:
+                retVal = firstElementInList.getValue();
+                break;
+            case LAST:
+                retVal = lastElementInList.getValue();
+                break;
+            case DIFFERENCE:
+                retVal = (lastElementInList.getValue()) - (firstElementInList.getValue());
+                break;
+            case DERIVATIVE:
+                double y = (lastElementInList.getValue()) - (firstElementInList.getValue());
+                long t = (lastElementInList.getTimestamp() - (firstElementInList.getTimestamp())) / 1000; // sec
+                retVal = y/(double)t;
+                break;
+            case MEDIAN:
+                retVal = stats.getPercentile(pos, 50.0);
+                break;
+            case PERCENTILE:
+                NumberFunctionArgument argument = (NumberFunctionArgument) aggregationFunctionArguments.get(1);
+                retVal = stats.getPercentile(pos, argument.getDoubleValue());
+                break;
+            case TOP:
+                isSingleValue = false;
+                argument = (NumberFunctionArgument) aggregationFunctionArguments.get(1);
+                int numberOfTopElement = size < (int)argument.getDoubleValue() ? size : (int)argument.getDoubleValue();
+                for(int elementPos =0; elementPos<numberOfTopElement; elementPos++){
+                    out.add(in.get(stats.getIndex(pos, elementPos)));
+                }
+                break;
+            case BOTTOM:
+                isSingleValue = false;
+                argument = (NumberFunctionArgument) aggregationFunctionArguments.get(1);
+                int numberOfBottomElement = size < (int)argument.getDoubleValue() ?
+                        size : (int)argument.getDoubleValue();
+                for(int elementPos = 0; elementPos<numberOfBottomElement; elementPos++){
+                    out.add(in.get(stats.getIndex(pos, size - 1 - elementPos)));
+                }
+                break;
+            case HISTOGRAM:
+            case MODE:
+                int maxCount=0;
+                for (int i = 0; i < size; ++i) {
+                    double value = in.get(stats.getIndex(pos, i)).getValue();
+                    int count = 0;
+                    for (int j = 0; j < size; ++j) {
+                        if (value == in.get(stats.getIndex(pos, j)).getValue()) {
+                            ++count;
                         }
                     }
-                    break;
-                case STDDEV:
-                    double meanValue = 0.0;
-                    double sd = 0.0;
-                    for (NumericData rnm : list) {
-                        meanValue += rnm.getValue();
-                    }
-                    meanValue /= size;
-                    for (NumericData rnm : list) {
-                        sd += Math.pow(rnm.getValue() - meanValue, 2) / (size - 1);
+                    if (count > maxCount) {
+                        maxCount = count;
+                        retVal = value;
                     }
-                    retVal = Math.sqrt(sd);
-                    break;
-                default:
-                    LOG.warn("Mapping of '{}' function not yet supported", function);
                 }
-                if(isSingleValue){
-                    NumericMetric metric = new NumericMetric(DEFAULT_TENANT_ID, firstElementInList.getMetric().getId());
-                    out.add(new NumericData(metric, firstElementInList.getTimestamp(), retVal));
+                break;
+            case STDDEV:
+                double meanValue = stats.getAvg(pos);
+                double sd = 0.0;
+                for (int i = 0; i < size; ++i) {
+                    sd += Math.pow(in.get(stats.getIndex(pos, i)).getValue() - meanValue, 2) / (size - 1);
                 }
+                retVal = Math.sqrt(sd);
+                break;
+            default:
+                LOG.warn("Mapping of '{}' function not yet supported", function);
+            }
+            if(isSingleValue){
+                NumericMetric metric = new NumericMetric(DEFAULT_TENANT_ID, firstElementInList.getMetric().getId());
+                out.add(new NumericData(metric, firstElementInList.getTimestamp(), retVal));
             }
         }
 
         return out;
     }
-
-    /**
-     * Determine the quantil of the data
-     * @param in data for computation
-     * @param val a value between 0 and 100 to determine the <i>val</i>th quantil
-     * @return quantil from data
-     */
-    private double quantil (List<NumericData> in, double val) {
-        int n = in.size();
-        List<Double> bla = new ArrayList<>(n);
-        for (NumericData rnm : in) {
-            bla.add(rnm.getValue());
-        }
-        Collections.sort(bla);
-
-        float x = (float) (n * (val/100));
-        if (Math.floor(x)==x) {
-            return 0.5*(bla.get((int) x-1) +  bla.get((int) (x)));
-        }
-        else {
-            return bla.get((int) Math.ceil(x-1));
-        }
-    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import static org.hawkular.metrics.core.api.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.core.api.MetricType.NUMERIC;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.api.AggregationTemplate;
+import org.hawkular.metrics.core.api.HistogramMetric;
+import org.hawkular.metrics.core.api.Interval;
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.MetricType;
+import org.hawkular.metrics.core.api.Tenant;
+import org.hawkular.metrics.core.impl.downsample.BucketStats;
+import org.hawkular.metrics.core.impl.downsample.Downsampler;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class MetricHandlerTest {
+
+    private static final Interval FIVE_MINUTES = new Interval(5, Interval.Units.MINUTES);
+
+    private static final Interval ONE_HOUR = new Interval(1, Interval.Units.HOURS);
+
+    private static final Interval ONE_DAY = new Interval(1, Interval.Units.DAYS);
+
+    @Test
+    public void selectCoarsestRollupIntervalThatFitsInBucket() throws Exception {
+        Tenant tenant = new Tenant().setId("t1")
+            .addAggregationTemplate(template(NUMERIC, FIVE_MINUTES))
+            .addAggregationTemplate(template(NUMERIC, ONE_DAY))
+            .addAggregationTemplate(template(NUMERIC, ONE_HOUR))
+            .addAggregationTemplate(template(AVAILABILITY, new Interval(1, Interval.Units.MINUTES)));
+
+        assertEquals(ONE_DAY, MetricHandler.getRollupInterval(tenant, TimeUnit.DAYS.toMillis(2)));
+        assertEquals(ONE_DAY, MetricHandler.getRollupInterval(tenant, TimeUnit.DAYS.toMillis(1)));
+        assertEquals(ONE_HOUR, MetricHandler.getRollupInterval(tenant, TimeUnit.HOURS.toMillis(7)));
+        assertEquals(FIVE_MINUTES, MetricHandler.getRollupInterval(tenant, TimeUnit.MINUTES.toMillis(59)));
+        assertNull(MetricHandler.getRollupInterval(tenant, TimeUnit.MINUTES.toMillis(4)));
+    }
+
+    @Test
+    public void noRollupIntervalWithoutTemplates() throws Exception {
+        assertNull(MetricHandler.getRollupInterval(null, TimeUnit.DAYS.toMillis(1)));
+        assertNull(MetricHandler.getRollupInterval(new Tenant().setId("t1"), TimeUnit.DAYS.toMillis(1)));
+    }
+
+    @Test
+    public void mergeGapsBetweenRollups() throws Exception {
+        long slice = TimeUnit.MINUTES.toMillis(5);
+        // Rollups for slices 1 to 6 and 8 of the range [0, 20)
+        List<long[]> ranges = MetricHandler.getRawDataRanges(ImmutableSet.of(slice, 2 * slice, 3 * slice,
+            4 * slice, 5 * slice, 6 * slice, 8 * slice), 0, 20 * slice, slice);
+
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new long[] {0, slice}, ranges.get(0));
+        // The gaps at slice 7 and slices 9 to 19 are only separated by one rollup
+        assertArrayEquals(new long[] {7 * slice, 20 * slice}, ranges.get(1));
+
+        ranges = MetricHandler.getRawDataRanges(ImmutableSet.of(), 0, 12 * slice, slice);
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new long[] {0, 12 * slice}, ranges.get(0));
+    }
+
+    @Test
+    public void decodeTagFilters() throws Exception {
+        assertEquals(ImmutableMap.of("host", "h1|h2", "env", "!prod", "dc", "*", "url", "http://x"),
+            MetricHandler.decodeTagFilters("host:h1|h2,env:!prod,dc:*,url:http://x"));
+        assertNull(MetricHandler.decodeTagFilters("host"));
+        assertNull(MetricHandler.decodeTagFilters("host:h1,:h2"));
+        assertNull(MetricHandler.decodeTagFilters("host:"));
+    }
+
+    @Test
+    public void decodePercentiles() throws Exception {
+        assertArrayEquals(new double[] {50, 95, 99.9}, MetricHandler.decodePercentiles("50, 95,99.9"), 0);
+        assertArrayEquals(new double[0], MetricHandler.decodePercentiles(null), 0);
+        assertArrayEquals(new double[0], MetricHandler.decodePercentiles(""), 0);
+        assertNull(MetricHandler.decodePercentiles("50,p95"));
+        assertNull(MetricHandler.decodePercentiles("101"));
+        assertNull(MetricHandler.decodePercentiles("50,,99"));
+    }
+
+    @Test
+    public void addPercentilesToBucketDataPoints() throws Exception {
+        long[] timestamps = {15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1};
+        double[] values = {10, 20, 30, 40, 50, 60, 70, 80, 90, 100, 1, 2, 3, 4, 5};
+        BucketStats stats = new Downsampler(1, 10, 2).downsample(timestamps, values, timestamps.length);
+
+        BucketDataPoint first = MetricHandler.getBucketDataPoint("m1", 1, stats, 0, new double[] {0, 100});
+        assertEquals(asList(new Percentile(0, 1), new Percentile(100, 100)), first.getPercentiles());
+        BucketDataPoint second = MetricHandler.getBucketDataPoint("m1", 11, stats, 1, new double[] {50});
+        assertEquals(30, second.getPercentiles().get(0).getValue(), 30 * 0.01);
+
+        BucketDataPoint empty = MetricHandler.getBucketDataPoint("m1", 21,
+            new Downsampler(21, 10, 1).downsample(timestamps, values, timestamps.length), 0, new double[] {50});
+        assertTrue(empty.getPercentiles().isEmpty());
+    }
+
+    @Test
+    public void mergeHistogramsIntoBuckets() throws Exception {
+        HistogramMetric metric = new HistogramMetric("t1", new MetricId("m1"));
+        HistogramDataPoint late = new HistogramDataPoint();
+        late.setTimestamp(15);
+        late.setValues(asList(50.0, null, 60.0));
+        HistogramDataPoint early = new HistogramDataPoint();
+        early.setTimestamp(12);
+        early.setValues(asList(10.0, 20.0, 30.0));
+        HistogramDataPoint empty = new HistogramDataPoint();
+        empty.setTimestamp(5);
+        HistogramDataPoint nulls = new HistogramDataPoint();
+        nulls.setTimestamp(7);
+        nulls.setValues(asList(null, null));
+        MetricHandler.addHistograms(metric, asList(late, early, empty, nulls));
+        assertEquals("Data points without values should be ignored", 2, metric.getData().size());
+
+        BucketedOutput output = MetricHandler.createHistogramBuckets(metric, 0, 20, 2, false, new double[] {0, 100});
+
+        assertEquals(2, output.getData().size());
+        assertTrue(output.getData().get(0).isEmpty());
+        assertTrue(output.getData().get(0).getPercentiles().isEmpty());
+        HistogramBucketDataPoint bucket = (HistogramBucketDataPoint) output.getData().get(1);
+        assertEquals(10, bucket.getTimestamp());
+        assertEquals(5, bucket.getCount());
+        assertEquals(10, bucket.getMin(), 0);
+        assertEquals(34, bucket.getAvg(), 0.001);
+        assertEquals(60, bucket.getMax(), 0);
+        assertEquals(asList(new Percentile(0, 10), new Percentile(100, 60)), bucket.getPercentiles());
+
+        output = MetricHandler.createHistogramBuckets(metric, 0, 20, 2, true, new double[0]);
+        assertEquals("Empty buckets should be skipped", 1, output.getData().size());
+    }
+
+    private static AggregationTemplate template(MetricType type, Interval interval) {
+        return new AggregationTemplate().setType(type).setInterval(interval).setFunctions(ImmutableSet.of("max"));
+    }
+}
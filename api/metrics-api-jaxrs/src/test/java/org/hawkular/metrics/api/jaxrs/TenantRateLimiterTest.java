@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class TenantRateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void rejectRequestsOverTheBurst() {
+        TenantRateLimiter limiter = new TenantRateLimiter(10, 3, now::get);
+
+        for (int i = 0; i < 3; ++i) {
+            assertEquals("Expected request " + i + " to be admitted", 0, limiter.tryAcquire("t1"));
+        }
+        long wait = limiter.tryAcquire("t1");
+        assertEquals("Expected to wait a tenth of a second for the next token", TimeUnit.MILLISECONDS.toNanos(100),
+            wait);
+
+        now.addAndGet(wait);
+        assertEquals(0, limiter.tryAcquire("t1"));
+        assertTrue(limiter.tryAcquire("t1") > 0);
+    }
+
+    @Test
+    public void limitEachTenantSeparately() {
+        TenantRateLimiter limiter = new TenantRateLimiter(1, 1, now::get);
+
+        assertEquals(0, limiter.tryAcquire("t1"));
+        assertTrue(limiter.tryAcquire("t1") > 0);
+        assertEquals("The requests of t1 should not count against t2", 0, limiter.tryAcquire("t2"));
+    }
+
+    @Test
+    public void refillUpToTheBurst() {
+        TenantRateLimiter limiter = new TenantRateLimiter(100, 2, now::get);
+
+        assertEquals(0, limiter.tryAcquire("t1"));
+        now.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        assertEquals(0, limiter.tryAcquire("t1"));
+        assertEquals(0, limiter.tryAcquire("t1"));
+        assertTrue("The bucket should not hold more than the burst", limiter.tryAcquire("t1") > 0);
+    }
+
+    @Test
+    public void noLimitWhenRateIsZero() {
+        TenantRateLimiter limiter = new TenantRateLimiter(0, 0, now::get);
+
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(0, limiter.tryAcquire("t1"));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.influx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.api.jaxrs.influx.query.parse.definition.DoubleFunctionArgument;
+import org.hawkular.metrics.api.jaxrs.influx.query.parse.definition.FunctionArgument;
+import org.hawkular.metrics.api.jaxrs.influx.query.parse.definition.NameFunctionArgument;
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.NumericData;
+import org.hawkular.metrics.core.api.NumericMetric;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the aggregation functions applied to the results of Influx queries that have a group by time clause.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class InfluxMappingBenchmark {
+
+    @Param({"mean", "max", "percentile", "top", "stddev"})
+    public String function;
+
+    @Param({"1000", "100000"})
+    public int points;
+
+    @Param({"60"})
+    public int bucketLengthSec;
+
+    private List<FunctionArgument> arguments;
+
+    private List<NumericData> data;
+
+    private long start;
+
+    private long end;
+
+    @Setup
+    public void setUp() {
+        arguments = Arrays.asList(new NameFunctionArgument(null, "value"), new DoubleFunctionArgument(95));
+        end = System.currentTimeMillis();
+        start = end - points * 1000L;
+        NumericMetric metric = new NumericMetric("benchmarks", new MetricId("m1"));
+        for (int i = 0; i < points; ++i) {
+            metric.addData(end - (i + 1) * 1000L, Math.sin(i / 100.0) * 100);
+        }
+        data = new ArrayList<>(metric.getData());
+    }
+
+    @Benchmark
+    public List<NumericData> applyMapping() {
+        return InfluxSeriesHandler.applyMapping(function, arguments, data, bucketLengthSec, start, end);
+    }
+}
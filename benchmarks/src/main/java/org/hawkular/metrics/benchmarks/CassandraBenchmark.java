@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmarks;
+
+import static java.util.Collections.singletonList;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.MetricsService;
+import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.impl.HawkularMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the ingest and query paths against a running Cassandra cluster. The cluster is configured the same way as
+ * for the integration tests. When the module is built with the embedded-cassandra profile and the
+ * hawkular-metrics.backend system property is set to embedded_cass, an embedded node is started instead. Data is
+ * written to the keyspace named by the cassandra.keyspace system property, which defaults to hawkular_benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class CassandraBenchmark {
+
+    private static final String EMBEDDED_CASSANDRA_SERVICE = "org.hawkular.metrics.embedded.EmbeddedCassandraService";
+
+    @Param({"100"})
+    public int batchSize;
+
+    @Param({"10000"})
+    public int points;
+
+    private MetricsService metricsService;
+
+    private NumericMetric metric;
+
+    private AtomicInteger batches = new AtomicInteger();
+
+    private long start;
+
+    private long end;
+
+    @Setup
+    public void setUp() throws Exception {
+        startEmbeddedCassandra();
+        metricsService = new HawkularMetrics.Builder()
+            .withKeyspace(System.getProperty("cassandra.keyspace", "hawkular_benchmarks"))
+            .build();
+
+        end = System.currentTimeMillis();
+        start = end - TimeUnit.DAYS.toMillis(2);
+        long interval = (end - start) / points;
+        metric = new NumericMetric("benchmarks", new MetricId("query-" + end));
+        NumericMetric data = new NumericMetric("benchmarks", new MetricId("query-" + end));
+        for (int i = 0; i < points; ++i) {
+            data.addData(start + i * interval, i);
+        }
+        metricsService.addNumericData(singletonList(data)).get();
+    }
+
+    @TearDown
+    public void tearDown() {
+        metricsService.shutdown();
+    }
+
+    private static void startEmbeddedCassandra() throws Exception {
+        Class<?> serviceClass;
+        try {
+            serviceClass = Class.forName(EMBEDDED_CASSANDRA_SERVICE);
+        } catch (ClassNotFoundException e) {
+            return;
+        }
+        // The service only starts a node when the hawkular-metrics.backend system property is set to embedded_cass
+        serviceClass.getMethod("start").invoke(serviceClass.newInstance());
+    }
+
+    @Benchmark
+    public Object insertNumericData() throws ExecutionException, InterruptedException {
+        // Every batch goes to a new metric so that successive iterations do not overwrite the same cells
+        NumericMetric batch = new NumericMetric("benchmarks", new MetricId("insert-" + batches.incrementAndGet()));
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < batchSize; ++i) {
+            batch.addData(timestamp - i, i);
+        }
+        return metricsService.addNumericData(singletonList(batch)).get();
+    }
+
+    @Benchmark
+    public Object findNumericData() throws ExecutionException, InterruptedException {
+        return metricsService.findNumericData(metric, start, end).get();
+    }
+
+    @Benchmark
+    public Object findNumericSeries() throws ExecutionException, InterruptedException {
+        return metricsService.findNumericSeries(metric, start, end).get();
+    }
+}
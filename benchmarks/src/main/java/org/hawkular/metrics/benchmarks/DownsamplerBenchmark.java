@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.NumericData;
+import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.api.NumericSeries;
+import org.hawkular.metrics.core.impl.downsample.BucketStats;
+import org.hawkular.metrics.core.impl.downsample.Downsampler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the bucketing done for the buckets query parameter of the REST API. The handler classes in MetricHandler
+ * only wrap {@link Downsampler}, so it is benchmarked directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class DownsamplerBenchmark {
+
+    @Param({"1000", "100000"})
+    public int points;
+
+    @Param({"60"})
+    public int buckets;
+
+    private NumericSeries series;
+
+    private List<NumericData> data;
+
+    private Downsampler downsampler;
+
+    @Setup
+    public void setUp() {
+        long end = System.currentTimeMillis();
+        long start = end - points * 1000L;
+        NumericSeries.Builder builder = new NumericSeries.Builder("benchmarks", new MetricId("m1"));
+        NumericMetric metric = new NumericMetric("benchmarks", new MetricId("m1"));
+        // Like the data table, the data is in descending order
+        for (int i = 0; i < points; ++i) {
+            long timestamp = end - (i + 1) * 1000L;
+            double value = Math.sin(i / 100.0) * 100;
+            builder.add(timestamp, value);
+            metric.addData(timestamp, value);
+        }
+        series = builder.build();
+        data = new ArrayList<>(metric.getData());
+        downsampler = new Downsampler(start, (end - start) / buckets, buckets);
+    }
+
+    @Benchmark
+    public void downsampleSeries(Blackhole blackhole) {
+        consume(downsampler.downsample(series), blackhole);
+    }
+
+    @Benchmark
+    public void downsampleList(Blackhole blackhole) {
+        consume(downsampler.downsample(data), blackhole);
+    }
+
+    @Benchmark
+    public void downsamplePeriodic(Blackhole blackhole) {
+        Downsampler periodic = Downsampler.periodic(series.getTimestamp(0), 60000, buckets);
+        consume(periodic.downsample(series), blackhole);
+    }
+
+    @Benchmark
+    public void computePercentiles(Blackhole blackhole) {
+        BucketStats stats = downsampler.downsample(series);
+        for (int i = 0; i < stats.getNumberOfBuckets(); ++i) {
+            blackhole.consume(stats.getPercentile(i, 95));
+        }
+    }
+
+    @Benchmark
+    public void estimatePercentiles(Blackhole blackhole) {
+        BucketStats stats = downsampler.downsample(series);
+        for (int i = 0; i < stats.getNumberOfBuckets(); ++i) {
+            blackhole.consume(stats.getEstimatedPercentile(i, 95));
+        }
+    }
+
+    private static void consume(BucketStats stats, Blackhole blackhole) {
+        for (int i = 0; i < stats.getNumberOfBuckets(); ++i) {
+            blackhole.consume(stats.getMin(i));
+            blackhole.consume(stats.getAvg(i));
+            blackhole.consume(stats.getMax(i));
+        }
+    }
+}
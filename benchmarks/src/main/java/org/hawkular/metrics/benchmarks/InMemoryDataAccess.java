@@ -0,0 +1,357 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmarks;
+
+import static org.hawkular.metrics.benchmarks.InMemoryResults.empty;
+import static org.hawkular.metrics.benchmarks.InMemoryResults.toFuture;
+import static org.hawkular.metrics.benchmarks.InMemoryResults.toRow;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+
+import org.hawkular.metrics.core.api.Availability;
+import org.hawkular.metrics.core.api.AvailabilityMetric;
+import org.hawkular.metrics.core.api.Counter;
+import org.hawkular.metrics.core.api.HistogramMetric;
+import org.hawkular.metrics.core.api.Interval;
+import org.hawkular.metrics.core.api.Metric;
+import org.hawkular.metrics.core.api.MetricData;
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.MetricType;
+import org.hawkular.metrics.core.api.NumericData;
+import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.api.Retention;
+import org.hawkular.metrics.core.api.Tenant;
+import org.hawkular.metrics.core.impl.cassandra.DataAccess;
+import org.hawkular.metrics.core.impl.cassandra.DatePartitioner;
+import org.hawkular.metrics.core.impl.cassandra.MetricUtils;
+
+/**
+ * <p>
+ * A {@link DataAccess} that keeps raw numeric data in memory so that the code above the data access layer can be
+ * measured without the latency and variance of Cassandra. Each date partition is a sorted map from timestamp to row.
+ * The rows have the same columns as the rows returned by the raw data queries of the data table, so the real mappers
+ * are exercised. Data points of a metric with the same timestamp overwrite each other.
+ * </p>
+ * <p>
+ * Writes can be discarded to benchmark ingestion without the heap growing over the course of a run. All of the other
+ * operations, e.g., the metrics index and tags, are no-ops that return empty results.
+ * </p>
+ */
+public class InMemoryDataAccess implements DataAccess {
+
+    private final DatePartitioner partitioner;
+
+    private final boolean retainWrites;
+
+    private final Map<String, NavigableMap<Long, Row>> partitions = new ConcurrentHashMap<>();
+
+    public InMemoryDataAccess(DatePartitioner partitioner, boolean retainWrites) {
+        this.partitioner = partitioner;
+        this.retainWrites = retainWrites;
+    }
+
+    public void clear() {
+        partitions.clear();
+    }
+
+    private static String getKey(String tenantId, MetricId id, long dpart) {
+        return tenantId + ":" + id.getName() + ":" + id.getInterval() + ":" + dpart;
+    }
+
+    private List<Row> findRows(NumericMetric metric, long startTime, long endTime) {
+        NavigableMap<Long, Row> partition = partitions.get(getKey(metric.getTenantId(), metric.getId(),
+            metric.getDpart()));
+        if (partition == null) {
+            return Collections.emptyList();
+        }
+        // The partitions are sorted in descending order like the data table
+        return new ArrayList<>(partition.subMap(endTime, false, startTime, true).values());
+    }
+
+    @Override
+    public ResultSetFuture insertData(NumericMetric metric, int ttl) {
+        if (!retainWrites) {
+            return empty();
+        }
+        Map<String, String> metricTags = MetricUtils.flattenTags(metric.getTags());
+        long writeTime = System.currentTimeMillis() * 1000;
+        for (NumericData d : metric.getData()) {
+            long dpart = partitioner.getDpart(d.getTimestamp());
+            NavigableMap<Long, Row> partition = partitions.computeIfAbsent(getKey(metric.getTenantId(),
+                metric.getId(), dpart), key -> new ConcurrentSkipListMap<>(Collections.reverseOrder()));
+            partition.put(d.getTimestamp(), toRow(metric.getTenantId(), metric.getId().getName(),
+                metric.getId().getInterval().toString(), dpart, d.getTimeUUID(), metricTags,
+                metric.getDataRetention(), d.getValue(), MetricUtils.flattenTags(d.getTags()), writeTime));
+        }
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findData(NumericMetric metric, long startTime, long endTime) {
+        return toFuture(findRows(metric, startTime, endTime));
+    }
+
+    @Override
+    public ResultSetFuture findData(NumericMetric metric, long startTime, long endTime, boolean includeWriteTime) {
+        return toFuture(findRows(metric, startTime, endTime));
+    }
+
+    @Override
+    public ResultSetFuture findData(NumericMetric metric, long timestamp, boolean includeWriteTime) {
+        return toFuture(findRows(metric, timestamp, timestamp + 1));
+    }
+
+    @Override
+    public ResultSetFuture findPagedData(NumericMetric metric, long startTime, long endTime, int fetchSize) {
+        return toFuture(findRows(metric, startTime, endTime));
+    }
+
+    @Override
+    public ResultSetFuture insertTenant(Tenant tenant) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findAllTenantIds() {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findAllTenants() {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findTenant(String id) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture insertMetricInMetricsIndex(Metric metric) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findMetric(String tenantId, MetricType type, MetricId id, long dpart) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture addTagsAndDataRetention(Metric metric) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture addTags(Metric metric, Map<String, String> tags) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture deleteTags(Metric metric, Set<String> tags) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture updateTagsInMetricsIndex(Metric metric, Map<String, String> additions,
+        Set<String> deletions) {
+        return empty();
+    }
+
+    @Override
+    public <T extends Metric> ResultSetFuture updateMetricsIndex(List<T> metrics) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findMetricsInMetricsIndex(String tenantId, MetricType type) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findMetricInMetricsIndex(String tenantId, MetricType type, MetricId id) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture insertAggregatedData(NumericMetric metric, int ttl) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findAggregatedData(NumericMetric metric, long startTime, long endTime) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findData(AvailabilityMetric metric, long startTime, long endTime) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findData(AvailabilityMetric metric, long startTime, long endTime,
+        boolean includeWriteTime) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findData(AvailabilityMetric metric, long timestamp) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture deleteNumericMetric(String tenantId, String metric, Interval interval, long dpart) {
+        partitions.remove(getKey(tenantId, new MetricId(metric, interval), dpart));
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findAllNumericMetrics() {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture insertNumericTag(String tag, String tagValue, List<NumericData> data) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture insertAvailabilityTag(String tag, String tagValue, List<Availability> data) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture updateDataWithTag(List<? extends MetricData> data, Map<String, String> tags) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findNumericDataByTag(String tenantId, String tag, String tagValue, long dpart) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findAvailabilityByTag(String tenantId, String tag, String tagValue, long dpart) {
+        return empty();
+    }
+
+    @Override
+    public boolean hasLegacyTags() {
+        return false;
+    }
+
+    @Override
+    public ResultSetFuture findNumericDataByLegacyTag(String tenantId, String tag, String tagValue) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findAvailabilityByLegacyTag(String tenantId, String tag, String tagValue) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture insertData(AvailabilityMetric metric, int ttl) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findAvailabilityData(AvailabilityMetric metric, long startTime, long endTime) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture insertData(HistogramMetric metric, int ttl) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findHistogramData(HistogramMetric metric, long startTime, long endTime) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture updateCounter(Counter counter) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture updateCounters(Collection<Counter> counters) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findDataRetentions(String tenantId, MetricType type) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture updateRetentionsIndex(String tenantId, MetricType type, Set<Retention> retentions) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture updateRetentionsIndex(Metric metric) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture insertIntoMetricsTagsIndex(Metric metric, Map<String, String> tags) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture deleteFromMetricsTagsIndex(Metric metric, Map<String, String> tags) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findMetricsByTag(String tenantId, String tag) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture acquireRollupLease(String tenantId, UUID owner, int ttl) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture renewRollupLease(String tenantId, UUID owner, int ttl) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture findRollupProgress(String tenantId) {
+        return empty();
+    }
+
+    @Override
+    public ResultSetFuture updateRollupProgress(String tenantId, Interval interval, long computedUntil) {
+        return empty();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Creates driver {@link ResultSet result sets} and {@link Row rows} that are backed by memory. The driver only
+ * exposes interfaces for them, and they are implemented with dynamic proxies that support the accessors used by the
+ * mappers, i.e., access by column index, iteration, and paging.
+ */
+public class InMemoryResults {
+
+    private InMemoryResults() {
+    }
+
+    /**
+     * @param columns The column values in the order of the select clause of the query
+     */
+    public static Row toRow(Object... columns) {
+        return (Row) Proxy.newProxyInstance(Row.class.getClassLoader(), new Class[] {Row.class},
+            (proxy, method, args) -> getColumn(method, columns, args));
+    }
+
+    public static ResultSet toResultSet(List<Row> rows) {
+        Iterator<Row> iterator = rows.iterator();
+        int[] remaining = {rows.size()};
+        Iterator<Row> counting = new Iterator<Row>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Row next() {
+                --remaining[0];
+                return iterator.next();
+            }
+        };
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[] {ResultSet.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "iterator": return counting;
+                    case "isExhausted": return !counting.hasNext();
+                    case "one": return counting.hasNext() ? counting.next() : null;
+                    case "all":
+                        List<Row> all = new ArrayList<>(remaining[0]);
+                        counting.forEachRemaining(all::add);
+                        return all;
+                    case "getAvailableWithoutFetching": return remaining[0];
+                    case "isFullyFetched": return true;
+                    case "fetchMoreResults": return Futures.immediateFuture(null);
+                    case "wasApplied": return true;
+                    default: return handleObjectMethod(proxy, method, args);
+                }
+            });
+    }
+
+    public static ResultSetFuture toFuture(List<Row> rows) {
+        ListenableFuture<ResultSet> future = Futures.immediateFuture(toResultSet(rows));
+        return (ResultSetFuture) Proxy.newProxyInstance(ResultSetFuture.class.getClassLoader(),
+            new Class[] {ResultSetFuture.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getUninterruptibly": return future.get();
+                    case "cancel": return false;
+                    default:
+                        if (method.getDeclaringClass() == Object.class) {
+                            return handleObjectMethod(proxy, method, args);
+                        }
+                        return invoke(future, method, args);
+                }
+            });
+    }
+
+    /**
+     * @return A completed future of a result set without any rows. Each call returns a new result set since they are
+     * stateful iterators.
+     */
+    public static ResultSetFuture empty() {
+        return toFuture(Collections.emptyList());
+    }
+
+    private static Object getColumn(Method method, Object[] columns, Object[] args) {
+        if (args == null || args.length == 0 || !(args[0] instanceof Integer)) {
+            throw new UnsupportedOperationException(method.getName() + " is not supported by in-memory rows");
+        }
+        Object value = columns[(Integer) args[0]];
+        switch (method.getName()) {
+            case "isNull": return value == null;
+            case "getMap": return value == null ? Collections.emptyMap() : value;
+            case "getSet": return value == null ? Collections.emptySet() : value;
+            case "getList": return value == null ? Collections.emptyList() : value;
+            case "getLong": return value == null ? 0L : value;
+            case "getInt": return value == null ? 0 : value;
+            case "getDouble": return value == null ? 0.0 : value;
+            case "getBool": return value == null ? false : value;
+            default: return value;
+        }
+    }
+
+    private static Object handleObjectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals": return proxy == args[0];
+            case "hashCode": return System.identityHashCode(proxy);
+            case "toString": return "InMemoryResultSet@" + Integer.toHexString(System.identityHashCode(proxy));
+            default: throw new UnsupportedOperationException(method.getName() + " is not supported in memory");
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
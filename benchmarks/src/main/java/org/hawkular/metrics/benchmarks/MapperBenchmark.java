@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmarks;
+
+import static java.util.Collections.singletonList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.Row;
+import com.google.common.collect.ImmutableMap;
+
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.TimeUUIDUtils;
+import org.hawkular.metrics.core.impl.cassandra.NumericDataMapper;
+import org.hawkular.metrics.core.impl.cassandra.NumericSeriesMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the mapping of raw data rows into data points, either as {@link org.hawkular.metrics.core.api.NumericData}
+ * objects or as a columnar {@link org.hawkular.metrics.core.api.NumericSeries}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class MapperBenchmark {
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private List<Row> data;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> metricTags = ImmutableMap.of("units", "ms");
+        long end = System.currentTimeMillis();
+        data = new ArrayList<>(rows);
+        for (int i = 0; i < rows; ++i) {
+            long timestamp = end - (i + 1) * 1000L;
+            data.add(InMemoryResults.toRow("benchmarks", "m1", "", 0L, TimeUUIDUtils.getTimeUUID(timestamp),
+                metricTags, 0, (double) i, null));
+        }
+    }
+
+    @Benchmark
+    public Object mapNumericData() {
+        return new NumericDataMapper().apply(InMemoryResults.toResultSet(data));
+    }
+
+    @Benchmark
+    public Object mapNumericSeries() {
+        return new NumericSeriesMapper("benchmarks", new MetricId("m1"), Collections.emptyMap()).apply(
+            singletonList(InMemoryResults.toResultSet(data)));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmarks;
+
+import static java.util.Collections.singletonList;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.NumericData;
+import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.impl.cassandra.BenchmarkMetricsService;
+import org.hawkular.metrics.core.impl.cassandra.DatePartitioner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the ingest and query paths of the metrics service on top of an {@link InMemoryDataAccess}. The query
+ * benchmarks read data that spans three date partitions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class MetricsServiceBenchmark {
+
+    @Param({"1000", "100000"})
+    public int points;
+
+    @Param({"100"})
+    public int batchSize;
+
+    private BenchmarkMetricsService queryService;
+
+    private BenchmarkMetricsService insertService;
+
+    private NumericMetric metric;
+
+    private NumericMetric batch;
+
+    private long start;
+
+    private long end;
+
+    @Setup
+    public void setUp() throws Exception {
+        DatePartitioner partitioner = new DatePartitioner();
+        queryService = new BenchmarkMetricsService(new InMemoryDataAccess(partitioner, true));
+        insertService = new BenchmarkMetricsService(new InMemoryDataAccess(partitioner, false));
+
+        end = System.currentTimeMillis();
+        start = end - TimeUnit.DAYS.toMillis(2);
+        long interval = (end - start) / points;
+        metric = new NumericMetric("benchmarks", new MetricId("m1"));
+        NumericMetric data = new NumericMetric("benchmarks", new MetricId("m1"));
+        for (int i = 0; i < points; ++i) {
+            data.addData(start + i * interval, i);
+        }
+        queryService.addNumericData(singletonList(data)).get();
+
+        batch = new NumericMetric("benchmarks", new MetricId("m2"));
+        for (int i = 0; i < batchSize; ++i) {
+            batch.addData(end - i, i);
+        }
+    }
+
+    @Benchmark
+    public Object insertNumericData() throws ExecutionException, InterruptedException {
+        return insertService.addNumericData(singletonList(batch)).get();
+    }
+
+    @Benchmark
+    public Object findNumericData() throws ExecutionException, InterruptedException {
+        return queryService.findNumericData(metric, start, end).get();
+    }
+
+    @Benchmark
+    public Object findNumericSeries() throws ExecutionException, InterruptedException {
+        return queryService.findNumericSeries(metric, start, end).get();
+    }
+
+    @Benchmark
+    public Object findData() throws ExecutionException, InterruptedException {
+        List<NumericData> data = queryService.findData(metric, start, end).get();
+        return data;
+    }
+
+    @Benchmark
+    public void streamNumericData(Blackhole blackhole) throws ExecutionException, InterruptedException {
+        Iterator<NumericData> iterator = queryService.streamNumericData(metric, start, end).get();
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+    }
+}
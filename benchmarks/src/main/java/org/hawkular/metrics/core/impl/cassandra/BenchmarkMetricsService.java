@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+/**
+ * A {@link MetricsServiceCassandra} that runs on top of a given {@link DataAccess}, typically an in-memory one, rather
+ * than on a Cassandra session. It lives in this package because the data access setter is package-private.
+ */
+public class BenchmarkMetricsService extends MetricsServiceCassandra {
+
+    public BenchmarkMetricsService(DataAccess dataAccess) {
+        setDataAccess(dataAccess);
+    }
+
+    @Override
+    public void setPageSize(int pageSize) {
+        super.setPageSize(pageSize);
+    }
+}
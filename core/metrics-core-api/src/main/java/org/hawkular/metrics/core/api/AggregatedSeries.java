@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.api;
+
+import java.util.Arrays;
+
+import com.google.common.base.Objects;
+
+/**
+ * The result of combining several numeric series into one with a {@link SeriesFunction}. The series are aligned into
+ * equally sized time buckets, and there is a value for each bucket in which at least one of the series has data. The
+ * columns are sorted by timestamp in ascending order.
+ */
+public class AggregatedSeries {
+
+    private final String group;
+
+    private final int numberOfSeries;
+
+    private final long[] timestamps;
+
+    private final double[] values;
+
+    private final int[] counts;
+
+    /**
+     * @param group The value of the tag by which the series were grouped, or null if they were not grouped or do not
+     * have the tag
+     * @param numberOfSeries The number of series in the group
+     * @param timestamps The start times of the buckets
+     * @param values The aggregated value of each bucket
+     * @param counts The number of series that have data in each bucket
+     */
+    public AggregatedSeries(String group, int numberOfSeries, long[] timestamps, double[] values, int[] counts) {
+        this.group = group;
+        this.numberOfSeries = numberOfSeries;
+        this.timestamps = timestamps;
+        this.values = values;
+        this.counts = counts;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public int getNumberOfSeries() {
+        return numberOfSeries;
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    public boolean isEmpty() {
+        return timestamps.length == 0;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return The number of series that have data in the bucket at the index
+     */
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AggregatedSeries that = (AggregatedSeries) o;
+        return numberOfSeries == that.numberOfSeries && Objects.equal(group, that.group) &&
+            Arrays.equals(timestamps, that.timestamps) && Arrays.equals(values, that.values) &&
+            Arrays.equals(counts, that.counts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(group, numberOfSeries, Arrays.hashCode(timestamps), Arrays.hashCode(values));
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("group", group)
+            .add("numberOfSeries", numberOfSeries)
+            .add("timestamps", Arrays.toString(timestamps))
+            .add("values", Arrays.toString(values))
+            .toString();
+    }
+}
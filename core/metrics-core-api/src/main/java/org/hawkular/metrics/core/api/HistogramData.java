@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.api;
+
+import java.util.UUID;
+
+import com.google.common.base.Objects;
+
+/**
+ * A histogram data point. It summarizes all of the values that were observed in an interval, e.g., the timings
+ * collected by a client between two flushes, in a {@link QuantileSketch}. Its timestamp is the start of the interval.
+ * Storing one data point per interval instead of one per value is what makes the histogram type cheap for high
+ * volume timer data.
+ */
+public class HistogramData extends MetricData {
+
+    private QuantileSketch sketch;
+
+    public HistogramData(HistogramMetric metric, long timestamp, QuantileSketch sketch) {
+        super(metric, timestamp);
+        this.sketch = sketch;
+    }
+
+    public HistogramData(HistogramMetric metric, UUID timeUUID, QuantileSketch sketch) {
+        super(metric, timeUUID);
+        this.sketch = sketch;
+    }
+
+    public HistogramData(long timestamp, QuantileSketch sketch) {
+        super(timestamp);
+        this.sketch = sketch;
+    }
+
+    public QuantileSketch getSketch() {
+        return sketch;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof HistogramData)) return false;
+        if (!super.equals(o)) return false;
+
+        HistogramData that = (HistogramData) o;
+
+        return sketch.toByteBuffer().equals(that.sketch.toByteBuffer());
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + (int) (sketch.getCount() ^ (sketch.getCount() >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("timeUUID", timeUUID)
+            .add("timestamp", getTimestamp())
+            .add("count", sketch.getCount())
+            .add("min", sketch.getMin())
+            .add("max", sketch.getMax())
+            .toString();
+    }
+}
@@ -37,9 +37,9 @@ public abstract class Metric<T extends MetricData> {
 
     private Map<String, Optional<String>> tags = new HashMap<>();
 
-    // When we implement date partitioning, dpart will have to be determined based on the
-    // start and end params of queries. And it is possible the the date range spans
-    // multiple date partitions.
+    // Data points are stored in date partitions that are determined from their timestamps.
+    // DPART identifies the partition that holds the metric level metadata, e.g., tags and
+    // data retention.
     private long dpart = DPART;
 
     private List<T> data = new ArrayList<>();
@@ -23,6 +23,7 @@ package org.hawkular.metrics.core.api;
  *   <li>numeric</li>
  *   <li>availability</li>
  *   <li>log events</li>
+ *   <li>histogram</li>
  * </ul>
  *
  * @author John Sanda
@@ -33,7 +34,9 @@ public enum MetricType {
 
     AVAILABILITY(1, "availability"),
 
-    LOG_EVENT(2, "log event");
+    LOG_EVENT(2, "log event"),
+
+    HISTOGRAM(3, "histogram");
 
     private int code;
 
@@ -62,6 +65,7 @@ public enum MetricType {
             case 0 : return NUMERIC;
             case 1 : return AVAILABILITY;
             case 2 : return LOG_EVENT;
+            case 3 : return HISTOGRAM;
             default: throw new IllegalArgumentException(code + " is not a recognized metric type");
         }
     }
@@ -71,6 +75,7 @@ public enum MetricType {
         case "num": return NUMERIC;
         case "avail": return AVAILABILITY;
         case "log": return LOG_EVENT;
+        case "hist": return HISTOGRAM;
         default: throw new IllegalArgumentException(textCode + " is not a recognized metric type code");
         }
     }
@@ -17,6 +17,7 @@
 package org.hawkular.metrics.core.api;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -47,6 +48,14 @@ public interface MetricsService {
 
     void shutdown();
 
+    /**
+     * The service accepts requests as soon as it has started up, but it warms up its caches in the background, e.g.,
+     * by loading the data retention settings of the tenants. Requests made before this finishes may be slower.
+     *
+     * @return true once warm-up is complete
+     */
+    boolean isWarmedUp();
+
     /**
      * <p>
      * This method should be call before ever inserting any data to ensure that the tenant id is unique and to establish
@@ -65,29 +74,142 @@ public interface MetricsService {
      */
     ListenableFuture<Void> createTenant(Tenant tenant);
 
+    /**
+     * Returns all of the tenants. Tenants are kept in memory and reloaded periodically, so a tenant created on another
+     * node may not be included right away.
+     */
     ListenableFuture<List<Tenant>> getTenants();
 
+    /**
+     * Finds the tenant in memory and only queries the database if the tenant is not known yet.
+     *
+     * @param id The tenant id
+     * @return The tenant or null if no tenant with the id has been created
+     */
+    ListenableFuture<Tenant> findTenant(String id);
+
     ListenableFuture<Void> createMetric(Metric metric);
 
     ListenableFuture<Metric> findMetric(String tenantId, MetricType type, MetricId id);
 
     ListenableFuture<List<Metric>> findMetrics(String tenantId, MetricType type);
 
+    /**
+     * Finds the metrics whose tags match all of the tag filters. A filter is a tag value, several values separated by
+     * <code>|</code> to match any of them, a value or values prefixed with <code>!</code> to match metrics that do not
+     * have any of them, or <code>*</code> to match metrics that have the tag with any value. The query is resolved
+     * against an in-memory index of the metric tags and does not read any data.
+     *
+     * @param tenantId The tenant id
+     * @param type The metric type
+     * @param tags The tag filters keyed by tag name
+     * @return The matching metrics along with their tags and data retention
+     */
+    ListenableFuture<List<Metric>> findMetricsWithTags(String tenantId, MetricType type, Map<String, String> tags);
+
     ListenableFuture<Void> addTags(Metric metric, Map<String, Optional<String>> tags);
 
     ListenableFuture<Void> deleteTags(Metric metric, Map<String, Optional<String>> tags);
 
+    /**
+     * Stores the data points of the metrics. The returned future fails with a
+     * {@link java.util.concurrent.RejectedExecutionException} if too many writes are already waiting to be executed.
+     */
     ListenableFuture<Void> addNumericData(List<NumericMetric> metrics);
 
     ListenableFuture<NumericMetric> findNumericData(NumericMetric metric, long start, long end);
 
+    /**
+     * Streams the raw data of a numeric metric in descending order. Unlike
+     * {@link #findNumericData(NumericMetric, long, long)}, the data is not loaded up front. It is read one page at a
+     * time as the returned iterator is consumed, so memory usage does not grow with the size of the time range. The
+     * iterator blocks while it waits for the next page, and the data points do not include the metric tags.
+     *
+     * @param metric The metric to query
+     * @param start The start time inclusive as a Unix timestamp in milliseconds
+     * @param end The end time exclusive as a Unix timestamp in milliseconds
+     * @return A future that completes once the first page of data is available. It produces null if there is no
+     * data in the time range.
+     */
+    ListenableFuture<Iterator<NumericData>> streamNumericData(NumericMetric metric, long start, long end);
+
+    /**
+     * Fetches the raw data of a numeric metric into primitive columns. Prefer this over
+     * {@link #findNumericData(NumericMetric, long, long)} for large time ranges and for computing aggregates. Each
+     * data point takes a fraction of the memory of a {@link NumericData} object.
+     *
+     * @param metric The metric to query
+     * @param start The start time inclusive as a Unix timestamp in milliseconds
+     * @param end The end time exclusive as a Unix timestamp in milliseconds
+     * @return A future that produces the data sorted in ascending order along with the metric tags. The series is
+     * empty if there is no data in the time range.
+     */
+    ListenableFuture<NumericSeries> findNumericSeries(NumericMetric metric, long start, long end);
+
+    /**
+     * Combines the numeric metrics that match tag filters into one series, or into one series per value of a tag.
+     * The time range is divided into equally sized buckets. The value of a metric in a bucket is the average of its
+     * raw data points in the bucket, and the values of the metrics are combined with the function. The raw data of
+     * the metrics is streamed and merged, so memory usage does not grow with the number of data points. It does grow
+     * with the number of metrics, which is therefore limited.
+     *
+     * @param tenantId The tenant id
+     * @param tags The tag filters that select the metrics. See {@link #findMetricsWithTags(String, MetricType, Map)}.
+     * @param groupBy The tag by whose value the metrics are grouped or null to combine all of them
+     * @param function The function that combines the values of the metrics of a group
+     * @param start The start time inclusive as a Unix timestamp in milliseconds
+     * @param end The end time exclusive as a Unix timestamp in milliseconds
+     * @param numberOfBuckets The number of buckets
+     * @return One series per group. Metrics that do not have the groupBy tag are put in a group whose value is null.
+     * The future fails with an {@link IllegalArgumentException} if the tag filters match too many metrics, and with a
+     * {@link java.util.concurrent.RejectedExecutionException} if too many aggregations are already in progress.
+     */
+    ListenableFuture<List<AggregatedSeries>> aggregateNumericData(String tenantId, Map<String, String> tags,
+        String groupBy, SeriesFunction function, long start, long end, int numberOfBuckets);
+
     /** Find and return raw metrics for {id} that have a timestamp between {start} and {end} */
     ListenableFuture<List<NumericData>> findData(NumericMetric metric, long start, long end);
 
+    /**
+     * Fetches the pre-computed aggregates of a numeric metric. Aggregates are computed for the intervals of the
+     * tenant's numeric {@link AggregationTemplate aggregation templates}. Each returned data point covers one interval
+     * starting at its timestamp and has min, max, avg, sum, and count {@link AggregatedValue aggregated values}.
+     *
+     * @param metric The raw metric
+     * @param interval The interval at which the aggregates were computed
+     * @param start The start time inclusive
+     * @param end The end time exclusive
+     * @return The metric with the aggregated data points in descending time order or null if there are none
+     */
+    ListenableFuture<NumericMetric> findAggregatedData(NumericMetric metric, Interval interval, long start, long end);
+
+    /**
+     * Stores the data points of the metrics. Like {@link #addNumericData(List)}, the returned future fails with a
+     * {@link java.util.concurrent.RejectedExecutionException} if too many writes are already waiting to be executed.
+     */
     ListenableFuture<Void> addAvailabilityData(List<AvailabilityMetric> metrics);
 
     ListenableFuture<AvailabilityMetric> findAvailabilityData(AvailabilityMetric metric, long start, long end);
 
+    /**
+     * Stores histogram data. Each data point is a sketch of the values observed in an interval, so the storage cost
+     * depends on the number of intervals rather than on the number of values. A data point replaces any data point
+     * of the metric with the same timestamp.
+     */
+    ListenableFuture<Void> addHistogramData(List<HistogramMetric> metrics);
+
+    /**
+     * Fetches the histogram data of a metric. Percentiles over a longer time range are estimated by
+     * {@link QuantileSketch#merge(QuantileSketch) merging} the sketches of the data points.
+     *
+     * @param metric The metric to query
+     * @param start The start time inclusive as a Unix timestamp in milliseconds
+     * @param end The end time exclusive as a Unix timestamp in milliseconds
+     * @return The metric with its data points in descending time order or null if there is no data in the time
+     * range
+     */
+    ListenableFuture<HistogramMetric> findHistogramData(HistogramMetric metric, long start, long end);
+
     ListenableFuture<Void> updateCounter(Counter counter);
 
     ListenableFuture<Void> updateCounters(Collection<Counter> counters);
@@ -96,24 +218,69 @@ public interface MetricsService {
 
     ListenableFuture<List<Counter>> findCounters(String group, List<String> counterNames);
 
-    /** Check if a metric with the passed {id} has been stored in the system */
+    /**
+     * Check if a metric with the passed {id} has been stored in the system
+     *
+     * @deprecated This scans the data of all tenants. Use {@link #idExists(String, MetricType, MetricId)} instead.
+     */
+    @Deprecated
     ListenableFuture<Boolean> idExists(String id);
 
+    /**
+     * Checks whether the metric exists in the metrics index of the tenant. A metric is added to the index when it is
+     * created or when data is first stored for it. Metrics recently seen by this node are answered from memory, and
+     * others with a single row lookup.
+     */
+    ListenableFuture<Boolean> idExists(String tenantId, MetricType type, MetricId id);
+
     ListenableFuture<List<NumericData>> tagNumericData(NumericMetric metric, Map<String, Optional<String>> tags,
         long start, long end);
 
     ListenableFuture<List<Availability>> tagAvailabilityData(AvailabilityMetric metric,
         Map<String, Optional<String>> tags, long start, long end);
 
+    /**
+     * Tags the numeric data of several metrics at once. This is considerably faster than tagging one metric at a
+     * time since data points with the same tag are written together regardless of their metric.
+     *
+     * @param metrics The metrics whose data to tag
+     * @param tags The tags to add, where an empty value tags data points without a value
+     * @param start The start time inclusive as a Unix timestamp in milliseconds
+     * @param end The end time exclusive as a Unix timestamp in milliseconds
+     * @return The tagged data points of all of the metrics
+     */
+    ListenableFuture<List<NumericData>> tagNumericData(List<NumericMetric> metrics,
+        Map<String, Optional<String>> tags, long start, long end);
+
+    /**
+     * Tags the availability data of several metrics at once. See {@link #tagNumericData(List, Map, long, long)}.
+     */
+    ListenableFuture<List<Availability>> tagAvailabilityData(List<AvailabilityMetric> metrics,
+        Map<String, Optional<String>> tags, long start, long end);
+
     ListenableFuture<List<NumericData>> tagNumericData(NumericMetric metric, Map<String, Optional<String>> tags,
         long timestamp);
 
     ListenableFuture<List<Availability>> tagAvailabilityData(AvailabilityMetric metric,
         Map<String, Optional<String>> tags, long timestamp);
 
+    /**
+     * Finds the tagged numeric data of the metrics that have data points with all of the tags. Tagged data is stored
+     * in time slices, and only the slices that overlap the time range are read.
+     *
+     * @param tenantId The tenant id
+     * @param tags The tags to match, where an empty value matches data points tagged without a value
+     * @param start The start time inclusive as a Unix timestamp in milliseconds
+     * @param end The end time exclusive as a Unix timestamp in milliseconds
+     * @return The tagged data points keyed by metric id
+     */
     ListenableFuture<Map<MetricId, Set<NumericData>>> findNumericDataByTags(String tenantId,
-        Map<String, Optional<String>> tags);
+        Map<String, Optional<String>> tags, long start, long end);
 
+    /**
+     * Finds the tagged availability data of the metrics that have data points with all of the tags. See
+     * {@link #findNumericDataByTags(String, Map, long, long)}.
+     */
     ListenableFuture<Map<MetricId, Set<Availability>>> findAvailabilityByTags(String tenantId,
-        Map<String, Optional<String>> tags);
+        Map<String, Optional<String>> tags, long start, long end);
 }
@@ -36,6 +36,8 @@ public class NumericData extends MetricData {
 
     private Set<AggregatedValue> aggregatedValues = new HashSet<>();
 
+    private QuantileSketch sketch;
+
     public NumericData(NumericMetric metric, long timestamp, double value) {
         this(metric, TimeUUIDUtils.getTimeUUID(timestamp), value);
     }
@@ -113,6 +115,33 @@ public class NumericData extends MetricData {
         return this;
     }
 
+    /**
+     * @param type The aggregation function, e.g., max, min, avg, etc.
+     * @return The aggregated value computed by the function or null if this data point does not have one
+     */
+    public Double getAggregatedValue(String type) {
+        for (AggregatedValue aggregatedValue : aggregatedValues) {
+            if (aggregatedValue.getType().equals(type)) {
+                return aggregatedValue.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The quantile sketch of the raw data from which this aggregated data point was computed. Sketches of adjacent
+     * aggregated data points can be merged to estimate percentiles over a longer time range. This returns null for raw
+     * data and for aggregated data points stored without a sketch.
+     */
+    public QuantileSketch getSketch() {
+        return sketch;
+    }
+
+    public NumericData setSketch(QuantileSketch sketch) {
+        this.sketch = sketch;
+        return this;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
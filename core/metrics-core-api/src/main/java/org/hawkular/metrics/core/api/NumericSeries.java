@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import com.google.common.base.Objects;
+
+/**
+ * <p>
+ * The raw data of a numeric metric stored in columns. Timestamps and values are kept in primitive arrays sorted by
+ * timestamp in ascending order. Data point tags are only stored for the data points that have them. Compared to a
+ * {@link NumericMetric}, which has a {@link NumericData} object per data point, this uses a fraction of the memory
+ * and is what large range queries and aggregations should use.
+ * </p>
+ * <p>
+ * Instances are created with a {@link Builder} and are immutable. The arrays returned by {@link #getTimestamps()}
+ * and {@link #getValues()} are not copied and must not be modified.
+ * </p>
+ */
+public class NumericSeries {
+
+    private static final long[] NO_TIMESTAMPS = new long[0];
+
+    private static final double[] NO_VALUES = new double[0];
+
+    private final String tenantId;
+
+    private final MetricId id;
+
+    private final Map<String, Optional<String>> tags;
+
+    private final long[] timestamps;
+
+    private final double[] values;
+
+    private final Map<Integer, Map<String, Optional<String>>> dataTags;
+
+    private NumericSeries(String tenantId, MetricId id, Map<String, Optional<String>> tags, long[] timestamps,
+        double[] values, Map<Integer, Map<String, Optional<String>>> dataTags) {
+        this.tenantId = tenantId;
+        this.id = id;
+        this.tags = tags;
+        this.timestamps = timestamps;
+        this.values = values;
+        this.dataTags = dataTags;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public MetricId getId() {
+        return id;
+    }
+
+    /**
+     * @return The metric level tags
+     */
+    public Map<String, Optional<String>> getTags() {
+        return tags;
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    public boolean isEmpty() {
+        return timestamps.length == 0;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return The tags of the data point at the index, which is empty if the data point is not tagged
+     */
+    public Map<String, Optional<String>> getTags(int index) {
+        Map<String, Optional<String>> tags = dataTags.get(index);
+        return tags == null ? Collections.emptyMap() : tags;
+    }
+
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        NumericSeries that = (NumericSeries) o;
+        return Objects.equal(tenantId, that.tenantId) && Objects.equal(id, that.id) &&
+            Arrays.equals(timestamps, that.timestamps) && Arrays.equals(values, that.values) &&
+            Objects.equal(dataTags, that.dataTags);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(tenantId, id, Arrays.hashCode(timestamps), Arrays.hashCode(values));
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("tenantId", tenantId)
+            .add("id", id)
+            .add("size", size())
+            .toString();
+    }
+
+    /**
+     * Collects data points into growable columns. Data points have to be added in time order. They can be added
+     * from newest to oldest, which is the order in which they are read from the data table, or from oldest to newest.
+     */
+    public static class Builder {
+
+        private static final int DEFAULT_CAPACITY = 16;
+
+        private final String tenantId;
+
+        private final MetricId id;
+
+        private Map<String, Optional<String>> tags = Collections.emptyMap();
+
+        private long[] timestamps = NO_TIMESTAMPS;
+
+        private double[] values = NO_VALUES;
+
+        private int size;
+
+        private Map<Integer, Map<String, Optional<String>>> dataTags = Collections.emptyMap();
+
+        private boolean descending;
+
+        public Builder(String tenantId, MetricId id) {
+            this.tenantId = tenantId;
+            this.id = id;
+        }
+
+        /**
+         * Sets the metric level tags.
+         */
+        public Builder withTags(Map<String, Optional<String>> tags) {
+            this.tags = tags;
+            return this;
+        }
+
+        public Builder add(long timestamp, double value) {
+            if (size > 0) {
+                long previous = timestamps[size - 1];
+                if (size == 1) {
+                    descending = timestamp < previous;
+                } else if (descending ? timestamp > previous : timestamp < previous) {
+                    throw new IllegalArgumentException("Data points must be added in time order");
+                }
+            }
+            if (size == timestamps.length) {
+                int capacity = Math.max(DEFAULT_CAPACITY, size + (size >> 1));
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            ++size;
+            return this;
+        }
+
+        /**
+         * Adds a data point along with its tags. The tags are only stored if there are any.
+         */
+        public Builder add(long timestamp, double value, Map<String, Optional<String>> tags) {
+            add(timestamp, value);
+            if (!tags.isEmpty()) {
+                if (dataTags.isEmpty()) {
+                    dataTags = new HashMap<>();
+                }
+                dataTags.put(size - 1, tags);
+            }
+            return this;
+        }
+
+        public NumericSeries build() {
+            long[] sortedTimestamps = Arrays.copyOf(timestamps, size);
+            double[] sortedValues = Arrays.copyOf(values, size);
+            Map<Integer, Map<String, Optional<String>>> sortedDataTags = dataTags;
+            if (descending) {
+                for (int i = 0, j = size - 1; i < j; ++i, --j) {
+                    long timestamp = sortedTimestamps[i];
+                    sortedTimestamps[i] = sortedTimestamps[j];
+                    sortedTimestamps[j] = timestamp;
+                    double value = sortedValues[i];
+                    sortedValues[i] = sortedValues[j];
+                    sortedValues[j] = value;
+                }
+                if (!dataTags.isEmpty()) {
+                    sortedDataTags = new HashMap<>();
+                    for (Map.Entry<Integer, Map<String, Optional<String>>> entry : dataTags.entrySet()) {
+                        sortedDataTags.put(size - 1 - entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            return new NumericSeries(tenantId, id, tags, sortedTimestamps, sortedValues, sortedDataTags);
+        }
+    }
+
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * A compact summary of a set of values from which quantiles can be estimated. The values are counted in buckets
+ * whose widths grow exponentially, like those of an HdrHistogram, so that an estimated quantile is within a fixed
+ * relative error of the exact one. The size of the sketch depends on the range of the values and not on how many
+ * there are. With the default relative accuracy of 1%, values that span six orders of magnitude take less than 700
+ * buckets.
+ * </p>
+ * <p>
+ * Sketches with the same relative accuracy can be {@link #merge(QuantileSketch) merged}. The result is the same as if
+ * all of the values had been added to one sketch, which makes it possible to pre-compute sketches and combine them
+ * later. A sketch can be {@link #toByteBuffer() serialized} for storage. Values whose magnitude is less than
+ * {@link #MIN_VALUE} are counted as zero, and NaN and infinite values are ignored. Instances are not thread safe.
+ * </p>
+ */
+public class QuantileSketch {
+
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    public static final double MIN_VALUE = 1e-9;
+
+    private static final byte VERSION = 1;
+
+    private final double relativeAccuracy;
+
+    private final double gamma;
+
+    private final double logGamma;
+
+    private final Store positive = new Store();
+
+    private final Store negative = new Store();
+
+    private long zeroCount;
+
+    private long count;
+
+    private double sum;
+
+    private double min = Double.POSITIVE_INFINITY;
+
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    /**
+     * @param relativeAccuracy The maximum relative error of an estimated quantile, between 0 and 1 exclusive
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("The relative accuracy must be between 0 and 1");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        logGamma = Math.log(gamma);
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    /**
+     * Adds a value a number of times.
+     */
+    public void add(double value, long n) {
+        if (n <= 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        if (value >= MIN_VALUE) {
+            positive.add(index(value), n);
+        } else if (value <= -MIN_VALUE) {
+            negative.add(index(-value), n);
+        } else {
+            zeroCount += n;
+        }
+        count += n;
+        sum += value * n;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the values of another sketch to this one.
+     *
+     * @throws IllegalArgumentException if the sketches do not have the same relative accuracy
+     */
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Cannot merge a sketch with a relative accuracy of " +
+                other.relativeAccuracy + " into one with a relative accuracy of " + relativeAccuracy);
+        }
+        if (other.isEmpty()) {
+            return;
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return The exact minimum or NaN if the sketch is empty
+     */
+    public double getMin() {
+        return isEmpty() ? Double.NaN : min;
+    }
+
+    /**
+     * @return The exact maximum or NaN if the sketch is empty
+     */
+    public double getMax() {
+        return isEmpty() ? Double.NaN : max;
+    }
+
+    /**
+     * @return The number of non-empty buckets, which is a measure of the size of the sketch
+     */
+    public int getNumberOfBuckets() {
+        return positive.getNumberOfBuckets() + negative.getNumberOfBuckets() + (zeroCount > 0 ? 1 : 0);
+    }
+
+    /**
+     * Estimates a quantile. The estimate is the value whose rank is <code>quantile * (count - 1)</code> in the sorted
+     * values, with a relative error of at most the relative accuracy of the sketch. The 0 and 1 quantiles are the
+     * exact minimum and maximum.
+     *
+     * @param quantile A number between 0 and 1, e.g., 0.99 for the 99th percentile
+     * @return The estimated quantile or NaN if the sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("The quantile must be between 0 and 1");
+        }
+        if (isEmpty()) {
+            return Double.NaN;
+        }
+        if (quantile == 0) {
+            return min;
+        }
+        if (quantile == 1) {
+            return max;
+        }
+        double rank = quantile * (count - 1);
+        long seen = 0;
+        // The negative values are counted by magnitude, so the most negative ones are in the last bucket
+        for (int i = negative.counts.length - 1; i >= 0; --i) {
+            seen += negative.counts[i];
+            if (seen > rank) {
+                return clamp(-value(negative.offset + i));
+            }
+        }
+        seen += zeroCount;
+        if (seen > rank) {
+            return clamp(0);
+        }
+        for (int i = 0; i < positive.counts.length; ++i) {
+            seen += positive.counts[i];
+            if (seen > rank) {
+                return clamp(value(positive.offset + i));
+            }
+        }
+        return max;
+    }
+
+    private int index(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / logGamma);
+    }
+
+    /**
+     * @return The value that represents the bucket, which is within the relative accuracy of all of the values in it
+     */
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    private double clamp(double value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * Serializes the sketch. Bucket counts are written as variable length integers, so a sketch typically takes one
+     * or two bytes per bucket.
+     */
+    public ByteBuffer toByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 6 * 8 + positive.getSerializedSize() +
+            negative.getSerializedSize());
+        buffer.put(VERSION);
+        buffer.putDouble(relativeAccuracy);
+        buffer.putLong(count);
+        buffer.putLong(zeroCount);
+        buffer.putDouble(sum);
+        buffer.putDouble(min);
+        buffer.putDouble(max);
+        positive.write(buffer);
+        negative.write(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Deserializes a sketch written by {@link #toByteBuffer()}. The position of the buffer is not changed.
+     *
+     * @throws IllegalArgumentException if the buffer does not hold a sketch
+     */
+    public static QuantileSketch fromByteBuffer(ByteBuffer bytes) {
+        ByteBuffer buffer = bytes.duplicate();
+        if (buffer.remaining() < 1 || buffer.get() != VERSION) {
+            throw new IllegalArgumentException("The buffer does not hold a serialized sketch");
+        }
+        QuantileSketch sketch = new QuantileSketch(buffer.getDouble());
+        sketch.count = buffer.getLong();
+        sketch.zeroCount = buffer.getLong();
+        sketch.sum = buffer.getDouble();
+        sketch.min = buffer.getDouble();
+        sketch.max = buffer.getDouble();
+        sketch.positive.read(buffer);
+        sketch.negative.read(buffer);
+        return sketch;
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileSketch{" +
+            "relativeAccuracy=" + relativeAccuracy +
+            ", count=" + count +
+            ", min=" + getMin() +
+            ", max=" + getMax() +
+            ", buckets=" + getNumberOfBuckets() +
+            '}';
+    }
+
+    /**
+     * The counts of a contiguous range of bucket indexes. The range grows in either direction as needed.
+     */
+    private static class Store {
+
+        private static final long[] EMPTY = new long[0];
+
+        long[] counts = EMPTY;
+
+        int offset;
+
+        void add(int index, long n) {
+            if (counts.length == 0) {
+                counts = new long[16];
+                offset = index - 8;
+            } else if (index < offset || index >= offset + counts.length) {
+                int low = Math.min(offset, index);
+                int high = Math.max(offset + counts.length, index + 1);
+                int slack = Math.max(8, (high - low) / 2);
+                int newOffset = index < offset ? low - slack : low;
+                long[] newCounts = new long[high - newOffset + (index < offset ? 0 : slack)];
+                System.arraycopy(counts, 0, newCounts, offset - newOffset, counts.length);
+                counts = newCounts;
+                offset = newOffset;
+            }
+            counts[index - offset] += n;
+        }
+
+        void merge(Store other) {
+            for (int i = 0; i < other.counts.length; ++i) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        int getNumberOfBuckets() {
+            int buckets = 0;
+            for (long c : counts) {
+                if (c != 0) {
+                    ++buckets;
+                }
+            }
+            return buckets;
+        }
+
+        /**
+         * @return The index of the first non-empty bucket and the number of buckets up to the last non-empty one
+         */
+        private int[] getRange() {
+            int first = 0;
+            while (first < counts.length && counts[first] == 0) {
+                ++first;
+            }
+            int last = counts.length - 1;
+            while (last >= first && counts[last] == 0) {
+                --last;
+            }
+            return new int[] {first, last - first + 1};
+        }
+
+        /**
+         * @return An upper bound of the size of the serialized store
+         */
+        int getSerializedSize() {
+            return 5 + 5 + 10 * getRange()[1];
+        }
+
+        void write(ByteBuffer buffer) {
+            int[] range = getRange();
+            writeVarLong(buffer, range[1]);
+            if (range[1] == 0) {
+                return;
+            }
+            // The first index can be negative, so it is zigzag encoded
+            int first = offset + range[0];
+            writeVarLong(buffer, (first << 1) ^ (first >> 31));
+            for (int i = range[0]; i < range[0] + range[1]; ++i) {
+                writeVarLong(buffer, counts[i]);
+            }
+        }
+
+        void read(ByteBuffer buffer) {
+            int length = (int) readVarLong(buffer);
+            if (length == 0) {
+                counts = EMPTY;
+                return;
+            }
+            int zigzag = (int) readVarLong(buffer);
+            offset = (zigzag >>> 1) ^ -(zigzag & 1);
+            counts = new long[length];
+            for (int i = 0; i < length; ++i) {
+                counts[i] = readVarLong(buffer);
+            }
+        }
+
+        private static void writeVarLong(ByteBuffer buffer, long value) {
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private static long readVarLong(ByteBuffer buffer) {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed variable length integer");
+        }
+    }
+}
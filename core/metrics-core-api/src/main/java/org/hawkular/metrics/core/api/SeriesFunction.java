@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.api;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The function with which the values of several series are combined into one value per time bucket. Supported
+ * functions are,
+ *
+ * <ul>
+ *   <li>sum</li>
+ *   <li>avg</li>
+ *   <li>min</li>
+ *   <li>max</li>
+ *   <li>p<i>n</i>, the <i>n</i>th percentile, e.g., p95 or p99.9</li>
+ * </ul>
+ */
+public class SeriesFunction {
+
+    private static final Pattern PERCENTILE_PATTERN = Pattern.compile("p(\\d+(\\.\\d+)?)");
+
+    public static enum Type {
+        SUM, AVG, MIN, MAX, PERCENTILE
+    }
+
+    public static final SeriesFunction SUM = new SeriesFunction(Type.SUM, 0);
+
+    public static final SeriesFunction AVG = new SeriesFunction(Type.AVG, 0);
+
+    public static final SeriesFunction MIN = new SeriesFunction(Type.MIN, 0);
+
+    public static final SeriesFunction MAX = new SeriesFunction(Type.MAX, 0);
+
+    private final Type type;
+
+    private final double percentile;
+
+    private SeriesFunction(Type type, double percentile) {
+        this.type = type;
+        this.percentile = percentile;
+    }
+
+    /**
+     * @param percentile A number between 0 and 100
+     */
+    public static SeriesFunction percentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile must be between 0 and 100");
+        }
+        return new SeriesFunction(Type.PERCENTILE, percentile);
+    }
+
+    /**
+     * Parses the name of a function, which is one of sum, avg, min, max or a percentile like p95.
+     *
+     * @throws java.lang.IllegalArgumentException if the string does not parse
+     */
+    public static SeriesFunction parse(String s) {
+        switch (s) {
+            case "sum": return SUM;
+            case "avg": return AVG;
+            case "min": return MIN;
+            case "max": return MAX;
+            default:
+                Matcher matcher = PERCENTILE_PATTERN.matcher(s);
+                if (!matcher.matches()) {
+                    throw new IllegalArgumentException(s + " is not a recognized function. It must be one of sum, " +
+                        "avg, min, max, or a percentile like p95");
+                }
+                return percentile(Double.parseDouble(matcher.group(1)));
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The percentile between 0 and 100 if the type is {@link Type#PERCENTILE}
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SeriesFunction that = (SeriesFunction) o;
+        return type == that.type && Double.compare(percentile, that.percentile) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + Double.hashCode(percentile);
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.PERCENTILE) {
+            return "p" + (percentile == Math.rint(percentile) ? Long.toString((long) percentile) :
+                Double.toString(percentile));
+        }
+        return type.name().toLowerCase();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.api;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class NumericSeriesTest {
+
+    @Test
+    public void buildFromDataInDescendingOrder() {
+        Map<String, Optional<String>> tags = ImmutableMap.of("x", Optional.of("1"));
+        NumericSeries.Builder builder = new NumericSeries.Builder("t1", new MetricId("m1"));
+        for (int i = 40; i > 0; --i) {
+            if (i == 30) {
+                builder.add(i, i * 1.5, tags);
+            } else {
+                builder.add(i, i * 1.5);
+            }
+        }
+        NumericSeries series = builder.build();
+
+        assertEquals(series.size(), 40);
+        for (int i = 0; i < 40; ++i) {
+            assertEquals(series.getTimestamp(i), i + 1);
+            assertEquals(series.getValue(i), (i + 1) * 1.5);
+        }
+        assertEquals(series.getTags(29), tags);
+        assertEquals(series.getTags(10), Collections.emptyMap());
+    }
+
+    @Test
+    public void buildFromDataInAscendingOrder() {
+        NumericSeries series = new NumericSeries.Builder("t1", new MetricId("m1"))
+            .add(1, 10)
+            .add(2, 20)
+            .add(2, 30)
+            .build();
+
+        assertEquals(series.getTimestamps(), new long[] {1, 2, 2});
+        assertEquals(series.getValues(), new double[] {10, 20, 30});
+    }
+
+    @Test
+    public void buildEmptySeries() {
+        NumericSeries series = new NumericSeries.Builder("t1", new MetricId("m1")).build();
+
+        assertTrue(series.isEmpty());
+        assertEquals(series.getTimestamps().length, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void doNotAllowDataOutOfOrder() {
+        new NumericSeries.Builder("t1", new MetricId("m1"))
+            .add(3, 1)
+            .add(2, 1)
+            .add(4, 1);
+    }
+
+}
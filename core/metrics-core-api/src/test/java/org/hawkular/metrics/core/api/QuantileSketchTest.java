@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.api;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999, 1};
+
+    @Test
+    public void estimateQuantilesWithinRelativeAccuracy() {
+        Random random = new Random(42);
+        double[] values = new double[100_000];
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < values.length; ++i) {
+            // Log-normally distributed, like latencies
+            values[i] = Math.exp(3 + random.nextGaussian());
+            sketch.add(values[i]);
+        }
+
+        assertEquals(sketch.getCount(), values.length);
+        assertQuantiles(sketch, values, QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        assertTrue(sketch.getNumberOfBuckets() < 700, "The sketch has " + sketch.getNumberOfBuckets() + " buckets");
+    }
+
+    @Test
+    public void estimateQuantilesOfNegativeAndZeroValues() {
+        double[] values = new double[2001];
+        QuantileSketch sketch = new QuantileSketch(0.02);
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = (i - 1000) / 10.0;
+            sketch.add(values[i]);
+        }
+
+        assertEquals(sketch.getMin(), -100.0);
+        assertEquals(sketch.getMax(), 100.0);
+        assertEquals(sketch.getQuantile(0.5), 0.0);
+        assertQuantiles(sketch, values, 0.02);
+    }
+
+    @Test
+    public void mergeSketches() {
+        Random random = new Random(7);
+        double[] values = new double[20_000];
+        QuantileSketch merged = new QuantileSketch();
+        QuantileSketch all = new QuantileSketch();
+        for (int i = 0; i < 20; ++i) {
+            QuantileSketch part = new QuantileSketch();
+            for (int j = 0; j < 1000; ++j) {
+                // Each part covers a different range so that the stores have to grow in both directions
+                double value = (i % 2 == 0 ? 1000.0 / (i + 1) : 1000.0 * i) * random.nextDouble();
+                values[i * 1000 + j] = value;
+                part.add(value);
+                all.add(value);
+            }
+            merged.merge(part);
+        }
+
+        assertEquals(merged.getCount(), all.getCount());
+        assertEquals(merged.getMin(), all.getMin());
+        assertEquals(merged.getMax(), all.getMax());
+        for (double quantile : QUANTILES) {
+            assertEquals(merged.getQuantile(quantile), all.getQuantile(quantile), "The merged sketch should give " +
+                "the same result as a single one for the " + quantile + " quantile");
+        }
+        assertQuantiles(merged, values, QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void serializeAndDeserialize() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = -50; i <= 5000; ++i) {
+            sketch.add(i * 0.5);
+        }
+        sketch.add(7, 1000);
+
+        ByteBuffer buffer = sketch.toByteBuffer();
+        QuantileSketch copy = QuantileSketch.fromByteBuffer(buffer);
+
+        assertEquals(buffer.position(), 0, "The buffer should not be consumed");
+        assertEquals(copy.getRelativeAccuracy(), sketch.getRelativeAccuracy());
+        assertEquals(copy.getCount(), sketch.getCount());
+        assertEquals(copy.getSum(), sketch.getSum());
+        assertEquals(copy.getMin(), sketch.getMin());
+        assertEquals(copy.getMax(), sketch.getMax());
+        assertEquals(copy.getNumberOfBuckets(), sketch.getNumberOfBuckets());
+        for (double quantile : QUANTILES) {
+            assertEquals(copy.getQuantile(quantile), sketch.getQuantile(quantile));
+        }
+        assertTrue(buffer.remaining() < 4 * sketch.getNumberOfBuckets(), "The serialized sketch takes " +
+            buffer.remaining() + " bytes");
+
+        QuantileSketch empty = QuantileSketch.fromByteBuffer(new QuantileSketch().toByteBuffer());
+        assertTrue(empty.isEmpty());
+    }
+
+    @Test
+    public void emptySketch() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(Double.NaN);
+        sketch.add(Double.POSITIVE_INFINITY);
+
+        assertTrue(sketch.isEmpty());
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+        assertTrue(Double.isNaN(sketch.getMin()));
+        assertTrue(Double.isNaN(sketch.getMax()));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void doNotMergeSketchesWithDifferentAccuracies() {
+        new QuantileSketch(0.01).merge(new QuantileSketch(0.02));
+    }
+
+    private static void assertQuantiles(QuantileSketch sketch, double[] values, double relativeAccuracy) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double quantile : QUANTILES) {
+            double expected = sorted[(int) (quantile * (sorted.length - 1))];
+            double actual = sketch.getQuantile(quantile);
+            assertTrue(Math.abs(actual - expected) <= relativeAccuracy * Math.abs(expected) + 1e-9, "Expected the " +
+                quantile + " quantile to be within " + relativeAccuracy + " of " + expected + " but got " + actual);
+        }
+    }
+}
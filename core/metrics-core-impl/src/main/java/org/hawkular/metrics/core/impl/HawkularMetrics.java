@@ -18,10 +18,14 @@ package org.hawkular.metrics.core.impl;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
+import org.hawkular.metrics.core.api.Interval;
 import org.hawkular.metrics.core.api.MetricsService;
 import org.hawkular.metrics.core.impl.cassandra.MetricsServiceCassandra;
 
+import com.datastax.driver.core.ProtocolOptions;
+
 /**
  * @author John Sanda
  */
@@ -31,6 +35,8 @@ public class HawkularMetrics {
 
         private final Map<String, String> options;
 
+        private ExecutorService executor;
+
         public Builder() {
             String cassandraCqlPortString = System.getenv("CASSANDRA_CQL_PORT");
             if (cassandraCqlPortString == null) {
@@ -75,8 +81,209 @@ public class HawkularMetrics {
             return this;
         }
 
+        /**
+         * Sets the size of the date partitions in which data points are stored, e.g., 1d or 12hr.
+         */
+        public Builder withDataPartitionSize(Interval partitionSize) {
+            options.put("partition-size", partitionSize.toString());
+            return this;
+        }
+
+        /**
+         * Sets the number of rows fetched at a time when streaming data.
+         */
+        public Builder withPageSize(int pageSize) {
+            options.put("page-size", Integer.toString(pageSize));
+            return this;
+        }
+
+        /**
+         * Sets the number of date partitions that a range query reads at the same time.
+         */
+        public Builder withPartitionQueryParallelism(int parallelism) {
+            options.put("partition-query-parallelism", Integer.toString(parallelism));
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of date partitions that the time range of a query can span. Queries over longer
+         * ranges fail with an {@link IllegalArgumentException}. It defaults to 1000.
+         */
+        public Builder withMaxQueryPartitions(int maxPartitions) {
+            options.put("max-query-partitions", Integer.toString(maxPartitions));
+            return this;
+        }
+
+        /**
+         * Sets whether raw data queries also read the partition in which data was stored before it was partitioned
+         * by time slice. It defaults to true and can be turned off once the data written before the upgrade has
+         * expired.
+         */
+        public Builder withLegacyPartitionReads(boolean readLegacyPartition) {
+            options.put("read-legacy-partition", Boolean.toString(readLegacyPartition));
+            return this;
+        }
+
+        /**
+         * Sets whether tag queries also read the tags table of keyspaces created by earlier versions, which holds the
+         * data tagged before the upgrade. It defaults to true and can be turned off once that data has expired.
+         */
+        public Builder withLegacyTagReads(boolean readLegacyTags) {
+            options.put("read-legacy-tags", Boolean.toString(readLegacyTags));
+            return this;
+        }
+
+        /**
+         * Sets the limits for batched writes. Statements are grouped into single partition batches of at most
+         * maxRows statements and maxBytes bytes of bound values, and at most maxInFlight batches execute concurrently
+         * on each Cassandra node.
+         */
+        public Builder withWriteBatching(int maxRows, int maxBytes, int maxInFlight) {
+            options.put("write-batch-rows", Integer.toString(maxRows));
+            options.put("write-batch-bytes", Integer.toString(maxBytes));
+            options.put("write-batches-in-flight", Integer.toString(maxInFlight));
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of batches waiting to be executed. Writes fail with a
+         * {@link java.util.concurrent.RejectedExecutionException} while the queue is full.
+         */
+        public Builder withWriteQueueSize(int maxQueued) {
+            options.put("write-queue-size", Integer.toString(maxQueued));
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of metrics that are remembered as already written to the metrics index, and the
+         * number of minutes after which they are written again.
+         */
+        public Builder withMetricsIndexCache(int maxSize, int expirationMinutes) {
+            options.put("metrics-index-cache-size", Integer.toString(maxSize));
+            options.put("metrics-index-cache-expiration", Integer.toString(expirationMinutes));
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of metric definitions, i.e., tags and data retention, that are cached.
+         */
+        public Builder withMetricCacheSize(int maxSize) {
+            options.put("metric-cache-size", Integer.toString(maxSize));
+            return this;
+        }
+
+        /**
+         * Sets the number of minutes after which a cached metric definition expires, which bounds how long changes
+         * made on other nodes go unnoticed.
+         */
+        public Builder withMetricCacheExpiration(int minutes) {
+            options.put("metric-cache-expiration", Integer.toString(minutes));
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of tenants whose data retention settings are cached. At startup the settings of up
+         * to this many tenants are loaded in the background.
+         */
+        public Builder withRetentionsCacheSize(int maxSize) {
+            options.put("retentions-cache-size", Integer.toString(maxSize));
+            return this;
+        }
+
+        /**
+         * Sets the number of minutes between reloads of the tenants, which picks up tenants created on other nodes.
+         */
+        public Builder withTenantsRefreshInterval(int minutes) {
+            options.put("tenants-refresh-interval", Integer.toString(minutes));
+            return this;
+        }
+
+        /**
+         * Sets the number of minutes between reloads of the tag indexes, which picks up metrics created or updated on
+         * other nodes.
+         */
+        public Builder withTagIndexReloadInterval(int minutes) {
+            options.put("tag-index-reload-interval", Integer.toString(minutes));
+            return this;
+        }
+
+        /**
+         * Sets the number of threads that map query results. It defaults to the number of processors. This is ignored
+         * when an executor is given with {@link #withExecutor(ExecutorService)}.
+         */
+        public Builder withTaskThreads(int threads) {
+            options.put("task-threads", Integer.toString(threads));
+            return this;
+        }
+
+        /**
+         * Sets the limits of aggregation queries, i.e., the number of threads that merge their series and the maximum
+         * number of series that a query can combine. At most twice as many aggregations as there are threads run at
+         * the same time. Further ones are rejected.
+         */
+        public Builder withAggregationLimits(int threads, int maxSeries) {
+            options.put("aggregation-threads", Integer.toString(threads));
+            options.put("max-aggregated-series", Integer.toString(maxSeries));
+            return this;
+        }
+
+        /**
+         * Sets the data center whose nodes receive requests. It defaults to the data center of the contact points.
+         * Requests are always routed to a replica of the partition they target.
+         */
+        public Builder withLocalDataCenter(String dataCenter) {
+            options.put("local-datacenter", dataCenter);
+            return this;
+        }
+
+        /**
+         * Sets the compression of the requests to and responses from Cassandra. It defaults to LZ4.
+         */
+        public Builder withCompression(ProtocolOptions.Compression compression) {
+            options.put("compression", compression.name());
+            return this;
+        }
+
+        /**
+         * Sets the number of connections to each node of the local data center. Connections are added up to
+         * maxConnections when a connection has more than maxRequestsPerConnection concurrent requests.
+         */
+        public Builder withConnectionPool(int coreConnections, int maxConnections, int maxRequestsPerConnection) {
+            options.put("core-connections", Integer.toString(coreConnections));
+            options.put("max-connections", Integer.toString(maxConnections));
+            options.put("max-requests-per-connection", Integer.toString(maxRequestsPerConnection));
+            return this;
+        }
+
+        /**
+         * Sets the number of milliseconds to wait for a connection to and a response from a Cassandra node.
+         */
+        public Builder withTimeouts(int connectTimeout, int readTimeout) {
+            options.put("connect-timeout", Integer.toString(connectTimeout));
+            options.put("read-timeout", Integer.toString(readTimeout));
+            return this;
+        }
+
+        /**
+         * Sets the number of rows fetched at a time by queries. Streaming queries use the page size instead.
+         */
+        public Builder withFetchSize(int fetchSize) {
+            options.put("fetch-size", Integer.toString(fetchSize));
+            return this;
+        }
+
+        /**
+         * Sets the executor on which query results are mapped instead of the thread pool that is otherwise created.
+         * The executor is not shut down with the service.
+         */
+        public Builder withExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
         public MetricsService build() {
-            MetricsService metricsService = new MetricsServiceCassandra();
+            MetricsService metricsService = executor == null ? new MetricsServiceCassandra() :
+                new MetricsServiceCassandra(executor);
             metricsService.startUp(options);
 
             return metricsService;
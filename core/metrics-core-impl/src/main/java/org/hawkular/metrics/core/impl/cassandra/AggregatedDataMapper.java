@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import java.util.Set;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.UDTValue;
+import com.google.common.base.Function;
+
+import org.hawkular.metrics.core.api.AggregatedValue;
+import org.hawkular.metrics.core.api.Interval;
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.NumericData;
+import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.api.QuantileSketch;
+
+/**
+ * Maps the rows of a pre-computed aggregate metric to the raw metric from which they were computed. Each row becomes a
+ * data point whose value is NaN and whose {@link NumericData#getAggregatedValues() aggregated values} hold the
+ * results of the aggregation functions. Rows that were stored with a quantile sketch get it as the data point's
+ * {@link NumericData#getSketch() sketch}.
+ */
+public class AggregatedDataMapper implements Function<ResultSet, NumericMetric> {
+
+    private enum ColumnIndex {
+        TENANT_ID,
+        METRIC_NAME,
+        INTERVAL,
+        DPART,
+        TIME,
+        AGGREGATES,
+        SKETCH
+    }
+
+    private final String tenantId;
+
+    private final MetricId id;
+
+    /**
+     * @param tenantId The tenant that owns the metric
+     * @param id The id of the raw metric from which the aggregates were computed
+     */
+    public AggregatedDataMapper(String tenantId, MetricId id) {
+        this.tenantId = tenantId;
+        this.id = id;
+    }
+
+    @Override
+    public NumericMetric apply(ResultSet resultSet) {
+        if (resultSet.isExhausted()) {
+            return null;
+        }
+
+        NumericMetric metric = new NumericMetric(tenantId, id);
+        for (Row row : resultSet) {
+            NumericData data = new NumericData(metric, row.getUUID(ColumnIndex.TIME.ordinal()), Double.NaN);
+            Set<UDTValue> aggregates = row.getSet(ColumnIndex.AGGREGATES.ordinal(), UDTValue.class);
+            for (UDTValue value : aggregates) {
+                data.addAggregatedValue(getAggregatedValue(value));
+            }
+            if (!row.isNull(ColumnIndex.SKETCH.ordinal())) {
+                data.setSketch(QuantileSketch.fromByteBuffer(row.getBytes(ColumnIndex.SKETCH.ordinal())));
+            }
+            metric.addData(data);
+        }
+
+        return metric;
+    }
+
+    private AggregatedValue getAggregatedValue(UDTValue value) {
+        Interval srcMetricInterval = null;
+        if (!value.isNull("src_metric_interval")) {
+            srcMetricInterval = Interval.parse(value.getString("src_metric_interval"));
+        }
+        return new AggregatedValue(value.getString("type"), value.getDouble("value"), value.getString("src_metric"),
+            srcMetricInterval, value.getUUID("time"));
+    }
+}
@@ -20,12 +20,14 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import com.datastax.driver.core.ResultSetFuture;
 
 import org.hawkular.metrics.core.api.Availability;
 import org.hawkular.metrics.core.api.AvailabilityMetric;
 import org.hawkular.metrics.core.api.Counter;
+import org.hawkular.metrics.core.api.HistogramMetric;
 import org.hawkular.metrics.core.api.Interval;
 import org.hawkular.metrics.core.api.Metric;
 import org.hawkular.metrics.core.api.MetricData;
@@ -44,6 +46,8 @@ public interface DataAccess {
 
     ResultSetFuture findAllTenantIds();
 
+    ResultSetFuture findAllTenants();
+
     ResultSetFuture findTenant(String id);
 
     ResultSetFuture insertMetricInMetricsIndex(Metric metric);
@@ -63,6 +67,11 @@ public interface DataAccess {
 
     ResultSetFuture findMetricsInMetricsIndex(String tenantId, MetricType type);
 
+    /**
+     * Reads the single metrics index row of the metric. The result set is empty if the metric is not in the index.
+     */
+    ResultSetFuture findMetricInMetricsIndex(String tenantId, MetricType type, MetricId id);
+
     ResultSetFuture insertData(NumericMetric metric, int ttl);
 
     ResultSetFuture findData(NumericMetric metric, long startTime, long endTime);
@@ -71,6 +80,16 @@ public interface DataAccess {
 
     ResultSetFuture findData(NumericMetric metric, long timestamp, boolean includeWriteTime);
 
+    /**
+     * Like {@link #findData(NumericMetric, long, long)} but the rows are fetched from Cassandra in pages of
+     * <code>fetchSize</code> rows as the result set is iterated.
+     */
+    ResultSetFuture findPagedData(NumericMetric metric, long startTime, long endTime, int fetchSize);
+
+    ResultSetFuture insertAggregatedData(NumericMetric metric, int ttl);
+
+    ResultSetFuture findAggregatedData(NumericMetric metric, long startTime, long endTime);
+
     ResultSetFuture findData(AvailabilityMetric metric, long startTime, long endTime);
 
     ResultSetFuture findData(AvailabilityMetric metric, long startTime, long endTime, boolean includeWriteTime);
@@ -85,16 +104,41 @@ public interface DataAccess {
 
     ResultSetFuture insertAvailabilityTag(String tag, String tagValue, List<Availability> data);
 
-    ResultSetFuture updateDataWithTag(MetricData data, Map<String, String> tags);
+    /**
+     * Adds the tags to the data points. The updates are grouped into single partition batches.
+     */
+    ResultSetFuture updateDataWithTag(List<? extends MetricData> data, Map<String, String> tags);
+
+    ResultSetFuture findNumericDataByTag(String tenantId, String tag, String tagValue, long dpart);
+
+    ResultSetFuture findAvailabilityByTag(String tenantId, String tag, String tagValue, long dpart);
 
-    ResultSetFuture findNumericDataByTag(String tenantId, String tag, String tagValue);
+    /**
+     * @return Whether the keyspace has the tags table of earlier versions, in which tagged data is not partitioned by
+     * dpart
+     */
+    boolean hasLegacyTags();
 
-    ResultSetFuture findAvailabilityByTag(String tenantId, String tag, String tagValue);
+    /**
+     * Finds tagged numeric data in the tags table of earlier versions. It must only be called if
+     * {@link #hasLegacyTags()} is true.
+     */
+    ResultSetFuture findNumericDataByLegacyTag(String tenantId, String tag, String tagValue);
+
+    /**
+     * Finds tagged availability data in the tags table of earlier versions. It must only be called if
+     * {@link #hasLegacyTags()} is true.
+     */
+    ResultSetFuture findAvailabilityByLegacyTag(String tenantId, String tag, String tagValue);
 
     ResultSetFuture insertData(AvailabilityMetric metric, int ttl);
 
     ResultSetFuture findAvailabilityData(AvailabilityMetric metric, long startTime, long endTime);
 
+    ResultSetFuture insertData(HistogramMetric metric, int ttl);
+
+    ResultSetFuture findHistogramData(HistogramMetric metric, long startTime, long endTime);
+
     ResultSetFuture updateCounter(Counter counter);
 
     ResultSetFuture updateCounters(Collection<Counter> counters);
@@ -110,4 +154,20 @@ public interface DataAccess {
     ResultSetFuture deleteFromMetricsTagsIndex(Metric metric, Map<String, String> tags);
 
     ResultSetFuture findMetricsByTag(String tenantId, String tag);
+
+    /**
+     * Takes the rollup lease of the tenant if no node holds it. This is a lightweight transaction whose result row
+     * tells whether it was applied.
+     */
+    ResultSetFuture acquireRollupLease(String tenantId, UUID owner, int ttl);
+
+    /**
+     * Extends the rollup lease of the tenant if the owner still holds it. This is a lightweight transaction whose
+     * result row tells whether it was applied.
+     */
+    ResultSetFuture renewRollupLease(String tenantId, UUID owner, int ttl);
+
+    ResultSetFuture findRollupProgress(String tenantId);
+
+    ResultSetFuture updateRollupProgress(String tenantId, Interval interval, long computedUntil);
 }
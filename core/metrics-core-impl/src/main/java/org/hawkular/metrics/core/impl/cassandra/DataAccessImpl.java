@@ -20,10 +20,13 @@ import static java.util.stream.Collectors.toMap;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.function.BiFunction;
 
 import com.datastax.driver.core.BatchStatement;
@@ -39,10 +42,13 @@ import com.datastax.driver.core.UDTValue;
 import com.datastax.driver.core.UserType;
 import com.datastax.driver.core.utils.UUIDs;
 
+import org.hawkular.metrics.core.api.AggregatedValue;
 import org.hawkular.metrics.core.api.AggregationTemplate;
 import org.hawkular.metrics.core.api.Availability;
 import org.hawkular.metrics.core.api.AvailabilityMetric;
 import org.hawkular.metrics.core.api.Counter;
+import org.hawkular.metrics.core.api.HistogramData;
+import org.hawkular.metrics.core.api.HistogramMetric;
 import org.hawkular.metrics.core.api.Interval;
 import org.hawkular.metrics.core.api.Metric;
 import org.hawkular.metrics.core.api.MetricData;
@@ -63,10 +69,16 @@ public class DataAccessImpl implements DataAccess {
 
     private Session session;
 
+    private DatePartitioner partitioner;
+
+    private WriteCoalescer writeCoalescer;
+
     private PreparedStatement insertTenant;
 
     private PreparedStatement findAllTenantIds;
 
+    private PreparedStatement findAllTenants;
+
     private PreparedStatement findTenant;
 
     private PreparedStatement insertIntoMetricsIndex;
@@ -91,6 +103,12 @@ public class DataAccessImpl implements DataAccess {
 
     private PreparedStatement findAvailabilityByDateRangeInclusive;
 
+    private PreparedStatement insertAggregatedData;
+
+    private PreparedStatement insertAggregatedDataWithSketch;
+
+    private PreparedStatement findAggregatedData;
+
     private PreparedStatement deleteNumericMetric;
 
     private PreparedStatement findNumericMetrics;
@@ -111,12 +129,22 @@ public class DataAccessImpl implements DataAccess {
 
     private PreparedStatement findAvailabilityByTag;
 
+    private PreparedStatement findNumericDataByLegacyTag;
+
+    private PreparedStatement findAvailabilityByLegacyTag;
+
     private PreparedStatement insertAvailability;
 
     private PreparedStatement findAvailabilities;
 
+    private PreparedStatement insertHistogram;
+
+    private PreparedStatement findHistograms;
+
     private PreparedStatement updateMetricsIndex;
 
+    private PreparedStatement findMetricInMetricsIndex;
+
     private PreparedStatement addTagsToMetricsIndex;
 
     private PreparedStatement deleteTagsFromMetricsIndex;
@@ -135,8 +163,26 @@ public class DataAccessImpl implements DataAccess {
 
     private PreparedStatement findMetricsByTagName;
 
+    private PreparedStatement acquireRollupLease;
+
+    private PreparedStatement renewRollupLease;
+
+    private PreparedStatement findRollupProgress;
+
+    private PreparedStatement updateRollupProgress;
+
     public DataAccessImpl(Session session) {
+        this(session, new DatePartitioner());
+    }
+
+    public DataAccessImpl(Session session, DatePartitioner partitioner) {
+        this(session, partitioner, new WriteCoalescer(session));
+    }
+
+    public DataAccessImpl(Session session, DatePartitioner partitioner, WriteCoalescer writeCoalescer) {
         this.session = session;
+        this.partitioner = partitioner;
+        this.writeCoalescer = writeCoalescer;
         initPreparedStatements();
     }
 
@@ -148,6 +194,8 @@ public class DataAccessImpl implements DataAccess {
 
         findAllTenantIds = session.prepare("SELECT DISTINCT id FROM tenants");
 
+        findAllTenants = session.prepare("SELECT id, retentions, aggregation_templates FROM tenants");
+
         findTenant = session.prepare("SELECT id, retentions, aggregation_templates FROM tenants WHERE id = ?");
 
         findMetric = session.prepare(
@@ -193,6 +241,11 @@ public class DataAccessImpl implements DataAccess {
             "FROM metrics_idx " +
             "WHERE tenant_id = ? AND type = ?");
 
+        findMetricInMetricsIndex = session.prepare(
+            "SELECT metric " +
+            "FROM metrics_idx " +
+            "WHERE tenant_id = ? AND type = ? AND interval = ? AND metric = ?");
+
         insertNumericData = session.prepare(
             "UPDATE data " +
             "USING TTL ?" +
@@ -232,6 +285,24 @@ public class DataAccessImpl implements DataAccess {
             "WHERE tenant_id = ? AND type = ? AND metric = ? AND interval = ? AND dpart = ? AND time >= ?"
                 + " AND time <= ?");
 
+        insertAggregatedData = session.prepare(
+            "UPDATE data " +
+            "USING TTL ? " +
+            "SET aggregates = ? " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND interval = ? AND dpart = ? AND time = ?");
+
+        insertAggregatedDataWithSketch = session.prepare(
+            "UPDATE data " +
+            "USING TTL ? " +
+            "SET aggregates = ?, sketch = ? " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND interval = ? AND dpart = ? AND time = ?");
+
+        findAggregatedData = session.prepare(
+            "SELECT tenant_id, metric, interval, dpart, time, aggregates, sketch " +
+            "FROM data " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND interval = ? AND dpart = ? AND time >= ?"
+                + " AND time < ?");
+
         deleteNumericMetric = session.prepare(
             "DELETE FROM data " +
             "WHERE tenant_id = ? AND type = ? AND metric = ? AND interval = ? AND dpart = ?");
@@ -251,13 +322,13 @@ public class DataAccessImpl implements DataAccess {
             "SELECT tenant_id, group, c_name, c_value FROM counters WHERE tenant_id = ? AND group = ? AND c_name IN ?");
 
         insertNumericTags = session.prepare(
-            "INSERT INTO tags (tenant_id, tname, tvalue, type, metric, interval, time, n_value) " +
-            "VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+            "INSERT INTO tags_v2 (tenant_id, tname, dpart, tvalue, type, metric, interval, time, n_value) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) " +
             "USING TTL ?");
 
         insertAvailabilityTags = session.prepare(
-            "INSERT INTO tags (tenant_id, tname, tvalue, type, metric, interval, time, availability) " +
-            "VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+            "INSERT INTO tags_v2 (tenant_id, tname, dpart, tvalue, type, metric, interval, time, availability) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) " +
             "USING TTL ?");
 
         updateDataWithTags = session.prepare(
@@ -267,13 +338,26 @@ public class DataAccessImpl implements DataAccess {
 
         findNumericDataByTag = session.prepare(
             "SELECT tenant_id, tname, tvalue, type, metric, interval, time, n_value " +
-            "FROM tags " +
-            "WHERE tenant_id = ? AND tname = ? AND tvalue = ?");
+            "FROM tags_v2 " +
+            "WHERE tenant_id = ? AND tname = ? AND dpart = ? AND tvalue = ?");
 
         findAvailabilityByTag = session.prepare(
             "SELECT tenant_id, tname, tvalue, type, metric, interval, time, availability " +
-            "FROM tags " +
-            "WHERE tenant_id = ? AND tname = ? AND tvalue = ?");
+            "FROM tags_v2 " +
+            "WHERE tenant_id = ? AND tname = ? AND dpart = ? AND tvalue = ?");
+
+        // Keyspaces created by earlier versions keep the tags table that tags_v2 replaced
+        if (getKeyspace().getTable("tags") != null) {
+            findNumericDataByLegacyTag = session.prepare(
+                "SELECT tenant_id, tname, tvalue, type, metric, interval, time, n_value " +
+                "FROM tags " +
+                "WHERE tenant_id = ? AND tname = ? AND tvalue = ?");
+
+            findAvailabilityByLegacyTag = session.prepare(
+                "SELECT tenant_id, tname, tvalue, type, metric, interval, time, availability " +
+                "FROM tags " +
+                "WHERE tenant_id = ? AND tname = ? AND tvalue = ?");
+        }
 
         insertAvailability = session.prepare(
             "UPDATE data " +
@@ -287,6 +371,18 @@ public class DataAccessImpl implements DataAccess {
             "WHERE tenant_id = ? AND type = ? AND metric = ? AND interval = ? AND dpart = ? AND time >= ?"
                 + " AND time < ?");
 
+        insertHistogram = session.prepare(
+            "UPDATE data " +
+            "USING TTL ? " +
+            "SET m_tags = m_tags + ?, sketch = ? " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND interval = ? AND dpart = ? AND time = ?");
+
+        findHistograms = session.prepare(
+            "SELECT tenant_id, metric, interval, dpart, time, m_tags, data_retention, sketch " +
+            "FROM data " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND interval = ? AND dpart = ? AND time >= ?"
+                + " AND time < ?");
+
         findAvailabilitiesWithWriteTime = session.prepare(
             "SELECT tenant_id, metric, interval, dpart, time, m_tags, data_retention, availability, tags,"
                 + " WRITETIME(availability) " +
@@ -314,6 +410,18 @@ public class DataAccessImpl implements DataAccess {
             "SELECT tvalue, type, metric, interval " +
             "FROM metrics_tags_idx " +
             "WHERE tenant_id = ? AND tname = ?");
+
+        acquireRollupLease = session.prepare(
+            "INSERT INTO rollup_leases (tenant_id, owner) VALUES (?, ?) IF NOT EXISTS USING TTL ?");
+
+        renewRollupLease = session.prepare(
+            "UPDATE rollup_leases USING TTL ? SET owner = ? WHERE tenant_id = ? IF owner = ?");
+
+        findRollupProgress = session.prepare(
+            "SELECT interval, computed_until FROM rollup_progress WHERE tenant_id = ?");
+
+        updateRollupProgress = session.prepare(
+            "UPDATE rollup_progress SET computed_until = ? WHERE tenant_id = ? AND interval = ?");
     }
 
     @Override
@@ -349,6 +457,11 @@ public class DataAccessImpl implements DataAccess {
         return session.executeAsync(findAllTenantIds.bind());
     }
 
+    @Override
+    public ResultSetFuture findAllTenants() {
+        return session.executeAsync(findAllTenants.bind());
+    }
+
     @Override
     public ResultSetFuture findTenant(String id) {
         return session.executeAsync(findTenant.bind(id));
@@ -371,11 +484,10 @@ public class DataAccessImpl implements DataAccess {
             id.getInterval().toString(), dpart));
     }
 
-    // This method updates the metric tags and data retention in the data table. In the
-    // long term after we add support for bucketing/date partitioning I am not sure that we
-    // will store metric tags and data retention in the data table. We would have to
-    // determine when we start writing data to a new partition, e.g., the start of the next
-    // day, and then add the tags and retention to the new partition.
+    // This method updates the metric tags and data retention in the data table. Data points
+    // are stored in date partitions determined by the DatePartitioner, but the metric level
+    // metadata always lives in the Metric.DPART partition so that it does not have to be
+    // copied each time we start writing to a new partition.
     @Override
     public ResultSetFuture addTagsAndDataRetention(Metric metric) {
         return session.executeAsync(addMetadataAndDataRetention.bind(getTags(metric), metric.getDataRetention(),
@@ -416,12 +528,12 @@ public class DataAccessImpl implements DataAccess {
 
     @Override
     public <T extends Metric> ResultSetFuture updateMetricsIndex(List<T> metrics) {
-        BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        List<BoundStatement> statements = new ArrayList<>();
         for (T metric : metrics) {
-            batchStatement.add(updateMetricsIndex.bind(metric.getTenantId(), metric.getType().getCode(),
+            statements.add(updateMetricsIndex.bind(metric.getTenantId(), metric.getType().getCode(),
                 metric.getId().getInterval().toString(), metric.getId().getName()));
         }
-        return session.executeAsync(batchStatement);
+        return writeCoalescer.execute(statements);
     }
 
     @Override
@@ -429,15 +541,21 @@ public class DataAccessImpl implements DataAccess {
         return session.executeAsync(readMetricsIndex.bind(tenantId, type.getCode()));
     }
 
+    @Override
+    public ResultSetFuture findMetricInMetricsIndex(String tenantId, MetricType type, MetricId id) {
+        return session.executeAsync(findMetricInMetricsIndex.bind(tenantId, type.getCode(),
+            id.getInterval().toString(), id.getName()));
+    }
+
     @Override
     public ResultSetFuture insertData(NumericMetric metric, int ttl) {
-        BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        List<BoundStatement> statements = new ArrayList<>();
         for (NumericData d : metric.getData()) {
-            batchStatement.add(insertNumericData.bind(ttl, getTags(metric), d.getValue(), metric.getTenantId(),
+            statements.add(insertNumericData.bind(ttl, getTags(metric), d.getValue(), metric.getTenantId(),
                 metric.getType().getCode(), metric.getId().getName(), metric.getId().getInterval().toString(),
-                metric.getDpart(), d.getTimeUUID()));
+                partitioner.getDpart(d.getTimestamp()), d.getTimeUUID()));
         }
-        return session.executeAsync(batchStatement);
+        return writeCoalescer.execute(statements);
     }
 
     @Override
@@ -471,6 +589,54 @@ public class DataAccessImpl implements DataAccess {
         }
     }
 
+    @Override
+    public ResultSetFuture findPagedData(NumericMetric metric, long startTime, long endTime, int fetchSize) {
+        BoundStatement statement = findNumericDataByDateRangeExclusive.bind(metric.getTenantId(),
+            MetricType.NUMERIC.getCode(), metric.getId().getName(), metric.getId().getInterval().toString(),
+            metric.getDpart(), TimeUUIDUtils.getTimeUUID(startTime), TimeUUIDUtils.getTimeUUID(endTime));
+        statement.setFetchSize(fetchSize);
+        return session.executeAsync(statement);
+    }
+
+    @Override
+    public ResultSetFuture insertAggregatedData(NumericMetric metric, int ttl) {
+        UserType aggregateDataType = getKeyspace().getUserType("aggregate_data");
+        List<BoundStatement> statements = new ArrayList<>();
+        for (NumericData d : metric.getData()) {
+            Set<UDTValue> aggregates = new HashSet<>();
+            for (AggregatedValue aggregatedValue : d.getAggregatedValues()) {
+                UDTValue value = aggregateDataType.newValue();
+                value.setString("type", aggregatedValue.getType());
+                value.setDouble("value", aggregatedValue.getValue());
+                value.setUUID("time", aggregatedValue.getTimeUUID());
+                value.setString("src_metric", aggregatedValue.getSrcMetric());
+                if (aggregatedValue.getSrcMetricInterval() != null) {
+                    value.setString("src_metric_interval", aggregatedValue.getSrcMetricInterval().toString());
+                }
+                aggregates.add(value);
+            }
+            // Binding a null sketch would write a tombstone, so data points without one use the other statement.
+            if (d.getSketch() == null) {
+                statements.add(insertAggregatedData.bind(ttl, aggregates, metric.getTenantId(),
+                    metric.getType().getCode(), metric.getId().getName(), metric.getId().getInterval().toString(),
+                    partitioner.getDpart(d.getTimestamp()), d.getTimeUUID()));
+            } else {
+                statements.add(insertAggregatedDataWithSketch.bind(ttl, aggregates, d.getSketch().toByteBuffer(),
+                    metric.getTenantId(), metric.getType().getCode(), metric.getId().getName(),
+                    metric.getId().getInterval().toString(), partitioner.getDpart(d.getTimestamp()),
+                    d.getTimeUUID()));
+            }
+        }
+        return writeCoalescer.execute(statements);
+    }
+
+    @Override
+    public ResultSetFuture findAggregatedData(NumericMetric metric, long startTime, long endTime) {
+        return session.executeAsync(findAggregatedData.bind(metric.getTenantId(), MetricType.NUMERIC.getCode(),
+            metric.getId().getName(), metric.getId().getInterval().toString(), metric.getDpart(),
+            TimeUUIDUtils.getTimeUUID(startTime), TimeUUIDUtils.getTimeUUID(endTime)));
+    }
+
     @Override
     public ResultSetFuture findData(AvailabilityMetric metric, long startTime, long endTime) {
         return findData(metric, startTime, endTime, false);
@@ -509,52 +675,74 @@ public class DataAccessImpl implements DataAccess {
 
     @Override
     public ResultSetFuture insertNumericTag(String tag, String tagValue, List<NumericData> data) {
-        BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        List<BoundStatement> statements = new ArrayList<>();
         for (NumericData d : data) {
-            batchStatement.add(insertNumericTags.bind(d.getMetric().getTenantId(), tag, tagValue,
+            statements.add(insertNumericTags.bind(d.getMetric().getTenantId(), tag,
+                partitioner.getDpart(d.getTimestamp()), tagValue,
                 MetricType.NUMERIC.getCode(), d.getMetric().getId().getName(),
                 d.getMetric().getId().getInterval().toString(), d.getTimeUUID(), d.getValue(), d.getTTL()));
         }
-        return session.executeAsync(batchStatement);
+        return writeCoalescer.execute(statements);
     }
 
     @Override
     public ResultSetFuture insertAvailabilityTag(String tag, String tagValue, List<Availability> data) {
-        BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        List<BoundStatement> statements = new ArrayList<>();
         for (Availability a : data) {
-            batchStatement.add(insertAvailabilityTags.bind(a.getMetric().getTenantId(), tag, tagValue,
+            statements.add(insertAvailabilityTags.bind(a.getMetric().getTenantId(), tag,
+                partitioner.getDpart(a.getTimestamp()), tagValue,
                 MetricType.AVAILABILITY.getCode(), a.getMetric().getId().getName(),
                 a.getMetric().getId().getInterval().toString(), a.getTimeUUID(), a.getBytes(), a.getTTL()));
         }
-        return session.executeAsync(batchStatement);
+        return writeCoalescer.execute(statements);
+    }
+
+    @Override
+    public ResultSetFuture updateDataWithTag(List<? extends MetricData> data, Map<String, String> tags) {
+        List<BoundStatement> statements = new ArrayList<>(data.size());
+        for (MetricData d : data) {
+            statements.add(updateDataWithTags.bind(tags, d.getMetric().getTenantId(),
+                d.getMetric().getType().getCode(), d.getMetric().getId().getName(),
+                d.getMetric().getId().getInterval().toString(), partitioner.getDpart(d.getTimestamp()),
+                d.getTimeUUID()));
+        }
+        return writeCoalescer.execute(statements);
     }
 
     @Override
-    public ResultSetFuture updateDataWithTag(MetricData data, Map<String, String> tags) {
-        return session.executeAsync(updateDataWithTags.bind(tags, data.getMetric().getTenantId(),
-            data.getMetric().getType().getCode(), data.getMetric().getId().getName(),
-            data.getMetric().getId().getInterval().toString(), data.getMetric().getDpart(), data.getTimeUUID()));
+    public ResultSetFuture findNumericDataByTag(String tenantId, String tag, String tagValue, long dpart) {
+        return session.executeAsync(findNumericDataByTag.bind(tenantId, tag, dpart, tagValue));
     }
 
     @Override
-    public ResultSetFuture findNumericDataByTag(String tenantId, String tag, String tagValue) {
-        return session.executeAsync(findNumericDataByTag.bind(tenantId, tag, tagValue));
+    public ResultSetFuture findAvailabilityByTag(String tenantId, String tag, String tagValue, long dpart) {
+        return session.executeAsync(findAvailabilityByTag.bind(tenantId, tag, dpart, tagValue));
     }
 
     @Override
-    public ResultSetFuture findAvailabilityByTag(String tenantId, String tag, String tagValue) {
-        return session.executeAsync(findAvailabilityByTag.bind(tenantId, tag, tagValue));
+    public boolean hasLegacyTags() {
+        return findNumericDataByLegacyTag != null;
+    }
+
+    @Override
+    public ResultSetFuture findNumericDataByLegacyTag(String tenantId, String tag, String tagValue) {
+        return session.executeAsync(findNumericDataByLegacyTag.bind(tenantId, tag, tagValue));
+    }
+
+    @Override
+    public ResultSetFuture findAvailabilityByLegacyTag(String tenantId, String tag, String tagValue) {
+        return session.executeAsync(findAvailabilityByLegacyTag.bind(tenantId, tag, tagValue));
     }
 
     @Override
     public ResultSetFuture insertData(AvailabilityMetric metric, int ttl) {
-        BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        List<BoundStatement> statements = new ArrayList<>();
         for (Availability a : metric.getData()) {
-            batchStatement.add(insertAvailability.bind(ttl, metric.getTags(), a.getBytes(), metric.getTenantId(),
+            statements.add(insertAvailability.bind(ttl, metric.getTags(), a.getBytes(), metric.getTenantId(),
                 metric.getType().getCode(), metric.getId().getName(), metric.getId().getInterval().toString(),
-                metric.getDpart(), a.getTimeUUID()));
+                partitioner.getDpart(a.getTimestamp()), a.getTimeUUID()));
         }
-        return session.executeAsync(batchStatement);
+        return writeCoalescer.execute(statements);
     }
 
     @Override
@@ -564,6 +752,24 @@ public class DataAccessImpl implements DataAccess {
             TimeUUIDUtils.getTimeUUID(startTime), TimeUUIDUtils.getTimeUUID(endTime)));
     }
 
+    @Override
+    public ResultSetFuture insertData(HistogramMetric metric, int ttl) {
+        List<BoundStatement> statements = new ArrayList<>();
+        for (HistogramData d : metric.getData()) {
+            statements.add(insertHistogram.bind(ttl, metric.getTags(), d.getSketch().toByteBuffer(),
+                metric.getTenantId(), metric.getType().getCode(), metric.getId().getName(),
+                metric.getId().getInterval().toString(), partitioner.getDpart(d.getTimestamp()), d.getTimeUUID()));
+        }
+        return writeCoalescer.execute(statements);
+    }
+
+    @Override
+    public ResultSetFuture findHistogramData(HistogramMetric metric, long startTime, long endTime) {
+        return session.executeAsync(findHistograms.bind(metric.getTenantId(), MetricType.HISTOGRAM.getCode(),
+            metric.getId().getName(), metric.getId().getInterval().toString(), metric.getDpart(),
+            TimeUUIDUtils.getTimeUUID(startTime), TimeUUIDUtils.getTimeUUID(endTime)));
+    }
+
     @Override
     public ResultSetFuture updateCounter(Counter counter) {
         BoundStatement statement = updateCounter.bind(counter.getValue(), counter.getTenantId(), counter.getGroup(),
@@ -573,12 +779,12 @@ public class DataAccessImpl implements DataAccess {
 
     @Override
     public ResultSetFuture updateCounters(Collection<Counter> counters) {
-        BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.COUNTER);
+        List<BoundStatement> statements = new ArrayList<>();
         for (Counter counter : counters) {
-            batchStatement.add(updateCounter.bind(counter.getValue(), counter.getTenantId(), counter.getGroup(),
+            statements.add(updateCounter.bind(counter.getValue(), counter.getTenantId(), counter.getGroup(),
                 counter.getName()));
         }
-        return session.executeAsync(batchStatement);
+        return writeCoalescer.execute(BatchStatement.Type.COUNTER, statements);
     }
 
     @Override
@@ -588,12 +794,12 @@ public class DataAccessImpl implements DataAccess {
 
     @Override
     public ResultSetFuture updateRetentionsIndex(String tenantId, MetricType type, Set<Retention> retentions) {
-        BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        List<BoundStatement> statements = new ArrayList<>();
         for (Retention r : retentions) {
-            batchStatement.add(updateRetentionsIndex.bind(tenantId, type.getCode(), r.getId().getInterval().toString(),
+            statements.add(updateRetentionsIndex.bind(tenantId, type.getCode(), r.getId().getInterval().toString(),
                 r.getId().getName(), r.getValue()));
         }
-        return session.executeAsync(batchStatement);
+        return writeCoalescer.execute(statements);
     }
 
     @Override
@@ -610,9 +816,9 @@ public class DataAccessImpl implements DataAccess {
 
     private ResultSetFuture executeTagsBatch(Map<String, String> tags,
         BiFunction<String, String, BoundStatement> bindVars) {
-        BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
-        tags.entrySet().stream().forEach(entry -> batchStatement.add(bindVars.apply(entry.getKey(), entry.getValue())));
-        return session.executeAsync(batchStatement);
+        List<BoundStatement> statements = new ArrayList<>(tags.size());
+        tags.entrySet().stream().forEach(entry -> statements.add(bindVars.apply(entry.getKey(), entry.getValue())));
+        return writeCoalescer.execute(statements);
     }
 
     @Override
@@ -636,6 +842,27 @@ public class DataAccessImpl implements DataAccess {
         return session.executeAsync(statement);
     }
 
+    @Override
+    public ResultSetFuture acquireRollupLease(String tenantId, UUID owner, int ttl) {
+        return session.executeAsync(acquireRollupLease.bind(tenantId, owner, ttl));
+    }
+
+    @Override
+    public ResultSetFuture renewRollupLease(String tenantId, UUID owner, int ttl) {
+        return session.executeAsync(renewRollupLease.bind(ttl, owner, tenantId, owner));
+    }
+
+    @Override
+    public ResultSetFuture findRollupProgress(String tenantId) {
+        return session.executeAsync(findRollupProgress.bind(tenantId));
+    }
+
+    @Override
+    public ResultSetFuture updateRollupProgress(String tenantId, Interval interval, long computedUntil) {
+        return session.executeAsync(updateRollupProgress.bind(new Date(computedUntil), tenantId,
+            interval.toString()));
+    }
+
     private KeyspaceMetadata getKeyspace() {
         return session.getCluster().getMetadata().getKeyspace(session.getLoggedKeyspace());
     }
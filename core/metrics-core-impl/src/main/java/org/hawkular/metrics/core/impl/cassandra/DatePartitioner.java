@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hawkular.metrics.core.api.Interval;
+import org.joda.time.Days;
+import org.joda.time.Duration;
+import org.joda.time.Hours;
+import org.joda.time.Minutes;
+
+/**
+ * Determines the date partition (the dpart column of the data table) in which a data point is stored. A date
+ * partition is identified by the start time of the time slice in which the data point's timestamp falls. Time slices
+ * are aligned on the epoch rather than computed in the local time zone so that all nodes agree on the partition
+ * boundaries. For a partition size of one day this means that partitions start at midnight UTC.
+ * <p>
+ * Note that changing the partition size for an existing keyspace makes previously written data unreachable since
+ * reads only look at partitions computed with the current size. This is why the size is stored in the keyspace on
+ * first start and the service refuses to start with a different one.
+ */
+public class DatePartitioner {
+
+    public static final Duration DEFAULT_PARTITION_SIZE = Days.ONE.toStandardDuration();
+
+    private final Duration partitionSize;
+
+    public DatePartitioner() {
+        this(DEFAULT_PARTITION_SIZE);
+    }
+
+    public DatePartitioner(Duration partitionSize) {
+        if (partitionSize.getMillis() <= 0) {
+            throw new IllegalArgumentException("The partition size must be greater than zero");
+        }
+        this.partitionSize = partitionSize;
+    }
+
+    /**
+     * Creates a partitioner from an interval such as 1d or 6hr.
+     *
+     * @param interval The interval, see {@link Interval#parse(String)} for the supported format
+     * @return A partitioner whose time slices have the length of the interval
+     */
+    public static DatePartitioner fromInterval(Interval interval) {
+        if (interval.getUnits() == null) {
+            throw new IllegalArgumentException(interval + " is not a supported partition size");
+        }
+        return new DatePartitioner(toDuration(interval));
+    }
+
+    static Duration toDuration(Interval interval) {
+        switch (interval.getUnits()) {
+            case MINUTES: return Minutes.minutes(interval.getLength()).toStandardDuration();
+            case HOURS: return Hours.hours(interval.getLength()).toStandardDuration();
+            case DAYS: return Days.days(interval.getLength()).toStandardDuration();
+            default: throw new IllegalArgumentException(interval + " is not a supported interval");
+        }
+    }
+
+    public Duration getPartitionSize() {
+        return partitionSize;
+    }
+
+    /**
+     * @param timestamp The data point timestamp in milliseconds
+     * @return The date partition in which data for the timestamp is stored
+     */
+    public long getDpart(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, partitionSize.getMillis());
+    }
+
+    /**
+     * Counts the date partitions that overlap the time range without computing them, so that a range can be checked
+     * before it is queried.
+     *
+     * @param start The start time in milliseconds, inclusive
+     * @param end The end time in milliseconds
+     * @return The number of partitions that {@link #getDparts(long, long)} returns for the range
+     */
+    public long getNumberOfDparts(long start, long end) {
+        long size = partitionSize.getMillis();
+        return Math.floorDiv(Math.max(start, end), size) - Math.floorDiv(start, size) + 1;
+    }
+
+    /**
+     * Returns every date partition that overlaps the time range. The partitions are ordered from newest to oldest,
+     * which matches the clustering order of the data table. Concatenating the results of per partition queries in
+     * this order therefore yields data sorted in descending time order.
+     *
+     * @param start The start time in milliseconds, inclusive
+     * @param end The end time in milliseconds
+     * @return The date partitions, newest first
+     */
+    public List<Long> getDparts(long start, long end) {
+        List<Long> dparts = new ArrayList<>();
+        long first = getDpart(start);
+        long dpart = getDpart(Math.max(start, end));
+        dparts.add(dpart);
+        while (dpart > first) {
+            dpart -= partitionSize.getMillis();
+            dparts.add(dpart);
+        }
+        return dparts;
+    }
+
+}
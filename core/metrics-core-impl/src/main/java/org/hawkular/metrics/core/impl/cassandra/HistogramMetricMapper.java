@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.base.Function;
+
+import org.hawkular.metrics.core.api.HistogramData;
+import org.hawkular.metrics.core.api.HistogramMetric;
+import org.hawkular.metrics.core.api.Interval;
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.QuantileSketch;
+
+public class HistogramMetricMapper implements Function<ResultSet, HistogramMetric> {
+
+    private enum ColumnIndex {
+        TENANT_ID,
+        METRIC_NAME,
+        INTERVAL,
+        DPART,
+        TIME,
+        METRIC_TAGS,
+        DATA_RETENTION,
+        SKETCH
+    }
+
+    @Override
+    public HistogramMetric apply(ResultSet resultSet) {
+        if (resultSet.isExhausted()) {
+            return null;
+        }
+        Row firstRow = resultSet.one();
+        HistogramMetric metric = getMetric(firstRow);
+        metric.addData(getData(metric, firstRow));
+
+        for (Row row : resultSet) {
+            metric.addData(getData(metric, row));
+        }
+
+        return metric;
+    }
+
+    private HistogramMetric getMetric(Row row) {
+        HistogramMetric metric = new HistogramMetric(row.getString(ColumnIndex.TENANT_ID.ordinal()), new MetricId(
+            row.getString(ColumnIndex.METRIC_NAME.ordinal()), Interval.parse(row.getString(
+            ColumnIndex.INTERVAL.ordinal()))), MetricUtils.getTags(row.getMap(ColumnIndex.METRIC_TAGS.ordinal(),
+            String.class, String.class)), row.getInt(ColumnIndex.DATA_RETENTION.ordinal()));
+        metric.setDpart(row.getLong(ColumnIndex.DPART.ordinal()));
+
+        return metric;
+    }
+
+    private HistogramData getData(HistogramMetric metric, Row row) {
+        return new HistogramData(metric, row.getUUID(ColumnIndex.TIME.ordinal()), QuantileSketch.fromByteBuffer(
+            row.getBytes(ColumnIndex.SKETCH.ordinal())));
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+import org.hawkular.metrics.core.api.Availability;
+import org.hawkular.metrics.core.api.AvailabilityMetric;
+import org.hawkular.metrics.core.api.Counter;
+import org.hawkular.metrics.core.api.HistogramMetric;
+import org.hawkular.metrics.core.api.Interval;
+import org.hawkular.metrics.core.api.Metric;
+import org.hawkular.metrics.core.api.MetricData;
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.MetricType;
+import org.hawkular.metrics.core.api.NumericData;
+import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.api.Retention;
+import org.hawkular.metrics.core.api.Tenant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link DataAccess} decorator that keeps {@link OperationStats statistics} for each operation. The latency of a
+ * call is measured from the call until its future completes. For queries the number of rows in the first page of the
+ * result set is recorded, and for writes the number of data points, metrics, or other items written.
+ * </p>
+ * <p>
+ * When an MBean server is given, the statistics of each operation are registered as an MXBean named
+ * <code>org.hawkular.metrics:type=DataAccess,name=&lt;operation&gt;</code> the first time the operation is called.
+ * Overloaded methods share the statistics of a single operation, e.g., all of the numeric data queries are recorded as
+ * findNumericData.
+ * </p>
+ */
+public class InstrumentedDataAccess implements DataAccess {
+
+    private static final Logger logger = LoggerFactory.getLogger(InstrumentedDataAccess.class);
+
+    private final DataAccess delegate;
+
+    private final MBeanServer server;
+
+    private final ConcurrentMap<String, OperationStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate The data access to instrument
+     * @param server The MBean server with which to register the statistics, or null to not register them
+     */
+    public InstrumentedDataAccess(DataAccess delegate, MBeanServer server) {
+        this.delegate = delegate;
+        this.server = server;
+    }
+
+    /**
+     * @return The statistics keyed by operation name. Only operations that have been called are included.
+     */
+    public Map<String, OperationStats> getStats() {
+        return stats;
+    }
+
+    /**
+     * Unregisters the MXBeans of the statistics.
+     */
+    public void close() {
+        if (server == null) {
+            return;
+        }
+        for (String operation : stats.keySet()) {
+            try {
+                server.unregisterMBean(getObjectName(operation));
+            } catch (JMException e) {
+                logger.debug("Failed to unregister the statistics of " + operation, e);
+            }
+        }
+    }
+
+    private OperationStats getStats(String operation) {
+        OperationStats operationStats = stats.get(operation);
+        if (operationStats != null) {
+            return operationStats;
+        }
+        operationStats = new OperationStats();
+        OperationStats existing = stats.putIfAbsent(operation, operationStats);
+        if (existing != null) {
+            return existing;
+        }
+        if (server != null) {
+            try {
+                server.registerMBean(operationStats, getObjectName(operation));
+            } catch (JMException e) {
+                logger.warn("Failed to register the statistics of " + operation + " with the MBean server", e);
+            }
+        }
+        return operationStats;
+    }
+
+    private static ObjectName getObjectName(String operation) throws JMException {
+        return new ObjectName("org.hawkular.metrics:type=DataAccess,name=" + operation);
+    }
+
+    private ResultSetFuture read(String operation, Supplier<ResultSetFuture> call) {
+        return record(getStats(operation), call);
+    }
+
+    private ResultSetFuture write(String operation, int batchSize, Supplier<ResultSetFuture> call) {
+        OperationStats operationStats = getStats(operation);
+        operationStats.recordBatchSize(batchSize);
+        return record(operationStats, call);
+    }
+
+    private ResultSetFuture record(OperationStats operationStats, Supplier<ResultSetFuture> call) {
+        long start = System.nanoTime();
+        ResultSetFuture future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            operationStats.recordFailure(elapsedMicros(start));
+            throw e;
+        }
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet resultSet) {
+                int rows = resultSet == null ? 0 : resultSet.getAvailableWithoutFetching();
+                operationStats.recordSuccess(elapsedMicros(start), rows);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                operationStats.recordFailure(elapsedMicros(start));
+            }
+        });
+        return future;
+    }
+
+    private static long elapsedMicros(long start) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    }
+
+    @Override
+    public ResultSetFuture insertTenant(Tenant tenant) {
+        return write("insertTenant", 1, () -> delegate.insertTenant(tenant));
+    }
+
+    @Override
+    public ResultSetFuture findAllTenantIds() {
+        return read("findAllTenantIds", () -> delegate.findAllTenantIds());
+    }
+
+    @Override
+    public ResultSetFuture findAllTenants() {
+        return read("findAllTenants", () -> delegate.findAllTenants());
+    }
+
+    @Override
+    public ResultSetFuture findTenant(String id) {
+        return read("findTenant", () -> delegate.findTenant(id));
+    }
+
+    @Override
+    public ResultSetFuture insertMetricInMetricsIndex(Metric metric) {
+        return write("insertMetricInMetricsIndex", 1, () -> delegate.insertMetricInMetricsIndex(metric));
+    }
+
+    @Override
+    public ResultSetFuture findMetric(String tenantId, MetricType type, MetricId id, long dpart) {
+        return read("findMetric", () -> delegate.findMetric(tenantId, type, id, dpart));
+    }
+
+    @Override
+    public ResultSetFuture addTagsAndDataRetention(Metric metric) {
+        return write("addTagsAndDataRetention", 1, () -> delegate.addTagsAndDataRetention(metric));
+    }
+
+    @Override
+    public ResultSetFuture addTags(Metric metric, Map<String, String> tags) {
+        return write("addTags", tags.size(), () -> delegate.addTags(metric, tags));
+    }
+
+    @Override
+    public ResultSetFuture deleteTags(Metric metric, Set<String> tags) {
+        return write("deleteTags", tags.size(), () -> delegate.deleteTags(metric, tags));
+    }
+
+    @Override
+    public ResultSetFuture updateTagsInMetricsIndex(Metric metric, Map<String, String> additions,
+        Set<String> deletions) {
+        return write("updateTagsInMetricsIndex", additions.size() + deletions.size(),
+            () -> delegate.updateTagsInMetricsIndex(metric, additions, deletions));
+    }
+
+    @Override
+    public <T extends Metric> ResultSetFuture updateMetricsIndex(List<T> metrics) {
+        return write("updateMetricsIndex", metrics.size(), () -> delegate.updateMetricsIndex(metrics));
+    }
+
+    @Override
+    public ResultSetFuture findMetricsInMetricsIndex(String tenantId, MetricType type) {
+        return read("findMetricsInMetricsIndex", () -> delegate.findMetricsInMetricsIndex(tenantId, type));
+    }
+
+    @Override
+    public ResultSetFuture findMetricInMetricsIndex(String tenantId, MetricType type, MetricId id) {
+        return read("findMetricInMetricsIndex", () -> delegate.findMetricInMetricsIndex(tenantId, type, id));
+    }
+
+    @Override
+    public ResultSetFuture insertData(NumericMetric metric, int ttl) {
+        return write("insertNumericData", metric.getData().size(), () -> delegate.insertData(metric, ttl));
+    }
+
+    @Override
+    public ResultSetFuture findData(NumericMetric metric, long startTime, long endTime) {
+        return read("findNumericData", () -> delegate.findData(metric, startTime, endTime));
+    }
+
+    @Override
+    public ResultSetFuture findData(NumericMetric metric, long startTime, long endTime, boolean includeWriteTime) {
+        return read("findNumericData", () -> delegate.findData(metric, startTime, endTime, includeWriteTime));
+    }
+
+    @Override
+    public ResultSetFuture findData(NumericMetric metric, long timestamp, boolean includeWriteTime) {
+        return read("findNumericData", () -> delegate.findData(metric, timestamp, includeWriteTime));
+    }
+
+    @Override
+    public ResultSetFuture findPagedData(NumericMetric metric, long startTime, long endTime, int fetchSize) {
+        return read("findPagedData", () -> delegate.findPagedData(metric, startTime, endTime, fetchSize));
+    }
+
+    @Override
+    public ResultSetFuture insertAggregatedData(NumericMetric metric, int ttl) {
+        return write("insertAggregatedData", metric.getData().size(), () -> delegate.insertAggregatedData(metric, ttl));
+    }
+
+    @Override
+    public ResultSetFuture findAggregatedData(NumericMetric metric, long startTime, long endTime) {
+        return read("findAggregatedData", () -> delegate.findAggregatedData(metric, startTime, endTime));
+    }
+
+    @Override
+    public ResultSetFuture findData(AvailabilityMetric metric, long startTime, long endTime) {
+        return read("findAvailabilityData", () -> delegate.findData(metric, startTime, endTime));
+    }
+
+    @Override
+    public ResultSetFuture findData(AvailabilityMetric metric, long startTime, long endTime, boolean includeWriteTime) {
+        return read("findAvailabilityData", () -> delegate.findData(metric, startTime, endTime, includeWriteTime));
+    }
+
+    @Override
+    public ResultSetFuture findData(AvailabilityMetric metric, long timestamp) {
+        return read("findAvailabilityData", () -> delegate.findData(metric, timestamp));
+    }
+
+    @Override
+    public ResultSetFuture deleteNumericMetric(String tenantId, String metric, Interval interval, long dpart) {
+        return write("deleteNumericMetric", 1, () -> delegate.deleteNumericMetric(tenantId, metric, interval, dpart));
+    }
+
+    @Override
+    public ResultSetFuture findAllNumericMetrics() {
+        return read("findAllNumericMetrics", () -> delegate.findAllNumericMetrics());
+    }
+
+    @Override
+    public ResultSetFuture insertNumericTag(String tag, String tagValue, List<NumericData> data) {
+        return write("insertNumericTag", data.size(), () -> delegate.insertNumericTag(tag, tagValue, data));
+    }
+
+    @Override
+    public ResultSetFuture insertAvailabilityTag(String tag, String tagValue, List<Availability> data) {
+        return write("insertAvailabilityTag", data.size(), () -> delegate.insertAvailabilityTag(tag, tagValue, data));
+    }
+
+    @Override
+    public ResultSetFuture updateDataWithTag(List<? extends MetricData> data, Map<String, String> tags) {
+        return write("updateDataWithTag", data.size(), () -> delegate.updateDataWithTag(data, tags));
+    }
+
+    @Override
+    public ResultSetFuture findNumericDataByTag(String tenantId, String tag, String tagValue, long dpart) {
+        return read("findNumericDataByTag", () -> delegate.findNumericDataByTag(tenantId, tag, tagValue, dpart));
+    }
+
+    @Override
+    public ResultSetFuture findAvailabilityByTag(String tenantId, String tag, String tagValue, long dpart) {
+        return read("findAvailabilityByTag", () -> delegate.findAvailabilityByTag(tenantId, tag, tagValue, dpart));
+    }
+
+    @Override
+    public boolean hasLegacyTags() {
+        return delegate.hasLegacyTags();
+    }
+
+    @Override
+    public ResultSetFuture findNumericDataByLegacyTag(String tenantId, String tag, String tagValue) {
+        return read("findNumericDataByLegacyTag", () -> delegate.findNumericDataByLegacyTag(tenantId, tag, tagValue));
+    }
+
+    @Override
+    public ResultSetFuture findAvailabilityByLegacyTag(String tenantId, String tag, String tagValue) {
+        return read("findAvailabilityByLegacyTag", () -> delegate.findAvailabilityByLegacyTag(tenantId, tag,
+            tagValue));
+    }
+
+    @Override
+    public ResultSetFuture insertData(AvailabilityMetric metric, int ttl) {
+        return write("insertAvailabilityData", metric.getData().size(), () -> delegate.insertData(metric, ttl));
+    }
+
+    @Override
+    public ResultSetFuture findAvailabilityData(AvailabilityMetric metric, long startTime, long endTime) {
+        return read("findAvailabilityData", () -> delegate.findAvailabilityData(metric, startTime, endTime));
+    }
+
+    @Override
+    public ResultSetFuture insertData(HistogramMetric metric, int ttl) {
+        return write("insertHistogramData", metric.getData().size(), () -> delegate.insertData(metric, ttl));
+    }
+
+    @Override
+    public ResultSetFuture findHistogramData(HistogramMetric metric, long startTime, long endTime) {
+        return read("findHistogramData", () -> delegate.findHistogramData(metric, startTime, endTime));
+    }
+
+    @Override
+    public ResultSetFuture updateCounter(Counter counter) {
+        return write("updateCounters", 1, () -> delegate.updateCounter(counter));
+    }
+
+    @Override
+    public ResultSetFuture updateCounters(Collection<Counter> counters) {
+        return write("updateCounters", counters.size(), () -> delegate.updateCounters(counters));
+    }
+
+    @Override
+    public ResultSetFuture findDataRetentions(String tenantId, MetricType type) {
+        return read("findDataRetentions", () -> delegate.findDataRetentions(tenantId, type));
+    }
+
+    @Override
+    public ResultSetFuture updateRetentionsIndex(String tenantId, MetricType type, Set<Retention> retentions) {
+        return write("updateRetentionsIndex", retentions.size(), () -> delegate.updateRetentionsIndex(tenantId, type,
+            retentions));
+    }
+
+    @Override
+    public ResultSetFuture updateRetentionsIndex(Metric metric) {
+        return write("updateRetentionsIndex", 1, () -> delegate.updateRetentionsIndex(metric));
+    }
+
+    @Override
+    public ResultSetFuture insertIntoMetricsTagsIndex(Metric metric, Map<String, String> tags) {
+        return write("insertIntoMetricsTagsIndex", tags.size(), () -> delegate.insertIntoMetricsTagsIndex(metric,
+            tags));
+    }
+
+    @Override
+    public ResultSetFuture deleteFromMetricsTagsIndex(Metric metric, Map<String, String> tags) {
+        return write("deleteFromMetricsTagsIndex", tags.size(), () -> delegate.deleteFromMetricsTagsIndex(metric,
+            tags));
+    }
+
+    @Override
+    public ResultSetFuture findMetricsByTag(String tenantId, String tag) {
+        return read("findMetricsByTag", () -> delegate.findMetricsByTag(tenantId, tag));
+    }
+
+    @Override
+    public ResultSetFuture acquireRollupLease(String tenantId, UUID owner, int ttl) {
+        return write("acquireRollupLease", 1, () -> delegate.acquireRollupLease(tenantId, owner, ttl));
+    }
+
+    @Override
+    public ResultSetFuture renewRollupLease(String tenantId, UUID owner, int ttl) {
+        return write("renewRollupLease", 1, () -> delegate.renewRollupLease(tenantId, owner, ttl));
+    }
+
+    @Override
+    public ResultSetFuture findRollupProgress(String tenantId) {
+        return read("findRollupProgress", () -> delegate.findRollupProgress(tenantId));
+    }
+
+    @Override
+    public ResultSetFuture updateRollupProgress(String tenantId, Interval interval, long computedUntil) {
+        return write("updateRollupProgress", 1, () -> delegate.updateRollupProgress(tenantId, interval,
+            computedUntil));
+    }
+}
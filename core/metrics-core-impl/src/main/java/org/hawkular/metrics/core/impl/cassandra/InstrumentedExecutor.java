@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.hawkular.metrics.core.api.MetricsThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed size thread pool that records how long tasks wait in its queue and how long they run. The statistics along
+ * with the pool and queue sizes can be exported as an MXBean. The queue is unbounded, so a growing queue size or
+ * queue time is the sign that the pool is too small for the load.
+ */
+public class InstrumentedExecutor extends ThreadPoolExecutor implements InstrumentedExecutorMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(InstrumentedExecutor.class);
+
+    private final AtomicLong taskCount = new AtomicLong();
+
+    private final AtomicLong totalQueueTime = new AtomicLong();
+
+    private final AtomicLong totalRunTime = new AtomicLong();
+
+    private final AtomicLong maxQueueTime = new AtomicLong();
+
+    private ObjectName objectName;
+
+    public InstrumentedExecutor(int threads) {
+        super(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), new MetricsThreadFactory());
+    }
+
+    /**
+     * Changes the number of threads. Threads are added as tasks are submitted, and extra threads exit once they are
+     * idle.
+     */
+    public void setPoolSize(int threads) {
+        if (threads > getMaximumPoolSize()) {
+            setMaximumPoolSize(threads);
+            setCorePoolSize(threads);
+        } else {
+            setCorePoolSize(threads);
+            setMaximumPoolSize(threads);
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(new TimedTask(command));
+    }
+
+    /**
+     * Registers the executor with the platform MBean server under the given name. A failure is logged rather than
+     * thrown since the executor works without it.
+     */
+    public void register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("org.hawkular.metrics:type=Executor,name=" + name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            logger.warn("Failed to register executor [" + name + "] with the MBean server", e);
+        }
+    }
+
+    @Override
+    protected void terminated() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.debug("Failed to unregister " + objectName, e);
+            }
+        }
+        super.terminated();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+
+    @Override
+    public double getAverageQueueTime() {
+        return toMillis(totalQueueTime.get(), taskCount.get());
+    }
+
+    @Override
+    public double getAverageRunTime() {
+        return toMillis(totalRunTime.get(), taskCount.get());
+    }
+
+    @Override
+    public double getMaxQueueTime() {
+        return toMillis(maxQueueTime.get(), 1);
+    }
+
+    private static double toMillis(long nanos, long count) {
+        if (count == 0) {
+            return 0;
+        }
+        return (double) nanos / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private class TimedTask implements Runnable {
+
+        private final Runnable task;
+
+        private final long submitted = System.nanoTime();
+
+        TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long started = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                long queueTime = started - submitted;
+                totalQueueTime.addAndGet(queueTime);
+                totalRunTime.addAndGet(System.nanoTime() - started);
+                taskCount.incrementAndGet();
+                maxQueueTime.accumulateAndGet(queueTime, Math::max);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+/**
+ * The management interface of {@link InstrumentedExecutor}. Times are in milliseconds.
+ */
+public interface InstrumentedExecutorMXBean {
+
+    int getPoolSize();
+
+    int getActiveCount();
+
+    /**
+     * @return The number of tasks waiting for a thread
+     */
+    int getQueueSize();
+
+    long getCompletedTaskCount();
+
+    /**
+     * @return The average time tasks spent in the queue before they started running
+     */
+    double getAverageQueueTime();
+
+    /**
+     * @return The average time tasks took to run
+     */
+    double getAverageRunTime();
+
+    /**
+     * @return The longest time a task spent in the queue
+     */
+    double getMaxQueueTime();
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.hawkular.metrics.core.api.AvailabilityMetric;
+import org.hawkular.metrics.core.api.HistogramMetric;
+import org.hawkular.metrics.core.api.Metric;
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.MetricType;
+import org.hawkular.metrics.core.api.NumericMetric;
+
+/**
+ * A read-through cache of metric definitions, i.e., the tags and data retention of a metric, and of the metrics
+ * index of each tenant and metric type. Both caches evict the least recently used entries once they reach their
+ * maximum size. Entries are invalidated whenever a definition or the index is updated on this node. They also expire
+ * a fixed time after they were loaded, which bounds how long changes made on other nodes go unnoticed. This includes
+ * metrics that were not found, which are cached as well.
+ * <p>
+ * Metric objects are mutable, so the cache hands out copies of the cached metrics.
+ */
+public class MetricCache {
+
+    /**
+     * The default maximum number of metric definitions in the cache. The maximum number of metrics index lists is a
+     * tenth of that.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * The default number of minutes after which an entry expires.
+     */
+    public static final int DEFAULT_EXPIRATION = 5;
+
+    private static class MetricKey {
+        private final String tenantId;
+        private final MetricType type;
+        private final MetricId id;
+
+        MetricKey(String tenantId, MetricType type, MetricId id) {
+            this.tenantId = tenantId;
+            this.type = type;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            MetricKey that = (MetricKey) o;
+
+            if (id != null ? !id.equals(that.id) : that.id != null) return false;
+            if (!tenantId.equals(that.tenantId)) return false;
+            return type == that.type;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = tenantId.hashCode();
+            result = 31 * result + type.hashCode();
+            result = 31 * result + (id != null ? id.hashCode() : 0);
+            return result;
+        }
+    }
+
+    private final Cache<MetricKey, Optional<Metric>> metrics;
+
+    private final Cache<MetricKey, List<Metric>> indexes;
+
+    /**
+     * Incremented on every invalidation. A query result is only cached if there was no invalidation while the query
+     * was running, since it might otherwise have read the old state.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    public MetricCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_EXPIRATION, TimeUnit.MINUTES);
+    }
+
+    public MetricCache(long maxSize, long expiration, TimeUnit unit) {
+        metrics = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(expiration, unit)
+            .recordStats()
+            .build();
+        indexes = CacheBuilder.newBuilder()
+            .maximumSize(Math.max(1, maxSize / 10))
+            .expireAfterWrite(expiration, unit)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Returns the cached definition of the metric or, if it is not cached, runs the query and caches its result. A
+     * metric that does not exist is cached as well, until the entry expires or the metric is created on this node.
+     *
+     * @param query Finds the metric. The future returns null when the metric does not exist.
+     */
+    public ListenableFuture<Metric> getMetric(String tenantId, MetricType type, MetricId id,
+        Supplier<ListenableFuture<Metric>> query) {
+        MetricKey key = new MetricKey(tenantId, type, id);
+        Optional<Metric> cached = metrics.getIfPresent(key);
+        if (cached != null) {
+            return Futures.immediateFuture(cached.map(MetricCache::copy).orElse(null));
+        }
+        long queryGeneration = generation.get();
+        ListenableFuture<Metric> future = query.get();
+        Futures.addCallback(future, new FutureCallback<Metric>() {
+            @Override
+            public void onSuccess(Metric metric) {
+                if (generation.get() == queryGeneration) {
+                    metrics.put(key, Optional.ofNullable(copy(metric)));
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Returns the cached metrics index of the tenant or, if it is not cached, runs the query and caches its result.
+     */
+    public ListenableFuture<List<Metric>> getMetrics(String tenantId, MetricType type,
+        Supplier<ListenableFuture<List<Metric>>> query) {
+        MetricKey key = new MetricKey(tenantId, type, null);
+        List<Metric> cached = indexes.getIfPresent(key);
+        if (cached != null) {
+            return Futures.immediateFuture(copy(cached));
+        }
+        long queryGeneration = generation.get();
+        ListenableFuture<List<Metric>> future = query.get();
+        Futures.addCallback(future, new FutureCallback<List<Metric>>() {
+            @Override
+            public void onSuccess(List<Metric> result) {
+                if (generation.get() == queryGeneration) {
+                    indexes.put(key, copy(result));
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Invalidates the definition of the metric as well as the metrics index it belongs to.
+     */
+    public void invalidate(Metric metric) {
+        generation.incrementAndGet();
+        metrics.invalidate(new MetricKey(metric.getTenantId(), metric.getType(), metric.getId()));
+        indexes.invalidate(new MetricKey(metric.getTenantId(), metric.getType(), null));
+    }
+
+    /**
+     * Invalidates the metrics index of the tenant, e.g., after new metrics have been added to it.
+     */
+    public void invalidateIndex(String tenantId, MetricType type) {
+        generation.incrementAndGet();
+        indexes.invalidate(new MetricKey(tenantId, type, null));
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        metrics.invalidateAll();
+        indexes.invalidateAll();
+    }
+
+    /**
+     * @return The hit and miss counts of metric definition lookups
+     */
+    public CacheStats getMetricStats() {
+        return metrics.stats();
+    }
+
+    /**
+     * @return The hit and miss counts of metrics index lookups
+     */
+    public CacheStats getIndexStats() {
+        return indexes.stats();
+    }
+
+    private static List<Metric> copy(List<Metric> metrics) {
+        List<Metric> copies = new ArrayList<>(metrics.size());
+        for (Metric metric : metrics) {
+            copies.add(copy(metric));
+        }
+        return copies;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Metric copy(Metric metric) {
+        if (metric == null) {
+            return null;
+        }
+        if (metric.getType() == MetricType.NUMERIC) {
+            return new NumericMetric(metric.getTenantId(), metric.getId(), new HashMap<>(metric.getTags()),
+                metric.getDataRetention());
+        }
+        if (metric.getType() == MetricType.HISTOGRAM) {
+            return new HistogramMetric(metric.getTenantId(), metric.getId(), new HashMap<>(metric.getTags()),
+                metric.getDataRetention());
+        }
+        return new AvailabilityMetric(metric.getTenantId(), metric.getId(), new HashMap<>(metric.getTags()),
+            metric.getDataRetention());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.hawkular.metrics.core.api.Metric;
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.MetricType;
+
+/**
+ * Keeps track of the metrics that have recently been written to or found in the metrics_idx table, so that writing
+ * data points does not rewrite the same index rows on every request, and so that checking whether a metric exists
+ * does not have to query the index. The cache is bounded and entries expire after a fixed time, at which point the
+ * next write of the metric goes to the index again.
+ */
+public class MetricsIndexCache {
+
+    /**
+     * The default maximum number of metrics in the cache.
+     */
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    /**
+     * The default number of minutes after which an entry expires.
+     */
+    public static final int DEFAULT_EXPIRATION = 60;
+
+    private static class IndexKey {
+        private final String tenantId;
+        private final MetricType type;
+        private final MetricId id;
+
+        IndexKey(Metric<?> metric) {
+            this(metric.getTenantId(), metric.getType(), metric.getId());
+        }
+
+        IndexKey(String tenantId, MetricType type, MetricId id) {
+            this.tenantId = tenantId;
+            this.type = type;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            IndexKey that = (IndexKey) o;
+
+            if (!id.equals(that.id)) return false;
+            if (!tenantId.equals(that.tenantId)) return false;
+            return type == that.type;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = tenantId.hashCode();
+            result = 31 * result + type.hashCode();
+            result = 31 * result + id.hashCode();
+            return result;
+        }
+    }
+
+    private final Cache<IndexKey, Boolean> indexed;
+
+    public MetricsIndexCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_EXPIRATION, TimeUnit.MINUTES);
+    }
+
+    public MetricsIndexCache(long maxSize, long expiration, TimeUnit unit) {
+        indexed = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(expiration, unit)
+            .build();
+    }
+
+    /**
+     * @return The metrics which are not known to be in the index
+     */
+    public <T extends Metric<?>> List<T> getUnindexed(List<T> metrics) {
+        List<T> unindexed = new ArrayList<>();
+        for (T metric : metrics) {
+            if (indexed.getIfPresent(new IndexKey(metric)) == null) {
+                unindexed.add(metric);
+            }
+        }
+        return unindexed;
+    }
+
+    /**
+     * Records that the metrics have been written to the index. This should be called only after the write succeeds,
+     * so that a failed write is retried with the next data points.
+     */
+    public void markIndexed(List<? extends Metric<?>> metrics) {
+        for (Metric<?> metric : metrics) {
+            indexed.put(new IndexKey(metric), Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @return True if the metric is known to be in the index. False means that it is not known, not that it does not
+     * exist.
+     */
+    public boolean isIndexed(String tenantId, MetricType type, MetricId id) {
+        return indexed.getIfPresent(new IndexKey(tenantId, type, id)) != null;
+    }
+
+    public void markIndexed(String tenantId, MetricType type, MetricId id) {
+        indexed.put(new IndexKey(tenantId, type, id), Boolean.TRUE);
+    }
+
+    public void invalidateAll() {
+        indexed.invalidateAll();
+    }
+
+    public long size() {
+        return indexed.size();
+    }
+}
@@ -24,6 +24,7 @@ import com.datastax.driver.core.Row;
 import com.google.common.base.Function;
 
 import org.hawkular.metrics.core.api.AvailabilityMetric;
+import org.hawkular.metrics.core.api.HistogramMetric;
 import org.hawkular.metrics.core.api.Interval;
 import org.hawkular.metrics.core.api.Metric;
 import org.hawkular.metrics.core.api.MetricId;
@@ -58,6 +59,8 @@ public class MetricsIndexMapper implements Function<ResultSet, List<Metric>> {
     public List<Metric> apply(ResultSet resultSet) {
         if (type == MetricType.NUMERIC) {
             return getNumericMetrics(resultSet);
+        } else if (type == MetricType.HISTOGRAM) {
+            return getHistogramMetrics(resultSet);
         } else {
             return getAvailabilityMetrics(resultSet);
         }
@@ -84,4 +87,15 @@ public class MetricsIndexMapper implements Function<ResultSet, List<Metric>> {
         }
         return metrics;
     }
+
+    private List<Metric> getHistogramMetrics(ResultSet resultSet) {
+        List<Metric> metrics = new ArrayList<>();
+        for (Row row : resultSet) {
+            metrics.add(new HistogramMetric(tenantId, new MetricId(row.getString(ColumnIndex.METRIC_NAME.ordinal()),
+                Interval.parse(row.getString(ColumnIndex.INTERVAL.ordinal()))), MetricUtils.getTags(row.getMap(
+                ColumnIndex.TAGS.ordinal(), String.class, String.class)),
+                row.getInt(ColumnIndex.DATA_RETENTION.ordinal())));
+        }
+        return metrics;
+    }
 }
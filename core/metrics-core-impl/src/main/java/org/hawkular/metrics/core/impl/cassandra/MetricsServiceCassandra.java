@@ -24,25 +24,36 @@ import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 import javax.management.MBeanInfo;
 import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
 
+import org.hawkular.metrics.core.api.AggregatedSeries;
 import org.hawkular.metrics.core.api.Availability;
 import org.hawkular.metrics.core.api.AvailabilityMetric;
 import org.hawkular.metrics.core.api.Counter;
+import org.hawkular.metrics.core.api.HistogramMetric;
 import org.hawkular.metrics.core.api.Interval;
 import org.hawkular.metrics.core.api.Metric;
 import org.hawkular.metrics.core.api.MetricAlreadyExistsException;
@@ -53,29 +64,45 @@ import org.hawkular.metrics.core.api.MetricsService;
 import org.hawkular.metrics.core.api.MetricsThreadFactory;
 import org.hawkular.metrics.core.api.NumericData;
 import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.api.NumericSeries;
 import org.hawkular.metrics.core.api.Retention;
 import org.hawkular.metrics.core.api.RetentionSettings;
+import org.hawkular.metrics.core.api.SeriesFunction;
 import org.hawkular.metrics.core.api.Tenant;
 import org.hawkular.metrics.core.api.TenantAlreadyExistsException;
+import org.hawkular.metrics.core.impl.downsample.Downsampler;
+import org.hawkular.metrics.core.impl.downsample.SeriesAggregator;
 import org.hawkular.metrics.core.impl.schema.SchemaManager;
+import org.hawkular.metrics.core.impl.tags.TagIndex;
+import org.hawkular.metrics.core.impl.util.BoundedFanOut;
 import org.joda.time.Duration;
 import org.joda.time.Hours;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.ProtocolOptions;
+import com.datastax.driver.core.QueryOptions;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SocketOptions;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterators;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
-import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.SettableFuture;
 
 /**
  * @author John Sanda
@@ -86,14 +113,96 @@ public class MetricsServiceCassandra implements MetricsService {
 
     private static final Logger logger = LoggerFactory.getLogger(MetricsServiceCassandra.class);
 
-    public static final String REQUEST_LIMIT = "hawkular.metrics.request.limit";
-
     public static final int DEFAULT_TTL = Duration.standardDays(7).toStandardSeconds().getSeconds();
 
+    /**
+     * The default number of rows fetched at a time by streaming queries.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    /**
+     * The default number of threads that map query results, one per processor.
+     */
+    public static final int DEFAULT_TASK_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The default number of tenants whose data retentions are cached.
+     */
+    public static final int DEFAULT_RETENTIONS_CACHE_SIZE = 10000;
+
+    /**
+     * The default number of connections that are kept open to each Cassandra node in the local data center.
+     */
+    public static final int DEFAULT_CORE_CONNECTIONS = 2;
+
+    /**
+     * The default maximum number of connections to each Cassandra node in the local data center.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+    /**
+     * The default number of concurrent requests on a connection above which another connection is opened. The
+     * native protocol allows at most 128.
+     */
+    public static final int DEFAULT_MAX_REQUESTS_PER_CONNECTION = 100;
+
+    /**
+     * The default number of milliseconds to wait for a connection to a Cassandra node.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+    /**
+     * The default number of milliseconds to wait for a response from a Cassandra node.
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 12000;
+
+    /**
+     * The default number of rows fetched at a time by queries that do not set their own page size.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 5000;
+
+    /**
+     * The default number of date partitions that a range query reads at the same time.
+     */
+    public static final int DEFAULT_PARTITION_QUERY_PARALLELISM = 8;
+
+    /**
+     * The default number of minutes between reloads of the tag indexes.
+     */
+    public static final int DEFAULT_TAG_INDEX_RELOAD_INTERVAL = 5;
+
+    /**
+     * The default number of threads that merge the series of aggregation queries.
+     */
+    public static final int DEFAULT_AGGREGATION_THREADS = 2;
+
+    /**
+     * The default maximum number of series that an aggregation query can combine.
+     */
+    public static final int DEFAULT_MAX_AGGREGATED_SERIES = 1000;
+
+    /**
+     * The default maximum number of date partitions that the time range of a query can span.
+     */
+    public static final int DEFAULT_MAX_QUERY_PARTITIONS = 1000;
+
+    /**
+     * Raw data written before the data table was partitioned by time slice is stored in this partition regardless of
+     * its timestamp. It is also the partition that holds the metric level metadata.
+     */
+    static final long LEGACY_DPART = Metric.DPART;
+
+    /**
+     * The number of tenants whose data retentions are loaded concurrently during warm-up.
+     */
+    private static final int PREFETCH_BATCH_SIZE = 32;
+
     private static final Function<ResultSet, Void> RESULT_SET_TO_VOID = resultSet -> null;
 
     private static final Function<List<ResultSet>, Void> RESULT_SETS_TO_VOID = resultSets -> null;
 
+    private static final Comparator<MetricData> NEWEST_FIRST = MetricData.TIME_UUID_COMPARATOR.reversed();
+
     private static class DataRetentionKey {
         private final String tenantId;
         private final MetricId metricId;
@@ -139,30 +248,114 @@ public class MetricsServiceCassandra implements MetricsService {
         }
     }
 
-    private final RateLimiter permits = RateLimiter.create(Double.parseDouble(
-        System.getProperty(REQUEST_LIMIT, "30000")), 3, TimeUnit.MINUTES);
-
     private Optional<Session> session;
 
     private DataAccess dataAccess;
 
-    private final ListeningExecutorService metricsTasks = MoreExecutors
-        .listeningDecorator(Executors.newFixedThreadPool(4, new MetricsThreadFactory()));
+    private InstrumentedDataAccess instrumentedDataAccess;
+
+    private DatePartitioner partitioner = new DatePartitioner();
+
+    private Optional<RollupScheduler> rollupScheduler = Optional.empty();
+
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    private int partitionQueryParallelism = DEFAULT_PARTITION_QUERY_PARALLELISM;
+
+    /**
+     * Whether raw data queries also read the {@link #LEGACY_DPART legacy partition}. It can be turned off once the data
+     * written before the upgrade has expired.
+     */
+    private boolean readLegacyPartition = true;
+
+    /**
+     * Whether tag queries also read the tags table of keyspaces created by earlier versions, which holds the data that
+     * was tagged before the upgrade. It can be turned off once that data has expired.
+     */
+    private boolean readLegacyTags = true;
+
+    private MetricsIndexCache metricsIndexCache = new MetricsIndexCache();
+
+    private MetricCache metricCache = new MetricCache();
+
+    /**
+     * The executor created by the service when none is given. It is null otherwise.
+     */
+    private final InstrumentedExecutor taskExecutor;
+
+    /**
+     * Runs the transforms that map result sets of unbounded size, e.g., the data of a time range. Transforms that
+     * only map a single row or chain further queries run on the driver's callback thread instead.
+     */
+    private final ListeningExecutorService metricsTasks;
+
+    /**
+     * Runs the merges of aggregation queries, which block while they wait for the next pages of the series. They do
+     * not run on {@link #metricsTasks} so that they cannot starve the other queries of threads.
+     */
+    private final InstrumentedExecutor aggregationExecutor = new InstrumentedExecutor(DEFAULT_AGGREGATION_THREADS);
+
+    private final ListeningExecutorService aggregationTasks = MoreExecutors.listeningDecorator(aggregationExecutor);
+
+    /**
+     * Limits the aggregation queries in progress to twice the number of aggregation threads. Aggregations beyond
+     * that are rejected rather than queued, since each one holds a page of every one of its series.
+     */
+    private volatile Semaphore aggregationPermits = new Semaphore(2 * DEFAULT_AGGREGATION_THREADS);
+
+    private int maxAggregatedSeries = DEFAULT_MAX_AGGREGATED_SERIES;
+
+    private int maxQueryPartitions = DEFAULT_MAX_QUERY_PARTITIONS;
+
+    private int retentionsCacheSize = DEFAULT_RETENTIONS_CACHE_SIZE;
+
+    /**
+     * The data retentions of each tenant keyed by tenant id. They are loaded on first use and prefetched in the
+     * background at startup. Note that while user specifies the durations in hours, we store them in seconds.
+     */
+    private Cache<String, ListenableFuture<Map<DataRetentionKey, Integer>>> dataRetentions = CacheBuilder
+        .newBuilder().maximumSize(retentionsCacheSize).build();
+
+    private volatile boolean warmedUp;
+
+    private final TenantRegistry tenantRegistry = new TenantRegistry(this::loadTenants);
 
     /**
-     * Note that while user specifies the durations in hours, we store them in seconds.
+     * The metric tag indexes keyed by metric type and tenant id. They are loaded on first use and reloaded
+     * periodically to pick up the metrics created or updated on other nodes.
      */
-    private final Map<DataRetentionKey, Integer> dataRetentions = new ConcurrentHashMap<>();
+    private final Map<MetricType, ConcurrentMap<String, ListenableFuture<TagIndex>>> tagIndexes =
+        new EnumMap<>(MetricType.class);
+
+    private Optional<ScheduledExecutorService> tagIndexReloads = Optional.empty();
 
     public MetricsServiceCassandra() {
+        this(new InstrumentedExecutor(DEFAULT_TASK_THREADS), null);
+    }
+
+    /**
+     * @param executor The executor on which result sets are mapped. It is not shut down with the service.
+     */
+    public MetricsServiceCassandra(ExecutorService executor) {
+        this(null, executor);
+    }
+
+    private MetricsServiceCassandra(InstrumentedExecutor taskExecutor, ExecutorService executor) {
+        this.taskExecutor = taskExecutor;
+        metricsTasks = MoreExecutors.listeningDecorator(taskExecutor == null ? executor : taskExecutor);
+        tagIndexes.put(MetricType.NUMERIC, new ConcurrentHashMap<>());
+        tagIndexes.put(MetricType.AVAILABILITY, new ConcurrentHashMap<>());
+        tagIndexes.put(MetricType.HISTOGRAM, new ConcurrentHashMap<>());
     }
 
     @Override
     public void startUp(Session s) {
         // the session is managed externally
         this.session = Optional.empty();
-        this.dataAccess = new DataAccessImpl(s);
-        loadDataRetentions();
+        this.instrumentedDataAccess = new InstrumentedDataAccess(new DataAccessImpl(s, partitioner), null);
+        this.dataAccess = instrumentedDataAccess;
+        tenantRegistry.refresh();
+        prefetchDataRetentions();
     }
 
     @Override
@@ -187,10 +380,7 @@ public class MetricsServiceCassandra implements MetricsService {
             verifyNodeIsUp(nodes[0], 9990, 10, 1000);
         }
 
-        Cluster cluster = new Cluster.Builder()
-            .addContactPoints(nodes)
-            .withPort(port)
-            .build();
+        Cluster cluster = buildCluster(params, nodes, port);
 
         String keyspace = params.get("keyspace");
         if (keyspace==null||keyspace.isEmpty()) {
@@ -205,6 +395,38 @@ public class MetricsServiceCassandra implements MetricsService {
 
         logger.info("Using a key space of '" + keyspace + "'");
 
+        String partitionSize = params.get("partition-size");
+        if (partitionSize != null && !partitionSize.isEmpty()) {
+            try {
+                partitioner = DatePartitioner.fromInterval(Interval.parse(partitionSize));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Invalid context param 'partition-size', not a valid interval. Will use a default of 1d");
+            }
+        }
+        logger.info("Using a date partition size of " + partitioner.getPartitionSize());
+
+        String pageSizeParam = params.get("page-size");
+        if (pageSizeParam != null && !pageSizeParam.isEmpty()) {
+            try {
+                pageSize = Integer.parseInt(pageSizeParam);
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid context param 'page-size', not a number. Will use a default of " +
+                    DEFAULT_PAGE_SIZE);
+            }
+        }
+
+        partitionQueryParallelism = getIntParam(params, "partition-query-parallelism",
+            DEFAULT_PARTITION_QUERY_PARALLELISM);
+        maxQueryPartitions = getIntParam(params, "max-query-partitions", DEFAULT_MAX_QUERY_PARTITIONS);
+        String legacyPartitionParam = params.get("read-legacy-partition");
+        if (legacyPartitionParam != null && !legacyPartitionParam.isEmpty()) {
+            readLegacyPartition = Boolean.parseBoolean(legacyPartitionParam);
+        }
+        String legacyTagsParam = params.get("read-legacy-tags");
+        if (legacyTagsParam != null && !legacyTagsParam.isEmpty()) {
+            readLegacyTags = Boolean.parseBoolean(legacyTagsParam);
+        }
+
         session = Optional.of(cluster.connect("system"));
 
         if (System.getProperty("cassandra.resetdb")!=null) {
@@ -214,35 +436,257 @@ public class MetricsServiceCassandra implements MetricsService {
         // This creates/updates the keyspace + tables if needed
         updateSchemaIfNecessary(keyspace);
         session.get().execute("USE " + keyspace);
+        checkPartitionSize(keyspace);
+
+        WriteCoalescer writeCoalescer = new WriteCoalescer(session.get(),
+            getIntParam(params, "write-batch-rows", WriteCoalescer.DEFAULT_MAX_BATCH_ROWS),
+            getIntParam(params, "write-batch-bytes", WriteCoalescer.DEFAULT_MAX_BATCH_BYTES),
+            getIntParam(params, "write-batches-in-flight", WriteCoalescer.DEFAULT_MAX_IN_FLIGHT),
+            getIntParam(params, "write-queue-size", WriteCoalescer.DEFAULT_MAX_QUEUED));
+        instrumentedDataAccess = new InstrumentedDataAccess(new DataAccessImpl(session.get(), partitioner,
+            writeCoalescer), ManagementFactory.getPlatformMBeanServer());
+        dataAccess = instrumentedDataAccess;
+        metricsIndexCache = new MetricsIndexCache(
+            getIntParam(params, "metrics-index-cache-size", MetricsIndexCache.DEFAULT_MAX_SIZE),
+            getIntParam(params, "metrics-index-cache-expiration", MetricsIndexCache.DEFAULT_EXPIRATION),
+            TimeUnit.MINUTES);
+        metricCache = new MetricCache(
+            getIntParam(params, "metric-cache-size", MetricCache.DEFAULT_MAX_SIZE),
+            getIntParam(params, "metric-cache-expiration", MetricCache.DEFAULT_EXPIRATION),
+            TimeUnit.MINUTES);
+        retentionsCacheSize = getIntParam(params, "retentions-cache-size", DEFAULT_RETENTIONS_CACHE_SIZE);
+        dataRetentions = CacheBuilder.newBuilder().maximumSize(retentionsCacheSize).build();
+        if (taskExecutor != null) {
+            taskExecutor.setPoolSize(getIntParam(params, "task-threads", DEFAULT_TASK_THREADS));
+            taskExecutor.register("metricsTasks");
+        }
+        int aggregationThreads = getIntParam(params, "aggregation-threads", DEFAULT_AGGREGATION_THREADS);
+        aggregationExecutor.setPoolSize(aggregationThreads);
+        aggregationExecutor.register("aggregationTasks");
+        aggregationPermits = new Semaphore(2 * aggregationThreads);
+        maxAggregatedSeries = getIntParam(params, "max-aggregated-series", DEFAULT_MAX_AGGREGATED_SERIES);
+        tenantRegistry.start(getIntParam(params, "tenants-refresh-interval", TenantRegistry.DEFAULT_REFRESH_INTERVAL));
+        int tagIndexReloadInterval = getIntParam(params, "tag-index-reload-interval",
+            DEFAULT_TAG_INDEX_RELOAD_INTERVAL);
+        ScheduledExecutorService reloads = Executors.newSingleThreadScheduledExecutor(new MetricsThreadFactory());
+        reloads.scheduleWithFixedDelay(this::reloadTagIndexes, tagIndexReloadInterval, tagIndexReloadInterval,
+            TimeUnit.MINUTES);
+        tagIndexReloads = Optional.of(reloads);
+        prefetchDataRetentions();
+
+        RollupScheduler scheduler = new RollupScheduler(this);
+        scheduler.start();
+        rollupScheduler = Optional.of(scheduler);
+    }
+
+    /**
+     * Requests are routed to a replica of the partition they target, preferring the nodes of the local data center.
+     * The local data center is the one of the contact points unless it is set with the local-datacenter param.
+     * Frames are compressed with LZ4 by default, which falls back to no compression if the LZ4 library is not on the
+     * class path.
+     */
+    private Cluster buildCluster(Map<String, String> params, String[] nodes, int port) {
+        String localDataCenter = params.get("local-datacenter");
+        DCAwareRoundRobinPolicy dcAwarePolicy = localDataCenter == null || localDataCenter.isEmpty() ?
+            new DCAwareRoundRobinPolicy() : new DCAwareRoundRobinPolicy(localDataCenter);
+
+        PoolingOptions poolingOptions = new PoolingOptions()
+            .setCoreConnectionsPerHost(HostDistance.LOCAL,
+                getIntParam(params, "core-connections", DEFAULT_CORE_CONNECTIONS))
+            .setMaxConnectionsPerHost(HostDistance.LOCAL,
+                getIntParam(params, "max-connections", DEFAULT_MAX_CONNECTIONS))
+            .setMaxSimultaneousRequestsPerConnectionThreshold(HostDistance.LOCAL,
+                getIntParam(params, "max-requests-per-connection", DEFAULT_MAX_REQUESTS_PER_CONNECTION));
+
+        SocketOptions socketOptions = new SocketOptions()
+            .setConnectTimeoutMillis(getIntParam(params, "connect-timeout", DEFAULT_CONNECT_TIMEOUT))
+            .setReadTimeoutMillis(getIntParam(params, "read-timeout", DEFAULT_READ_TIMEOUT))
+            .setTcpNoDelay(true)
+            .setKeepAlive(true);
+
+        QueryOptions queryOptions = new QueryOptions()
+            .setFetchSize(getIntParam(params, "fetch-size", DEFAULT_FETCH_SIZE));
+
+        Cluster.Builder builder = new Cluster.Builder()
+            .addContactPoints(nodes)
+            .withPort(port)
+            .withLoadBalancingPolicy(new TokenAwarePolicy(dcAwarePolicy))
+            .withPoolingOptions(poolingOptions)
+            .withSocketOptions(socketOptions)
+            .withQueryOptions(queryOptions);
+
+        ProtocolOptions.Compression compression = getCompression(params.get("compression"));
+        try {
+            return builder.withCompression(compression).build();
+        } catch (IllegalStateException e) {
+            // The driver only checks that the compression library is on the class path when the cluster is built
+            logger.warn("The " + compression + " compression library is not available. Will not compress requests");
+            return builder.withCompression(ProtocolOptions.Compression.NONE).build();
+        }
+    }
 
-        dataAccess = new DataAccessImpl(session.get());
-        loadDataRetentions();
+    private ProtocolOptions.Compression getCompression(String value) {
+        if (value == null || value.isEmpty()) {
+            return ProtocolOptions.Compression.LZ4;
+        }
+        try {
+            return ProtocolOptions.Compression.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid context param 'compression', not one of none, lz4, or snappy. Will use a default " +
+                "of lz4");
+            return ProtocolOptions.Compression.LZ4;
+        }
     }
 
-    void loadDataRetentions() {
-        DataRetentionsMapper mapper = new DataRetentionsMapper();
-        List<String> tenantIds = loadTenantIds();
-        CountDownLatch latch = new CountDownLatch(tenantIds.size() * 2);
-        for (String tenantId : tenantIds) {
-            ResultSetFuture numericFuture = dataAccess.findDataRetentions(tenantId, MetricType.NUMERIC);
-            ResultSetFuture availabilityFuture = dataAccess.findDataRetentions(tenantId, MetricType.AVAILABILITY);
-            ListenableFuture<Set<Retention>> numericRetentions = Futures.transform(numericFuture, mapper, metricsTasks);
-            ListenableFuture<Set<Retention>> availabilityRetentions = Futures.transform(availabilityFuture, mapper,
-                    metricsTasks);
-            Futures.addCallback(numericRetentions,
-                    new DataRetentionsLoadedCallback(tenantId, MetricType.NUMERIC, latch));
-            Futures.addCallback(availabilityRetentions, new DataRetentionsLoadedCallback(tenantId,
-                    MetricType.AVAILABILITY, latch));
+    private int getIntParam(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
         }
         try {
-            latch.await();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            int intValue = Integer.parseInt(value);
+            if (intValue > 0) {
+                return intValue;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        logger.warn("Invalid context param '" + name + "', not a positive number. Will use a default of " +
+            defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * Loads the data retentions of the tenants in the background, one batch of tenants at a time and no more than
+     * fit in the cache. Requests do not wait for this since the retentions of a tenant are loaded on demand when
+     * they are not cached yet. {@link #isWarmedUp()} returns true once this finishes, whether or not it succeeds.
+     */
+    ListenableFuture<Void> prefetchDataRetentions() {
+        warmedUp = false;
+        ListenableFuture<List<String>> tenantIdsFuture = Futures.transform(dataAccess.findAllTenantIds(),
+            new Function<ResultSet, List<String>>() {
+                @Override
+                public List<String> apply(ResultSet resultSet) {
+                    return getTenantIds(resultSet);
+                }
+            }, metricsTasks);
+        ListenableFuture<Void> prefetchFuture = Futures.transform(tenantIdsFuture,
+            new AsyncFunction<List<String>, Void>() {
+                @Override
+                public ListenableFuture<Void> apply(List<String> tenantIds) {
+                    return prefetchDataRetentions(tenantIds.subList(0, Math.min(tenantIds.size(),
+                        retentionsCacheSize)), 0);
+                }
+            });
+        Futures.addCallback(prefetchFuture, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                logger.info("Finished loading data retentions");
+                warmedUp = true;
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                logger.warn("Failed to load data retentions. They will be loaded as tenants are accessed.", t);
+                warmedUp = true;
+            }
+        });
+        return prefetchFuture;
+    }
+
+    private ListenableFuture<Void> prefetchDataRetentions(List<String> tenantIds, int from) {
+        if (from >= tenantIds.size()) {
+            return Futures.immediateFuture(null);
+        }
+        int to = Math.min(from + PREFETCH_BATCH_SIZE, tenantIds.size());
+        List<ListenableFuture<Map<DataRetentionKey, Integer>>> loadFutures = new ArrayList<>(to - from);
+        for (String tenantId : tenantIds.subList(from, to)) {
+            loadFutures.add(getDataRetentions(tenantId));
         }
+        return Futures.transform(Futures.successfulAsList(loadFutures),
+            new AsyncFunction<List<Map<DataRetentionKey, Integer>>, Void>() {
+                @Override
+                public ListenableFuture<Void> apply(List<Map<DataRetentionKey, Integer>> retentions) {
+                    return prefetchDataRetentions(tenantIds, to);
+                }
+            });
     }
 
     void unloadDataRetentions() {
-        dataRetentions.clear();
+        dataRetentions.invalidateAll();
+    }
+
+    @Override
+    public boolean isWarmedUp() {
+        return warmedUp;
+    }
+
+    /**
+     * Returns the data retentions of the tenant, loading them from the retentions index if they are not cached. If
+     * the load fails, it is retried on the next call.
+     */
+    private ListenableFuture<Map<DataRetentionKey, Integer>> getDataRetentions(String tenantId) {
+        ListenableFuture<Map<DataRetentionKey, Integer>> retentionsFuture = dataRetentions.getIfPresent(tenantId);
+        if (retentionsFuture != null) {
+            return retentionsFuture;
+        }
+        SettableFuture<Map<DataRetentionKey, Integer>> loadFuture = SettableFuture.create();
+        retentionsFuture = dataRetentions.asMap().putIfAbsent(tenantId, loadFuture);
+        if (retentionsFuture != null) {
+            return retentionsFuture;
+        }
+        DataRetentionsMapper mapper = new DataRetentionsMapper();
+        List<ListenableFuture<Set<Retention>>> queryFutures = asList(
+            Futures.transform(dataAccess.findDataRetentions(tenantId, MetricType.NUMERIC), mapper),
+            Futures.transform(dataAccess.findDataRetentions(tenantId, MetricType.AVAILABILITY), mapper),
+            Futures.transform(dataAccess.findDataRetentions(tenantId, MetricType.HISTOGRAM), mapper));
+        Futures.addCallback(Futures.allAsList(queryFutures), new FutureCallback<List<Set<Retention>>>() {
+            @Override
+            public void onSuccess(List<Set<Retention>> retentions) {
+                Map<DataRetentionKey, Integer> retentionsMap = new ConcurrentHashMap<>();
+                for (Retention r : retentions.get(0)) {
+                    retentionsMap.put(new DataRetentionKey(tenantId, r.getId(), MetricType.NUMERIC), r.getValue());
+                }
+                for (Retention r : retentions.get(1)) {
+                    retentionsMap.put(new DataRetentionKey(tenantId, r.getId(), MetricType.AVAILABILITY),
+                        r.getValue());
+                }
+                for (Retention r : retentions.get(2)) {
+                    retentionsMap.put(new DataRetentionKey(tenantId, r.getId(), MetricType.HISTOGRAM), r.getValue());
+                }
+                loadFuture.set(retentionsMap);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                logger.warn("Failed to load data retentions for tenant " + tenantId, t);
+                dataRetentions.asMap().remove(tenantId, loadFuture);
+                loadFuture.setException(t);
+            }
+        });
+        return loadFuture;
+    }
+
+    /**
+     * Applies the update to the data retentions of the tenant if they are cached or being loaded. This should be
+     * called after the change is written to the retentions index, so that a later load reads it. An update made
+     * while the retentions are loading is applied once the load finishes.
+     */
+    private void updateDataRetentions(String tenantId, Consumer<Map<DataRetentionKey, Integer>> update) {
+        ListenableFuture<Map<DataRetentionKey, Integer>> retentionsFuture = dataRetentions.getIfPresent(tenantId);
+        if (retentionsFuture == null) {
+            return;
+        }
+        Futures.addCallback(retentionsFuture, new FutureCallback<Map<DataRetentionKey, Integer>>() {
+            @Override
+            public void onSuccess(Map<DataRetentionKey, Integer> retentions) {
+                update.accept(retentions);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+            }
+        });
     }
 
     boolean verifyNodeIsUp(String address, int jmxPort, int retries, long timeout) {
@@ -300,39 +744,18 @@ public class MetricsServiceCassandra implements MetricsService {
     }
 
 
-    private class DataRetentionsLoadedCallback implements FutureCallback<Set<Retention>> {
-
-        private final String tenantId;
-
-        private final MetricType type;
-
-        private final CountDownLatch latch;
-
-        public DataRetentionsLoadedCallback(String tenantId, MetricType type, CountDownLatch latch) {
-            this.tenantId = tenantId;
-            this.type = type;
-            this.latch = latch;
-        }
-
-        @Override
-        public void onSuccess(Set<Retention> dataRetentionsSet) {
-            for (Retention r : dataRetentionsSet) {
-                dataRetentions.put(new DataRetentionKey(tenantId, r.getId(), type), r.getValue());
-            }
-            latch.countDown();
-        }
-
-        @Override
-        public void onFailure(Throwable t) {
-            logger.warn("Failed to load data retentions for {tenantId: " + tenantId + ", metricType: " +
-                    type.getText() + "}", t);
-            latch.countDown();
-            // TODO We probably should not let initialization proceed on this error
-        }
-    }
-
     @Override
     public void shutdown() {
+        rollupScheduler.ifPresent(RollupScheduler::shutdown);
+        tenantRegistry.shutdown();
+        tagIndexReloads.ifPresent(ScheduledExecutorService::shutdownNow);
+        if (instrumentedDataAccess != null) {
+            instrumentedDataAccess.close();
+        }
+        aggregationExecutor.shutdown();
+        if (taskExecutor != null) {
+            taskExecutor.shutdown();
+        }
         if(session.isPresent()) {
             Session s = session.get();
             s.close();
@@ -341,7 +764,7 @@ public class MetricsServiceCassandra implements MetricsService {
     }
 
     /**
-     * This is a test hook.
+     * This is a test hook. The rollup scheduler uses it as well.
      */
     DataAccess getDataAccess() {
         return dataAccess;
@@ -354,6 +777,60 @@ public class MetricsServiceCassandra implements MetricsService {
         this.dataAccess = dataAccess;
     }
 
+    MetricsIndexCache getMetricsIndexCache() {
+        return metricsIndexCache;
+    }
+
+    /**
+     * @return The latency, error, row, and batch size statistics of the data access operations keyed by operation
+     * name. When the service is started with a map of parameters, they are also registered as MXBeans.
+     */
+    public Map<String, OperationStats> getDataAccessStats() {
+        return instrumentedDataAccess == null ? Collections.emptyMap() : instrumentedDataAccess.getStats();
+    }
+
+    /**
+     * @return The cache of metric definitions, which also provides the hit and miss counts
+     */
+    public MetricCache getMetricCache() {
+        return metricCache;
+    }
+
+    /**
+     * Drops the tag indexes so that they are reloaded on next use. This is a test hook.
+     */
+    void invalidateTagIndexes() {
+        tagIndexes.values().forEach(Map::clear);
+    }
+
+    /**
+     * Removes the tenants from the tenant registry so that they are reloaded on next use. This is a test hook.
+     */
+    void unloadTenants() {
+        tenantRegistry.clear();
+    }
+
+    /**
+     * This is a test hook.
+     */
+    void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * This is a test hook.
+     */
+    void setMaxAggregatedSeries(int maxAggregatedSeries) {
+        this.maxAggregatedSeries = maxAggregatedSeries;
+    }
+
+    /**
+     * This is a test hook.
+     */
+    void setMaxQueryPartitions(int maxQueryPartitions) {
+        this.maxQueryPartitions = maxQueryPartitions;
+    }
+
     @Override
     public ListenableFuture<Void> createTenant(final Tenant tenant) {
         ResultSetFuture future = dataAccess.insertTenant(tenant);
@@ -363,6 +840,7 @@ public class MetricsServiceCassandra implements MetricsService {
                 if (!resultSet.wasApplied()) {
                     throw new TenantAlreadyExistsException(tenant.getId());
                 }
+                tenantRegistry.add(tenant);
                 Map<MetricType, Set<Retention>> retentionsMap = new HashMap<>();
                 for (RetentionSettings.RetentionKey key : tenant.getRetentionSettings().keySet()) {
                     Set<Retention> retentions = retentionsMap.get(key.metricType);
@@ -379,6 +857,7 @@ public class MetricsServiceCassandra implements MetricsService {
                     return Futures.immediateFuture(null);
                 } else {
                     List<ResultSetFuture> updateRetentionFutures = new ArrayList<>();
+                    Map<DataRetentionKey, Integer> tenantRetentions = new HashMap<>();
 
                     for (Map.Entry<MetricType, Set<Retention>> metricTypeSetEntry : retentionsMap.entrySet()) {
                         updateRetentionFutures.add(dataAccess.updateRetentionsIndex(tenant.getId(),
@@ -386,34 +865,58 @@ public class MetricsServiceCassandra implements MetricsService {
                                 metricTypeSetEntry.getValue()));
 
                         for (Retention r : metricTypeSetEntry.getValue()) {
-                            dataRetentions.put(new DataRetentionKey(tenant.getId(), metricTypeSetEntry.getKey()),
-                                    r.getValue());
+                            tenantRetentions.put(new DataRetentionKey(tenant.getId(), r.getId(),
+                                    metricTypeSetEntry.getKey()), r.getValue());
                         }
                     }
 
                     ListenableFuture<List<ResultSet>> updateRetentionsFuture = Futures
                         .allAsList(updateRetentionFutures);
-                    return Futures.transform(updateRetentionsFuture, RESULT_SETS_TO_VOID, metricsTasks);
+                    return Futures.transform(updateRetentionsFuture, new Function<List<ResultSet>, Void>() {
+                        @Override
+                        public Void apply(List<ResultSet> resultSets) {
+                            updateDataRetentions(tenant.getId(), retentions -> retentions.putAll(tenantRetentions));
+                            return null;
+                        }
+                    });
                 }
             }
-        }, metricsTasks);
+        });
     }
 
     @Override
     public ListenableFuture<List<Tenant>> getTenants() {
-        TenantMapper mapper = new TenantMapper();
-        List<String> ids = loadTenantIds();
-        List<ListenableFuture<Tenant>> tenantFutures = new ArrayList<>(ids.size());
-        for (String id : ids) {
-            ResultSetFuture queryFuture = dataAccess.findTenant(id);
-            ListenableFuture<Tenant> tenantFuture = Futures.transform(queryFuture, mapper, metricsTasks);
-            tenantFutures.add(tenantFuture);
+        return tenantRegistry.getTenants();
+    }
+
+    /**
+     * Returns the tenant from the tenant registry. The tenants table is only queried if the tenant is not registered,
+     * e.g., because it was created on another node since the registry was last refreshed.
+     */
+    @Override
+    public ListenableFuture<Tenant> findTenant(String id) {
+        Tenant registered = tenantRegistry.getTenant(id);
+        if (registered != null) {
+            return Futures.immediateFuture(registered);
         }
-        return Futures.allAsList(tenantFutures);
+        ResultSetFuture queryFuture = dataAccess.findTenant(id);
+        return Futures.transform(queryFuture, new Function<ResultSet, Tenant>() {
+            @Override
+            public Tenant apply(ResultSet resultSet) {
+                Tenant tenant = new TenantMapper().apply(resultSet);
+                if (tenant != null) {
+                    tenantRegistry.add(tenant);
+                }
+                return tenant;
+            }
+        });
+    }
+
+    private ListenableFuture<List<Tenant>> loadTenants() {
+        return Futures.transform(dataAccess.findAllTenants(), new TenantsMapper(), metricsTasks);
     }
 
-    private List<String> loadTenantIds() {
-        ResultSet resultSet = dataAccess.findAllTenantIds().getUninterruptibly();
+    private static List<String> getTenantIds(ResultSet resultSet) {
         List<String> ids = new ArrayList<>();
         for (Row row : resultSet) {
             ids.add(row.getString(0));
@@ -424,12 +927,13 @@ public class MetricsServiceCassandra implements MetricsService {
     @Override
     public ListenableFuture<Void> createMetric(final Metric metric) {
         ResultSetFuture future = dataAccess.insertMetricInMetricsIndex(metric);
-        return Futures.transform(future, new AsyncFunction<ResultSet, Void>() {
+        ListenableFuture<Void> createFuture = Futures.transform(future, new AsyncFunction<ResultSet, Void>() {
             @Override
             public ListenableFuture<Void> apply(ResultSet resultSet) {
                 if (!resultSet.wasApplied()) {
                     throw new MetricAlreadyExistsException(metric);
                 }
+                metricsIndexCache.markIndexed(metric.getTenantId(), metric.getType(), metric.getId());
                 // TODO Need error handling if either of the following updates fail
                 // If adding tags/retention fails, then we want to report the error to the
                 // client. Updating the retentions_idx table could also fail. We need to
@@ -438,21 +942,29 @@ public class MetricsServiceCassandra implements MetricsService {
                 ResultSetFuture tagsFuture = dataAccess.insertIntoMetricsTagsIndex(metric, MetricUtils.flattenTags(
                     metric.getTags()));
 
-                List<ResultSetFuture> futures = new ArrayList<>();
+                List<ListenableFuture<ResultSet>> futures = new ArrayList<>();
                 futures.add(metadataFuture);
                 futures.add(tagsFuture);
 
                 if (metric.getDataRetention() != null) {
                     ResultSetFuture dataRetentionFuture = dataAccess.updateRetentionsIndex(metric);
-                    dataRetentions.put(new DataRetentionKey(metric), metric.getDataRetention());
-                    futures.add(dataRetentionFuture);
+                    futures.add(Futures.transform(dataRetentionFuture, new Function<ResultSet, ResultSet>() {
+                        @Override
+                        public ResultSet apply(ResultSet resultSet) {
+                            updateDataRetentions(metric.getTenantId(), retentions -> retentions.put(
+                                new DataRetentionKey(metric), metric.getDataRetention()));
+                            return resultSet;
+                        }
+                    }));
                 }
 
                 ListenableFuture<List<ResultSet>> insertsFuture = Futures.allAsList(futures);
 
                 return Futures.transform(insertsFuture, RESULT_SETS_TO_VOID);
             }
-        }, metricsTasks);
+        });
+        return invalidateOnCompletion(createFuture, metric, index -> index.putMetric(metric.getId(),
+            MetricUtils.flattenTags(metric.getTags()), metric.getDataRetention()));
     }
 
     @Override
@@ -460,29 +972,33 @@ public class MetricsServiceCassandra implements MetricsService {
         if (type == MetricType.LOG_EVENT) {
             throw new IllegalArgumentException(MetricType.LOG_EVENT + " is not yet supported");
         }
-        ResultSetFuture future = dataAccess.findMetric(tenantId, type, id, Metric.DPART);
-        return Futures.transform(future, new Function<ResultSet, Metric>() {
-            @Override
-            public Metric apply(ResultSet resultSet) {
-                if (resultSet.isExhausted()) {
-                    return null;
-                }
-                Row row = resultSet.one();
-                if (type == MetricType.NUMERIC) {
-                    return new NumericMetric(tenantId, id, MetricUtils.getTags(row.getMap(5, String.class,
-                        String.class)), row.getInt(6));
-                } else {
-                    return new AvailabilityMetric(tenantId, id, MetricUtils.getTags(row.getMap(5, String.class,
-                        String.class)), row.getInt(6));
+        return metricCache.getMetric(tenantId, type, id, () -> Futures.transform(
+            dataAccess.findMetric(tenantId, type, id, Metric.DPART), new Function<ResultSet, Metric>() {
+                @Override
+                public Metric apply(ResultSet resultSet) {
+                    if (resultSet.isExhausted()) {
+                        return null;
+                    }
+                    Row row = resultSet.one();
+                    if (type == MetricType.NUMERIC) {
+                        return new NumericMetric(tenantId, id, MetricUtils.getTags(row.getMap(5, String.class,
+                            String.class)), row.getInt(6));
+                    } else if (type == MetricType.HISTOGRAM) {
+                        return new HistogramMetric(tenantId, id, MetricUtils.getTags(row.getMap(5, String.class,
+                            String.class)), row.getInt(6));
+                    } else {
+                        return new AvailabilityMetric(tenantId, id, MetricUtils.getTags(row.getMap(5, String.class,
+                            String.class)), row.getInt(6));
+                    }
                 }
-            }
-        }, metricsTasks);
+            }));
     }
 
     @Override
     public ListenableFuture<List<Metric>> findMetrics(String tenantId, MetricType type) {
-        ResultSetFuture future = dataAccess.findMetricsInMetricsIndex(tenantId, type);
-        return Futures.transform(future, new MetricsIndexMapper(tenantId, type), metricsTasks);
+        return metricCache.getMetrics(tenantId, type, () -> Futures.transform(
+            dataAccess.findMetricsInMetricsIndex(tenantId, type), new MetricsIndexMapper(tenantId, type),
+            metricsTasks));
     }
 
     // Adding/deleting metric tags currently involves writing to three tables - data,
@@ -496,7 +1012,8 @@ public class MetricsServiceCassandra implements MetricsService {
             dataAccess.insertIntoMetricsTagsIndex(metric, MetricUtils.flattenTags(tags))
         );
         ListenableFuture<List<ResultSet>> insertsFuture = Futures.allAsList(insertFutures);
-        return Futures.transform(insertsFuture, RESULT_SETS_TO_VOID, metricsTasks);
+        return invalidateOnCompletion(Futures.transform(insertsFuture, RESULT_SETS_TO_VOID), metric,
+            index -> index.addTags(metric.getId(), MetricUtils.flattenTags(tags)));
     }
 
     @Override
@@ -506,39 +1023,237 @@ public class MetricsServiceCassandra implements MetricsService {
             dataAccess.deleteFromMetricsTagsIndex(metric, MetricUtils.flattenTags(tags))
         );
         ListenableFuture<List<ResultSet>> deletesFuture = Futures.allAsList(deleteFutures);
-        return Futures.transform(deletesFuture, RESULT_SETS_TO_VOID, metricsTasks);
+        return invalidateOnCompletion(Futures.transform(deletesFuture, RESULT_SETS_TO_VOID), metric,
+            index -> index.deleteTags(metric.getId(), tags.keySet()));
     }
 
-    @Override
-    public ListenableFuture<Void> addNumericData(List<NumericMetric> metrics) {
-        List<ResultSetFuture> insertFutures = new ArrayList<>(metrics.size());
-        for (NumericMetric metric : metrics) {
-            if (metric.getData().isEmpty()) {
-                logger.warn("There is no data to insert for {}", metric);
-            } else {
-                int ttl = getTTL(metric);
-                insertFutures.add(dataAccess.insertData(metric, ttl));
+    /**
+     * Invalidates the cached definition of the metric once the update completes. This is done whether or not the
+     * update succeeds since it may have been partially applied. If the update succeeds, it is applied to the tag
+     * index of the tenant as well. Otherwise the tag index is dropped and reloaded on next use. The returned future
+     * completes after the caches are updated, so that the caller reads the updated definition.
+     */
+    private <T> ListenableFuture<T> invalidateOnCompletion(ListenableFuture<T> future, Metric metric,
+        Consumer<TagIndex> tagIndexUpdate) {
+        SettableFuture<T> invalidated = SettableFuture.create();
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                metricCache.invalidate(metric);
+                updateTagIndex(metric.getTenantId(), metric.getType(), tagIndexUpdate);
+                invalidated.set(result);
             }
+
+            @Override
+            public void onFailure(Throwable t) {
+                metricCache.invalidate(metric);
+                tagIndexes.get(metric.getType()).remove(metric.getTenantId());
+                invalidated.setException(t);
+            }
+        });
+        return invalidated;
+    }
+
+    @Override
+    public ListenableFuture<List<Metric>> findMetricsWithTags(String tenantId, MetricType type,
+        Map<String, String> tags) {
+        if (!tagIndexes.containsKey(type)) {
+            throw new IllegalArgumentException(type + " is not yet supported");
+        }
+        return Futures.transform(getTagIndex(tenantId, type), new Function<TagIndex, List<Metric>>() {
+            @Override
+            public List<Metric> apply(TagIndex index) {
+                List<MetricId> ids = index.find(tags);
+                List<Metric> metrics = new ArrayList<>(ids.size());
+                for (MetricId id : ids) {
+                    Map<String, Optional<String>> metricTags = MetricUtils.getTags(index.getTags(id));
+                    if (type == MetricType.NUMERIC) {
+                        metrics.add(new NumericMetric(tenantId, id, metricTags, index.getDataRetention(id)));
+                    } else if (type == MetricType.HISTOGRAM) {
+                        metrics.add(new HistogramMetric(tenantId, id, metricTags, index.getDataRetention(id)));
+                    } else {
+                        metrics.add(new AvailabilityMetric(tenantId, id, metricTags, index.getDataRetention(id)));
+                    }
+                }
+                return metrics;
+            }
+        }, metricsTasks);
+    }
+
+    /**
+     * Returns the tag index of the tenant, loading it from the metrics index if this is its first use. If the load
+     * fails, it is retried on the next call.
+     */
+    private ListenableFuture<TagIndex> getTagIndex(String tenantId, MetricType type) {
+        ConcurrentMap<String, ListenableFuture<TagIndex>> indexes = tagIndexes.get(type);
+        ListenableFuture<TagIndex> indexFuture = indexes.get(tenantId);
+        if (indexFuture != null) {
+            return indexFuture;
+        }
+        SettableFuture<TagIndex> loadFuture = SettableFuture.create();
+        indexFuture = indexes.putIfAbsent(tenantId, loadFuture);
+        if (indexFuture != null) {
+            return indexFuture;
+        }
+        ListenableFuture<List<Metric>> metricsFuture = Futures.transform(dataAccess.findMetricsInMetricsIndex(
+            tenantId, type), new MetricsIndexMapper(tenantId, type), metricsTasks);
+        Futures.addCallback(metricsFuture, new FutureCallback<List<Metric>>() {
+            @Override
+            public void onSuccess(List<Metric> metrics) {
+                loadFuture.set(createTagIndex(metrics));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                indexes.remove(tenantId, loadFuture);
+                loadFuture.setException(t);
+            }
+        });
+        return loadFuture;
+    }
+
+    private static TagIndex createTagIndex(List<Metric> metrics) {
+        TagIndex index = new TagIndex();
+        for (Metric metric : metrics) {
+            index.putMetric(metric.getId(), MetricUtils.flattenTags(metric.getTags()), metric.getDataRetention());
+        }
+        return index;
+    }
+
+    /**
+     * Reloads the tag indexes that have been loaded. The indexes keep serving queries while they are reloaded.
+     *
+     * @return A future that completes when all of the reloads have finished, whether or not they succeeded
+     */
+    ListenableFuture<List<Void>> reloadTagIndexes() {
+        List<ListenableFuture<Void>> reloads = new ArrayList<>();
+        tagIndexes.forEach((type, indexes) -> indexes.forEach((tenantId, indexFuture) -> {
+            if (indexFuture.isDone()) {
+                reloads.add(Futures.transform(indexFuture, new AsyncFunction<TagIndex, Void>() {
+                    @Override
+                    public ListenableFuture<Void> apply(TagIndex index) {
+                        return reloadTagIndex(tenantId, type, index);
+                    }
+                }));
+            }
+        }));
+        return Futures.successfulAsList(reloads);
+    }
+
+    private ListenableFuture<Void> reloadTagIndex(String tenantId, MetricType type, TagIndex index) {
+        if (!index.startReload()) {
+            return Futures.immediateFuture(null);
+        }
+        ListenableFuture<List<Metric>> metricsFuture = Futures.transform(dataAccess.findMetricsInMetricsIndex(
+            tenantId, type), new MetricsIndexMapper(tenantId, type), metricsTasks);
+        SettableFuture<Void> reloadFuture = SettableFuture.create();
+        Futures.addCallback(metricsFuture, new FutureCallback<List<Metric>>() {
+            @Override
+            public void onSuccess(List<Metric> metrics) {
+                index.finishReload(createTagIndex(metrics));
+                reloadFuture.set(null);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                logger.warn("Failed to reload the " + type.getText() + " tag index of tenant " + tenantId, t);
+                index.cancelReload();
+                reloadFuture.setException(t);
+            }
+        });
+        return reloadFuture;
+    }
+
+    /**
+     * Applies the update to the tag index of the tenant if it has been loaded or is being loaded. An update made
+     * while the index is loading is applied once the load finishes. The updates are idempotent, so it does not
+     * matter whether or not the load already read the change.
+     */
+    private void updateTagIndex(String tenantId, MetricType type, Consumer<TagIndex> update) {
+        ListenableFuture<TagIndex> indexFuture = tagIndexes.get(type).get(tenantId);
+        if (indexFuture == null) {
+            return;
         }
-        insertFutures.add(dataAccess.updateMetricsIndex(metrics));
+        Futures.addCallback(indexFuture, new FutureCallback<TagIndex>() {
+            @Override
+            public void onSuccess(TagIndex index) {
+                update.accept(index);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> addNumericData(List<NumericMetric> metrics) {
+        List<ListenableFuture<ResultSet>> insertFutures = new ArrayList<>(metrics.size());
+        for (NumericMetric metric : metrics) {
+            if (metric.getData().isEmpty()) {
+                logger.warn("There is no data to insert for {}", metric);
+            } else {
+                insertFutures.add(withTTL(metric, ttl -> dataAccess.insertData(metric, ttl)));
+            }
+        }
+        updateMetricsIndex(metrics, insertFutures);
         ListenableFuture<List<ResultSet>> insertsFuture = Futures.allAsList(insertFutures);
-        return Futures.transform(insertsFuture, RESULT_SETS_TO_VOID, metricsTasks);
+        return Futures.transform(insertsFuture, RESULT_SETS_TO_VOID);
     }
 
     @Override
     public ListenableFuture<Void> addAvailabilityData(List<AvailabilityMetric> metrics) {
-        List<ResultSetFuture> insertFutures = new ArrayList<>(metrics.size());
+        List<ListenableFuture<ResultSet>> insertFutures = new ArrayList<>(metrics.size());
         for (AvailabilityMetric metric : metrics) {
             if (metric.getData().isEmpty()) {
                 logger.warn("There is no data to insert for {}", metric);
             } else {
-                int ttl = getTTL(metric);
-                insertFutures.add(dataAccess.insertData(metric, ttl));
+                insertFutures.add(withTTL(metric, ttl -> dataAccess.insertData(metric, ttl)));
+            }
+        }
+        updateMetricsIndex(metrics, insertFutures);
+        ListenableFuture<List<ResultSet>> insertsFuture = Futures.allAsList(insertFutures);
+        return Futures.transform(insertsFuture, RESULT_SETS_TO_VOID);
+    }
+
+    @Override
+    public ListenableFuture<Void> addHistogramData(List<HistogramMetric> metrics) {
+        List<ListenableFuture<ResultSet>> insertFutures = new ArrayList<>(metrics.size());
+        for (HistogramMetric metric : metrics) {
+            if (metric.getData().isEmpty()) {
+                logger.warn("There is no data to insert for {}", metric);
+            } else {
+                insertFutures.add(withTTL(metric, ttl -> dataAccess.insertData(metric, ttl)));
             }
         }
-        insertFutures.add(dataAccess.updateMetricsIndex(metrics));
+        updateMetricsIndex(metrics, insertFutures);
         ListenableFuture<List<ResultSet>> insertsFuture = Futures.allAsList(insertFutures);
-        return Futures.transform(insertsFuture, RESULT_SETS_TO_VOID, metricsTasks);
+        return Futures.transform(insertsFuture, RESULT_SETS_TO_VOID);
+    }
+
+    /**
+     * Writes the metrics that are not in {@link MetricsIndexCache} to the metrics index, and adds the future of the
+     * write to the futures. The future completes after the caches have been updated. If the write fails, the metrics
+     * are not cached, so the index is written again with their next data points.
+     */
+    private <T extends Metric<?>> void updateMetricsIndex(List<T> metrics,
+        List<ListenableFuture<ResultSet>> futures) {
+        List<T> unindexed = metricsIndexCache.getUnindexed(metrics);
+        if (unindexed.isEmpty()) {
+            return;
+        }
+        ResultSetFuture future = dataAccess.updateMetricsIndex(unindexed);
+        futures.add(Futures.transform(future, new Function<ResultSet, ResultSet>() {
+            @Override
+            public ResultSet apply(ResultSet resultSet) {
+                metricsIndexCache.markIndexed(unindexed);
+                for (T metric : unindexed) {
+                    metricCache.invalidateIndex(metric.getTenantId(), metric.getType());
+                    updateTagIndex(metric.getTenantId(), metric.getType(), index -> index.addMetric(metric.getId()));
+                }
+                return resultSet;
+            }
+        }));
     }
 
     @Override
@@ -568,29 +1283,335 @@ public class MetricsServiceCassandra implements MetricsService {
         throw new UnsupportedOperationException();
     }
 
+    // The date range of a query can span multiple date partitions. We query a bounded number
+    // of partitions at a time and then merge the results. The partitions are queried from
+    // newest to oldest, so merging simply concatenates the results in that order. Raw data
+    // queries also read the legacy partition, whose data has to be merged by timestamp.
+
+    private interface PartitionQuery<T> {
+        ListenableFuture<T> query(long dpart);
+    }
+
+    /**
+     * Runs one query per date partition with at most partitionQueryParallelism of them executing at the same time.
+     *
+     * @return The results in the order of the partitions
+     */
+    private <T> List<ListenableFuture<T>> queryPartitions(List<Long> dparts, PartitionQuery<T> query) {
+        return new BoundedFanOut<Long, T>(dparts, partitionQueryParallelism, query::query).start();
+    }
+
+    /**
+     * Returns the date partitions that overlap the time range, newest first. Ranges that span more than
+     * maxQueryPartitions partitions are rejected before any of them is computed, since a range starting at 0 would
+     * otherwise turn into tens of thousands of queries.
+     *
+     * @throws IllegalArgumentException if the time range spans too many partitions
+     */
+    private List<Long> getDparts(long start, long end) {
+        long numberOfDparts = partitioner.getNumberOfDparts(start, end);
+        if (numberOfDparts > maxQueryPartitions) {
+            throw new IllegalArgumentException("The time range spans " + numberOfDparts + " date partitions, " +
+                "which is more than the " + maxQueryPartitions + " that a query can read");
+        }
+        return partitioner.getDparts(start, end);
+    }
+
+    /**
+     * Returns the time slices that overlap the time range. The legacy partition is left out when it is read
+     * separately, even if it is also the time slice of the range.
+     */
+    private List<Long> getSlices(long start, long end) {
+        List<Long> dparts = getDparts(start, end);
+        if (readLegacyPartition) {
+            dparts.remove(Long.valueOf(LEGACY_DPART));
+        }
+        return dparts;
+    }
+
+    /**
+     * Returns the partitions that a raw data query reads, i.e., the time slices followed by the legacy partition
+     * unless reading it is turned off.
+     */
+    private List<Long> getRawDataDparts(long start, long end) {
+        List<Long> dparts = getSlices(start, end);
+        if (readLegacyPartition) {
+            dparts.add(LEGACY_DPART);
+        }
+        return dparts;
+    }
+
     @Override
     public ListenableFuture<NumericMetric> findNumericData(NumericMetric metric, long start, long end) {
-        // When we implement date partitioning, dpart will have to be determined based on
-        // the start and end params. And it is possible the the date range spans multiple
-        // date partitions.
-        metric.setDpart(Metric.DPART);
-        ResultSetFuture queryFuture = dataAccess.findData(metric, start, end);
-        return Futures.transform(queryFuture, new NumericMetricMapper(), metricsTasks);
+        List<ListenableFuture<NumericMetric>> queryFutures = queryPartitions(getRawDataDparts(start, end),
+            dpart -> Futures.transform(dataAccess.findData(inPartition(metric, dpart), start, end),
+                new NumericMetricMapper(), metricsTasks));
+        return mergePartitions(queryFutures);
+    }
+
+    @Override
+    public ListenableFuture<NumericSeries> findNumericSeries(NumericMetric metric, long start, long end) {
+        List<ListenableFuture<ResultSet>> queryFutures = queryPartitions(getRawDataDparts(start, end),
+            dpart -> dataAccess.findData(inPartition(metric, dpart), start, end));
+        ListenableFuture<List<ResultSet>> queriesFuture = Futures.allAsList(queryFutures);
+        // The metric tags are looked up in parallel with the data queries
+        ListenableFuture<Metric> metadataFuture = findMetric(metric.getTenantId(), MetricType.NUMERIC,
+            metric.getId());
+        return Futures.transform(metadataFuture, new AsyncFunction<Metric, NumericSeries>() {
+            @Override
+            public ListenableFuture<NumericSeries> apply(Metric metadata) {
+                Map<String, Optional<String>> tags = metadata == null ? Collections.emptyMap() : metadata.getTags();
+                return Futures.transform(queriesFuture, new NumericSeriesMapper(metric.getTenantId(),
+                    metric.getId(), tags, readLegacyPartition), metricsTasks);
+            }
+        });
     }
 
     @Override
     public ListenableFuture<AvailabilityMetric> findAvailabilityData(AvailabilityMetric metric, long start, long end) {
-        ResultSetFuture queryFuture = dataAccess.findAvailabilityData(metric, start, end);
-        return Futures.transform(queryFuture, new AvailabilityMetricMapper(), metricsTasks);
+        List<ListenableFuture<AvailabilityMetric>> queryFutures = queryPartitions(getRawDataDparts(start, end),
+            dpart -> Futures.transform(dataAccess.findAvailabilityData(inPartition(metric, dpart), start, end),
+                new AvailabilityMetricMapper(), metricsTasks));
+        return mergePartitions(queryFutures);
+    }
+
+    @Override
+    public ListenableFuture<HistogramMetric> findHistogramData(HistogramMetric metric, long start, long end) {
+        List<ListenableFuture<HistogramMetric>> queryFutures = queryPartitions(getDparts(start, end),
+            dpart -> Futures.transform(dataAccess.findHistogramData(inPartition(metric, dpart), start, end),
+                new HistogramMetricMapper(), metricsTasks));
+        return mergePartitions(queryFutures);
+    }
+
+    @Override
+    public ListenableFuture<Iterator<NumericData>> streamNumericData(NumericMetric metric, long start, long end) {
+        // Unlike the other range queries, the partitions are queried one at a time to bound memory usage
+        NumericDataMapper mapper = new NumericDataMapper();
+        ListenableFuture<Iterator<NumericData>> slicesFuture = PagedDataIterator.create(getSlices(start, end),
+            dpart -> dataAccess.findPagedData(inPartition(metric, dpart), start, end, pageSize), mapper::getData,
+            pageSize, metricsTasks);
+        if (!readLegacyPartition) {
+            return slicesFuture;
+        }
+        ListenableFuture<Iterator<NumericData>> legacyFuture = PagedDataIterator.create(
+            Collections.singletonList(LEGACY_DPART),
+            dpart -> dataAccess.findPagedData(inPartition(metric, dpart), start, end, pageSize), mapper::getData,
+            pageSize, metricsTasks);
+        return Futures.transform(Futures.allAsList(slicesFuture, legacyFuture),
+            new Function<List<Iterator<NumericData>>, Iterator<NumericData>>() {
+                @Override
+                public Iterator<NumericData> apply(List<Iterator<NumericData>> iterators) {
+                    Iterator<NumericData> slices = iterators.get(0);
+                    Iterator<NumericData> legacy = iterators.get(1);
+                    if (slices == null || legacy == null) {
+                        return slices == null ? legacy : slices;
+                    }
+                    return Iterators.mergeSorted(asList(slices, legacy), NEWEST_FIRST);
+                }
+            });
+    }
+
+    @Override
+    public ListenableFuture<List<AggregatedSeries>> aggregateNumericData(String tenantId, Map<String, String> tags,
+        String groupBy, SeriesFunction function, long start, long end, int numberOfBuckets) {
+        if (numberOfBuckets <= 0) {
+            throw new IllegalArgumentException("The number of buckets must be greater than zero");
+        }
+        Downsampler downsampler = new Downsampler(start, Math.max(1, (end - start) / numberOfBuckets),
+            numberOfBuckets);
+        Semaphore permits = aggregationPermits;
+        if (!permits.tryAcquire()) {
+            return Futures.immediateFailedFuture(new RejectedExecutionException("Too many aggregation queries are in " +
+                "progress"));
+        }
+        ListenableFuture<List<Metric>> metricsFuture = findMetricsWithTags(tenantId, MetricType.NUMERIC, tags);
+        ListenableFuture<List<AggregatedSeries>> aggregateFuture = Futures.transform(metricsFuture,
+            new AsyncFunction<List<Metric>, List<AggregatedSeries>>() {
+                @Override
+                public ListenableFuture<List<AggregatedSeries>> apply(List<Metric> metrics) {
+                    if (metrics.size() > maxAggregatedSeries) {
+                        return Futures.immediateFailedFuture(new IllegalArgumentException("The tag filters match " +
+                            metrics.size() + " metrics, which is more than the " + maxAggregatedSeries +
+                            " that can be aggregated"));
+                    }
+                    List<ListenableFuture<Iterator<NumericData>>> streams = new BoundedFanOut<Metric,
+                        Iterator<NumericData>>(metrics, partitionQueryParallelism,
+                        metric -> streamNumericData((NumericMetric) metric, start, end)).start();
+                    // The merge blocks while it waits for the next pages, so it runs on its own executor
+                    return Futures.transform(Futures.allAsList(streams),
+                        new Function<List<Iterator<NumericData>>, List<AggregatedSeries>>() {
+                            @Override
+                            public List<AggregatedSeries> apply(List<Iterator<NumericData>> iterators) {
+                                SeriesAggregator aggregator = new SeriesAggregator(downsampler, function);
+                                for (int i = 0; i < metrics.size(); ++i) {
+                                    aggregator.add(getGroup(metrics.get(i), groupBy), iterators.get(i));
+                                }
+                                return aggregator.aggregate();
+                            }
+                        }, aggregationTasks);
+                }
+            });
+        aggregateFuture.addListener(permits::release, MoreExecutors.sameThreadExecutor());
+        return aggregateFuture;
+    }
+
+    private static String getGroup(Metric<?> metric, String groupBy) {
+        if (groupBy == null) {
+            return null;
+        }
+        Optional<String> value = metric.getTags().get(groupBy);
+        return value == null ? null : value.orElse("");
     }
 
     @Override
     public ListenableFuture<List<NumericData>> findData(NumericMetric metric, long start, long end) {
-        ResultSetFuture future = dataAccess.findData(metric, start, end);
-        return Futures.transform(future, new NumericDataMapper(), metricsTasks);
+        return findData(metric, start, end, false);
+    }
+
+    private ListenableFuture<List<NumericData>> findData(NumericMetric metric, long start, long end,
+        boolean includeWriteTime) {
+        List<ListenableFuture<List<NumericData>>> queryFutures = queryPartitions(getRawDataDparts(start, end),
+            dpart -> Futures.transform(dataAccess.findData(inPartition(metric, dpart), start, end, includeWriteTime),
+                new NumericDataMapper(includeWriteTime), metricsTasks));
+        return Futures.transform(Futures.allAsList(queryFutures), (List<List<NumericData>> data) -> concat(data));
+    }
+
+    private ListenableFuture<List<Availability>> findData(AvailabilityMetric metric, long start, long end,
+        boolean includeWriteTime) {
+        List<ListenableFuture<List<Availability>>> queryFutures = queryPartitions(getRawDataDparts(start, end),
+            dpart -> Futures.transform(dataAccess.findData(inPartition(metric, dpart), start, end, includeWriteTime),
+                new AvailabilityDataMapper(includeWriteTime), metricsTasks));
+        return Futures.transform(Futures.allAsList(queryFutures), (List<List<Availability>> data) -> concat(data));
+    }
+
+    @Override
+    public ListenableFuture<NumericMetric> findAggregatedData(NumericMetric metric, Interval interval, long start,
+        long end) {
+        MetricId aggregateId = new MetricId(metric.getId().getName(), interval);
+        List<ListenableFuture<NumericMetric>> queryFutures = queryPartitions(getDparts(start, end),
+            dpart -> Futures.transform(dataAccess.findAggregatedData(inPartition(new NumericMetric(
+                metric.getTenantId(), aggregateId), dpart), start, end), new AggregatedDataMapper(
+                metric.getTenantId(), metric.getId()), metricsTasks));
+        return mergePartitions(queryFutures);
+    }
+
+    /**
+     * Stores pre-computed aggregates. The id of each metric is that of the aggregate metric, i.e., the name of the
+     * source metric along with the aggregation interval.
+     */
+    ListenableFuture<Void> addAggregatedData(List<NumericMetric> metrics) {
+        List<ListenableFuture<ResultSet>> insertFutures = new ArrayList<>(metrics.size());
+        for (NumericMetric metric : metrics) {
+            if (metric.getData().isEmpty()) {
+                logger.warn("There is no data to insert for {}", metric);
+            } else {
+                insertFutures.add(withTTL(metric, ttl -> dataAccess.insertAggregatedData(metric, ttl)));
+            }
+        }
+        ListenableFuture<List<ResultSet>> insertsFuture = Futures.allAsList(insertFutures);
+        return Futures.transform(insertsFuture, RESULT_SETS_TO_VOID);
+    }
+
+    /**
+     * Merges the per partition query results, which are ordered from newest to oldest partition, into a single
+     * metric. The data is sorted from newest to oldest, which only reorders the data of the legacy partition. The
+     * metric level metadata, i.e., tags and data retention, is read from the {@link Metric#DPART} partition when it
+     * exists. The returned future produces null if none of the partitions has any data.
+     */
+    private <T extends Metric<?>> ListenableFuture<T> mergePartitions(List<ListenableFuture<T>> queryFutures) {
+        ListenableFuture<List<T>> queriesFuture = Futures.allAsList(queryFutures);
+        return Futures.transform(queriesFuture, new AsyncFunction<List<T>, T>() {
+            @Override
+            public ListenableFuture<T> apply(List<T> partitions) {
+                T merged = null;
+                for (T partition : partitions) {
+                    if (partition == null) {
+                        continue;
+                    }
+                    if (merged == null) {
+                        merged = partition;
+                    } else {
+                        addAll(merged, partition);
+                    }
+                }
+                if (merged == null) {
+                    return Futures.immediateFuture(null);
+                }
+                final T metric = merged;
+                metric.getData().sort(NEWEST_FIRST);
+                metric.setDpart(Metric.DPART);
+                ListenableFuture<Metric> metadataFuture = findMetric(metric.getTenantId(), metric.getType(),
+                    metric.getId());
+                return Futures.transform(metadataFuture, (Metric metadata) -> {
+                    if (metadata != null) {
+                        metric.setTags(metadata.getTags());
+                        metric.setDataRetention(metadata.getDataRetention());
+                    }
+                    return metric;
+                });
+            }
+        }, metricsTasks);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addAll(Metric metric, Metric<?> partition) {
+        for (MetricData d : partition.getData()) {
+            metric.addData(d);
+        }
+    }
+
+    /**
+     * Concatenates the per partition query results and sorts the data from newest to oldest, which only reorders the
+     * data of the legacy partition.
+     */
+    private static <T extends MetricData> List<T> concat(List<List<T>> lists) {
+        if (lists.size() == 1) {
+            return lists.get(0);
+        }
+        List<T> results = new ArrayList<>();
+        lists.forEach(results::addAll);
+        results.sort(NEWEST_FIRST);
+        return results;
+    }
+
+    private static NumericMetric inPartition(NumericMetric metric, long dpart) {
+        NumericMetric partition = new NumericMetric(metric.getTenantId(), metric.getId());
+        partition.setDpart(dpart);
+        return partition;
+    }
+
+    private static AvailabilityMetric inPartition(AvailabilityMetric metric, long dpart) {
+        AvailabilityMetric partition = new AvailabilityMetric(metric.getTenantId(), metric.getId());
+        partition.setDpart(dpart);
+        return partition;
+    }
+
+    private static HistogramMetric inPartition(HistogramMetric metric, long dpart) {
+        HistogramMetric partition = new HistogramMetric(metric.getTenantId(), metric.getId());
+        partition.setDpart(dpart);
+        return partition;
+    }
+
+    @Override
+    public ListenableFuture<Boolean> idExists(String tenantId, MetricType type, MetricId id) {
+        if (metricsIndexCache.isIndexed(tenantId, type, id)) {
+            return Futures.immediateFuture(true);
+        }
+        ResultSetFuture future = dataAccess.findMetricInMetricsIndex(tenantId, type, id);
+        return Futures.transform(future, new Function<ResultSet, Boolean>() {
+            @Override
+            public Boolean apply(ResultSet resultSet) {
+                if (resultSet.isExhausted()) {
+                    return false;
+                }
+                metricsIndexCache.markIndexed(tenantId, type, id);
+                return true;
+            }
+        });
     }
 
     @Override
+    @Deprecated
     public ListenableFuture<Boolean> idExists(final String id) {
         ResultSetFuture future = dataAccess.findAllNumericMetrics();
         return Futures.transform(future, new Function<ResultSet, Boolean>() {
@@ -611,100 +1632,88 @@ public class MetricsServiceCassandra implements MetricsService {
     }
 
     @Override
-    // TODO refactor to support multiple metrics
-    // Data for different metrics and for the same tag are stored within the same partition
-    // in the tags table; therefore, it makes sense for the API to support tagging multiple
-    // metrics since they could efficiently be inserted in a single batch statement.
     public ListenableFuture<List<NumericData>> tagNumericData(NumericMetric metric,
         final Map<String, Optional<String>> tags, long start, long end) {
-        ResultSetFuture queryFuture = dataAccess.findData(metric, start, end, true);
-        ListenableFuture<List<NumericData>> dataFuture = Futures.transform(queryFuture, new NumericDataMapper(true),
-            metricsTasks);
-        int ttl = getTTL(metric);
-        ListenableFuture<List<NumericData>> updatedDataFuture = Futures.transform(dataFuture, new ComputeTTL<>(ttl));
-        return Futures.transform(updatedDataFuture, new AsyncFunction<List<NumericData>, List<NumericData>>() {
-            @Override
-            public ListenableFuture<List<NumericData>> apply(final List<NumericData> taggedData) {
-                List<ResultSetFuture> insertFutures = new ArrayList<>(tags.size());
-                tags.forEach((k, v) -> insertFutures.add(dataAccess.insertNumericTag(k, v.orElse(""), taggedData)));
-                for (NumericData d : taggedData) {
-                    insertFutures.add(dataAccess.updateDataWithTag(d, MetricUtils.flattenTags(tags)));
-                }
-                ListenableFuture<List<ResultSet>> insertsFuture = Futures.allAsList(insertFutures);
-                return Futures.transform(insertsFuture, (List<ResultSet> resultSets) -> taggedData);
-            }
-        });
+        return tagNumericData(Collections.singletonList(metric), tags, start, end);
+    }
+
+    @Override
+    public ListenableFuture<List<NumericData>> tagNumericData(List<NumericMetric> metrics,
+        Map<String, Optional<String>> tags, long start, long end) {
+        List<ListenableFuture<List<NumericData>>> dataFutures = new ArrayList<>(metrics.size());
+        for (NumericMetric metric : metrics) {
+            ListenableFuture<List<NumericData>> dataFuture = findData(metric, start, end, true);
+            dataFutures.add(withTTL(metric, ttl -> Futures.transform(dataFuture, new ComputeTTL<>(ttl))));
+        }
+        return tagData(dataFutures, tags, dataAccess::insertNumericTag);
     }
 
     @Override
     public ListenableFuture<List<Availability>> tagAvailabilityData(AvailabilityMetric metric,
         Map<String, Optional<String>> tags, long start, long end) {
-        ResultSetFuture queryFuture = dataAccess.findData(metric, start, end, true);
-        ListenableFuture<List<Availability>> dataFuture = Futures.transform(queryFuture,
-            new AvailabilityDataMapper(true), metricsTasks);
-        int ttl = getTTL(metric);
-        ListenableFuture<List<Availability>> updatedDataFuture = Futures.transform(dataFuture, new ComputeTTL<>(ttl));
-        return Futures.transform(updatedDataFuture, new AsyncFunction<List<Availability>, List<Availability>>() {
-            @Override
-            public ListenableFuture<List<Availability>> apply(final List<Availability> taggedData) throws Exception {
-                List<ResultSetFuture> insertFutures = new ArrayList<>(taggedData.size());
-                tags.forEach((k, v) -> insertFutures.add(dataAccess.insertAvailabilityTag(k, v.orElse(""),
-                    taggedData)));
-                for (Availability a : taggedData) {
-                    insertFutures.add(dataAccess.updateDataWithTag(a, MetricUtils.flattenTags(tags)));
-                }
-                ListenableFuture<List<ResultSet>> insertsFuture = Futures.allAsList(insertFutures);
-                return Futures.transform(insertsFuture, (List<ResultSet> resultSets) -> taggedData);
-            }
-        });
+        return tagAvailabilityData(Collections.singletonList(metric), tags, start, end);
+    }
+
+    @Override
+    public ListenableFuture<List<Availability>> tagAvailabilityData(List<AvailabilityMetric> metrics,
+        Map<String, Optional<String>> tags, long start, long end) {
+        List<ListenableFuture<List<Availability>>> dataFutures = new ArrayList<>(metrics.size());
+        for (AvailabilityMetric metric : metrics) {
+            ListenableFuture<List<Availability>> dataFuture = findData(metric, start, end, true);
+            dataFutures.add(withTTL(metric, ttl -> Futures.transform(dataFuture, new ComputeTTL<>(ttl))));
+        }
+        return tagData(dataFutures, tags, dataAccess::insertAvailabilityTag);
     }
 
     @Override
     public ListenableFuture<List<NumericData>> tagNumericData(NumericMetric metric,
         final Map<String, Optional<String>> tags, long timestamp) {
-        ListenableFuture<ResultSet> queryFuture = dataAccess.findData(metric, timestamp, true);
-        ListenableFuture<List<NumericData>> dataFuture = Futures.transform(queryFuture, new NumericDataMapper(true),
-            metricsTasks);
-        int ttl = getTTL(metric);
-        ListenableFuture<List<NumericData>> updatedDataFuture = Futures.transform(dataFuture, new ComputeTTL<>(ttl));
-        return Futures.transform(updatedDataFuture, new AsyncFunction<List<NumericData>, List<NumericData>>() {
-            @Override
-            public ListenableFuture<List<NumericData>> apply(final List<NumericData> data) throws Exception {
-                if (data.isEmpty()) {
-                    List<NumericData> results = Collections.emptyList();
-                    return Futures.immediateFuture(results);
-                }
-                List<ResultSetFuture> insertFutures = new ArrayList<>(tags.size());
-                tags.forEach((k, v) -> insertFutures.add(dataAccess.insertNumericTag(k, v.orElse(""), data)));
-                for (NumericData d : data) {
-                    insertFutures.add(dataAccess.updateDataWithTag(d, MetricUtils.flattenTags(tags)));
-                }
-                ListenableFuture<List<ResultSet>> insertsFuture = Futures.allAsList(insertFutures);
-                return Futures.transform(insertsFuture, (List<ResultSet> resultSets) -> data);
-            }
-        });
+        List<ListenableFuture<List<NumericData>>> queryFutures = queryPartitions(getRawDataDparts(timestamp,
+            timestamp), dpart -> Futures.transform(dataAccess.findData(inPartition(metric, dpart), timestamp, true),
+            new NumericDataMapper(true), metricsTasks));
+        ListenableFuture<List<NumericData>> dataFuture = Futures.transform(Futures.allAsList(queryFutures),
+            (List<List<NumericData>> data) -> concat(data));
+        ListenableFuture<List<NumericData>> updatedDataFuture = withTTL(metric, ttl -> Futures.transform(dataFuture,
+            new ComputeTTL<>(ttl)));
+        return tagData(Collections.singletonList(updatedDataFuture), tags, dataAccess::insertNumericTag);
     }
 
     @Override
     public ListenableFuture<List<Availability>> tagAvailabilityData(AvailabilityMetric metric,
         final Map<String, Optional<String>> tags, long timestamp) {
-        ListenableFuture<ResultSet> queryFuture = dataAccess.findData(metric, timestamp);
-        ListenableFuture<List<Availability>> dataFuture = Futures.transform(queryFuture,
-            new AvailabilityDataMapper(true), metricsTasks);
-        int ttl = getTTL(metric);
-        ListenableFuture<List<Availability>> updatedDataFuture = Futures.transform(dataFuture, new ComputeTTL<>(ttl));
-        return Futures.transform(updatedDataFuture, new AsyncFunction<List<Availability>, List<Availability>>() {
+        List<ListenableFuture<List<Availability>>> queryFutures = queryPartitions(getRawDataDparts(timestamp,
+            timestamp), dpart -> Futures.transform(dataAccess.findData(inPartition(metric, dpart), timestamp),
+            new AvailabilityDataMapper(true), metricsTasks));
+        ListenableFuture<List<Availability>> dataFuture = Futures.transform(Futures.allAsList(queryFutures),
+            (List<List<Availability>> data) -> concat(data));
+        ListenableFuture<List<Availability>> updatedDataFuture = withTTL(metric, ttl -> Futures.transform(dataFuture,
+            new ComputeTTL<>(ttl)));
+        return tagData(Collections.singletonList(updatedDataFuture), tags, dataAccess::insertAvailabilityTag);
+    }
+
+    private interface TagWriter<T extends MetricData> {
+        ResultSetFuture insertTag(String tag, String tagValue, List<T> data);
+    }
+
+    /**
+     * Tags the data points of all of the metrics with one write per tag plus one for the data table. Data points with
+     * the same tag and date partition share a partition of the tags table regardless of their metric, so the
+     * {@link WriteCoalescer} turns each write into a few single partition batches and bounds how many of them run
+     * concurrently.
+     */
+    private <T extends MetricData> ListenableFuture<List<T>> tagData(List<ListenableFuture<List<T>>> dataFutures,
+        Map<String, Optional<String>> tags, TagWriter<T> tagWriter) {
+        return Futures.transform(Futures.allAsList(dataFutures), new AsyncFunction<List<List<T>>, List<T>>() {
             @Override
-            public ListenableFuture<List<Availability>> apply(final List<Availability> data) throws Exception {
+            public ListenableFuture<List<T>> apply(List<List<T>> dataLists) {
+                List<T> data = new ArrayList<>();
+                dataLists.forEach(data::addAll);
                 if (data.isEmpty()) {
-                    List<Availability> results = Collections.emptyList();
-                    return Futures.immediateFuture(results);
-                }
-                List<ResultSetFuture> insertFutures = new ArrayList<>();
-                tags.forEach((k, v) -> dataAccess.insertAvailabilityTag(k, v.orElse(""), data));
-                for (Availability a : data) {
-                    insertFutures.add(dataAccess.updateDataWithTag(a, MetricUtils.flattenTags(tags)));
+                    return Futures.immediateFuture(data);
                 }
+                List<ResultSetFuture> insertFutures = new ArrayList<>(tags.size() + 1);
+                tags.forEach((k, v) -> insertFutures.add(tagWriter.insertTag(k, v.orElse(""), data)));
+                insertFutures.add(dataAccess.updateDataWithTag(data, MetricUtils.flattenTags(tags)));
                 ListenableFuture<List<ResultSet>> insertsFuture = Futures.allAsList(insertFutures);
                 return Futures.transform(insertsFuture, (List<ResultSet> resultSets) -> data);
             }
@@ -713,81 +1722,163 @@ public class MetricsServiceCassandra implements MetricsService {
 
     @Override
     public ListenableFuture<Map<MetricId, Set<NumericData>>> findNumericDataByTags(String tenantId,
-        Map<String, Optional<String>> tags) {
-        List<ListenableFuture<Map<MetricId, Set<NumericData>>>> queryFutures = new ArrayList<>(tags.size());
-        tags.forEach((k, v) -> queryFutures.add(Futures.transform(dataAccess.findNumericDataByTag(
-            tenantId, k, v.orElse("")), new TaggedNumericDataMapper(), metricsTasks)));
-        ListenableFuture<List<Map<MetricId, Set<NumericData>>>> queriesFuture = Futures.allAsList(queryFutures);
-        return Futures.transform(queriesFuture,
-                new Function<List<Map<MetricId, Set<NumericData>>>, Map<MetricId, Set<NumericData>>>() {
-            @Override
-            public Map<MetricId, Set<NumericData>> apply(List<Map<MetricId, Set<NumericData>>> taggedDataMaps) {
-                if (taggedDataMaps.isEmpty()) {
-                    return Collections.emptyMap();
-                }
-                if (taggedDataMaps.size() == 1) {
-                    return taggedDataMaps.get(0);
-                }
-
-                Set<MetricId> ids = new HashSet<>(taggedDataMaps.get(0).keySet());
-                for (int i = 1; i < taggedDataMaps.size(); ++i) {
-                    ids.retainAll(taggedDataMaps.get(i).keySet());
-                }
+        Map<String, Optional<String>> tags, long start, long end) {
+        return findDataByTags(tags, start, end, (tag, tagValue, dpart) -> Futures.transform(dpart == null ?
+            dataAccess.findNumericDataByLegacyTag(tenantId, tag, tagValue) :
+            dataAccess.findNumericDataByTag(tenantId, tag, tagValue, dpart), new TaggedNumericDataMapper(start, end),
+            metricsTasks));
+    }
 
-                Map<MetricId, Set<NumericData>> mergedDataMap = new HashMap<>();
-                for (MetricId id : ids) {
-                    TreeSet<NumericData> set = new TreeSet<>(MetricData.TIME_UUID_COMPARATOR);
-                    for (Map<MetricId, Set<NumericData>> taggedDataMap : taggedDataMaps) {
-                        set.addAll(taggedDataMap.get(id));
-                    }
-                    mergedDataMap.put(id, set);
-                }
+    @Override
+    public ListenableFuture<Map<MetricId, Set<Availability>>> findAvailabilityByTags(String tenantId,
+        Map<String, Optional<String>> tags, long start, long end) {
+        return findDataByTags(tags, start, end, (tag, tagValue, dpart) -> Futures.transform(dpart == null ?
+            dataAccess.findAvailabilityByLegacyTag(tenantId, tag, tagValue) :
+            dataAccess.findAvailabilityByTag(tenantId, tag, tagValue, dpart), new TaggedAvailabilityMappper(start,
+            end), metricsTasks));
+    }
 
-                return mergedDataMap;
-            }
-        });
+    private interface TagQuery<T extends MetricData> {
+        /**
+         * @param dpart The date partition of the tags_v2 table, or null for the tags table of earlier versions
+         */
+        ListenableFuture<Map<MetricId, Set<T>>> query(String tag, String tagValue, Long dpart);
+    }
 
+    /**
+     * Reads every date partition of every tag, plus the tag in the tags table of earlier versions unless reading it
+     * is turned off or the keyspace does not have it. All of the queries go through the same fan-out, so the number
+     * of queries executing at the same time does not grow with the number of tags.
+     */
+    private <T extends MetricData> ListenableFuture<Map<MetricId, Set<T>>> findDataByTags(
+        Map<String, Optional<String>> tags, long start, long end, TagQuery<T> query) {
+        List<Map.Entry<String, Optional<String>>> tagList = new ArrayList<>(tags.entrySet());
+        List<Long> dparts = getDparts(start, end);
+        if (readLegacyTags && dataAccess.hasLegacyTags()) {
+            dparts.add(null);
+        }
+        List<Integer> queries = new ArrayList<>(tagList.size() * dparts.size());
+        for (int i = 0; i < tagList.size() * dparts.size(); ++i) {
+            queries.add(i);
+        }
+        List<ListenableFuture<Map<MetricId, Set<T>>>> queryFutures = new BoundedFanOut<Integer,
+            Map<MetricId, Set<T>>>(queries, partitionQueryParallelism, i -> {
+                Map.Entry<String, Optional<String>> tag = tagList.get(i / dparts.size());
+                return query.query(tag.getKey(), tag.getValue().orElse(""), dparts.get(i % dparts.size()));
+            }).start();
+
+        List<ListenableFuture<List<Map<MetricId, Set<T>>>>> tagFutures = new ArrayList<>(tagList.size());
+        for (int i = 0; i < tagList.size(); ++i) {
+            tagFutures.add(Futures.allAsList(queryFutures.subList(i * dparts.size(), (i + 1) * dparts.size())));
+        }
+        return Futures.transform(Futures.allAsList(tagFutures),
+            (List<List<Map<MetricId, Set<T>>>> tagResults) -> intersectTaggedData(tagResults), metricsTasks);
     }
 
-    @Override
-    public ListenableFuture<Map<MetricId, Set<Availability>>> findAvailabilityByTags(String tenantId,
-        Map<String, Optional<String>> tags) {
-        List<ListenableFuture<Map<MetricId, Set<Availability>>>> queryFutures = new ArrayList<>(tags.size());
-        tags.forEach((k, v) -> queryFutures.add(Futures.transform(dataAccess.findAvailabilityByTag(
-            tenantId, k, v.orElse("")), new TaggedAvailabilityMappper(), metricsTasks)));
-        ListenableFuture<List<Map<MetricId, Set<Availability>>>> queriesFuture = Futures.allAsList(queryFutures);
-        return Futures.transform(queriesFuture,
-                new Function<List<Map<MetricId, Set<Availability>>>, Map<MetricId, Set<Availability>>>() {
-            @Override
-            public Map<MetricId, Set<Availability>> apply(List<Map<MetricId, Set<Availability>>> taggedDataMaps) {
-                if (taggedDataMaps.isEmpty()) {
-                    return Collections.emptyMap();
-                }
-                if (taggedDataMaps.size() == 1) {
-                    return taggedDataMaps.get(0);
-                }
+    /**
+     * Returns the data of the metrics that have all of the tags. The tags are data point tags, which are only stored
+     * in the tags tables, so the metrics cannot be narrowed down with the {@link TagIndex} of the metric tags before
+     * the data is read.
+     * <p>
+     * The candidates are the metrics of the tag with the fewest of them, and a candidate is kept if each of the other
+     * tags has it in at least one of its date partitions. No id sets are copied for that. The data of a metric that
+     * comes from a single partition of a single tag is returned as is, otherwise it is merged in time order.
+     *
+     * @param tagResults The results of each tag, one map per date partition
+     */
+    private static <T extends MetricData> Map<MetricId, Set<T>> intersectTaggedData(
+        List<List<Map<MetricId, Set<T>>>> tagResults) {
+        if (tagResults.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<Map<MetricId, Set<T>>> smallest = tagResults.get(0);
+        int smallestSize = Integer.MAX_VALUE;
+        for (List<Map<MetricId, Set<T>>> maps : tagResults) {
+            int size = 0;
+            for (Map<MetricId, Set<T>> map : maps) {
+                size += map.size();
+            }
+            if (size < smallestSize) {
+                smallest = maps;
+                smallestSize = size;
+            }
+        }
 
-                Set<MetricId> ids = new HashSet<>(taggedDataMaps.get(0).keySet());
-                for (int i = 1; i < taggedDataMaps.size(); ++i) {
-                    ids.retainAll(taggedDataMaps.get(i).keySet());
+        Map<MetricId, Set<T>> taggedData = new HashMap<>();
+        for (Map<MetricId, Set<T>> candidates : smallest) {
+            for (MetricId id : candidates.keySet()) {
+                if (taggedData.containsKey(id)) {
+                    continue;
                 }
-
-                Map<MetricId, Set<Availability>> mergedDataMap = new HashMap<>();
-                for (MetricId id : ids) {
-                    TreeSet<Availability> set = new TreeSet<>(MetricData.TIME_UUID_COMPARATOR);
-                    for (Map<MetricId, Set<Availability>> taggedDataMap : taggedDataMaps) {
-                        set.addAll(taggedDataMap.get(id));
+                List<Set<T>> data = new ArrayList<>();
+                boolean hasAllTags = true;
+                for (List<Map<MetricId, Set<T>>> maps : tagResults) {
+                    int found = data.size();
+                    for (Map<MetricId, Set<T>> map : maps) {
+                        Set<T> set = map.get(id);
+                        if (set != null) {
+                            data.add(set);
+                        }
                     }
-                    mergedDataMap.put(id, set);
+                    if (data.size() == found) {
+                        hasAllTags = false;
+                        break;
+                    }
+                }
+                if (hasAllTags) {
+                    taggedData.put(id, data.size() == 1 ? data.get(0) : mergeTaggedData(data));
                 }
+            }
+        }
+        return taggedData;
+    }
 
-                return mergedDataMap;
+    /**
+     * Merges the data in time order, dropping the data points that are in more than one of the sets.
+     */
+    private static <T extends MetricData> Set<T> mergeTaggedData(List<Set<T>> data) {
+        List<Iterator<T>> iterators = new ArrayList<>(data.size());
+        for (Set<T> set : data) {
+            // The rows are in clustering order, which can differ from the comparator for data points of the same
+            // millisecond. Sorting data that is already nearly sorted takes linear time.
+            List<T> sorted = new ArrayList<>(set);
+            sorted.sort(MetricData.TIME_UUID_COMPARATOR);
+            iterators.add(sorted.iterator());
+        }
+        Set<T> merged = new LinkedHashSet<>();
+        T previous = null;
+        Iterator<T> iterator = Iterators.mergeSorted(iterators, MetricData.TIME_UUID_COMPARATOR);
+        while (iterator.hasNext()) {
+            T next = iterator.next();
+            if (previous == null || MetricData.TIME_UUID_COMPARATOR.compare(previous, next) != 0) {
+                merged.add(next);
+                previous = next;
             }
-        });
+        }
+        return merged;
     }
 
-    private int getTTL(Metric metric) {
+    /**
+     * Performs the write once the TTL of the metric is known, which requires the data retentions of its tenant. The
+     * write is issued right away when the retentions are cached.
+     */
+    private <T> ListenableFuture<T> withTTL(Metric metric, IntFunction<ListenableFuture<T>> write) {
+        return Futures.transform(getDataRetentions(metric.getTenantId()),
+            new AsyncFunction<Map<DataRetentionKey, Integer>, T>() {
+                @Override
+                public ListenableFuture<T> apply(Map<DataRetentionKey, Integer> retentions) {
+                    return write.apply(getTTL(metric, retentions));
+                }
+            });
+    }
+
+    private static int getTTL(Metric metric, Map<DataRetentionKey, Integer> dataRetentions) {
         Integer ttl = dataRetentions.get(new DataRetentionKey(metric.getTenantId(), metric.getId(), metric.getType()));
+        if (ttl == null && !metric.getId().getInterval().equals(Interval.NONE)) {
+            // Pre-computed aggregates fall back to the tenant level retention for their interval
+            ttl = dataRetentions.get(new DataRetentionKey(metric.getTenantId(), new MetricId("[" +
+                metric.getType().getText() + "]", metric.getId().getInterval()), metric.getType()));
+        }
         if (ttl == null) {
             ttl = dataRetentions.get(new DataRetentionKey(metric.getTenantId(), metric.getType()));
             if (ttl == null) {
@@ -797,6 +1888,22 @@ public class MetricsServiceCassandra implements MetricsService {
         return ttl;
     }
 
+    /**
+     * Stores the date partition size in the keyspace on first start. Data written with one size cannot be read with
+     * another, so the service refuses to start when the configured size differs from the stored one.
+     */
+    private void checkPartitionSize(String keyspace) {
+        SchemaManager schemaManager = new SchemaManager(session.get());
+        Duration partitionSize = partitioner.getPartitionSize();
+        long storedSize = Long.parseLong(schemaManager.storeSetting(keyspace, "partition-size",
+            Long.toString(partitionSize.getMillis())));
+        if (storedSize != partitionSize.getMillis()) {
+            throw new IllegalStateException("The keyspace " + keyspace + " was written with a date partition size " +
+                "of " + new Duration(storedSize) + ", but partition-size is set to " + partitionSize + ". Data " +
+                "written with one size cannot be read with another, so partition-size has to be set back.");
+        }
+    }
+
     private void updateSchemaIfNecessary(String schemaName) {
         try {
             SchemaManager schemaManager = new SchemaManager(session.get());
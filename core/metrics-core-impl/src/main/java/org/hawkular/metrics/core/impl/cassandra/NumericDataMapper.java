@@ -35,7 +35,7 @@ import org.hawkular.metrics.core.api.NumericMetric;
  */
 public class NumericDataMapper implements Function<ResultSet, List<NumericData>> {
 
-    private enum ColumnIndex {
+    enum ColumnIndex {
         TENANT_ID,
         METRIC_NAME,
         INTERVAL,
@@ -69,6 +69,13 @@ public class NumericDataMapper implements Function<ResultSet, List<NumericData>>
         }
     }
 
+    /**
+     * Maps a single row. Unlike {@link #apply(ResultSet)}, the data point does not reference its metric.
+     */
+    public NumericData getData(Row row) {
+        return rowConverter.getData(row);
+    }
+
     @Override
     public List<NumericData> apply(ResultSet resultSet) {
         if (resultSet.isExhausted()) {
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import static java.util.Arrays.asList;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.NumericSeries;
+import org.hawkular.metrics.core.impl.cassandra.NumericDataMapper.ColumnIndex;
+
+/**
+ * Maps the per partition results of a raw data query into a {@link NumericSeries}. The result sets are expected to
+ * be ordered from newest to oldest partition like the partitions returned by
+ * {@link DatePartitioner#getDparts(long, long)}. The last result set can be that of the legacy partition, which holds
+ * data of any timestamp. Its rows are merged with those of the other partitions by timestamp.
+ */
+public class NumericSeriesMapper implements Function<List<ResultSet>, NumericSeries> {
+
+    private static final Comparator<Row> NEWEST_FIRST = (r1, r2) -> Long.compare(
+        UUIDs.unixTimestamp(r2.getUUID(ColumnIndex.TIME.ordinal())),
+        UUIDs.unixTimestamp(r1.getUUID(ColumnIndex.TIME.ordinal())));
+
+    private final String tenantId;
+
+    private final MetricId id;
+
+    private final Map<String, Optional<String>> tags;
+
+    private final boolean lastIsLegacy;
+
+    public NumericSeriesMapper(String tenantId, MetricId id, Map<String, Optional<String>> tags) {
+        this(tenantId, id, tags, false);
+    }
+
+    /**
+     * @param lastIsLegacy Whether the last result set is that of the legacy partition
+     */
+    public NumericSeriesMapper(String tenantId, MetricId id, Map<String, Optional<String>> tags,
+        boolean lastIsLegacy) {
+        this.tenantId = tenantId;
+        this.id = id;
+        this.tags = tags;
+        this.lastIsLegacy = lastIsLegacy;
+    }
+
+    @Override
+    public NumericSeries apply(List<ResultSet> resultSets) {
+        NumericSeries.Builder builder = new NumericSeries.Builder(tenantId, id).withTags(tags);
+        Iterator<Row> rows = Iterables.concat(resultSets).iterator();
+        if (lastIsLegacy && resultSets.size() > 1) {
+            Iterator<Row> slices = Iterables.concat(resultSets.subList(0, resultSets.size() - 1)).iterator();
+            Iterator<Row> legacy = resultSets.get(resultSets.size() - 1).iterator();
+            rows = Iterators.mergeSorted(asList(slices, legacy), NEWEST_FIRST);
+        }
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            long timestamp = UUIDs.unixTimestamp(row.getUUID(ColumnIndex.TIME.ordinal()));
+            double value = row.getDouble(ColumnIndex.VALUE.ordinal());
+            Map<String, String> dataTags = row.getMap(ColumnIndex.TAGS.ordinal(), String.class, String.class);
+            if (dataTags.isEmpty()) {
+                builder.add(timestamp, value);
+            } else {
+                builder.add(timestamp, value, MetricUtils.getTags(dataTags));
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latency, error, row, and batch size statistics of a single {@link DataAccess} operation.
+ */
+public class OperationStats implements OperationStatsMXBean {
+
+    private static final double MICROS_PER_MILLI = TimeUnit.MILLISECONDS.toMicros(1);
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicLong rows = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final AtomicLong batchedItems = new AtomicLong();
+
+    void recordSuccess(long micros, int rowCount) {
+        latencies.record(micros);
+        rows.addAndGet(rowCount);
+    }
+
+    void recordFailure(long micros) {
+        latencies.record(micros);
+        errors.incrementAndGet();
+    }
+
+    void recordBatchSize(int size) {
+        batches.incrementAndGet();
+        batchedItems.addAndGet(size);
+    }
+
+    @Override
+    public long getCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    @Override
+    public double getMeanLatency() {
+        return latencies.getMean() / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatency50thPercentile() {
+        return latencies.getQuantile(0.5) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatency95thPercentile() {
+        return latencies.getQuantile(0.95) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatency99thPercentile() {
+        return latencies.getQuantile(0.99) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxLatency() {
+        return latencies.getMax() / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getMeanRows() {
+        long successes = latencies.getCount() - errors.get();
+        return successes <= 0 ? 0 : (double) rows.get() / successes;
+    }
+
+    @Override
+    public double getMeanBatchSize() {
+        long n = batches.get();
+        return n == 0 ? 0 : (double) batchedItems.get() / n;
+    }
+}
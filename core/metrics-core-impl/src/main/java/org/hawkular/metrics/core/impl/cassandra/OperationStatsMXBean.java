@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+/**
+ * The management interface of the {@link OperationStats statistics} of a {@link DataAccess} operation. Latencies are
+ * in milliseconds.
+ */
+public interface OperationStatsMXBean {
+
+    long getCount();
+
+    long getErrorCount();
+
+    double getMeanLatency();
+
+    double getLatency50thPercentile();
+
+    double getLatency95thPercentile();
+
+    double getLatency99thPercentile();
+
+    double getMaxLatency();
+
+    /**
+     * @return The average number of rows in the first page of the result sets
+     */
+    double getMeanRows();
+
+    /**
+     * @return The average number of data points, metrics, or other items written per call
+     */
+    double getMeanBatchSize();
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * <p>
+ * Iterates over the results of a query that spans multiple date partitions without loading all of them in memory.
+ * The partitions are queried one after another, and the driver fetches the rows of each partition one page at a time.
+ * The next page is requested in the background once half of the current page has been consumed, and the next
+ * partition is queried once the last page of the current one has arrived. This keeps at most two pages in memory.
+ * </p>
+ * <p>
+ * {@link #hasNext()} and {@link #next()} block when the next page has not arrived yet. The iterator is not thread
+ * safe.
+ * </p>
+ */
+public class PagedDataIterator<T> implements Iterator<T> {
+
+    private final Iterator<Long> dparts;
+
+    private final Function<Long, ResultSetFuture> query;
+
+    private final Function<Row, T> mapper;
+
+    private final int fetchSize;
+
+    private ResultSet current;
+
+    private ResultSetFuture nextPartition;
+
+    private PagedDataIterator(Iterator<Long> dparts, Function<Long, ResultSetFuture> query, Function<Row, T> mapper,
+        int fetchSize) {
+        this.dparts = dparts;
+        this.query = query;
+        this.mapper = mapper;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @param dparts The date partitions to query in the order in which they should be iterated
+     * @param query Executes the query for a date partition. The statement should have its fetch size set.
+     * @param mapper Maps a row to the objects returned by the iterator
+     * @param fetchSize The fetch size of the query
+     * @param executor The executor on which to skip over empty partitions
+     * @return A future that completes when the first page with data is available. It produces null if none of the
+     * partitions has data.
+     */
+    public static <T> ListenableFuture<Iterator<T>> create(List<Long> dparts, Function<Long, ResultSetFuture> query,
+        Function<Row, T> mapper, int fetchSize, Executor executor) {
+        PagedDataIterator<T> iterator = new PagedDataIterator<>(dparts.iterator(), query, mapper, fetchSize);
+        return iterator.findFirstPage(executor);
+    }
+
+    private ListenableFuture<Iterator<T>> findFirstPage(Executor executor) {
+        if (!dparts.hasNext()) {
+            return Futures.immediateFuture(null);
+        }
+        ResultSetFuture queryFuture = query.apply(dparts.next());
+        return Futures.transform(queryFuture, new AsyncFunction<ResultSet, Iterator<T>>() {
+            @Override
+            public ListenableFuture<Iterator<T>> apply(ResultSet resultSet) {
+                if (resultSet.getAvailableWithoutFetching() == 0 && resultSet.isFullyFetched()) {
+                    return findFirstPage(executor);
+                }
+                current = resultSet;
+                return Futures.immediateFuture(PagedDataIterator.this);
+            }
+        }, executor);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (current.isExhausted()) {
+            if (nextPartition == null) {
+                if (!dparts.hasNext()) {
+                    return false;
+                }
+                nextPartition = query.apply(dparts.next());
+            }
+            current = nextPartition.getUninterruptibly();
+            nextPartition = null;
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (!current.isFullyFetched()) {
+            if (current.getAvailableWithoutFetching() == fetchSize / 2) {
+                current.fetchMoreResults();
+            }
+        } else if (nextPartition == null && dparts.hasNext()) {
+            nextPartition = query.apply(dparts.next());
+        }
+        return mapper.apply(current.one());
+    }
+
+}
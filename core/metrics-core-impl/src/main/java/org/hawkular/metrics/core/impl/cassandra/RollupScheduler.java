@@ -0,0 +1,379 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import static java.util.Collections.singletonList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.api.AggregatedValue;
+import org.hawkular.metrics.core.api.AggregationTemplate;
+import org.hawkular.metrics.core.api.Interval;
+import org.hawkular.metrics.core.api.Metric;
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.MetricType;
+import org.hawkular.metrics.core.api.MetricsThreadFactory;
+import org.hawkular.metrics.core.api.NumericData;
+import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.api.QuantileSketch;
+import org.hawkular.metrics.core.api.Tenant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * <p>
+ * Computes pre-computed aggregates, or rollups, for the {@link AggregationTemplate aggregation templates} of each
+ * tenant. The scheduler wakes up once a minute and, for every template, aggregates the raw data of each numeric metric
+ * over the time slices of the template interval that have ended since the previous run. Time slices are aligned on
+ * the epoch, so a 5min template produces rollups for 10:00 - 10:05, 10:05 - 10:10, and so on. The raw data is
+ * streamed, so memory usage does not depend on the number of data points in a slice.
+ * </p>
+ * <p>
+ * A rollup is stored in the data table under the name of the source metric and the template interval. Its timestamp
+ * is the start of the time slice. The min, max, avg, sum, and count are always stored regardless of the functions
+ * listed in the template because the sum and the count are what make it possible to merge several rollups into a
+ * correct average at read time. For the same reason, a {@link QuantileSketch quantile sketch} of the raw values is
+ * stored with each rollup so that percentiles over long time ranges can be estimated by merging the sketches of the
+ * rollups instead of reading the raw data.
+ * </p>
+ * <p>
+ * Every node runs a scheduler, but the rollups of a tenant are only computed by the node that holds the lease of the
+ * tenant in the rollup_leases table. The end of the last computed slice of each template is stored in the
+ * rollup_progress table, so slices missed while the server was down or while no node held the lease are backfilled,
+ * a bounded number of slices per run. A slice is computed {@link #DELAY} after it ends and computed once more
+ * {@link #LATE_DATA_DELAY} after it ends to include data that arrived late. Data that arrives later than that is not
+ * reflected in the rollups.
+ * </p>
+ */
+public class RollupScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(RollupScheduler.class);
+
+    public static final String MIN = "min";
+
+    public static final String MAX = "max";
+
+    public static final String AVG = "avg";
+
+    public static final String SUM = "sum";
+
+    public static final String COUNT = "count";
+
+    /**
+     * The scheduler runs this far behind the end of a time slice to allow for late arriving data.
+     */
+    private static final long DELAY = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Time slices are computed again this long after they end to include the data that arrived after {@link #DELAY}.
+     */
+    static final long LATE_DATA_DELAY = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long PERIOD = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The number of seconds after which the lease of a tenant expires unless its owner renews it. Another node takes
+     * over the tenant once it has expired.
+     */
+    private static final int LEASE_TTL = (int) TimeUnit.MINUTES.toSeconds(3);
+
+    /**
+     * The maximum number of metrics that are aggregated concurrently.
+     */
+    private static final int MAX_CONCURRENT_ROLLUPS = 16;
+
+    /**
+     * The maximum number of time slices of a template that are computed in one run. Missed slices are backfilled over
+     * several runs, so that a long outage does not hold up the rollups of the other tenants.
+     */
+    private static final int MAX_SLICES_PER_RUN = 10;
+
+    /**
+     * Missed slices are backfilled no further back than the default retention of raw data.
+     */
+    private static final long MAX_BACKFILL = TimeUnit.SECONDS.toMillis(MetricsServiceCassandra.DEFAULT_TTL);
+
+    private final MetricsServiceCassandra metricsService;
+
+    /**
+     * Identifies this scheduler as the owner of the leases it holds.
+     */
+    private final UUID owner = UUIDs.random();
+
+    private final Set<String> ownedTenants = new HashSet<>();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Runs the rollups, which block while they wait for the next pages of raw data. They have their own threads so
+     * that a backfill does not hold up the aggregation queries of the metrics service.
+     */
+    private final InstrumentedExecutor rollupExecutor = new InstrumentedExecutor(MAX_CONCURRENT_ROLLUPS);
+
+    private final ListeningExecutorService rollupTasks = MoreExecutors.listeningDecorator(rollupExecutor);
+
+    private long previousTime;
+
+    public RollupScheduler(MetricsServiceCassandra metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    public void start() {
+        previousTime = System.currentTimeMillis() - DELAY;
+        rollupExecutor.register("rollupTasks");
+        executor = Executors.newSingleThreadScheduledExecutor(new MetricsThreadFactory());
+        long initialDelay = PERIOD - Math.floorMod(previousTime, PERIOD);
+        executor.scheduleAtFixedRate(() -> {
+            long time = System.currentTimeMillis() - DELAY;
+            try {
+                runRollups(previousTime, time);
+            } catch (Exception e) {
+                logger.warn("Failed to compute rollups", e);
+            }
+            previousTime = time;
+        }, initialDelay, PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        rollupExecutor.shutdownNow();
+    }
+
+    /**
+     * Computes the rollups of the tenants whose lease this scheduler holds or can take. For each template, these are
+     * the time slices that ended after the last computed one and no later than <code>time</code>, as well as the slice
+     * whose late data delay elapsed after <code>previousTime</code> and no later than <code>time</code>. This method
+     * blocks until all of the rollups have been stored.
+     */
+    void runRollups(long previousTime, long time) throws InterruptedException, ExecutionException {
+        for (Tenant tenant : metricsService.getTenants().get()) {
+            List<AggregationTemplate> templates = new ArrayList<>();
+            for (AggregationTemplate template : tenant.getAggregationTemplates()) {
+                if (template.getType() == MetricType.NUMERIC) {
+                    templates.add(template);
+                }
+            }
+            if (templates.isEmpty() || !holdLease(tenant.getId())) {
+                continue;
+            }
+            try {
+                runRollups(tenant.getId(), templates, previousTime, time);
+            } catch (ExecutionException e) {
+                logger.warn("Failed to compute the rollups of tenant " + tenant.getId(), e);
+            }
+        }
+    }
+
+    private void runRollups(String tenantId, List<AggregationTemplate> templates, long previousTime, long time)
+        throws InterruptedException, ExecutionException {
+        DataAccess dataAccess = metricsService.getDataAccess();
+        Map<String, Long> progress = new HashMap<>();
+        for (Row row : dataAccess.findRollupProgress(tenantId).get()) {
+            progress.put(row.getString(0), row.getDate(1).getTime());
+        }
+        List<NumericMetric> metrics = findMetrics(tenantId);
+        if (metrics.isEmpty()) {
+            return;
+        }
+        for (AggregationTemplate template : templates) {
+            Interval interval = template.getInterval();
+            long size = DatePartitioner.toDuration(interval).getMillis();
+            long lastEnd = time - Math.floorMod(time, size);
+            Long computedUntil = progress.get(interval.toString());
+            long from = computedUntil == null ? lastEnd - size : Math.max(computedUntil,
+                lastEnd - MAX_BACKFILL / size * size);
+
+            long lateTime = time - LATE_DATA_DELAY;
+            long lateEnd = lateTime - Math.floorMod(lateTime, size);
+            if (lateEnd > previousTime - LATE_DATA_DELAY && lateEnd <= from) {
+                rollup(metrics, interval, lateEnd - size, lateEnd);
+            }
+
+            int slices = 0;
+            for (long end = from + size; end <= lastEnd && slices < MAX_SLICES_PER_RUN; end += size, ++slices) {
+                // The lease is renewed before each slice since a backfill can take longer than the lease lasts
+                if (!holdLease(tenantId) || !rollup(metrics, interval, end - size, end)) {
+                    break;
+                }
+                dataAccess.updateRollupProgress(tenantId, interval, end).get();
+            }
+        }
+    }
+
+    /**
+     * Renews the lease of the tenant if this scheduler holds it, or takes it if no scheduler does.
+     *
+     * @return true if this scheduler holds the lease
+     */
+    private boolean holdLease(String tenantId) throws InterruptedException, ExecutionException {
+        DataAccess dataAccess = metricsService.getDataAccess();
+        if (ownedTenants.contains(tenantId) && isApplied(dataAccess.renewRollupLease(tenantId, owner, LEASE_TTL))) {
+            return true;
+        }
+        ownedTenants.remove(tenantId);
+        if (isApplied(dataAccess.acquireRollupLease(tenantId, owner, LEASE_TTL))) {
+            ownedTenants.add(tenantId);
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isApplied(ResultSetFuture future) throws InterruptedException, ExecutionException {
+        return future.get().one().getBool("[applied]");
+    }
+
+    private List<NumericMetric> findMetrics(String tenantId) throws InterruptedException, ExecutionException {
+        List<NumericMetric> metrics = new ArrayList<>();
+        for (Metric<?> metric : metricsService.findMetrics(tenantId, MetricType.NUMERIC).get()) {
+            if (metric.getId().getInterval().equals(Interval.NONE)) {
+                metrics.add((NumericMetric) metric);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Computes the rollups of the metrics for the time slice.
+     *
+     * @return true if all of the rollups have been stored
+     */
+    private boolean rollup(List<NumericMetric> metrics, Interval interval, long start, long end)
+        throws InterruptedException {
+        Semaphore permits = new Semaphore(MAX_CONCURRENT_ROLLUPS);
+        List<ListenableFuture<Void>> rollupFutures = new ArrayList<>(metrics.size());
+        for (NumericMetric metric : metrics) {
+            permits.acquire();
+            ListenableFuture<Void> rollupFuture = rollup(metric, interval, start, end);
+            Futures.addCallback(rollupFuture, new RollupCallback(metric, interval, permits));
+            rollupFutures.add(rollupFuture);
+        }
+        permits.acquire(MAX_CONCURRENT_ROLLUPS);
+        // The failures are logged by the callbacks. A slice that failed is computed again by the next run.
+        for (ListenableFuture<Void> rollupFuture : rollupFutures) {
+            try {
+                rollupFuture.get();
+            } catch (ExecutionException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ListenableFuture<Void> rollup(NumericMetric metric, Interval interval, long start, long end) {
+        NumericMetric rollup = new NumericMetric(metric.getTenantId(), new MetricId(metric.getId().getName(),
+            interval));
+        ListenableFuture<Iterator<NumericData>> dataFuture = metricsService.streamNumericData(metric, start, end);
+        // Iterating over the stream blocks while it waits for the next pages
+        ListenableFuture<NumericData> aggregateFuture = Futures.transform(dataFuture,
+            new Function<Iterator<NumericData>, NumericData>() {
+                @Override
+                public NumericData apply(Iterator<NumericData> data) {
+                    return data == null ? null : aggregate(rollup, start, data);
+                }
+            }, rollupTasks);
+        return Futures.transform(aggregateFuture, new AsyncFunction<NumericData, Void>() {
+            @Override
+            public ListenableFuture<Void> apply(NumericData aggregate) {
+                if (aggregate == null) {
+                    return Futures.immediateFuture(null);
+                }
+                rollup.addData(aggregate);
+                return metricsService.addAggregatedData(singletonList(rollup));
+            }
+        });
+    }
+
+    private static NumericData aggregate(NumericMetric rollup, long start, Iterator<NumericData> data) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        int count = 0;
+        QuantileSketch sketch = new QuantileSketch();
+        while (data.hasNext()) {
+            double value = data.next().getValue();
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            ++count;
+            sketch.add(value);
+        }
+        if (count == 0) {
+            return null;
+        }
+        String srcMetric = rollup.getId().getName();
+        NumericData aggregate = new NumericData(rollup, UUIDs.startOf(start), Double.NaN);
+        aggregate.addAggregatedValue(new AggregatedValue(MIN, min, srcMetric, Interval.NONE, null));
+        aggregate.addAggregatedValue(new AggregatedValue(MAX, max, srcMetric, Interval.NONE, null));
+        aggregate.addAggregatedValue(new AggregatedValue(AVG, sum / count, srcMetric, Interval.NONE, null));
+        aggregate.addAggregatedValue(new AggregatedValue(SUM, sum, srcMetric, Interval.NONE, null));
+        aggregate.addAggregatedValue(new AggregatedValue(COUNT, count, srcMetric, Interval.NONE, null));
+        aggregate.setSketch(sketch);
+        return aggregate;
+    }
+
+    private static class RollupCallback implements FutureCallback<Void> {
+
+        private final Metric<?> metric;
+
+        private final Interval interval;
+
+        private final Semaphore permits;
+
+        public RollupCallback(Metric<?> metric, Interval interval, Semaphore permits) {
+            this.metric = metric;
+            this.interval = interval;
+            this.permits = permits;
+        }
+
+        @Override
+        public void onSuccess(Void result) {
+            permits.release();
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            permits.release();
+            logger.warn("Failed to compute " + interval + " rollup for " + metric.getId(), t);
+        }
+    }
+
+}
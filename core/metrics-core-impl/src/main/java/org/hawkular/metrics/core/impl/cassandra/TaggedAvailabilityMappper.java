@@ -35,6 +35,22 @@ import org.hawkular.metrics.core.api.MetricId;
  */
 public class TaggedAvailabilityMappper implements Function<ResultSet, Map<MetricId, Set<Availability>>> {
 
+    private final long start;
+
+    private final long end;
+
+    /**
+     * Creates a mapper that drops the data points outside of the time range. A date partition of the tags table
+     * can extend beyond the queried range.
+     *
+     * @param start The start time inclusive
+     * @param end The end time exclusive
+     */
+    public TaggedAvailabilityMappper(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
     @Override
     public Map<MetricId, Set<Availability>> apply(ResultSet resultSet) {
         Map<MetricId, Set<Availability>> taggedData = new HashMap<>();
@@ -43,16 +59,18 @@ public class TaggedAvailabilityMappper implements Function<ResultSet, Map<Metric
         for (Row row : resultSet) {
             if (metric == null) {
                 metric = createMetric(row);
-                set.add(createAvailability(row, metric));
+                addIfInRange(set, createAvailability(row, metric));
             } else {
                 AvailabilityMetric nextMetric = createMetric(row);
                 if (metric.equals(nextMetric)) {
-                    set.add(createAvailability(row, metric));
+                    addIfInRange(set, createAvailability(row, metric));
                 } else {
-                    taggedData.put(metric.getId(), set);
+                    if (!set.isEmpty()) {
+                        taggedData.put(metric.getId(), set);
+                    }
                     metric = nextMetric;
                     set = new LinkedHashSet<>();
-                    set.add(createAvailability(row, metric));
+                    addIfInRange(set, createAvailability(row, metric));
                 }
             }
         }
@@ -62,6 +80,12 @@ public class TaggedAvailabilityMappper implements Function<ResultSet, Map<Metric
         return taggedData;
     }
 
+    private void addIfInRange(Set<Availability> set, Availability data) {
+        if (data.getTimestamp() >= start && data.getTimestamp() < end) {
+            set.add(data);
+        }
+    }
+
     private AvailabilityMetric createMetric(Row row) {
         return new AvailabilityMetric(row.getString(0), new MetricId(row.getString(4),
             Interval.parse(row.getString(5))));
@@ -35,6 +35,22 @@ import org.hawkular.metrics.core.api.NumericMetric;
  */
 public class TaggedNumericDataMapper implements Function<ResultSet, Map<MetricId, Set<NumericData>>> {
 
+    private final long start;
+
+    private final long end;
+
+    /**
+     * Creates a mapper that drops the data points outside of the time range. A date partition of the tags table
+     * can extend beyond the queried range.
+     *
+     * @param start The start time inclusive
+     * @param end The end time exclusive
+     */
+    public TaggedNumericDataMapper(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
     @Override
     public Map<MetricId, Set<NumericData>> apply(ResultSet resultSet) {
         Map<MetricId, Set<NumericData>> taggedData = new HashMap<>();
@@ -43,16 +59,18 @@ public class TaggedNumericDataMapper implements Function<ResultSet, Map<MetricId
         for (Row row : resultSet) {
             if (metric == null) {
                 metric = createMetric(row);
-                set.add(createNumericData(row, metric));
+                addIfInRange(set, createNumericData(row, metric));
             } else {
                 NumericMetric nextMetric = createMetric(row);
                 if (metric.equals(nextMetric)) {
-                    set.add(createNumericData(row, metric));
+                    addIfInRange(set, createNumericData(row, metric));
                 } else {
-                    taggedData.put(metric.getId(), set);
+                    if (!set.isEmpty()) {
+                        taggedData.put(metric.getId(), set);
+                    }
                     metric = nextMetric;
                     set = new LinkedHashSet<>();
-                    set.add(createNumericData(row, metric));
+                    addIfInRange(set, createNumericData(row, metric));
                 }
             }
         }
@@ -62,6 +80,12 @@ public class TaggedNumericDataMapper implements Function<ResultSet, Map<MetricId
         return taggedData;
     }
 
+    private void addIfInRange(Set<NumericData> set, NumericData data) {
+        if (data.getTimestamp() >= start && data.getTimestamp() < end) {
+            set.add(data);
+        }
+    }
+
     private NumericMetric createMetric(Row row) {
         return new NumericMetric(row.getString(0), new MetricId(row.getString(4), Interval.parse(row.getString(5))));
     }
@@ -40,7 +40,10 @@ public class TenantMapper implements Function<ResultSet, Tenant> {
         if (resultSet.isExhausted()) {
             return null;
         }
-        Row row = resultSet.one();
+        return getTenant(resultSet.one());
+    }
+
+    static Tenant getTenant(Row row) {
         Tenant tenant = new Tenant().setId(row.getString(0));
         Map<TupleValue, Integer> retentions = row.getMap(1, TupleValue.class, Integer.class);
         for (Map.Entry<TupleValue, Integer> entry : retentions.entrySet()) {
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.hawkular.metrics.core.api.AggregationTemplate;
+import org.hawkular.metrics.core.api.MetricsThreadFactory;
+import org.hawkular.metrics.core.api.RetentionSettings;
+import org.hawkular.metrics.core.api.Tenant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory registry of the tenants, i.e., of their data retention settings and aggregation templates. All of the
+ * tenants are loaded in the background and reloaded periodically to pick up tenants created on other nodes. Tenants
+ * created on this node are added as soon as they are stored. Tenants cannot be updated or deleted, so the registry
+ * only ever grows.
+ * <p>
+ * Tenant objects are mutable, so the registry hands out copies of the registered tenants.
+ */
+public class TenantRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(TenantRegistry.class);
+
+    /**
+     * The default number of minutes between reloads of the tenants.
+     */
+    public static final int DEFAULT_REFRESH_INTERVAL = 5;
+
+    private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+    private final Supplier<ListenableFuture<List<Tenant>>> query;
+
+    private volatile boolean loaded;
+
+    private ListenableFuture<Void> refreshFuture;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param query Loads all of the tenants
+     */
+    public TenantRegistry(Supplier<ListenableFuture<List<Tenant>>> query) {
+        this.query = query;
+    }
+
+    /**
+     * Loads the tenants now and then every <code>refreshInterval</code> minutes.
+     */
+    public void start(int refreshInterval) {
+        executor = Executors.newSingleThreadScheduledExecutor(new MetricsThreadFactory());
+        executor.scheduleWithFixedDelay(this::refresh, 0, refreshInterval, TimeUnit.MINUTES);
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads the tenants and adds the ones that are not registered yet. If a load is already running, its future is
+     * returned instead of starting another one.
+     */
+    public synchronized ListenableFuture<Void> refresh() {
+        if (refreshFuture != null && !refreshFuture.isDone()) {
+            return refreshFuture;
+        }
+        SettableFuture<Void> future = SettableFuture.create();
+        refreshFuture = future;
+        Futures.addCallback(query.get(), new FutureCallback<List<Tenant>>() {
+            @Override
+            public void onSuccess(List<Tenant> result) {
+                for (Tenant tenant : result) {
+                    tenants.putIfAbsent(tenant.getId(), tenant);
+                }
+                loaded = true;
+                future.set(null);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                logger.warn("Failed to load tenants", t);
+                future.setException(t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return true once the tenants have been loaded at least once
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Returns all of the registered tenants. If the tenants have not been loaded yet, the returned future completes
+     * once they are. It does not block the calling thread in either case.
+     */
+    public ListenableFuture<List<Tenant>> getTenants() {
+        if (loaded) {
+            return Futures.immediateFuture(copyAll());
+        }
+        return Futures.transform(refresh(), new Function<Void, List<Tenant>>() {
+            @Override
+            public List<Tenant> apply(Void ignored) {
+                return copyAll();
+            }
+        });
+    }
+
+    /**
+     * @return The registered tenant or null if there is no tenant with the id in the registry
+     */
+    public Tenant getTenant(String id) {
+        return copy(tenants.get(id));
+    }
+
+    /**
+     * Registers the tenant. This should only be called once the tenant has been stored.
+     */
+    public void add(Tenant tenant) {
+        tenants.putIfAbsent(tenant.getId(), copy(tenant));
+    }
+
+    /**
+     * Removes all of the tenants and forgets that they were loaded. This is a test hook.
+     */
+    void clear() {
+        loaded = false;
+        tenants.clear();
+    }
+
+    private List<Tenant> copyAll() {
+        List<Tenant> copies = new ArrayList<>(tenants.size());
+        for (Tenant tenant : tenants.values()) {
+            copies.add(copy(tenant));
+        }
+        return copies;
+    }
+
+    private static Tenant copy(Tenant tenant) {
+        if (tenant == null) {
+            return null;
+        }
+        Tenant copy = new Tenant().setId(tenant.getId());
+        RetentionSettings retentionSettings = tenant.getRetentionSettings();
+        for (RetentionSettings.RetentionKey key : retentionSettings.keySet()) {
+            if (key.interval == null) {
+                copy.setRetention(key.metricType, retentionSettings.get(key));
+            } else {
+                copy.setRetention(key.metricType, key.interval, retentionSettings.get(key));
+            }
+        }
+        for (AggregationTemplate template : tenant.getAggregationTemplates()) {
+            copy.addAggregationTemplate(new AggregationTemplate()
+                .setType(template.getType())
+                .setInterval(template.getInterval())
+                .setFunctions(template.getFunctions() == null ? null : new HashSet<>(template.getFunctions())));
+        }
+        return copy;
+    }
+}
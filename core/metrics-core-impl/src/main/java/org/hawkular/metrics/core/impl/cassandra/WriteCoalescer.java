@@ -0,0 +1,401 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Executes writes as a set of small, single partition batches instead of one batch that spans many partitions. The
+ * statements are grouped by their routing key, and a batch is closed once it reaches either the maximum number of
+ * rows or the maximum (serialized) size in bytes. Since every batch targets a single partition, the token aware load
+ * balancing policy of the driver sends it to a replica which then does not have to act as coordinator for other
+ * nodes.
+ * <p>
+ * The number of batches in flight is bounded per replica, i.e., the node that the token aware load balancing policy
+ * tries first for the partition of the batch. Batches beyond that limit are queued and executed as earlier ones to the
+ * same replica complete, so a large request is spread over the cluster without flooding a node, and a slow node does
+ * not hold back writes to the others. Batches without a routing key share one limit. The number of queued batches
+ * is bounded as well; once it is reached, further writes fail with a {@link RejectedExecutionException} until the
+ * queue has drained.
+ */
+public class WriteCoalescer {
+
+    /**
+     * The default maximum number of statements in a batch.
+     */
+    public static final int DEFAULT_MAX_BATCH_ROWS = 100;
+
+    /**
+     * The default maximum size of a batch. This matches the default of batch_size_warn_threshold_in_kb in
+     * cassandra.yaml.
+     */
+    public static final int DEFAULT_MAX_BATCH_BYTES = 5 * 1024;
+
+    /**
+     * The default maximum number of batches executing at the same time on a replica.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+
+    /**
+     * The default maximum number of batches waiting to be executed. With batches of at most
+     * {@link #DEFAULT_MAX_BATCH_BYTES}, the queue holds about 50 MB of data when it is full.
+     */
+    public static final int DEFAULT_MAX_QUEUED = 10000;
+
+    private static class Group {
+        final BatchStatement batch;
+        int bytes;
+
+        Group(BatchStatement.Type type) {
+            batch = new BatchStatement(type);
+        }
+    }
+
+    /**
+     * The batches queued for and executing on a replica
+     */
+    private static class ReplicaQueue {
+        final Queue<PendingWrite> pending = new ConcurrentLinkedQueue<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        // The number of drain calls that the thread draining the queue has not caught up with yet
+        final AtomicInteger drainRequests = new AtomicInteger();
+    }
+
+    private class PendingWrite implements FutureCallback<ResultSet> {
+        final Statement statement;
+        final ReplicaQueue replica;
+        final SettableFuture<ResultSet> result = SettableFuture.create();
+
+        PendingWrite(Statement statement, ReplicaQueue replica) {
+            this.statement = statement;
+            this.replica = replica;
+        }
+
+        @Override
+        public void onSuccess(ResultSet resultSet) {
+            release(replica);
+            result.set(resultSet);
+            drain(replica);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            release(replica);
+            result.setException(t);
+            drain(replica);
+        }
+    }
+
+    private final Session session;
+
+    private final int maxBatchRows;
+
+    private final int maxBatchBytes;
+
+    private final int maxInFlight;
+
+    private final int maxQueued;
+
+    private final ConcurrentMap<Host, ReplicaQueue> replicas = new ConcurrentHashMap<>();
+
+    /**
+     * Batches without a routing key or whose replicas are not known
+     */
+    private final ReplicaQueue unrouted = new ReplicaQueue();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    public WriteCoalescer(Session session) {
+        this(session, DEFAULT_MAX_BATCH_ROWS, DEFAULT_MAX_BATCH_BYTES, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_QUEUED);
+    }
+
+    public WriteCoalescer(Session session, int maxBatchRows, int maxBatchBytes, int maxInFlight) {
+        this(session, maxBatchRows, maxBatchBytes, maxInFlight, DEFAULT_MAX_QUEUED);
+    }
+
+    /**
+     * @param session The session that executes the batches
+     * @param maxBatchRows The maximum number of statements in a batch
+     * @param maxBatchBytes The maximum size of a batch in bytes
+     * @param maxInFlight The maximum number of batches executing at the same time on a replica
+     * @param maxQueued The maximum number of batches waiting to be executed
+     */
+    public WriteCoalescer(Session session, int maxBatchRows, int maxBatchBytes, int maxInFlight, int maxQueued) {
+        if (maxBatchRows < 1) {
+            throw new IllegalArgumentException("The maximum number of rows in a batch must be positive");
+        }
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException("The maximum size of a batch must be positive");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("The maximum number of batches in flight must be positive");
+        }
+        if (maxQueued < 1) {
+            throw new IllegalArgumentException("The maximum number of queued batches must be positive");
+        }
+        this.session = session;
+        this.maxBatchRows = maxBatchRows;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+    }
+
+    public int getMaxBatchRows() {
+        return maxBatchRows;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * @return The number of batches currently executing on all replicas
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return The number of batches waiting to be executed
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Executes the statements in unlogged batches.
+     *
+     * @see #execute(BatchStatement.Type, Collection)
+     */
+    public ResultSetFuture execute(Collection<? extends BoundStatement> statements) {
+        return execute(BatchStatement.Type.UNLOGGED, statements);
+    }
+
+    /**
+     * Groups the statements into batches and executes them. The returned future completes when all of the batches
+     * have completed and fails if any of them fails. Note that batches are executed independently of each other, so
+     * a failure does not undo writes of the other batches. If the queue is full, none of the statements are executed
+     * and the future fails with a {@link RejectedExecutionException}. A request is admitted as a whole, so the queue
+     * can exceed its limit by the batches of the last request that was admitted.
+     *
+     * @param type The type of the batches, e.g., {@link BatchStatement.Type#COUNTER} for counter updates
+     * @param statements The statements to execute
+     * @return A future of the result set of the last batch
+     */
+    public ResultSetFuture execute(BatchStatement.Type type, Collection<? extends BoundStatement> statements) {
+        if (statements.isEmpty()) {
+            return session.executeAsync(new BatchStatement(type));
+        }
+        if (queued.get() >= maxQueued) {
+            ListenableFuture<ResultSet> rejected = Futures.immediateFailedFuture(new RejectedExecutionException(
+                "Too many writes are waiting to be executed. Retry later."));
+            return new CoalescedResultSetFuture(Collections.singletonList(rejected));
+        }
+        List<BatchStatement> batches = group(type, statements);
+        List<ListenableFuture<ResultSet>> results = new ArrayList<>(batches.size());
+        for (BatchStatement batch : batches) {
+            results.add(submit(batch.size() == 1 ? batch.getStatements().iterator().next() : batch));
+        }
+        return new CoalescedResultSetFuture(results);
+    }
+
+    List<BatchStatement> group(BatchStatement.Type type, Collection<? extends BoundStatement> statements) {
+        List<BatchStatement> batches = new ArrayList<>();
+        // Statements without a routing key share the null key
+        Map<ByteBuffer, Group> groups = new LinkedHashMap<>();
+        for (BoundStatement statement : statements) {
+            ByteBuffer key = statement.getRoutingKey();
+            int size = sizeOf(statement);
+            Group group = groups.get(key);
+            if (group != null && (group.batch.size() >= maxBatchRows || group.bytes + size > maxBatchBytes)) {
+                batches.add(group.batch);
+                group = null;
+            }
+            if (group == null) {
+                group = new Group(type);
+                groups.put(key, group);
+            }
+            group.batch.add(statement);
+            group.bytes += size;
+        }
+        for (Group group : groups.values()) {
+            batches.add(group.batch);
+        }
+        return batches;
+    }
+
+    static int sizeOf(BoundStatement statement) {
+        int size = 0;
+        for (int i = 0; i < statement.preparedStatement().getVariables().size(); ++i) {
+            ByteBuffer value = statement.getBytesUnsafe(i);
+            if (value != null) {
+                size += value.remaining();
+            }
+        }
+        return size;
+    }
+
+    private ListenableFuture<ResultSet> submit(Statement statement) {
+        PendingWrite write = new PendingWrite(statement, getReplicaQueue(statement));
+        queued.incrementAndGet();
+        write.replica.pending.add(write);
+        drain(write.replica);
+        return write.result;
+    }
+
+    private ReplicaQueue getReplicaQueue(Statement statement) {
+        ByteBuffer routingKey = statement.getRoutingKey();
+        String keyspace = statement.getKeyspace();
+        if (routingKey == null || keyspace == null) {
+            return unrouted;
+        }
+        Set<Host> hosts = session.getCluster().getMetadata().getReplicas(keyspace, routingKey);
+        if (hosts.isEmpty()) {
+            return unrouted;
+        }
+        // The token aware policy tries the replicas in this order
+        return replicas.computeIfAbsent(hosts.iterator().next(), host -> new ReplicaQueue());
+    }
+
+    private void release(ReplicaQueue replica) {
+        replica.inFlight.decrementAndGet();
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Executes queued batches of the replica while fewer than the maximum number of them are in flight. The callback of
+     * a batch that has already completed, e.g., because the cluster is unavailable, runs on the thread that adds it and
+     * calls this method again. Only the outermost call therefore drains the queue, and nested or concurrent calls just
+     * make it check the queue once more. Otherwise every queued batch would add frames to the stack.
+     */
+    private void drain(ReplicaQueue replica) {
+        if (replica.drainRequests.getAndIncrement() > 0) {
+            return;
+        }
+        int requests = 1;
+        do {
+            while (replica.inFlight.get() < maxInFlight) {
+                PendingWrite write = replica.pending.poll();
+                if (write == null) {
+                    break;
+                }
+                queued.decrementAndGet();
+                if (write.result.isCancelled()) {
+                    continue;
+                }
+                replica.inFlight.incrementAndGet();
+                inFlight.incrementAndGet();
+                try {
+                    Futures.addCallback(session.executeAsync(write.statement), write);
+                } catch (RuntimeException e) {
+                    write.onFailure(e);
+                }
+            }
+            requests = replica.drainRequests.addAndGet(-requests);
+        } while (requests > 0);
+    }
+
+    private static class CoalescedResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+
+        private final List<ListenableFuture<ResultSet>> results;
+
+        CoalescedResultSetFuture(List<ListenableFuture<ResultSet>> results) {
+            this.results = results;
+            Futures.addCallback(Futures.allAsList(results), new FutureCallback<List<ResultSet>>() {
+                @Override
+                public void onSuccess(List<ResultSet> resultSets) {
+                    set(resultSets.get(resultSets.size() - 1));
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    setException(t);
+                }
+            });
+        }
+
+        @Override
+        public ResultSet getUninterruptibly() {
+            try {
+                return Uninterruptibles.getUninterruptibly(this);
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+
+        @Override
+        public ResultSet getUninterruptibly(long timeout, TimeUnit unit) throws TimeoutException {
+            try {
+                return Uninterruptibles.getUninterruptibly(this, timeout, unit);
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            for (ListenableFuture<ResultSet> result : results) {
+                result.cancel(mayInterruptIfRunning);
+            }
+            return true;
+        }
+    }
+}
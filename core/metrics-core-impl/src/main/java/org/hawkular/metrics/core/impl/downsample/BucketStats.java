@@ -0,0 +1,336 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.downsample;
+
+import java.util.Arrays;
+
+import org.hawkular.metrics.core.api.QuantileSketch;
+
+/**
+ * <p>
+ * The statistics computed by a {@link Downsampler} for each of its buckets. They are stored in columns indexed by
+ * bucket. The min, max, sum, and count are computed while the data is bucketed. The data points of each bucket are
+ * only grouped together, and sorted, the first time that a percentile or a particular data point of a bucket is
+ * requested.
+ * </p>
+ * <p>
+ * Pre-computed statistics, like those of rollups, can be {@link #merge(int, double, double, double, long) merged}
+ * into a bucket. They are reflected in the min, max, sum, count, and average but not in the exact percentiles or the
+ * data point accessors, which only consider the raw data. Pre-computed statistics that come with a quantile sketch
+ * are also reflected in the {@link #getEstimatedPercentile(int, double) estimated percentiles}.
+ * </p>
+ * <p>
+ * Percentiles can either be computed exactly, which sorts the data points of each bucket, or be estimated from a
+ * {@link QuantileSketch} per bucket. The sketches are filled in a single pass over the data the first time that one
+ * is requested, and their size does not depend on the number of data points.
+ * </p>
+ */
+public class BucketStats {
+
+    private final Downsampler downsampler;
+
+    private final long[] timestamps;
+
+    private final double[] values;
+
+    private final int length;
+
+    private final long[] count;
+
+    private final double[] min;
+
+    private final double[] max;
+
+    private final double[] sum;
+
+    private final int[] points;
+
+    private final int[] first;
+
+    private final int[] last;
+
+    private int[] offsets;
+
+    private int[] groupedIndexes;
+
+    private double[] sortedValues;
+
+    private QuantileSketch[] sketches;
+
+    /**
+     * Flags the buckets into which statistics were merged without a sketch. Their sketches do not cover all of the
+     * data, so percentiles are not estimated for them.
+     */
+    private final boolean[] incompleteSketches;
+
+    BucketStats(Downsampler downsampler, long[] timestamps, double[] values, int length) {
+        this.downsampler = downsampler;
+        this.timestamps = timestamps;
+        this.values = values;
+        this.length = length;
+        int numberOfBuckets = downsampler.getNumberOfBuckets();
+        count = new long[numberOfBuckets];
+        min = new double[numberOfBuckets];
+        max = new double[numberOfBuckets];
+        sum = new double[numberOfBuckets];
+        points = new int[numberOfBuckets];
+        first = new int[numberOfBuckets];
+        last = new int[numberOfBuckets];
+        incompleteSketches = new boolean[numberOfBuckets];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        Arrays.fill(first, -1);
+        Arrays.fill(last, -1);
+    }
+
+    void add(int bucket, int index) {
+        double value = values[index];
+        if (value < min[bucket]) {
+            min[bucket] = value;
+        }
+        if (value > max[bucket]) {
+            max[bucket] = value;
+        }
+        sum[bucket] += value;
+        ++count[bucket];
+        ++points[bucket];
+        if (first[bucket] < 0) {
+            first[bucket] = index;
+        }
+        last[bucket] = index;
+    }
+
+    /**
+     * Merges pre-computed statistics into a bucket. Percentiles are no longer estimated for the bucket since its
+     * sketch does not include the merged data.
+     */
+    public void merge(int bucket, double min, double max, double sum, long count) {
+        mergeStats(bucket, min, max, sum, count);
+        incompleteSketches[bucket] = true;
+    }
+
+    /**
+     * Merges pre-computed statistics along with a quantile sketch of the same data into a bucket.
+     *
+     * @throws IllegalArgumentException if the sketch does not have the
+     * {@link QuantileSketch#DEFAULT_RELATIVE_ACCURACY default relative accuracy}
+     */
+    public void merge(int bucket, double min, double max, double sum, long count, QuantileSketch sketch) {
+        getSketch(bucket).merge(sketch);
+        mergeStats(bucket, min, max, sum, count);
+    }
+
+    private void mergeStats(int bucket, double min, double max, double sum, long count) {
+        if (min < this.min[bucket]) {
+            this.min[bucket] = min;
+        }
+        if (max > this.max[bucket]) {
+            this.max[bucket] = max;
+        }
+        this.sum[bucket] += sum;
+        this.count[bucket] += count;
+    }
+
+    public int getNumberOfBuckets() {
+        return count.length;
+    }
+
+    /**
+     * @return The start time of the bucket in milliseconds
+     */
+    public long getTimestamp(int bucket) {
+        return downsampler.getBucketStart(bucket);
+    }
+
+    public boolean isEmpty(int bucket) {
+        return count[bucket] == 0;
+    }
+
+    public long getCount(int bucket) {
+        return count[bucket];
+    }
+
+    /**
+     * @return The minimum or NaN if the bucket is empty
+     */
+    public double getMin(int bucket) {
+        return isEmpty(bucket) ? Double.NaN : min[bucket];
+    }
+
+    /**
+     * @return The maximum or NaN if the bucket is empty
+     */
+    public double getMax(int bucket) {
+        return isEmpty(bucket) ? Double.NaN : max[bucket];
+    }
+
+    public double getSum(int bucket) {
+        return sum[bucket];
+    }
+
+    /**
+     * @return The average or NaN if the bucket is empty
+     */
+    public double getAvg(int bucket) {
+        return isEmpty(bucket) ? Double.NaN : sum[bucket] / count[bucket];
+    }
+
+    /**
+     * @return The number of raw data points in the bucket
+     */
+    public int getSize(int bucket) {
+        return points[bucket];
+    }
+
+    /**
+     * @return The index of the first raw data point of the bucket in the input data or -1 if there is none
+     */
+    public int getFirst(int bucket) {
+        return first[bucket];
+    }
+
+    /**
+     * @return The index of the last raw data point of the bucket in the input data or -1 if there is none
+     */
+    public int getLast(int bucket) {
+        return last[bucket];
+    }
+
+    /**
+     * @param bucket The bucket
+     * @param n A number between 0 inclusive and {@link #getSize(int)} exclusive
+     * @return The index of the nth raw data point of the bucket in the input data. The data points of a bucket are
+     * in the same order as in the input data.
+     */
+    public int getIndex(int bucket, int n) {
+        groupByBucket();
+        return groupedIndexes[offsets[bucket] + n];
+    }
+
+    /**
+     * Computes a percentile of the raw data points of the bucket. When <code>size * percentile / 100</code> is a
+     * whole number, the result is the average of the values at that rank and the next one. Otherwise it is the value
+     * at the next higher rank.
+     *
+     * @param bucket The bucket
+     * @param percentile A number between 0 and 100
+     * @return The percentile or NaN if the bucket does not have any raw data points
+     */
+    public double getPercentile(int bucket, double percentile) {
+        int size = points[bucket];
+        if (size == 0) {
+            return Double.NaN;
+        }
+        sortValues();
+        return percentile(sortedValues, offsets[bucket], size, percentile);
+    }
+
+    /**
+     * Estimates a percentile of the bucket from its {@link #getSketch(int) sketch}. Unlike
+     * {@link #getPercentile(int, double)}, this does not sort the data points, it includes the merged sketches, and
+     * the estimate is within the relative accuracy of the sketch.
+     *
+     * @param bucket The bucket
+     * @param percentile A number between 0 and 100
+     * @return The estimated percentile or NaN if the sketch of the bucket is empty or if statistics without a sketch
+     * were merged into the bucket
+     */
+    public double getEstimatedPercentile(int bucket, double percentile) {
+        if (incompleteSketches[bucket]) {
+            return Double.NaN;
+        }
+        return getSketch(bucket).getQuantile(percentile / 100);
+    }
+
+    /**
+     * @return A quantile sketch of the raw data points of the bucket and of the sketches merged into it, with the
+     * {@link QuantileSketch#DEFAULT_RELATIVE_ACCURACY default relative accuracy}
+     */
+    public QuantileSketch getSketch(int bucket) {
+        if (sketches == null) {
+            sketches = new QuantileSketch[points.length];
+            for (int i = 0; i < sketches.length; ++i) {
+                sketches[i] = new QuantileSketch();
+            }
+            for (int i = 0; i < length; ++i) {
+                int b = downsampler.getBucket(timestamps[i]);
+                if (b >= 0) {
+                    sketches[b].add(values[i]);
+                }
+            }
+        }
+        return sketches[bucket];
+    }
+
+    /**
+     * Computes a percentile of sorted values with the same rule as {@link #getPercentile(int, double)}.
+     *
+     * @param sorted The values sorted in ascending order
+     * @param offset The index of the first value
+     * @param size The number of values, which must be greater than zero
+     * @param percentile A number between 0 and 100
+     */
+    static double percentile(double[] sorted, int offset, int size, double percentile) {
+        double rank = size * (percentile / 100);
+        if (rank <= 0) {
+            return sorted[offset];
+        }
+        if (rank >= size) {
+            return sorted[offset + size - 1];
+        }
+        if (Math.floor(rank) == rank) {
+            int i = (int) rank;
+            return 0.5 * (sorted[offset + i - 1] + sorted[offset + i]);
+        }
+        return sorted[offset + (int) rank];
+    }
+
+    private void groupByBucket() {
+        if (groupedIndexes != null) {
+            return;
+        }
+        // A counting sort of the data point indexes by bucket, which keeps the input order within a bucket
+        int numberOfBuckets = points.length;
+        offsets = new int[numberOfBuckets + 1];
+        for (int i = 0; i < numberOfBuckets; ++i) {
+            offsets[i + 1] = offsets[i] + points[i];
+        }
+        groupedIndexes = new int[offsets[numberOfBuckets]];
+        int[] next = Arrays.copyOf(offsets, numberOfBuckets);
+        for (int i = 0; i < length; ++i) {
+            int bucket = downsampler.getBucket(timestamps[i]);
+            if (bucket >= 0) {
+                groupedIndexes[next[bucket]++] = i;
+            }
+        }
+    }
+
+    private void sortValues() {
+        if (sortedValues != null) {
+            return;
+        }
+        groupByBucket();
+        sortedValues = new double[groupedIndexes.length];
+        for (int i = 0; i < groupedIndexes.length; ++i) {
+            sortedValues[i] = values[groupedIndexes[i]];
+        }
+        for (int i = 0; i < points.length; ++i) {
+            Arrays.sort(sortedValues, offsets[i], offsets[i + 1]);
+        }
+    }
+
+}
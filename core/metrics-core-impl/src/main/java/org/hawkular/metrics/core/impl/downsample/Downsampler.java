@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.downsample;
+
+import java.util.List;
+
+import org.hawkular.metrics.core.api.NumericData;
+import org.hawkular.metrics.core.api.NumericSeries;
+
+/**
+ * <p>
+ * Splits numeric data into equally sized time buckets and computes {@link BucketStats statistics} for each bucket.
+ * The data is given as primitive columns of timestamps and values. It is walked once, and no objects are created per
+ * data point. This is the downsampling engine shared by the REST endpoints.
+ * </p>
+ * <p>
+ * The data does not have to be sorted. Data points that fall outside of the buckets are ignored.
+ * </p>
+ */
+public class Downsampler {
+
+    private final long start;
+
+    private final long bucketSize;
+
+    private final int numberOfBuckets;
+
+    private final boolean periodic;
+
+    /**
+     * @param start The start time of the first bucket in milliseconds
+     * @param bucketSize The width of a bucket in milliseconds
+     * @param numberOfBuckets The number of buckets
+     */
+    public Downsampler(long start, long bucketSize, int numberOfBuckets) {
+        this(start, bucketSize, numberOfBuckets, false);
+    }
+
+    private Downsampler(long start, long bucketSize, int numberOfBuckets, boolean periodic) {
+        if (bucketSize <= 0) {
+            throw new IllegalArgumentException("The bucket size must be greater than zero");
+        }
+        if (numberOfBuckets <= 0) {
+            throw new IllegalArgumentException("The number of buckets must be greater than zero");
+        }
+        this.start = start;
+        this.bucketSize = bucketSize;
+        this.numberOfBuckets = numberOfBuckets;
+        this.periodic = periodic;
+    }
+
+    /**
+     * Creates a downsampler whose buckets repeat. A data point that is more than
+     * <code>numberOfBuckets * bucketSize</code> after the start time wraps around to the first bucket. This overlays
+     * consecutive periods, e.g., the days of a week.
+     */
+    public static Downsampler periodic(long start, long bucketSize, int numberOfBuckets) {
+        return new Downsampler(start, bucketSize, numberOfBuckets, true);
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getBucketSize() {
+        return bucketSize;
+    }
+
+    public int getNumberOfBuckets() {
+        return numberOfBuckets;
+    }
+
+    /**
+     * @return The index of the bucket in which the timestamp falls or -1 if it is outside of the buckets
+     */
+    public int getBucket(long timestamp) {
+        long offset = timestamp - start;
+        if (offset < 0) {
+            return -1;
+        }
+        long bucket = offset / bucketSize;
+        if (periodic) {
+            return (int) (bucket % numberOfBuckets);
+        }
+        return bucket < numberOfBuckets ? (int) bucket : -1;
+    }
+
+    /**
+     * @return The start time of the bucket in milliseconds
+     */
+    public long getBucketStart(int bucket) {
+        return start + bucket * bucketSize;
+    }
+
+    /**
+     * @param timestamps The timestamps of the data points in milliseconds
+     * @param values The values of the data points
+     * @param length The number of data points, which can be less than the length of the arrays
+     */
+    public BucketStats downsample(long[] timestamps, double[] values, int length) {
+        BucketStats stats = new BucketStats(this, timestamps, values, length);
+        for (int i = 0; i < length; ++i) {
+            int bucket = getBucket(timestamps[i]);
+            if (bucket >= 0) {
+                stats.add(bucket, i);
+            }
+        }
+        return stats;
+    }
+
+    public BucketStats downsample(NumericSeries series) {
+        return downsample(series.getTimestamps(), series.getValues(), series.size());
+    }
+
+    /**
+     * Downsamples a list of data points. The data points are copied into columns in the same pass in which they are
+     * bucketed. The indexes returned by {@link BucketStats} are indexes into the list.
+     */
+    public BucketStats downsample(List<? extends NumericData> data) {
+        long[] timestamps = new long[data.size()];
+        double[] values = new double[data.size()];
+        BucketStats stats = new BucketStats(this, timestamps, values, timestamps.length);
+        int i = 0;
+        for (NumericData d : data) {
+            timestamps[i] = d.getTimestamp();
+            values[i] = d.getValue();
+            int bucket = getBucket(timestamps[i]);
+            if (bucket >= 0) {
+                stats.add(bucket, i);
+            }
+            ++i;
+        }
+        return stats;
+    }
+
+}
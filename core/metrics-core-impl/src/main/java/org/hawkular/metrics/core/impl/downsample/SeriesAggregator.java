@@ -0,0 +1,265 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.downsample;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.hawkular.metrics.core.api.AggregatedSeries;
+import org.hawkular.metrics.core.api.NumericData;
+import org.hawkular.metrics.core.api.SeriesFunction;
+
+/**
+ * <p>
+ * Combines several numeric series, optionally split into groups, into one series per group. The series are aligned
+ * into the buckets of a {@link Downsampler}. The value of a series in a bucket is the average of its data points in
+ * the bucket, and the values of the series of a group are then combined with a {@link SeriesFunction}.
+ * </p>
+ * <p>
+ * The series are read with a k-way merge of their iterators, which have to return the data in descending time
+ * order, the order in which it is streamed from the data table. Since the merged data arrives one bucket after
+ * another, only the bucket that is being filled is kept per series. Memory usage is proportional to the number of
+ * series plus the number of buckets times the number of groups and does not depend on the number of data points.
+ * </p>
+ * <p>
+ * {@link #aggregate()} consumes the iterators and so blocks if they do. Instances are not thread safe.
+ * </p>
+ */
+public class SeriesAggregator {
+
+    private final Downsampler downsampler;
+
+    private final SeriesFunction function;
+
+    private final Map<String, Integer> groupIndexes = new HashMap<>();
+
+    private final List<String> groups = new ArrayList<>();
+
+    private final List<Cursor> cursors = new ArrayList<>();
+
+    private int[] seriesPerGroup = new int[0];
+
+    public SeriesAggregator(Downsampler downsampler, SeriesFunction function) {
+        this.downsampler = downsampler;
+        this.function = function;
+    }
+
+    /**
+     * Adds a series to a group. Groups are returned by {@link #aggregate()} in the order in which they are first
+     * added to.
+     *
+     * @param group The group, which can be null
+     * @param data The data in descending time order, or null if the series does not have any data
+     */
+    public void add(String group, Iterator<NumericData> data) {
+        Integer groupIndex = groupIndexes.get(group);
+        if (groupIndex == null) {
+            groupIndex = groups.size();
+            groupIndexes.put(group, groupIndex);
+            groups.add(group);
+            seriesPerGroup = Arrays.copyOf(seriesPerGroup, groups.size());
+        }
+        ++seriesPerGroup[groupIndex];
+        if (data != null) {
+            cursors.add(new Cursor(cursors.size(), groupIndex, data));
+        }
+    }
+
+    /**
+     * @return One series per group with a value for each bucket in which at least one series of the group has data
+     */
+    public List<AggregatedSeries> aggregate() {
+        Merge merge = new Merge();
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(1, cursors.size()),
+            (c1, c2) -> Long.compare(c2.timestamp, c1.timestamp));
+        for (Cursor cursor : cursors) {
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Cursor cursor = queue.poll();
+            merge.add(cursor);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        merge.flush();
+        return merge.getResults();
+    }
+
+    private static class Cursor {
+        final int series;
+        final int group;
+        final Iterator<NumericData> data;
+        long timestamp;
+        double value;
+
+        Cursor(int series, int group, Iterator<NumericData> data) {
+            this.series = series;
+            this.group = group;
+            this.data = data;
+        }
+
+        boolean advance() {
+            if (!data.hasNext()) {
+                return false;
+            }
+            NumericData d = data.next();
+            timestamp = d.getTimestamp();
+            value = d.getValue();
+            return true;
+        }
+    }
+
+    /**
+     * The state of the merge. The per series sums and counts only cover the current bucket and are reset when the
+     * merge moves on to the next one. The aggregated values are stored in columns per group indexed by bucket.
+     */
+    private class Merge {
+        final int numberOfBuckets = downsampler.getNumberOfBuckets();
+        final double[][] results = new double[groups.size()][numberOfBuckets];
+        final int[][] counts = new int[groups.size()][numberOfBuckets];
+        final double[] sums = new double[cursors.size()];
+        final int[] points = new int[cursors.size()];
+        final Cursor[] touched = new Cursor[cursors.size()];
+        int touchedCount;
+        int bucket = -1;
+        int lastFlushed = Integer.MAX_VALUE;
+
+        // Scratch space to group the series values of a bucket for percentiles
+        final double[] values = new double[cursors.size()];
+        final int[] offsets = new int[groups.size() + 1];
+        final int[] positions = new int[groups.size()];
+
+        void add(Cursor cursor) {
+            int b = downsampler.getBucket(cursor.timestamp);
+            if (b != bucket) {
+                flush();
+                if (b >= lastFlushed) {
+                    throw new IllegalStateException("The data of series " + cursor.series +
+                        " is not in descending time order");
+                }
+                bucket = b;
+            }
+            if (b < 0) {
+                return;
+            }
+            if (points[cursor.series]++ == 0) {
+                touched[touchedCount++] = cursor;
+            }
+            sums[cursor.series] += cursor.value;
+        }
+
+        void flush() {
+            if (bucket < 0) {
+                return;
+            }
+            if (function.getType() == SeriesFunction.Type.PERCENTILE) {
+                flushPercentiles();
+            } else {
+                for (int i = 0; i < touchedCount; ++i) {
+                    Cursor cursor = touched[i];
+                    double value = sums[cursor.series] / points[cursor.series];
+                    double[] result = results[cursor.group];
+                    int count = counts[cursor.group][bucket]++;
+                    result[bucket] = count == 0 ? value : combine(result[bucket], value);
+                }
+                if (function.getType() == SeriesFunction.Type.AVG) {
+                    for (int group = 0; group < results.length; ++group) {
+                        if (counts[group][bucket] > 0) {
+                            results[group][bucket] /= counts[group][bucket];
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < touchedCount; ++i) {
+                sums[touched[i].series] = 0;
+                points[touched[i].series] = 0;
+            }
+            touchedCount = 0;
+            lastFlushed = bucket;
+            bucket = -1;
+        }
+
+        double combine(double current, double value) {
+            switch (function.getType()) {
+                case MIN: return Math.min(current, value);
+                case MAX: return Math.max(current, value);
+                default: return current + value;
+            }
+        }
+
+        void flushPercentiles() {
+            // A counting sort of the series values by group
+            Arrays.fill(offsets, 0);
+            for (int i = 0; i < touchedCount; ++i) {
+                ++offsets[touched[i].group + 1];
+            }
+            for (int group = 0; group < results.length; ++group) {
+                offsets[group + 1] += offsets[group];
+            }
+            System.arraycopy(offsets, 0, positions, 0, positions.length);
+            for (int i = 0; i < touchedCount; ++i) {
+                Cursor cursor = touched[i];
+                values[positions[cursor.group]++] = sums[cursor.series] / points[cursor.series];
+            }
+            for (int group = 0; group < results.length; ++group) {
+                int size = offsets[group + 1] - offsets[group];
+                counts[group][bucket] = size;
+                if (size > 0) {
+                    Arrays.sort(values, offsets[group], offsets[group + 1]);
+                    results[group][bucket] = BucketStats.percentile(values, offsets[group], size,
+                        function.getPercentile());
+                }
+            }
+        }
+
+        List<AggregatedSeries> getResults() {
+            List<AggregatedSeries> series = new ArrayList<>(groups.size());
+            for (int group = 0; group < groups.size(); ++group) {
+                int size = 0;
+                for (int b = 0; b < numberOfBuckets; ++b) {
+                    if (counts[group][b] > 0) {
+                        ++size;
+                    }
+                }
+                long[] groupTimestamps = new long[size];
+                double[] groupValues = new double[size];
+                int[] groupCounts = new int[size];
+                int i = 0;
+                for (int b = 0; b < numberOfBuckets; ++b) {
+                    if (counts[group][b] > 0) {
+                        groupTimestamps[i] = downsampler.getBucketStart(b);
+                        groupValues[i] = results[group][b];
+                        groupCounts[i] = counts[group][b];
+                        ++i;
+                    }
+                }
+                series.add(new AggregatedSeries(groups.get(group), seriesPerGroup[group], groupTimestamps,
+                    groupValues, groupCounts));
+            }
+            return series;
+        }
+    }
+
+}
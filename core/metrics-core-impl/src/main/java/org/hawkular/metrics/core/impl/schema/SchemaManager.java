@@ -20,9 +20,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharStreams;
@@ -57,22 +60,89 @@ public class SchemaManager {
             keyspace + "'");
         if (!resultSet.isExhausted()) {
             logger.info("Schema already exist. Skipping schema creation.");
+            updateSchema(keyspace);
             return;
         }
 
+        for (String cql : getStatements(keyspace)) {
+            logger.info("Executing CQL:\n" + cql + "\n");
+            session.execute(cql);
+        }
+    }
+
+    /**
+     * Applies the changes that were made to schema.cql after the keyspace was created. Each change is only applied if
+     * it is missing, so it is safe to call this every time the service starts.
+     */
+    public void updateSchema(String keyspace) throws IOException {
+        if (!columnExists(keyspace, "data", "sketch")) {
+            logger.info("Adding column sketch to " + keyspace + ".data");
+            session.execute("ALTER TABLE " + keyspace + ".data ADD sketch blob");
+        }
+        if (!tableExists(keyspace, "tags_v2")) {
+            createTable(keyspace, "tags_v2");
+        }
+        if (!tableExists(keyspace, "rollup_leases")) {
+            createTable(keyspace, "rollup_leases");
+        }
+        if (!tableExists(keyspace, "rollup_progress")) {
+            createTable(keyspace, "rollup_progress");
+        }
+        if (!tableExists(keyspace, "settings")) {
+            createTable(keyspace, "settings");
+        }
+    }
+
+    /**
+     * Stores a setting of the keyspace unless it already has a value. This is meant for settings that must not change
+     * once data has been written with them, such as the date partition size.
+     *
+     * @return The value of the setting, which is the one stored earlier if there is one
+     */
+    public String storeSetting(String keyspace, String name, String value) {
+        Row row = session.execute("INSERT INTO " + keyspace + ".settings (name, value) VALUES (?, ?) IF NOT EXISTS",
+            name, value).one();
+        return row.getBool("[applied]") ? value : row.getString("value");
+    }
+
+    private boolean tableExists(String keyspace, String table) {
+        ResultSet resultSet = session.execute("SELECT columnfamily_name FROM system.schema_columnfamilies " +
+            "WHERE keyspace_name = ? AND columnfamily_name = ?", keyspace, table);
+        return !resultSet.isExhausted();
+    }
+
+    private boolean columnExists(String keyspace, String table, String column) {
+        ResultSet resultSet = session.execute("SELECT column_name FROM system.schema_columns " +
+            "WHERE keyspace_name = ? AND columnfamily_name = ? AND column_name = ?", keyspace, table, column);
+        return !resultSet.isExhausted();
+    }
+
+    private void createTable(String keyspace, String table) throws IOException {
+        String prefix = "CREATE TABLE " + keyspace + "." + table + " (";
+        for (String cql : getStatements(keyspace)) {
+            if (cql.contains(prefix)) {
+                logger.info("Executing CQL:\n" + cql + "\n");
+                session.execute(cql);
+                return;
+            }
+        }
+        throw new IllegalStateException("schema.cql does not define table " + table);
+    }
+
+    private List<String> getStatements(String keyspace) throws IOException {
         ImmutableMap<String, String> schemaVars = ImmutableMap.of("keyspace", keyspace);
 
         try (InputStream inputStream = getClass().getResourceAsStream("/schema.cql");
             InputStreamReader reader = new InputStreamReader(inputStream)) {
             String content = CharStreams.toString(reader);
+            List<String> statements = new ArrayList<>();
 
             for (String cql : content.split("(?m)^-- #.*$")) {
                 if (!cql.startsWith("--")) {
-                    String updatedCQL = substituteVars(cql.trim(), schemaVars);
-                    logger.info("Executing CQL:\n" + updatedCQL + "\n");
-                    session.execute(updatedCQL);
+                    statements.add(substituteVars(cql.trim(), schemaVars));
                 }
             }
+            return statements;
         }
     }
 
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.tags;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import org.hawkular.metrics.core.api.MetricId;
+
+/**
+ * An in-memory inverted index of the metric tags of a tenant and metric type. Every metric is assigned an ordinal,
+ * and every tag name/value pair maps to a bitmap of the ordinals of the metrics that have the tag. Tag queries are
+ * resolved with bitmap operations, without reading anything from Cassandra.
+ * <p>
+ * A query is a map of tag names to filter expressions. All of the filters have to match (AND). The expressions are
+ * <ul>
+ *     <li><code>value</code> - the tag has the value</li>
+ *     <li><code>value1|value2</code> - the tag has one of the values (OR)</li>
+ *     <li><code>!value1|value2</code> - the tag does not have any of the values, which includes metrics that do not
+ *     have the tag (NOT)</li>
+ *     <li><code>*</code> - the metric has the tag, with any value</li>
+ * </ul>
+ * The index is safe for use by multiple threads.
+ * <p>
+ * Metrics updated on other nodes are only picked up when the index is reloaded. A reload is started with
+ * {@link #startReload()} and completed with {@link #finishReload(TagIndex)}, which replaces the contents of the index
+ * with a freshly loaded one. The updates made in between are applied to the loaded index as well, so that they are
+ * not lost if the load read the metrics index before they were stored.
+ */
+public class TagIndex {
+
+    public static final String ANY_VALUE = "*";
+
+    public static final String NOT = "!";
+
+    public static final String OR_SEPARATOR = "|";
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<MetricId, Integer> ordinals = new HashMap<>();
+
+    private final List<MetricId> ids = new ArrayList<>();
+
+    private final List<Map<String, String>> tags = new ArrayList<>();
+
+    private final List<Integer> dataRetentions = new ArrayList<>();
+
+    /**
+     * Maps tag names to tag values to the metrics that have the tag.
+     */
+    private final Map<String, Map<String, BitSet>> index = new HashMap<>();
+
+    /**
+     * Maps tag names to the metrics that have the tag with any value.
+     */
+    private final Map<String, BitSet> names = new HashMap<>();
+
+    private final BitSet all = new BitSet();
+
+    /**
+     * The updates made since the reload started, or null if the index is not being reloaded.
+     */
+    private List<Consumer<TagIndex>> reloadUpdates;
+
+    /**
+     * Adds the metric to the index if it is not in it yet. The tags of a metric that is already in the index do not
+     * change.
+     */
+    public void addMetric(MetricId id) {
+        lock.writeLock().lock();
+        try {
+            getOrdinal(id);
+            recordUpdate(loaded -> loaded.addMetric(id));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the metric to the index, replacing its tags and data retention if it is already in the index.
+     */
+    public void putMetric(MetricId id, Map<String, String> metricTags, Integer dataRetention) {
+        lock.writeLock().lock();
+        try {
+            int ordinal = getOrdinal(id);
+            for (String name : new ArrayList<>(tags.get(ordinal).keySet())) {
+                remove(ordinal, name);
+            }
+            metricTags.forEach((name, value) -> put(ordinal, name, value));
+            dataRetentions.set(ordinal, dataRetention);
+            Map<String, String> copy = new HashMap<>(metricTags);
+            recordUpdate(loaded -> loaded.putMetric(id, copy, dataRetention));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds or replaces tags of the metric. The metric is added to the index if needed.
+     */
+    public void addTags(MetricId id, Map<String, String> metricTags) {
+        lock.writeLock().lock();
+        try {
+            int ordinal = getOrdinal(id);
+            metricTags.forEach((name, value) -> put(ordinal, name, value));
+            Map<String, String> copy = new HashMap<>(metricTags);
+            recordUpdate(loaded -> loaded.addTags(id, copy));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the tags with the given names from the metric.
+     */
+    public void deleteTags(MetricId id, Iterable<String> tagNames) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.get(id);
+            if (ordinal != null) {
+                tagNames.forEach(name -> remove(ordinal, name));
+            }
+            List<String> deleted = new ArrayList<>();
+            tagNames.forEach(deleted::add);
+            recordUpdate(loaded -> loaded.deleteTags(id, deleted));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Starts recording the updates of the index so that they can be applied to the index that replaces it.
+     *
+     * @return false if a reload is already in progress, in which case nothing is done
+     */
+    public boolean startReload() {
+        lock.writeLock().lock();
+        try {
+            if (reloadUpdates != null) {
+                return false;
+            }
+            reloadUpdates = new ArrayList<>();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies the updates made since {@link #startReload()} to the loaded index and then replaces the contents of
+     * this index with it. The loaded index should not be used afterwards.
+     */
+    public void finishReload(TagIndex loaded) {
+        lock.writeLock().lock();
+        try {
+            if (reloadUpdates == null) {
+                throw new IllegalStateException("The index is not being reloaded");
+            }
+            reloadUpdates.forEach(update -> update.accept(loaded));
+            reloadUpdates = null;
+            ordinals.clear();
+            ordinals.putAll(loaded.ordinals);
+            ids.clear();
+            ids.addAll(loaded.ids);
+            tags.clear();
+            tags.addAll(loaded.tags);
+            dataRetentions.clear();
+            dataRetentions.addAll(loaded.dataRetentions);
+            index.clear();
+            index.putAll(loaded.index);
+            names.clear();
+            names.putAll(loaded.names);
+            all.clear();
+            all.or(loaded.all);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops recording updates, e.g., because the load failed. The index keeps its current contents.
+     */
+    public void cancelReload() {
+        lock.writeLock().lock();
+        try {
+            reloadUpdates = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of metrics in the index
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The tags of the metric or an empty map if the metric is not in the index
+     */
+    public Map<String, String> getTags(MetricId id) {
+        lock.readLock().lock();
+        try {
+            Integer ordinal = ordinals.get(id);
+            return ordinal == null ? Collections.emptyMap() : new HashMap<>(tags.get(ordinal));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The data retention of the metric, or null if it is not set or the metric is not in the index
+     */
+    public Integer getDataRetention(MetricId id) {
+        lock.readLock().lock();
+        try {
+            Integer ordinal = ordinals.get(id);
+            return ordinal == null ? null : dataRetentions.get(ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the metrics whose tags match all of the filters. See the class documentation for the syntax of the filter
+     * expressions. An empty query matches every metric.
+     *
+     * @return The ids of the matching metrics in the order in which they were added to the index
+     */
+    public List<MetricId> find(Map<String, String> filters) {
+        lock.readLock().lock();
+        try {
+            BitSet result = (BitSet) all.clone();
+            for (Map.Entry<String, String> filter : filters.entrySet()) {
+                if (result.isEmpty()) {
+                    break;
+                }
+                result.and(match(filter.getKey(), filter.getValue()));
+            }
+            List<MetricId> matches = new ArrayList<>(result.cardinality());
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                matches.add(ids.get(i));
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private BitSet match(String name, String expression) {
+        if (ANY_VALUE.equals(expression)) {
+            return names.getOrDefault(name, new BitSet());
+        }
+        boolean negate = expression.startsWith(NOT);
+        if (negate) {
+            expression = expression.substring(NOT.length());
+        }
+        BitSet matches = new BitSet();
+        Map<String, BitSet> values = index.getOrDefault(name, Collections.emptyMap());
+        int start = 0;
+        while (start <= expression.length()) {
+            int end = expression.indexOf(OR_SEPARATOR, start);
+            if (end < 0) {
+                end = expression.length();
+            }
+            BitSet bitmap = values.get(expression.substring(start, end));
+            if (bitmap != null) {
+                matches.or(bitmap);
+            }
+            start = end + OR_SEPARATOR.length();
+        }
+        if (negate) {
+            BitSet complement = (BitSet) all.clone();
+            complement.andNot(matches);
+            return complement;
+        }
+        return matches;
+    }
+
+    private void recordUpdate(Consumer<TagIndex> update) {
+        if (reloadUpdates != null) {
+            reloadUpdates.add(update);
+        }
+    }
+
+    private int getOrdinal(MetricId id) {
+        Integer ordinal = ordinals.get(id);
+        if (ordinal == null) {
+            ordinal = ids.size();
+            ordinals.put(id, ordinal);
+            ids.add(id);
+            tags.add(new HashMap<>());
+            dataRetentions.add(null);
+            all.set(ordinal);
+        }
+        return ordinal;
+    }
+
+    private void put(int ordinal, String name, String value) {
+        remove(ordinal, name);
+        tags.get(ordinal).put(name, value);
+        index.computeIfAbsent(name, k -> new HashMap<>()).computeIfAbsent(value, k -> new BitSet()).set(ordinal);
+        names.computeIfAbsent(name, k -> new BitSet()).set(ordinal);
+    }
+
+    private void remove(int ordinal, String name) {
+        String value = tags.get(ordinal).remove(name);
+        if (value == null) {
+            return;
+        }
+        Map<String, BitSet> values = index.get(name);
+        BitSet bitmap = values.get(value);
+        bitmap.clear(ordinal);
+        if (bitmap.isEmpty()) {
+            values.remove(value);
+        }
+        BitSet named = names.get(name);
+        named.clear(ordinal);
+        if (named.isEmpty()) {
+            names.remove(name);
+            index.remove(name);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Runs one query per item with at most a fixed number of them executing at the same time. The next query starts as
+ * soon as one completes, so a request for many metrics or date partitions neither queries them one by one nor floods
+ * the database.
+ */
+public class BoundedFanOut<T, R> {
+
+    private final List<T> items;
+
+    private final int parallelism;
+
+    private final Function<T, ListenableFuture<? extends R>> query;
+
+    private final List<SettableFuture<R>> results;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Guards drain() against reentrant calls from queries that complete right away
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+    // Only accessed from within drain()
+    private int next;
+
+    /**
+     * @param items The items to query
+     * @param parallelism The maximum number of queries executing at the same time
+     * @param query Starts the query of an item
+     */
+    public BoundedFanOut(List<T> items, int parallelism, Function<T, ListenableFuture<? extends R>> query) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be positive");
+        }
+        this.items = items;
+        this.parallelism = parallelism;
+        this.query = query;
+        results = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); ++i) {
+            results.add(SettableFuture.create());
+        }
+    }
+
+    /**
+     * Starts the queries.
+     *
+     * @return The results in the order of the items. Each one completes independently of the others.
+     */
+    public List<ListenableFuture<R>> start() {
+        drain();
+        return new ArrayList<>(results);
+    }
+
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (next < items.size() && inFlight.get() < parallelism) {
+                inFlight.incrementAndGet();
+                execute(next++);
+            }
+        } while (drainRequests.decrementAndGet() != 0);
+    }
+
+    private void execute(int index) {
+        SettableFuture<R> result = results.get(index);
+        ListenableFuture<? extends R> future;
+        try {
+            future = query.apply(items.get(index));
+        } catch (RuntimeException e) {
+            future = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(future, new FutureCallback<R>() {
+            @Override
+            public void onSuccess(R value) {
+                inFlight.decrementAndGet();
+                result.set(value);
+                drain();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                inFlight.decrementAndGet();
+                result.setException(t);
+                drain();
+            }
+        });
+    }
+}
@@ -56,6 +56,8 @@ public class DataAccessTest extends MetricsTest {
 
     private DataAccessImpl dataAccess;
 
+    private DatePartitioner partitioner;
+
     private PreparedStatement truncateTenants;
 
     private PreparedStatement truncateNumericData;
@@ -65,7 +67,8 @@ public class DataAccessTest extends MetricsTest {
     @BeforeClass
     public void initClass() {
         initSession();
-        dataAccess = new DataAccessImpl(session);
+        partitioner = new DatePartitioner();
+        dataAccess = new DataAccessImpl(session, partitioner);
         truncateTenants = session.prepare("TRUNCATE tenants");
         truncateNumericData = session.prepare("TRUNCATE data");
         truncateCounters = session.prepare("TRUNCATE counters");
@@ -131,6 +134,7 @@ public class DataAccessTest extends MetricsTest {
 
         getUninterruptibly(dataAccess.insertData(metric, MetricsServiceCassandra.DEFAULT_TTL));
 
+        metric.setDpart(partitioner.getDpart(start.getMillis()));
         ResultSetFuture queryFuture = dataAccess.findData(metric, start.getMillis(), end.getMillis());
         ListenableFuture<List<NumericData>> dataFuture = Futures.transform(queryFuture, new NumericDataMapper());
         List<NumericData> actual = getUninterruptibly(dataFuture);
@@ -160,6 +164,7 @@ public class DataAccessTest extends MetricsTest {
         metric.addData(new NumericData(metric, end.getMillis(), 1.234));
         getUninterruptibly(dataAccess.insertData(metric, MetricsServiceCassandra.DEFAULT_TTL));
 
+        metric.setDpart(partitioner.getDpart(start.getMillis()));
         ResultSetFuture queryFuture = dataAccess.findData(metric, start.getMillis(), end.getMillis());
         ListenableFuture<List<NumericData>> dataFuture = Futures.transform(queryFuture, new NumericDataMapper());
         List<NumericData> actual = getUninterruptibly(dataFuture);
@@ -303,6 +308,7 @@ public class DataAccessTest extends MetricsTest {
 
         getUninterruptibly(dataAccess.insertData(metric, 360));
 
+        metric.setDpart(partitioner.getDpart(start.getMillis()));
         ResultSetFuture future = dataAccess.findAvailabilityData(metric, start.getMillis(), end.getMillis());
         ListenableFuture<List<Availability>> dataFuture = Futures.transform(future, new AvailabilityDataMapper());
         List<Availability> actual = getUninterruptibly(dataFuture);
@@ -20,10 +20,12 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import org.hawkular.metrics.core.api.Availability;
 import org.hawkular.metrics.core.api.AvailabilityMetric;
 import org.hawkular.metrics.core.api.Counter;
+import org.hawkular.metrics.core.api.HistogramMetric;
 import org.hawkular.metrics.core.api.Interval;
 import org.hawkular.metrics.core.api.Metric;
 import org.hawkular.metrics.core.api.MetricData;
@@ -57,6 +59,11 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.findAllTenantIds();
     }
 
+    @Override
+    public ResultSetFuture findAllTenants() {
+        return delegate.findAllTenants();
+    }
+
     @Override
     public ResultSetFuture findTenant(String id) {
         return delegate.findTenant(id);
@@ -103,6 +110,11 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.findMetricsInMetricsIndex(tenantId, type);
     }
 
+    @Override
+    public ResultSetFuture findMetricInMetricsIndex(String tenantId, MetricType type, MetricId id) {
+        return delegate.findMetricInMetricsIndex(tenantId, type, id);
+    }
+
     @Override
     public ResultSetFuture insertData(NumericMetric metric, int ttl) {
         return delegate.insertData(metric, ttl);
@@ -123,6 +135,21 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.findData(metric, timestamp, includeWriteTime);
     }
 
+    @Override
+    public ResultSetFuture findPagedData(NumericMetric metric, long startTime, long endTime, int fetchSize) {
+        return delegate.findPagedData(metric, startTime, endTime, fetchSize);
+    }
+
+    @Override
+    public ResultSetFuture insertAggregatedData(NumericMetric metric, int ttl) {
+        return delegate.insertAggregatedData(metric, ttl);
+    }
+
+    @Override
+    public ResultSetFuture findAggregatedData(NumericMetric metric, long startTime, long endTime) {
+        return delegate.findAggregatedData(metric, startTime, endTime);
+    }
+
     @Override
     public ResultSetFuture findData(AvailabilityMetric metric, long startTime, long endTime) {
         return delegate.findData(metric, startTime, endTime);
@@ -159,18 +186,33 @@ public class DelegatingDataAccess implements DataAccess {
     }
 
     @Override
-    public ResultSetFuture updateDataWithTag(MetricData data, Map<String, String> tags) {
+    public ResultSetFuture updateDataWithTag(List<? extends MetricData> data, Map<String, String> tags) {
         return delegate.updateDataWithTag(data, tags);
     }
 
     @Override
-    public ResultSetFuture findNumericDataByTag(String tenantId, String tag, String tagValue) {
-        return delegate.findNumericDataByTag(tenantId, tag, tagValue);
+    public ResultSetFuture findNumericDataByTag(String tenantId, String tag, String tagValue, long dpart) {
+        return delegate.findNumericDataByTag(tenantId, tag, tagValue, dpart);
     }
 
     @Override
-    public ResultSetFuture findAvailabilityByTag(String tenantId, String tag, String tagValue) {
-        return delegate.findAvailabilityByTag(tenantId, tag, tagValue);
+    public ResultSetFuture findAvailabilityByTag(String tenantId, String tag, String tagValue, long dpart) {
+        return delegate.findAvailabilityByTag(tenantId, tag, tagValue, dpart);
+    }
+
+    @Override
+    public boolean hasLegacyTags() {
+        return delegate.hasLegacyTags();
+    }
+
+    @Override
+    public ResultSetFuture findNumericDataByLegacyTag(String tenantId, String tag, String tagValue) {
+        return delegate.findNumericDataByLegacyTag(tenantId, tag, tagValue);
+    }
+
+    @Override
+    public ResultSetFuture findAvailabilityByLegacyTag(String tenantId, String tag, String tagValue) {
+        return delegate.findAvailabilityByLegacyTag(tenantId, tag, tagValue);
     }
 
     @Override
@@ -183,6 +225,16 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.findAvailabilityData(metric, startTime, endTime);
     }
 
+    @Override
+    public ResultSetFuture insertData(HistogramMetric metric, int ttl) {
+        return delegate.insertData(metric, ttl);
+    }
+
+    @Override
+    public ResultSetFuture findHistogramData(HistogramMetric metric, long startTime, long endTime) {
+        return delegate.findHistogramData(metric, startTime, endTime);
+    }
+
     @Override
     public ResultSetFuture updateCounter(Counter counter) {
         return delegate.updateCounter(counter);
@@ -222,4 +274,24 @@ public class DelegatingDataAccess implements DataAccess {
     public ResultSetFuture findMetricsByTag(String tenantId, String tag) {
         return delegate.findMetricsByTag(tenantId, tag);
     }
+
+    @Override
+    public ResultSetFuture acquireRollupLease(String tenantId, UUID owner, int ttl) {
+        return delegate.acquireRollupLease(tenantId, owner, ttl);
+    }
+
+    @Override
+    public ResultSetFuture renewRollupLease(String tenantId, UUID owner, int ttl) {
+        return delegate.renewRollupLease(tenantId, owner, ttl);
+    }
+
+    @Override
+    public ResultSetFuture findRollupProgress(String tenantId) {
+        return delegate.findRollupProgress(tenantId);
+    }
+
+    @Override
+    public ResultSetFuture updateRollupProgress(String tenantId, Interval interval, long computedUntil) {
+        return delegate.updateRollupProgress(tenantId, interval, computedUntil);
+    }
 }
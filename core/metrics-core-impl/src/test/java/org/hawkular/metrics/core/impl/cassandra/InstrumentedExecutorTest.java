@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.testng.annotations.Test;
+
+public class InstrumentedExecutorTest {
+
+    @Test
+    public void recordQueueAndRunTimes() throws Exception {
+        InstrumentedExecutor executor = new InstrumentedExecutor(1);
+        try {
+            CountDownLatch blocked = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> {
+                blocked.await();
+                return null;
+            }));
+            for (int i = 0; i < 3; ++i) {
+                futures.add(executor.submit(() -> {
+                    Thread.sleep(5);
+                    return null;
+                }));
+            }
+            assertEquals(executor.getQueueSize(), 3, "Expected the other tasks to wait for the blocked one");
+
+            Thread.sleep(20);
+            blocked.countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+
+            assertEquals(executor.getQueueSize(), 0);
+            assertTrue(executor.getMaxQueueTime() >= 20, "The max queue time is too low: " +
+                executor.getMaxQueueTime());
+            assertTrue(executor.getAverageQueueTime() > 0, "Expected the average queue time to be recorded");
+            assertTrue(executor.getAverageRunTime() >= 5, "The average run time is too low: " +
+                executor.getAverageRunTime());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void resizePool() throws Exception {
+        InstrumentedExecutor executor = new InstrumentedExecutor(2);
+        try {
+            executor.setPoolSize(8);
+            assertEquals(executor.getCorePoolSize(), 8);
+            assertEquals(executor.getMaximumPoolSize(), 8);
+            executor.setPoolSize(1);
+            assertEquals(executor.getCorePoolSize(), 1);
+            assertEquals(executor.getMaximumPoolSize(), 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void registerAndUnregisterMXBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.hawkular.metrics:type=Executor,name=test");
+        InstrumentedExecutor executor = new InstrumentedExecutor(1);
+        executor.register("test");
+        try {
+            executor.submit(() -> null).get(10, TimeUnit.SECONDS);
+            assertEquals(server.getAttribute(name, "QueueSize"), 0);
+            assertEquals(server.getAttribute(name, "PoolSize"), 1);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        assertFalse(server.isRegistered(name), "Expected the MXBean to be unregistered on shutdown");
+    }
+}
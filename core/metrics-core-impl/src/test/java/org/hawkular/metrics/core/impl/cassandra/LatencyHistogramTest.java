@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketBoundsCoverAllLatencies() {
+        for (long micros : new long[] {0, 1, 3, 4, 5, 7, 8, 100, 1023, 1024, 999_999, 60_000_000}) {
+            int index = LatencyHistogram.index(micros);
+            assertTrue(LatencyHistogram.upperBound(index) >= micros, "The bucket of " + micros + " is too low");
+            if (index > 0) {
+                assertTrue(LatencyHistogram.upperBound(index - 1) < micros,
+                    "The bucket of " + micros + " is too high");
+            }
+        }
+    }
+
+    @Test
+    public void computeQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.getQuantile(0.99), 0L, "Expected 0 when nothing has been recorded");
+
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(i);
+        }
+
+        assertEquals(histogram.getCount(), 1000L, "The count does not match");
+        assertEquals(histogram.getMean(), 500.5, 0.001, "The mean does not match");
+        assertEquals(histogram.getMax(), 1000L, "The max does not match");
+        assertQuantileWithin(histogram.getQuantile(0.5), 500);
+        assertQuantileWithin(histogram.getQuantile(0.95), 950);
+        assertQuantileWithin(histogram.getQuantile(0.99), 990);
+        assertEquals(histogram.getQuantile(1), 1000L, "The 100th percentile should be the max");
+    }
+
+    private void assertQuantileWithin(long actual, long expected) {
+        assertTrue(actual >= expected && actual <= expected * 1.25, "Expected a value within 25% of " + expected +
+            " but got " + actual);
+    }
+}
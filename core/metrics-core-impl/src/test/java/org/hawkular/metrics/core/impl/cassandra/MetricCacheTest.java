@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import static org.hawkular.metrics.core.api.MetricType.NUMERIC;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.metrics.core.api.Metric;
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.NumericMetric;
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class MetricCacheTest {
+
+    private static final MetricId ID = new MetricId("m1");
+
+    @Test
+    public void cacheMetricsThatDoNotExist() throws Exception {
+        MetricCache cache = new MetricCache(100, 1, TimeUnit.HOURS);
+        AtomicInteger queries = new AtomicInteger();
+
+        assertNull(cache.getMetric("t1", NUMERIC, ID, () -> query(queries, null)).get());
+        assertNull(cache.getMetric("t1", NUMERIC, ID, () -> query(queries, null)).get());
+        assertEquals(queries.get(), 1, "The missing metric should be cached");
+    }
+
+    @Test
+    public void expireCachedMetrics() throws Exception {
+        MetricCache cache = new MetricCache(100, 50, TimeUnit.MILLISECONDS);
+        AtomicInteger queries = new AtomicInteger();
+
+        assertNull(cache.getMetric("t1", NUMERIC, ID, () -> query(queries, null)).get());
+        Thread.sleep(100);
+
+        // The metric has been created on another node in the meantime
+        NumericMetric created = new NumericMetric("t1", ID);
+        Metric actual = cache.getMetric("t1", NUMERIC, ID, () -> query(queries, created)).get();
+        assertEquals(actual, created, "The cached miss should have expired");
+        assertEquals(queries.get(), 2);
+    }
+
+    private static <T> ListenableFuture<T> query(AtomicInteger queries, T result) {
+        queries.incrementAndGet();
+        return Futures.immediateFuture(result);
+    }
+}
@@ -19,14 +19,18 @@ package org.hawkular.metrics.core.impl.cassandra;
 import static java.util.Arrays.asList;
 import static org.hawkular.metrics.core.api.AvailabilityType.DOWN;
 import static org.hawkular.metrics.core.api.AvailabilityType.UP;
-import static org.hawkular.metrics.core.api.Metric.DPART;
 import static org.hawkular.metrics.core.api.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.core.api.MetricType.HISTOGRAM;
 import static org.hawkular.metrics.core.api.MetricType.NUMERIC;
+import static org.hawkular.metrics.core.impl.cassandra.MetricsServiceCassandra.DEFAULT_MAX_AGGREGATED_SERIES;
+import static org.hawkular.metrics.core.impl.cassandra.MetricsServiceCassandra.DEFAULT_MAX_QUERY_PARTITIONS;
+import static org.hawkular.metrics.core.impl.cassandra.MetricsServiceCassandra.DEFAULT_PAGE_SIZE;
 import static org.hawkular.metrics.core.impl.cassandra.MetricsServiceCassandra.DEFAULT_TTL;
 import static org.joda.time.DateTime.now;
 import static org.joda.time.Days.days;
 import static org.joda.time.Hours.hours;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
@@ -34,21 +38,31 @@ import static org.testng.Assert.assertTrue;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.hawkular.metrics.core.api.AggregatedSeries;
+import org.hawkular.metrics.core.api.AggregationTemplate;
 import org.hawkular.metrics.core.api.Availability;
 import org.hawkular.metrics.core.api.AvailabilityMetric;
+import org.hawkular.metrics.core.api.HistogramMetric;
 import org.hawkular.metrics.core.api.Interval;
 import org.hawkular.metrics.core.api.Metric;
 import org.hawkular.metrics.core.api.MetricAlreadyExistsException;
+import org.hawkular.metrics.core.api.MetricData;
 import org.hawkular.metrics.core.api.MetricId;
 import org.hawkular.metrics.core.api.MetricType;
 import org.hawkular.metrics.core.api.NumericData;
 import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.api.NumericSeries;
+import org.hawkular.metrics.core.api.QuantileSketch;
 import org.hawkular.metrics.core.api.Retention;
+import org.hawkular.metrics.core.api.SeriesFunction;
 import org.hawkular.metrics.core.api.Tenant;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -75,6 +89,8 @@ public class MetricsServiceCassandraTest extends MetricsTest {
 
     private DataAccess dataAccess;
 
+    private DatePartitioner partitioner = new DatePartitioner();
+
     private PreparedStatement insertNumericDataWithTimestamp;
 
     private PreparedStatement insertAvailabilityDateWithTimestamp;
@@ -102,11 +118,21 @@ public class MetricsServiceCassandraTest extends MetricsTest {
     public void initMethod() {
         session.execute("TRUNCATE tenants");
         session.execute("TRUNCATE data");
-        session.execute("TRUNCATE tags");
+        session.execute("TRUNCATE tags_v2");
         session.execute("TRUNCATE metrics_idx");
         session.execute("TRUNCATE retentions_idx");
         session.execute("TRUNCATE metrics_tags_idx");
+        session.execute("TRUNCATE rollup_leases");
+        session.execute("TRUNCATE rollup_progress");
         metricsService.setDataAccess(dataAccess);
+        metricsService.setPageSize(DEFAULT_PAGE_SIZE);
+        metricsService.setMaxAggregatedSeries(DEFAULT_MAX_AGGREGATED_SERIES);
+        metricsService.setMaxQueryPartitions(DEFAULT_MAX_QUERY_PARTITIONS);
+        metricsService.getMetricsIndexCache().invalidateAll();
+        metricsService.getMetricCache().invalidateAll();
+        metricsService.invalidateTagIndexes();
+        metricsService.unloadDataRetentions();
+        metricsService.unloadTenants();
     }
 
     @Test
@@ -145,6 +171,44 @@ public class MetricsServiceCassandraTest extends MetricsTest {
             new MetricId("[" + AVAILABILITY.getText() + "]"), hours(24).toStandardSeconds().getSeconds())));
     }
 
+    @Test
+    public void findTenant() throws Exception {
+        Tenant tenant = new Tenant().setId("t1").setRetention(NUMERIC, 24).addAggregationTemplate(
+            new AggregationTemplate().setType(NUMERIC).setInterval(new Interval(1, Interval.Units.HOURS))
+                .setFunctions(ImmutableSet.of("max", "min")));
+        getUninterruptibly(metricsService.createTenant(tenant));
+
+        assertEquals(getUninterruptibly(metricsService.findTenant("t1")), tenant, "The tenant does not match");
+        assertNull(getUninterruptibly(metricsService.findTenant("t2")), "Did not expect to find a tenant");
+    }
+
+    @Test
+    public void findTenantsInTenantRegistry() throws Exception {
+        Tenant t1 = new Tenant().setId("t1").setRetention(NUMERIC, 24);
+        getUninterruptibly(metricsService.createTenant(t1));
+
+        // Simulates a tenant created on another node
+        Tenant t2 = new Tenant().setId("t2").setRetention(AVAILABILITY, 48);
+        getUninterruptibly(dataAccess.insertTenant(t2));
+
+        assertEquals(getUninterruptibly(metricsService.findTenant("t2")), t2, "The tenant does not match");
+
+        DataAccess failingDataAccess = new DelegatingDataAccess(dataAccess) {
+            @Override
+            public ResultSetFuture findTenant(String id) {
+                throw new AssertionError("Did not expect to query tenant [" + id + "]");
+            }
+        };
+        metricsService.setDataAccess(failingDataAccess);
+
+        Tenant actual = getUninterruptibly(metricsService.findTenant("t1"));
+        assertEquals(actual, t1, "The tenant does not match");
+        assertEquals(actual.getRetentionSettings(), t1.getRetentionSettings(), "The retention settings do not match");
+        assertEquals(getUninterruptibly(metricsService.findTenant("t2")), t2, "The tenant does not match");
+        assertEquals(ImmutableSet.copyOf(getUninterruptibly(metricsService.getTenants())), ImmutableSet.of(t1, t2),
+            "The tenants do not match");
+    }
+
     @Test
     public void createAndFindMetrics() throws Exception {
         NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"), ImmutableMap.of(
@@ -227,6 +291,99 @@ public class MetricsServiceCassandraTest extends MetricsTest {
         assertMetricIndexMatches(metric.getTenantId(), NUMERIC, asList(updatedMetric));
     }
 
+    @Test
+    public void cacheMetricDefinitions() throws Exception {
+        NumericMetric metric = new NumericMetric("t1", new MetricId("m1"), ImmutableMap.of("a1", Optional.of("1")));
+        MetricCache cache = metricsService.getMetricCache();
+
+        assertNull(getUninterruptibly(metricsService.findMetric("t1", NUMERIC, metric.getId())),
+            "The metric should not exist yet");
+        long misses = cache.getMetricStats().missCount();
+
+        getUninterruptibly(metricsService.createMetric(metric));
+        Metric actual = getUninterruptibly(metricsService.findMetric("t1", NUMERIC, metric.getId()));
+        assertEquals(actual, metric, "Creating the metric should invalidate the cache");
+        assertEquals(cache.getMetricStats().missCount(), misses + 1);
+
+        long hits = cache.getMetricStats().hitCount();
+        actual = getUninterruptibly(metricsService.findMetric("t1", NUMERIC, metric.getId()));
+        assertEquals(actual.getTags(), metric.getTags(), "The cached tags do not match");
+        assertEquals(cache.getMetricStats().hitCount(), hits + 1);
+
+        // Changes to a returned metric must not change the cached metric
+        actual.getTags().put("a2", Optional.of("2"));
+        actual = getUninterruptibly(metricsService.findMetric("t1", NUMERIC, metric.getId()));
+        assertEquals(actual.getTags(), metric.getTags(), "The cached tags should not have changed");
+
+        getUninterruptibly(metricsService.addTags(metric, ImmutableMap.of("a3", Optional.of("3"))));
+        actual = getUninterruptibly(metricsService.findMetric("t1", NUMERIC, metric.getId()));
+        assertEquals(actual.getTags(), ImmutableMap.of("a1", Optional.of("1"), "a3", Optional.of("3")),
+            "Adding tags should invalidate the cache");
+
+        assertMetricIndexMatches("t1", NUMERIC, asList(actual));
+        NumericMetric m2 = new NumericMetric("t1", new MetricId("m2"));
+        m2.addData(now().getMillis(), 2.2);
+        getUninterruptibly(metricsService.addNumericData(asList(m2)));
+        assertMetricIndexMatches("t1", NUMERIC, asList(actual, new NumericMetric("t1", new MetricId("m2"))));
+    }
+
+    @Test
+    public void findMetricsWithTags() throws Exception {
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"), ImmutableMap.of("host", Optional.of("h1"),
+            "env", Optional.of("prod")));
+        NumericMetric m2 = new NumericMetric("t1", new MetricId("m2"), ImmutableMap.of("host", Optional.of("h2")));
+        getUninterruptibly(metricsService.createMetric(m1));
+        getUninterruptibly(metricsService.createMetric(m2));
+
+        // Load the index before the remaining updates so that they are applied to it in memory
+        List<Metric> actual = getUninterruptibly(metricsService.findMetricsWithTags("t1", NUMERIC,
+            ImmutableMap.of("host", "h1|h2")));
+        assertEquals(actual, asList(m1, m2), "The metrics loaded from the metrics index do not match");
+
+        NumericMetric m3 = new NumericMetric("t1", new MetricId("m3"), ImmutableMap.of("host", Optional.of("h3"),
+            "env", Optional.of("test")));
+        getUninterruptibly(metricsService.createMetric(m3));
+        getUninterruptibly(metricsService.addTags(m2, ImmutableMap.of("env", Optional.of("prod"))));
+        getUninterruptibly(metricsService.deleteTags(m1, ImmutableMap.of("env", Optional.of("prod"))));
+        NumericMetric m4 = new NumericMetric("t1", new MetricId("m4"));
+        m4.addData(now().getMillis(), 4.4);
+        getUninterruptibly(metricsService.addNumericData(asList(m4)));
+
+        actual = getUninterruptibly(metricsService.findMetricsWithTags("t1", NUMERIC, ImmutableMap.of("env",
+            "prod")));
+        assertEquals(actual, asList(new NumericMetric("t1", m2.getId(), ImmutableMap.of("host", Optional.of("h2"),
+            "env", Optional.of("prod")))), "The tag updates should be applied to the index");
+
+        actual = getUninterruptibly(metricsService.findMetricsWithTags("t1", NUMERIC, ImmutableMap.of("env",
+            "!prod", "host", "*")));
+        assertEquals(actual, asList(new NumericMetric("t1", m1.getId(), ImmutableMap.of("host", Optional.of("h1"))),
+            m3), "The metrics without the tag value do not match");
+
+        actual = getUninterruptibly(metricsService.findMetricsWithTags("t1", NUMERIC, ImmutableMap.of("host",
+            "!h1|h2|h3")));
+        assertEquals(actual, asList(new NumericMetric("t1", m4.getId())),
+            "Metrics written with data points should be in the index");
+
+        // A reloaded index should give the same results
+        metricsService.invalidateTagIndexes();
+        actual = getUninterruptibly(metricsService.findMetricsWithTags("t1", NUMERIC, ImmutableMap.of("env",
+            "prod|test")));
+        assertEquals(actual.size(), 2, "Expected m2 and m3 in the reloaded index");
+
+        // Metrics created on another node only show up after the periodic reload
+        NumericMetric m5 = new NumericMetric("t1", new MetricId("m5"), ImmutableMap.of("env", Optional.of("dev")));
+        getUninterruptibly(dataAccess.insertMetricInMetricsIndex(m5));
+        assertTrue(getUninterruptibly(metricsService.findMetricsWithTags("t1", NUMERIC, ImmutableMap.of("env",
+            "dev"))).isEmpty(), "The metric created behind the service's back should not be indexed yet");
+        getUninterruptibly(metricsService.reloadTagIndexes());
+        actual = getUninterruptibly(metricsService.findMetricsWithTags("t1", NUMERIC, ImmutableMap.of("env",
+            "dev")));
+        assertEquals(actual, asList(m5), "The reload should pick up metrics created on other nodes");
+
+        assertTrue(getUninterruptibly(metricsService.findMetricsWithTags("t2", NUMERIC, ImmutableMap.of()))
+            .isEmpty(), "Tenant t2 does not have any metrics");
+    }
+
     @Test
     public void addAndFetchNumericData() throws Exception {
         DateTime start = now().minusMinutes(30);
@@ -256,6 +413,419 @@ public class MetricsServiceCassandraTest extends MetricsTest {
         assertMetricIndexMatches("t1", NUMERIC, asList(m1));
     }
 
+    @Test
+    public void recordDataAccessStatistics() throws Exception {
+        long inserts = getOperationCount("insertNumericData");
+        long queries = getOperationCount("findNumericData");
+
+        DateTime start = now().minusMinutes(10);
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
+        m1.addData(start.getMillis(), 1.1);
+        m1.addData(start.plusMinutes(2).getMillis(), 2.2);
+        m1.addData(start.plusMinutes(4).getMillis(), 3.3);
+
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+        getUninterruptibly(metricsService.findData(m1, start.getMillis(), now().getMillis()));
+
+        OperationStats insertStats = metricsService.getDataAccessStats().get("insertNumericData");
+        assertEquals(insertStats.getCount(), inserts + 1, "Expected the insert to be recorded");
+        assertTrue(insertStats.getMeanBatchSize() > 0, "Expected the batch size to be recorded");
+
+        OperationStats queryStats = metricsService.getDataAccessStats().get("findNumericData");
+        assertTrue(queryStats.getCount() > queries, "Expected the query to be recorded");
+        assertTrue(queryStats.getMeanRows() > 0, "Expected the rows returned to be recorded");
+        assertTrue(queryStats.getMaxLatency() >= queryStats.getLatency50thPercentile(),
+            "The median latency cannot exceed the max latency");
+    }
+
+    private long getOperationCount(String operation) {
+        OperationStats stats = metricsService.getDataAccessStats().get(operation);
+        return stats == null ? 0 : stats.getCount();
+    }
+
+    @Test
+    public void addAndFetchNumericDataSpanningMultipleDatePartitions() throws Exception {
+        DateTime end = now();
+        DateTime start = end.minusDays(3);
+
+        getUninterruptibly(metricsService.createTenant(new Tenant().setId("t1")));
+
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
+        m1.addData(end.minusMinutes(1).getMillis(), 4.4);
+        m1.addData(start.plusDays(2).getMillis(), 3.3);
+        m1.addData(start.plusDays(1).getMillis(), 2.2);
+        m1.addData(start.getMillis(), 1.1);
+
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+        assertTrue(partitioner.getDparts(start.getMillis(), end.getMillis()).size() > 1,
+            "Expected the data to be stored in multiple date partitions");
+
+        List<NumericData> actual = getUninterruptibly(metricsService.findData(m1, start.getMillis(),
+            end.getMillis()));
+        assertEquals(actual, m1.getData(), "The data does not match the expected values");
+
+        NumericMetric actualMetric = getUninterruptibly(metricsService.findNumericData(m1, start.getMillis(),
+            end.getMillis()));
+        assertMetricEquals(actualMetric, m1);
+
+        actual = getUninterruptibly(metricsService.findData(m1, start.plusDays(1).getMillis(),
+            start.plusDays(2).plusMinutes(1).getMillis()));
+        List<NumericData> expected = asList(
+            new NumericData(m1, start.plusDays(2).getMillis(), 3.3),
+            new NumericData(m1, start.plusDays(1).getMillis(), 2.2)
+        );
+        assertEquals(actual, expected, "The data does not match the expected values");
+    }
+
+    @Test
+    public void rejectQueriesSpanningTooManyDatePartitions() throws Exception {
+        DateTime end = now();
+        DateTime start = end.minusDays(3);
+
+        getUninterruptibly(metricsService.createTenant(new Tenant().setId("t1")));
+
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
+        m1.addData(end.minusMinutes(1).getMillis(), 1.1);
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+        assertEquals(partitioner.getNumberOfDparts(start.getMillis(), end.getMillis()),
+            partitioner.getDparts(start.getMillis(), end.getMillis()).size(),
+            "The number of date partitions does not match the partitions of the time range");
+
+        metricsService.setMaxQueryPartitions(2);
+        try {
+            metricsService.findNumericData(m1, start.getMillis(), end.getMillis());
+            throw new AssertionError("Expected the query to be rejected since its time range spans more date " +
+                "partitions than the limit");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            metricsService.findNumericData(m1, 0, end.getMillis());
+            throw new AssertionError("Expected the query to be rejected since its time range starts at the epoch");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        NumericMetric actual = getUninterruptibly(metricsService.findNumericData(m1, end.minusHours(1).getMillis(),
+            end.getMillis()));
+        assertMetricEquals(actual, m1);
+    }
+
+    @Test
+    public void streamNumericDataSpanningMultipleDatePartitions() throws Exception {
+        DateTime end = now();
+        DateTime start = end.minusDays(3);
+
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
+        m1.addData(end.minusMinutes(1).getMillis(), 5.5);
+        m1.addData(end.minusMinutes(2).getMillis(), 4.4);
+        m1.addData(start.plusDays(2).getMillis(), 3.3);
+        m1.addData(start.plusMinutes(2).getMillis(), 2.2);
+        m1.addData(start.plusMinutes(1).getMillis(), 1.1);
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+        metricsService.setPageSize(2);
+
+        Iterator<NumericData> iterator = getUninterruptibly(metricsService.streamNumericData(m1, start.getMillis(),
+            end.getMillis()));
+        assertNotNull(iterator, "Expected to get an iterator for the data");
+        List<NumericData> actual = new ArrayList<>();
+        iterator.forEachRemaining(actual::add);
+        assertEquals(actual, m1.getData(), "The streamed data does not match the expected values");
+
+        iterator = getUninterruptibly(metricsService.streamNumericData(m1, start.minusDays(3).getMillis(),
+            start.getMillis()));
+        assertNull(iterator, "Did not expect to get an iterator when there is no data");
+    }
+
+    @Test
+    public void findNumericSeriesSpanningMultipleDatePartitions() throws Exception {
+        DateTime end = now();
+        DateTime start = end.minusDays(3);
+
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"), ImmutableMap.of("units", Optional.of("ms")));
+        getUninterruptibly(metricsService.createMetric(m1));
+
+        m1.addData(end.minusMinutes(1).getMillis(), 5.5);
+        m1.addData(start.plusDays(2).getMillis(), 3.3);
+        m1.addData(start.plusMinutes(1).getMillis(), 1.1);
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+        Map<String, Optional<String>> tags = ImmutableMap.of("x", Optional.of("1"));
+        getUninterruptibly(metricsService.tagNumericData(m1, tags, start.plusDays(2).getMillis()));
+
+        NumericSeries series = getUninterruptibly(metricsService.findNumericSeries(m1, start.getMillis(),
+            end.getMillis()));
+
+        assertEquals(series.getId(), m1.getId(), "The metric id does not match");
+        assertEquals(series.getTags(), m1.getTags(), "The metric tags do not match");
+        assertEquals(series.size(), 3, "The number of data points does not match");
+        assertEquals(series.getTimestamps(), new long[] {start.plusMinutes(1).getMillis(),
+            start.plusDays(2).getMillis(), end.minusMinutes(1).getMillis()}, "The data should be in ascending order");
+        assertEquals(series.getValues(), new double[] {1.1, 3.3, 5.5}, "The values do not match");
+        assertEquals(series.getTags(0), Collections.emptyMap(), "Did not expect data point tags");
+        assertEquals(series.getTags(1), tags, "The data point tags do not match");
+
+        series = getUninterruptibly(metricsService.findNumericSeries(m1, start.minusDays(3).getMillis(),
+            start.getMillis()));
+        assertTrue(series.isEmpty(), "Did not expect any data");
+    }
+
+    @Test
+    public void findNumericDataInLegacyPartition() throws Exception {
+        DateTime end = now();
+        DateTime start = end.minusDays(3);
+
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
+        m1.addData(end.minusMinutes(1).getMillis(), 4.4);
+        m1.addData(start.plusDays(1).getMillis(), 2.2);
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+        // Before the data table was partitioned by time slice, all of the data was written to the legacy partition
+        long writeTime = now().getMillis() * 1000;
+        for (NumericData d : asList(new NumericData(m1, start.plusDays(2).getMillis(), 3.3),
+            new NumericData(m1, start.getMillis(), 1.1))) {
+            session.execute(insertNumericDataWithTimestamp.bind(m1.getTenantId(), NUMERIC.getCode(),
+                m1.getId().getName(), m1.getId().getInterval().toString(), MetricsServiceCassandra.LEGACY_DPART,
+                d.getTimeUUID(), d.getValue(), DEFAULT_TTL, writeTime));
+        }
+
+        List<NumericData> expected = asList(
+            new NumericData(m1, end.minusMinutes(1).getMillis(), 4.4),
+            new NumericData(m1, start.plusDays(2).getMillis(), 3.3),
+            new NumericData(m1, start.plusDays(1).getMillis(), 2.2),
+            new NumericData(m1, start.getMillis(), 1.1)
+        );
+
+        List<NumericData> actual = getUninterruptibly(metricsService.findData(m1, start.getMillis(),
+            end.getMillis()));
+        assertEquals(actual, expected, "The legacy data should be merged with the data of the time slices");
+
+        NumericMetric actualMetric = getUninterruptibly(metricsService.findNumericData(m1, start.getMillis(),
+            end.getMillis()));
+        assertEquals(actualMetric.getData(), expected, "The legacy data should be merged with the data of the " +
+            "time slices");
+
+        metricsService.setPageSize(1);
+        Iterator<NumericData> iterator = getUninterruptibly(metricsService.streamNumericData(m1, start.getMillis(),
+            end.getMillis()));
+        actual = new ArrayList<>();
+        iterator.forEachRemaining(actual::add);
+        assertEquals(actual, expected, "The streamed legacy data should be merged with the data of the time slices");
+
+        NumericSeries series = getUninterruptibly(metricsService.findNumericSeries(m1, start.getMillis(),
+            end.getMillis()));
+        assertEquals(series.getValues(), new double[] {1.1, 2.2, 3.3, 4.4}, "The series should be in ascending " +
+            "order");
+    }
+
+    @Test
+    public void aggregateNumericDataGroupedByTag() throws Exception {
+        DateTime start = now().minusDays(2).hourOfDay().roundFloorCopy();
+        DateTime end = start.plusDays(2);
+
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"), ImmutableMap.of("app", Optional.of("web"),
+            "host", Optional.of("h1")));
+        NumericMetric m2 = new NumericMetric("t1", new MetricId("m2"), ImmutableMap.of("app", Optional.of("web"),
+            "host", Optional.of("h1")));
+        NumericMetric m3 = new NumericMetric("t1", new MetricId("m3"), ImmutableMap.of("app", Optional.of("web"),
+            "host", Optional.of("h2")));
+        NumericMetric m4 = new NumericMetric("t1", new MetricId("m4"), ImmutableMap.of("app", Optional.of("db"),
+            "host", Optional.of("h1")));
+        for (NumericMetric metric : asList(m1, m2, m3, m4)) {
+            getUninterruptibly(metricsService.createMetric(metric));
+        }
+
+        // Each metric has data in both days, which are in different date partitions
+        m1.addData(start.plusDays(1).plusHours(2).getMillis(), 3.0);
+        m1.addData(start.plusDays(1).plusHours(1).getMillis(), 1.0);
+        m1.addData(start.plusHours(1).getMillis(), 10.0);
+        m2.addData(start.plusDays(1).plusHours(3).getMillis(), 5.0);
+        m2.addData(start.plusHours(2).getMillis(), 20.0);
+        m3.addData(start.plusDays(1).getMillis(), 7.0);
+        m3.addData(start.getMillis(), 30.0);
+        m4.addData(start.getMillis(), 100.0);
+        getUninterruptibly(metricsService.addNumericData(asList(m1, m2, m3, m4)));
+
+        metricsService.setPageSize(2);
+
+        List<AggregatedSeries> actual = getUninterruptibly(metricsService.aggregateNumericData("t1",
+            ImmutableMap.of("app", "web"), "host", SeriesFunction.SUM, start.getMillis(), end.getMillis(), 2));
+
+        assertEquals(actual.size(), 2, "Expected a group for each host");
+        assertEquals(actual.get(0), new AggregatedSeries("h1", 2, new long[] {start.getMillis(),
+            start.plusDays(1).getMillis()}, new double[] {30.0, 7.0}, new int[] {2, 2}),
+            "The averages of m1 and m2 in each bucket should be summed");
+        assertEquals(actual.get(1), new AggregatedSeries("h2", 1, new long[] {start.getMillis(),
+            start.plusDays(1).getMillis()}, new double[] {30.0, 7.0}, new int[] {1, 1}));
+
+        actual = getUninterruptibly(metricsService.aggregateNumericData("t1", ImmutableMap.of("host", "*"), null,
+            SeriesFunction.MAX, start.getMillis(), end.getMillis(), 1));
+        assertEquals(actual, asList(new AggregatedSeries(null, 4, new long[] {start.getMillis()},
+            new double[] {100.0}, new int[] {4})), "Expected all of the metrics in one group");
+
+        assertTrue(getUninterruptibly(metricsService.aggregateNumericData("t1", ImmutableMap.of("app", "none"),
+            "host", SeriesFunction.SUM, start.getMillis(), end.getMillis(), 2)).isEmpty(),
+            "Did not expect any groups when no metrics match");
+
+        metricsService.setMaxAggregatedSeries(3);
+        try {
+            getUninterruptibly(metricsService.aggregateNumericData("t1", ImmutableMap.of("host", "*"), null,
+                SeriesFunction.MAX, start.getMillis(), end.getMillis(), 1));
+            throw new AssertionError("Expected the aggregation to fail since it matches more metrics than the limit");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException, "Unexpected failure " + e.getCause());
+        }
+    }
+
+    @Test
+    public void computeRollupsFromAggregationTemplate() throws Exception {
+        Interval fiveMinutes = new Interval(5, Interval.Units.MINUTES);
+        long sliceSize = Duration.standardMinutes(5).getMillis();
+        long time = now().getMillis();
+        long sliceEnd = time - Math.floorMod(time, sliceSize);
+        long sliceStart = sliceEnd - sliceSize;
+
+        getUninterruptibly(metricsService.createTenant(new Tenant().setId("t1").addAggregationTemplate(
+            new AggregationTemplate().setType(NUMERIC).setInterval(fiveMinutes).setFunctions(ImmutableSet.of(
+                "max")))));
+
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
+        m1.addData(sliceStart - 60000, 100.0);
+        m1.addData(sliceStart, 3.0);
+        m1.addData(sliceStart + 60000, 1.0);
+        m1.addData(sliceEnd - 1, 5.0);
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+        RollupScheduler scheduler = new RollupScheduler(metricsService);
+        scheduler.runRollups(sliceEnd - 1, sliceEnd);
+
+        NumericMetric actual = getUninterruptibly(metricsService.findAggregatedData(m1, fiveMinutes,
+            sliceStart - sliceSize, sliceEnd));
+        assertNotNull(actual, "Expected to find the rollup");
+        assertEquals(actual.getId(), m1.getId(), "The rollup should be returned under the id of its source metric");
+        assertEquals(actual.getData().size(), 1, "Expected a single rollup for the time slice");
+
+        NumericData rollup = actual.getData().get(0);
+        assertEquals(rollup.getTimestamp(), sliceStart, "The rollup timestamp should be the start of the time slice");
+        assertEquals(rollup.getAggregatedValue(RollupScheduler.MIN), 1.0);
+        assertEquals(rollup.getAggregatedValue(RollupScheduler.MAX), 5.0);
+        assertEquals(rollup.getAggregatedValue(RollupScheduler.AVG), 3.0);
+        assertEquals(rollup.getAggregatedValue(RollupScheduler.SUM), 9.0);
+        assertEquals(rollup.getAggregatedValue(RollupScheduler.COUNT), 3.0);
+        assertNotNull(rollup.getSketch(), "The rollup should be stored with a quantile sketch");
+        assertEquals(rollup.getSketch().getCount(), 3, "The sketch should include the data of the time slice");
+        assertEquals(rollup.getSketch().getMin(), 1.0);
+        assertEquals(rollup.getSketch().getMax(), 5.0);
+
+        scheduler.runRollups(sliceEnd, sliceEnd + 1);
+        actual = getUninterruptibly(metricsService.findAggregatedData(m1, fiveMinutes, sliceStart - sliceSize,
+            sliceEnd + sliceSize));
+        assertEquals(actual.getData().size(), 1, "No rollup should be computed before the time slice has elapsed");
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void computeRollupsOnOneNode() throws Exception {
+        Interval fiveMinutes = new Interval(5, Interval.Units.MINUTES);
+        long sliceSize = Duration.standardMinutes(5).getMillis();
+        long time = now().getMillis();
+        long sliceEnd = time - Math.floorMod(time, sliceSize);
+
+        getUninterruptibly(metricsService.createTenant(new Tenant().setId("t1").addAggregationTemplate(
+            new AggregationTemplate().setType(NUMERIC).setInterval(fiveMinutes).setFunctions(ImmutableSet.of(
+                "max")))));
+
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
+        m1.addData(sliceEnd - 1, 1.0);
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+        RollupScheduler scheduler = new RollupScheduler(metricsService);
+        RollupScheduler otherScheduler = new RollupScheduler(metricsService);
+        otherScheduler.runRollups(sliceEnd - 1, sliceEnd);
+        scheduler.runRollups(sliceEnd - 1, sliceEnd);
+
+        m1.addData(sliceEnd + 1, 2.0);
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+        scheduler.runRollups(sliceEnd + sliceSize - 1, sliceEnd + sliceSize);
+
+        NumericMetric actual = getUninterruptibly(metricsService.findAggregatedData(m1, fiveMinutes,
+            sliceEnd - sliceSize, sliceEnd + sliceSize));
+        assertEquals(actual.getData().size(), 1, "Only the node that holds the lease of the tenant should compute " +
+            "its rollups");
+        assertEquals(actual.getData().get(0).getAggregatedValue(RollupScheduler.MAX), 1.0);
+        scheduler.shutdown();
+        otherScheduler.shutdown();
+    }
+
+    @Test
+    public void backfillMissedRollups() throws Exception {
+        Interval fiveMinutes = new Interval(5, Interval.Units.MINUTES);
+        long sliceSize = Duration.standardMinutes(5).getMillis();
+        long time = now().getMillis();
+        long sliceEnd = time - Math.floorMod(time, sliceSize);
+
+        getUninterruptibly(metricsService.createTenant(new Tenant().setId("t1").addAggregationTemplate(
+            new AggregationTemplate().setType(NUMERIC).setInterval(fiveMinutes).setFunctions(ImmutableSet.of(
+                "max")))));
+
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
+        m1.addData(sliceEnd - (3 * sliceSize) + 1, 1.0);
+        m1.addData(sliceEnd - (2 * sliceSize) + 1, 2.0);
+        m1.addData(sliceEnd - sliceSize + 1, 3.0);
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+        // The rollups were last computed three slices ago, e.g., before the server went down
+        getUninterruptibly(dataAccess.updateRollupProgress("t1", fiveMinutes, sliceEnd - (3 * sliceSize)));
+
+        RollupScheduler scheduler = new RollupScheduler(metricsService);
+        scheduler.runRollups(sliceEnd - 1, sliceEnd);
+
+        NumericMetric actual = getUninterruptibly(metricsService.findAggregatedData(m1, fiveMinutes,
+            sliceEnd - (3 * sliceSize), sliceEnd));
+        assertEquals(actual.getData().size(), 3, "Expected the missed slices to be backfilled");
+        assertEquals(actual.getData().get(0).getAggregatedValue(RollupScheduler.MAX), 3.0);
+        assertEquals(actual.getData().get(2).getAggregatedValue(RollupScheduler.MAX), 1.0);
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void recomputeRollupsWithLateData() throws Exception {
+        Interval fiveMinutes = new Interval(5, Interval.Units.MINUTES);
+        long sliceSize = Duration.standardMinutes(5).getMillis();
+        long time = now().getMillis();
+        long sliceEnd = time - Math.floorMod(time, sliceSize);
+        long sliceStart = sliceEnd - sliceSize;
+
+        getUninterruptibly(metricsService.createTenant(new Tenant().setId("t1").addAggregationTemplate(
+            new AggregationTemplate().setType(NUMERIC).setInterval(fiveMinutes).setFunctions(ImmutableSet.of(
+                "max")))));
+
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
+        m1.addData(sliceStart, 1.0);
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+        RollupScheduler scheduler = new RollupScheduler(metricsService);
+        scheduler.runRollups(sliceEnd - 1, sliceEnd);
+
+        NumericMetric late = new NumericMetric("t1", new MetricId("m1"));
+        late.addData(sliceStart + 1, 5.0);
+        getUninterruptibly(metricsService.addNumericData(asList(late)));
+
+        scheduler.runRollups(sliceEnd + RollupScheduler.LATE_DATA_DELAY - 1,
+            sliceEnd + RollupScheduler.LATE_DATA_DELAY);
+
+        NumericMetric actual = getUninterruptibly(metricsService.findAggregatedData(m1, fiveMinutes, sliceStart,
+            sliceEnd));
+        assertEquals(actual.getData().size(), 1);
+        assertEquals(actual.getData().get(0).getAggregatedValue(RollupScheduler.MAX), 5.0,
+            "The rollup should be computed again to include the late data");
+        assertEquals(actual.getData().get(0).getAggregatedValue(RollupScheduler.COUNT), 2.0);
+        scheduler.shutdown();
+    }
+
     @Test
     public void verifyTTLsSetOnNumericData() throws Exception {
         DateTime start = now().minusMinutes(10);
@@ -267,7 +837,8 @@ public class MetricsServiceCassandraTest extends MetricsTest {
         VerifyTTLDataAccess verifyTTLDataAccess = new VerifyTTLDataAccess(dataAccess);
 
         metricsService.unloadDataRetentions();
-        metricsService.loadDataRetentions();
+        getUninterruptibly(metricsService.prefetchDataRetentions());
+        assertTrue(metricsService.isWarmedUp(), "Warm-up should be complete after the prefetch");
         metricsService.setDataAccess(verifyTTLDataAccess);
 
         NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
@@ -307,6 +878,30 @@ public class MetricsServiceCassandraTest extends MetricsTest {
         getUninterruptibly(metricsService.addNumericData(asList(m4)));
     }
 
+    @Test
+    public void loadDataRetentionsOnDemand() throws Exception {
+        getUninterruptibly(metricsService.createTenant(new Tenant().setId("t1")
+            .setRetention(NUMERIC, days(3).toStandardHours().getHours())));
+        metricsService.unloadDataRetentions();
+
+        VerifyTTLDataAccess verifyTTLDataAccess = new VerifyTTLDataAccess(dataAccess);
+        metricsService.setDataAccess(verifyTTLDataAccess);
+
+        // The retentions of t1 are not cached, so they have to be loaded before the data is written
+        verifyTTLDataAccess.setNumericTTL(days(3).toStandardSeconds().getSeconds());
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
+        m1.addData(now().getMillis(), 1.1);
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+        // A metric level retention set after the tenant retentions are loaded has to be applied to the cached ones
+        int m2Retention = hours(12).toStandardSeconds().getSeconds();
+        NumericMetric m2 = new NumericMetric("t1", new MetricId("m2"), ImmutableMap.of(), m2Retention);
+        getUninterruptibly(metricsService.createMetric(m2));
+        verifyTTLDataAccess.setNumericTTL(m2Retention);
+        m2.addData(now().getMillis(), 2.2);
+        getUninterruptibly(metricsService.addNumericData(asList(m2)));
+    }
+
     @Test
     public void verifyTTLsSetOnAvailabilityData() throws Exception {
         DateTime start = now().minusMinutes(10);
@@ -318,7 +913,8 @@ public class MetricsServiceCassandraTest extends MetricsTest {
         VerifyTTLDataAccess verifyTTLDataAccess = new VerifyTTLDataAccess(dataAccess);
 
         metricsService.unloadDataRetentions();
-        metricsService.loadDataRetentions();
+        getUninterruptibly(metricsService.prefetchDataRetentions());
+        assertTrue(metricsService.isWarmedUp(), "Warm-up should be complete after the prefetch");
         metricsService.setDataAccess(verifyTTLDataAccess);
         metricsService.setDataAccess(verifyTTLDataAccess);
 
@@ -361,8 +957,9 @@ public class MetricsServiceCassandraTest extends MetricsTest {
                     BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
                     for (NumericData d : m.getData()) {
                         batchStatement.add(insertNumericDataWithTimestamp.bind(m.getTenantId(), NUMERIC.getCode(),
-                                m.getId().getName(), m.getId().getInterval().toString(), DPART, d.getTimeUUID(),
-                                d.getValue(), actualTTL, writeTime));
+                                m.getId().getName(), m.getId().getInterval().toString(),
+                                partitioner.getDpart(d.getTimestamp()), d.getTimeUUID(), d.getValue(), actualTTL,
+                                writeTime));
                     }
                     return session.executeAsync(batchStatement);
                 }
@@ -384,8 +981,9 @@ public class MetricsServiceCassandraTest extends MetricsTest {
                     BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
                     for (Availability a : m.getData()) {
                         batchStatement.add(insertAvailabilityDateWithTimestamp.bind(m.getTenantId(),
-                            AVAILABILITY.getCode(), m.getId().getName(), m.getId().getInterval().toString(), DPART,
-                            a.getTimeUUID(), a.getBytes(), actualTTL, writeTime));
+                            AVAILABILITY.getCode(), m.getId().getName(), m.getId().getInterval().toString(),
+                            partitioner.getDpart(a.getTimestamp()), a.getTimeUUID(), a.getBytes(), actualTTL,
+                            writeTime));
                     }
                     return session.executeAsync(batchStatement);
                 }
@@ -545,6 +1143,41 @@ public class MetricsServiceCassandraTest extends MetricsTest {
         assertMetricIndexMatches(tenantId, AVAILABILITY, asList(m1, m2, m3, m4));
     }
 
+    @Test
+    public void addAndFetchHistogramData() throws Exception {
+        DateTime start = now().minusMinutes(10);
+        DateTime end = start.plusMinutes(8);
+        String tenantId = "test-tenant";
+
+        getUninterruptibly(metricsService.createTenant(new Tenant().setId(tenantId)));
+
+        QuantileSketch first = new QuantileSketch();
+        QuantileSketch second = new QuantileSketch();
+        for (int i = 1; i <= 1000; ++i) {
+            first.add(i);
+            second.add(10 * i);
+        }
+
+        HistogramMetric m1 = new HistogramMetric(tenantId, new MetricId("m1"));
+        m1.addData(start.plusMinutes(1).getMillis(), second);
+        m1.addData(start.getMillis(), first);
+        HistogramMetric m2 = new HistogramMetric(tenantId, new MetricId("m2"));
+
+        getUninterruptibly(metricsService.addHistogramData(asList(m1, m2)));
+
+        HistogramMetric actual = getUninterruptibly(metricsService.findHistogramData(m1, start.getMillis(),
+            end.getMillis()));
+        assertMetricEquals(actual, m1);
+        assertEquals(actual.getData().get(1).getSketch().getCount(), 1000,
+            "Each histogram should be stored as a single data point");
+        assertEquals(actual.getData().get(0).getSketch().getQuantile(0.5), 5000.0, 5000 * 0.01);
+
+        assertNull(getUninterruptibly(metricsService.findHistogramData(m2, start.getMillis(), end.getMillis())),
+            "Did not expect to get back results since there is no data for " + m2);
+
+        assertMetricIndexMatches(tenantId, HISTOGRAM, asList(m1, m2));
+    }
+
     @Test
     public void fetchAvailabilityDataThatHasTags() throws Exception {
         DateTime end = now();
@@ -651,7 +1284,7 @@ public class MetricsServiceCassandraTest extends MetricsTest {
         getUninterruptibly(tagFuture5);
 
         ListenableFuture<Map<MetricId, Set<NumericData>>> queryFuture = metricsService.findNumericDataByTags(tenant,
-            ImmutableMap.of("t1", Optional.of("1"), "t2", Optional.of("2")));
+            ImmutableMap.of("t1", Optional.of("1"), "t2", Optional.of("2")), start.getMillis(), now().getMillis());
         Map<MetricId, Set<NumericData>> actual = getUninterruptibly(queryFuture);
         ImmutableMap<MetricId, ImmutableSet<NumericData>> expected = ImmutableMap.of(
             new MetricId("m1"), ImmutableSet.of(d1, d2, d6),
@@ -659,6 +1292,92 @@ public class MetricsServiceCassandraTest extends MetricsTest {
         );
 
         assertEquals(actual, expected, "The tagged data does not match");
+
+        queryFuture = metricsService.findNumericDataByTags(tenant, ImmutableMap.of("t1", Optional.of("1"),
+            "t2", Optional.of("2")), start.plusMinutes(3).getMillis(), start.plusMinutes(5).getMillis());
+        actual = getUninterruptibly(queryFuture);
+        expected = ImmutableMap.of(
+            new MetricId("m1"), ImmutableSet.of(d6),
+            new MetricId("m2"), ImmutableSet.of(d5)
+        );
+
+        assertEquals(actual, expected, "The tagged data should be limited to the time range");
+    }
+
+    @Test
+    public void tagNumericDataOfMultipleMetrics() throws Exception {
+        String tenant = "tag-test";
+        DateTime start = now().minusMinutes(20);
+
+        getUninterruptibly(metricsService.createTenant(new Tenant().setId(tenant)));
+
+        NumericData d1 = new NumericData(start.getMillis(), 101.1);
+        NumericData d2 = new NumericData(start.plusMinutes(2).getMillis(), 101.2);
+        NumericData d3 = new NumericData(start.plusMinutes(4).getMillis(), 102.1);
+        NumericData d4 = new NumericData(start.plusMinutes(8).getMillis(), 102.2);
+
+        NumericMetric m1 = new NumericMetric(tenant, new MetricId("m1"));
+        m1.addData(d1);
+        m1.addData(d2);
+
+        NumericMetric m2 = new NumericMetric(tenant, new MetricId("m2"));
+        m2.addData(d3);
+        m2.addData(d4);
+
+        getUninterruptibly(metricsService.addNumericData(asList(m1, m2)));
+
+        AtomicInteger dataUpdates = new AtomicInteger();
+        metricsService.setDataAccess(new DelegatingDataAccess(dataAccess) {
+            @Override
+            public ResultSetFuture updateDataWithTag(List<? extends MetricData> data, Map<String, String> tags) {
+                dataUpdates.incrementAndGet();
+                return super.updateDataWithTag(data, tags);
+            }
+        });
+
+        Map<String, Optional<String>> tags = ImmutableMap.of("t1", Optional.of("1"));
+        List<NumericData> tagged = getUninterruptibly(metricsService.tagNumericData(asList(m1, m2), tags,
+            start.getMillis(), start.plusMinutes(6).getMillis()));
+
+        assertEquals(ImmutableSet.copyOf(tagged), ImmutableSet.of(d1, d2, d3), "The tagged data does not match");
+        assertEquals(dataUpdates.get(), 1, "Expected the data of both metrics to be tagged in one update");
+
+        Map<MetricId, Set<NumericData>> actual = getUninterruptibly(metricsService.findNumericDataByTags(tenant, tags,
+            start.getMillis(), now().getMillis()));
+        Map<MetricId, Set<NumericData>> expected = ImmutableMap.of(
+            new MetricId("m1"), ImmutableSet.of(d1, d2),
+            new MetricId("m2"), ImmutableSet.of(d3)
+        );
+
+        assertEquals(actual, expected, "The tagged data does not match");
+    }
+
+    @Test
+    public void findTaggedNumericDataSpanningMultipleDatePartitions() throws Exception {
+        DateTime end = now();
+        DateTime start = end.minusDays(3);
+
+        NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
+        m1.addData(end.minusMinutes(1).getMillis(), 4.4);
+        m1.addData(start.plusDays(2).getMillis(), 3.3);
+        m1.addData(start.plusDays(1).getMillis(), 2.2);
+        m1.addData(start.getMillis(), 1.1);
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+        Map<String, Optional<String>> tags = ImmutableMap.of("t1", Optional.of("1"));
+        getUninterruptibly(metricsService.tagNumericData(m1, tags, start.getMillis(), end.getMillis()));
+
+        Map<MetricId, Set<NumericData>> actual = getUninterruptibly(metricsService.findNumericDataByTags("t1", tags,
+            start.getMillis(), end.getMillis()));
+        assertEquals(actual, ImmutableMap.of(m1.getId(), ImmutableSet.copyOf(m1.getData())),
+            "The tagged data does not match");
+
+        actual = getUninterruptibly(metricsService.findNumericDataByTags("t1", tags, start.plusDays(1).getMillis(),
+            start.plusDays(2).plusMinutes(1).getMillis()));
+        assertEquals(actual, ImmutableMap.of(m1.getId(), ImmutableSet.of(
+            new NumericData(m1, start.plusDays(1).getMillis(), 2.2),
+            new NumericData(m1, start.plusDays(2).getMillis(), 3.3)
+        )), "Only the data in the time range should be returned");
     }
 
     @Test
@@ -718,7 +1437,7 @@ public class MetricsServiceCassandraTest extends MetricsTest {
         getUninterruptibly(tagFuture5);
 
         ListenableFuture<Map<MetricId, Set<Availability>>> queryFuture = metricsService.findAvailabilityByTags(tenant,
-            ImmutableMap.of("t1", Optional.of("1"), "t2", Optional.of("2")));
+            ImmutableMap.of("t1", Optional.of("1"), "t2", Optional.of("2")), start.getMillis(), now().getMillis());
         Map<MetricId, Set<Availability>> actual = getUninterruptibly(queryFuture);
         ImmutableMap<MetricId, ImmutableSet<Availability>> expected = ImmutableMap.of(
             new MetricId("m1"), ImmutableSet.of(a1, a2, a6),
@@ -788,7 +1507,7 @@ public class MetricsServiceCassandraTest extends MetricsTest {
         assertEquals(getUninterruptibly(tagFuture), asList(d4), "Tagging " + d4 + " returned unexpected results");
 
         ListenableFuture<Map<MetricId, Set<NumericData>>> queryFuture = metricsService.findNumericDataByTags(tenant,
-            ImmutableMap.of("t2", Optional.empty(), "t3", Optional.empty()));
+            ImmutableMap.of("t2", Optional.empty(), "t3", Optional.empty()), start.getMillis(), now().getMillis());
         Map<MetricId, Set<NumericData>> actual = getUninterruptibly(queryFuture);
         ImmutableMap<MetricId, ImmutableSet<NumericData>> expected = ImmutableMap.of(
             new MetricId("m1"), ImmutableSet.of(d2),
@@ -859,7 +1578,7 @@ public class MetricsServiceCassandraTest extends MetricsTest {
         assertEquals(getUninterruptibly(tagFuture), asList(a4), "Tagging " + a4 + " returned unexpected results");
 
         ListenableFuture<Map<MetricId, Set<Availability>>> queryFuture = metricsService.findAvailabilityByTags(tenant,
-            tags3);
+            tags3, start.getMillis(), now().getMillis());
         Map<MetricId, Set<Availability>> actual = getUninterruptibly(queryFuture);
         ImmutableMap<MetricId, ImmutableSet<Availability>> expected = ImmutableMap.of(
             new MetricId("m1"), ImmutableSet.of(a2),
@@ -869,6 +1588,63 @@ public class MetricsServiceCassandraTest extends MetricsTest {
         assertEquals(actual, expected, "The tagged data does not match");
     }
 
+    @Test
+    public void updateMetricsIndexOnlyForNewMetrics() throws Exception {
+        AtomicInteger indexUpdates = new AtomicInteger();
+        metricsService.setDataAccess(new DelegatingDataAccess(dataAccess) {
+            @Override
+            public <T extends Metric> ResultSetFuture updateMetricsIndex(List<T> metrics) {
+                indexUpdates.addAndGet(metrics.size());
+                return super.updateMetricsIndex(metrics);
+            }
+        });
+        long timestamp = now().getMillis();
+        NumericMetric m1 = new NumericMetric("tenant-1", new MetricId("m1"));
+        m1.addData(timestamp, 1.1);
+        NumericMetric m2 = new NumericMetric("tenant-1", new MetricId("m2"));
+        m2.addData(timestamp, 2.2);
+        AvailabilityMetric m3 = new AvailabilityMetric("tenant-1", new MetricId("m1"));
+        m3.addData(new Availability(m3, timestamp, UP));
+
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+        getUninterruptibly(metricsService.addNumericData(asList(m1, m2)));
+        getUninterruptibly(metricsService.addAvailabilityData(asList(m3)));
+        getUninterruptibly(metricsService.addNumericData(asList(m1, m2)));
+
+        assertEquals(indexUpdates.get(), 3, "Each metric should have been written to the index once");
+        assertMetricIndexMatches("tenant-1", NUMERIC, asList(new NumericMetric("tenant-1", new MetricId("m1")),
+            new NumericMetric("tenant-1", new MetricId("m2"))));
+
+        metricsService.getMetricsIndexCache().invalidateAll();
+        getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+        assertEquals(indexUpdates.get(), 4, "The index should be written again once the cache entry is gone");
+    }
+
+    @Test
+    public void checkIfMetricExists() throws Exception {
+        getUninterruptibly(metricsService.createMetric(new NumericMetric("t1", new MetricId("m1"))));
+        NumericMetric m2 = new NumericMetric("t1", new MetricId("m2"));
+        m2.addData(now().getMillis(), 2.2);
+        getUninterruptibly(metricsService.addNumericData(asList(m2)));
+
+        assertTrue(getUninterruptibly(metricsService.idExists("t1", NUMERIC, new MetricId("m1"))),
+            "A created metric should exist");
+        assertTrue(getUninterruptibly(metricsService.idExists("t1", NUMERIC, new MetricId("m2"))),
+            "A metric with data should exist");
+        assertFalse(getUninterruptibly(metricsService.idExists("t2", NUMERIC, new MetricId("m1"))),
+            "The metric should not exist in another tenant");
+        assertFalse(getUninterruptibly(metricsService.idExists("t1", AVAILABILITY, new MetricId("m1"))),
+            "The metric should not exist for another type");
+
+        // Metrics written by other nodes are not in the cache
+        metricsService.getMetricsIndexCache().invalidateAll();
+        assertTrue(getUninterruptibly(metricsService.idExists("t1", NUMERIC, new MetricId("m2"))),
+            "The metric should be found in the metrics index");
+        assertTrue(metricsService.getMetricsIndexCache().isIndexed("t1", NUMERIC, new MetricId("m2")),
+            "The metric should have been cached");
+    }
+
     private void assertMetricEquals(Metric actual, Metric expected) {
         assertEquals(actual, expected, "The metric doe not match the expected value");
         assertEquals(actual.getData(), expected.getData(), "The data does not match the expected values");
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.cassandra;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.metrics.core.api.MetricType;
+import org.hawkular.metrics.core.api.TimeUUIDUtils;
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ForwardingListenableFuture.SimpleForwardingListenableFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class WriteCoalescerTest extends MetricsTest {
+
+    private PreparedStatement insertData;
+
+    private PreparedStatement countData;
+
+    private DatePartitioner partitioner;
+
+    @BeforeClass
+    public void initClass() {
+        initSession();
+        partitioner = new DatePartitioner();
+        insertData = session.prepare(
+            "UPDATE data " +
+            "USING TTL ? " +
+            "SET m_tags = m_tags + ?, n_value = ? " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND interval = ? AND dpart = ? AND time = ?");
+        countData = session.prepare(
+            "SELECT count(*) FROM data " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND interval = ? AND dpart = ?");
+    }
+
+    @BeforeMethod
+    public void initMethod() {
+        session.execute("TRUNCATE data");
+    }
+
+    @Test
+    public void groupStatementsByPartition() {
+        WriteCoalescer coalescer = new WriteCoalescer(session, 10, Integer.MAX_VALUE, 2);
+        DateTime start = hour0().minusDays(2);
+        List<BoundStatement> statements = new ArrayList<>();
+        // 15 data points in each of three date partitions, interleaved
+        for (int i = 0; i < 15; ++i) {
+            for (int day = 0; day < 3; ++day) {
+                statements.add(bind("m1", start.plusDays(day).plusMinutes(i).getMillis(), i));
+            }
+        }
+
+        List<BatchStatement> batches = coalescer.group(BatchStatement.Type.UNLOGGED, statements);
+
+        assertEquals(batches.size(), 6, "Each partition should be split into a batch of 10 and one of 5 rows");
+        for (BatchStatement batch : batches) {
+            assertTrue(batch.size() == 10 || batch.size() == 5, "Unexpected batch size of " + batch.size());
+            ByteBuffer routingKey = batch.getRoutingKey();
+            for (Statement statement : batch.getStatements()) {
+                assertEquals(statement.getRoutingKey(), routingKey, "A batch should only update one partition");
+            }
+        }
+    }
+
+    @Test
+    public void limitBatchesBySize() {
+        BoundStatement statement = bind("m1", hour0().getMillis(), 1.0);
+        int size = WriteCoalescer.sizeOf(statement);
+        WriteCoalescer coalescer = new WriteCoalescer(session, 100, size * 3, 2);
+        List<BoundStatement> statements = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            statements.add(bind("m1", hour0().plusMinutes(i).getMillis(), i));
+        }
+
+        List<BatchStatement> batches = coalescer.group(BatchStatement.Type.UNLOGGED, statements);
+
+        assertEquals(batches.size(), 4, "Batches should hold at most three statements");
+        assertEquals(batches.get(3).size(), 1);
+    }
+
+    @Test
+    public void executeBatchesWithBoundedConcurrency() throws Exception {
+        WriteCoalescer coalescer = new WriteCoalescer(session, 5, Integer.MAX_VALUE, 2);
+        DateTime start = hour0().minusDays(4);
+        List<BoundStatement> statements = new ArrayList<>();
+        for (int day = 0; day < 5; ++day) {
+            for (int i = 0; i < 12; ++i) {
+                statements.add(bind("m1", start.plusDays(day).plusMinutes(i).getMillis(), i));
+            }
+        }
+
+        getUninterruptibly(coalescer.execute(statements));
+
+        assertEquals(coalescer.getInFlight(), 0, "There should not be any batches in flight");
+        for (int day = 0; day < 5; ++day) {
+            long count = session.execute(countData.bind("tenant-1", MetricType.NUMERIC.getCode(), "m1", "",
+                partitioner.getDpart(start.plusDays(day).getMillis()))).one().getLong(0);
+            assertEquals(count, 12, "Data points are missing from date partition " + day);
+        }
+    }
+
+    @Test
+    public void rejectWritesWhenQueueIsFull() throws Exception {
+        WriteCoalescer coalescer = new WriteCoalescer(session, 1, Integer.MAX_VALUE, 1, 1);
+        List<BoundStatement> statements = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            statements.add(bind("m1", hour0().plusMinutes(i).getMillis(), i));
+        }
+
+        // A request is admitted as a whole even if it does not fit in the queue
+        ResultSetFuture admitted = coalescer.execute(statements);
+        ResultSetFuture rejected = coalescer.execute(asList(bind("m2", hour0().getMillis(), 1.0)));
+
+        try {
+            rejected.get();
+            throw new AssertionError("The write should have been rejected while the queue is full");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        getUninterruptibly(admitted);
+        assertEquals(coalescer.getQueued(), 0, "There should not be any batches queued");
+        long count = session.execute(countData.bind("tenant-1", MetricType.NUMERIC.getCode(), "m1", "",
+            partitioner.getDpart(hour0().getMillis()))).one().getLong(0);
+        assertEquals(count, 10, "Data points of the admitted write are missing");
+    }
+
+    @Test
+    public void failQueuedWritesWithoutRecursion() throws Exception {
+        // The first batch stays in flight until all of the others are queued, and every batch after it fails right
+        // away as if the cluster was unavailable
+        SettableFuture<ResultSet> first = SettableFuture.create();
+        AtomicInteger executed = new AtomicInteger();
+        Session failingSession = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+            new Class<?>[] {Session.class}, (proxy, method, args) -> {
+                if (!method.getName().equals("executeAsync")) {
+                    return method.invoke(session, args);
+                }
+                if (executed.getAndIncrement() == 0) {
+                    return new TestResultSetFuture(first);
+                }
+                return new TestResultSetFuture(Futures.immediateFailedFuture(new IllegalStateException("down")));
+            });
+        WriteCoalescer coalescer = new WriteCoalescer(failingSession, 1, Integer.MAX_VALUE, 1, 20000);
+        List<BoundStatement> statements = new ArrayList<>();
+        for (int i = 0; i < 10000; ++i) {
+            statements.add(bind("m1", hour0().plusMillis(i).getMillis(), i));
+        }
+
+        ResultSetFuture future = coalescer.execute(statements);
+        assertEquals(coalescer.getQueued(), 9999, "All but the first batch should be queued");
+        first.setException(new IllegalStateException("down"));
+
+        try {
+            future.get();
+            throw new AssertionError("The write should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(executed.get(), 10000, "Every batch should have been executed");
+        assertEquals(coalescer.getQueued(), 0, "There should not be any batches queued");
+        assertEquals(coalescer.getInFlight(), 0, "There should not be any batches in flight");
+    }
+
+    private BoundStatement bind(String metric, long timestamp, double value) {
+        return insertData.bind(3600, ImmutableMap.of(), value, "tenant-1", MetricType.NUMERIC.getCode(), metric, "",
+            partitioner.getDpart(timestamp), TimeUUIDUtils.getTimeUUID(timestamp));
+    }
+
+    private static class TestResultSetFuture extends SimpleForwardingListenableFuture<ResultSet>
+        implements ResultSetFuture {
+
+        TestResultSetFuture(ListenableFuture<ResultSet> future) {
+            super(future);
+        }
+
+        @Override
+        public ResultSet getUninterruptibly() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ResultSet getUninterruptibly(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
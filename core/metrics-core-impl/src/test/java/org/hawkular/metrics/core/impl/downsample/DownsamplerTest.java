@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.downsample;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.hawkular.metrics.core.api.QuantileSketch;
+import org.testng.annotations.Test;
+
+public class DownsamplerTest {
+
+    @Test
+    public void computeStatsForEachBucket() {
+        // Data is read from the data table in descending order
+        long[] timestamps = {350, 320, 250, 140, 110, 100, 10};
+        double[] values = {9, 1, 5, 4, 8, 2, 3};
+
+        Downsampler downsampler = new Downsampler(100, 100, 3);
+        BucketStats stats = downsampler.downsample(timestamps, values, timestamps.length);
+
+        assertEquals(stats.getNumberOfBuckets(), 3);
+
+        assertEquals(stats.getTimestamp(0), 100);
+        assertEquals(stats.getCount(0), 3);
+        assertEquals(stats.getMin(0), 2.0);
+        assertEquals(stats.getMax(0), 8.0);
+        assertEquals(stats.getSum(0), 14.0);
+        assertEquals(stats.getAvg(0), 14.0 / 3);
+        assertEquals(stats.getFirst(0), 3);
+        assertEquals(stats.getLast(0), 5);
+
+        assertEquals(stats.getTimestamp(1), 200);
+        assertEquals(stats.getCount(1), 1);
+        assertEquals(stats.getAvg(1), 5.0);
+
+        assertEquals(stats.getTimestamp(2), 300);
+        assertEquals(stats.getCount(2), 2);
+        assertEquals(stats.getMin(2), 1.0);
+        assertEquals(stats.getMax(2), 9.0);
+    }
+
+    @Test
+    public void emptyBucketsAreNaN() {
+        long[] timestamps = {50};
+        double[] values = {1};
+
+        BucketStats stats = new Downsampler(0, 100, 2).downsample(timestamps, values, 1);
+
+        assertTrue(stats.isEmpty(1));
+        assertEquals(stats.getCount(1), 0);
+        assertTrue(Double.isNaN(stats.getMin(1)));
+        assertTrue(Double.isNaN(stats.getAvg(1)));
+        assertTrue(Double.isNaN(stats.getMax(1)));
+        assertTrue(Double.isNaN(stats.getPercentile(1, 50)));
+        assertEquals(stats.getFirst(1), -1);
+    }
+
+    @Test
+    public void computePercentiles() {
+        long[] timestamps = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+        double[] values = {4, 2, 3, 1, 5, 6, 40, 10, 30, 20, 50};
+
+        BucketStats stats = new Downsampler(1, 5, 3).downsample(timestamps, values, timestamps.length);
+
+        assertEquals(stats.getPercentile(0, 50), 3.0);
+        assertEquals(stats.getPercentile(0, 0), 1.0);
+        assertEquals(stats.getPercentile(0, 100), 5.0);
+        assertEquals(stats.getPercentile(1, 50), 20.0);
+        assertEquals(stats.getPercentile(1, 90), 40.0);
+        assertEquals(stats.getPercentile(2, 99), 50.0);
+    }
+
+    @Test
+    public void estimatePercentilesFromSketches() {
+        int n = 10_000;
+        long[] timestamps = new long[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; ++i) {
+            // The first bucket gets 1 to 5000 and the second bucket 10 to 50000, both in reverse order
+            timestamps[i] = n - i - 1;
+            values[i] = timestamps[i] < 5000 ? timestamps[i] + 1 : 10 * (timestamps[i] - 4999);
+        }
+
+        BucketStats stats = new Downsampler(0, 5000, 3).downsample(timestamps, values, n);
+
+        assertEquals(stats.getSketch(0).getCount(), 5000);
+        assertEquals(stats.getEstimatedPercentile(0, 0), 1.0);
+        assertEquals(stats.getEstimatedPercentile(0, 100), 5000.0);
+        assertEquals(stats.getEstimatedPercentile(0, 50), 2500.0, 2500 * 0.01);
+        assertEquals(stats.getEstimatedPercentile(1, 95), 47500.0, 47500 * 0.01);
+        assertEquals(stats.getEstimatedPercentile(1, 99), 49500.0, 49500 * 0.01);
+        assertTrue(Double.isNaN(stats.getEstimatedPercentile(2, 50)), "The third bucket is empty");
+    }
+
+    @Test
+    public void accessDataPointsOfBucketInInputOrder() {
+        long[] timestamps = {30, 5, 25, 10, 20};
+        double[] values = {1, 2, 3, 4, 5};
+
+        BucketStats stats = new Downsampler(0, 20, 2).downsample(timestamps, values, timestamps.length);
+
+        assertEquals(stats.getSize(0), 2);
+        assertEquals(stats.getIndex(0, 0), 1);
+        assertEquals(stats.getIndex(0, 1), 3);
+        assertEquals(stats.getSize(1), 3);
+        assertEquals(stats.getIndex(1, 0), 0);
+        assertEquals(stats.getIndex(1, 1), 2);
+        assertEquals(stats.getIndex(1, 2), 4);
+    }
+
+    @Test
+    public void wrapAroundPeriodicBuckets() {
+        long[] timestamps = {0, 10, 20, 30, 40, 50};
+        double[] values = {1, 2, 3, 4, 5, 6};
+
+        BucketStats stats = Downsampler.periodic(0, 10, 2).downsample(timestamps, values, timestamps.length);
+
+        assertEquals(stats.getCount(0), 3);
+        assertEquals(stats.getSum(0), 9.0);
+        assertEquals(stats.getCount(1), 3);
+        assertEquals(stats.getSum(1), 12.0);
+        assertEquals(stats.getPercentile(1, 50), 4.0);
+    }
+
+    @Test
+    public void mergePrecomputedStats() {
+        long[] timestamps = {5};
+        double[] values = {3};
+
+        BucketStats stats = new Downsampler(0, 10, 2).downsample(timestamps, values, 1);
+        stats.merge(0, 1, 10, 20, 4);
+        stats.merge(1, 2, 4, 6, 2);
+
+        assertEquals(stats.getCount(0), 5);
+        assertEquals(stats.getMin(0), 1.0);
+        assertEquals(stats.getMax(0), 10.0);
+        assertEquals(stats.getAvg(0), 23.0 / 5);
+        assertEquals(stats.getSize(0), 1, "Only raw data points should be counted in the size");
+        assertEquals(stats.getAvg(1), 3.0);
+    }
+
+    @Test
+    public void mergePrecomputedSketches() {
+        long[] timestamps = {5, 15};
+        double[] values = {100, 7};
+        QuantileSketch rollup = new QuantileSketch();
+        for (int i = 1; i <= 99; ++i) {
+            rollup.add(i);
+        }
+
+        BucketStats stats = new Downsampler(0, 10, 2).downsample(timestamps, values, timestamps.length);
+        stats.merge(0, 1, 99, 4950, 99, rollup);
+        stats.merge(1, 1, 9, 10, 2);
+
+        assertEquals(stats.getCount(0), 100);
+        assertEquals(stats.getSketch(0).getCount(), 100);
+        assertEquals(stats.getEstimatedPercentile(0, 100), 100.0);
+        assertEquals(stats.getEstimatedPercentile(0, 50), 50.0, 50 * 0.01);
+        assertEquals(stats.getPercentile(0, 50), 100.0, "Exact percentiles should only include the raw data");
+        assertTrue(Double.isNaN(stats.getEstimatedPercentile(1, 50)),
+            "Percentiles should not be estimated when stats were merged without a sketch");
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.downsample;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.hawkular.metrics.core.api.AggregatedSeries;
+import org.hawkular.metrics.core.api.NumericData;
+import org.hawkular.metrics.core.api.SeriesFunction;
+import org.testng.annotations.Test;
+
+public class SeriesAggregatorTest {
+
+    @Test
+    public void sumSeries() {
+        SeriesAggregator aggregator = new SeriesAggregator(new Downsampler(100, 100, 3), SeriesFunction.SUM);
+        aggregator.add(null, data(350, 6, 320, 2, 150, 4, 120, 2, 110, 3));
+        aggregator.add(null, data(340, 1, 130, 10));
+        aggregator.add(null, null);
+
+        List<AggregatedSeries> results = aggregator.aggregate();
+
+        assertEquals(results.size(), 1);
+        AggregatedSeries sum = results.get(0);
+        assertNull(sum.getGroup());
+        assertEquals(sum.getNumberOfSeries(), 3);
+        assertEquals(sum.size(), 2, "The empty bucket should be skipped");
+        assertEquals(sum.getTimestamp(0), 100);
+        assertEquals(sum.getValue(0), 3.0 + 10.0);
+        assertEquals(sum.getCount(0), 2);
+        assertEquals(sum.getTimestamp(1), 300);
+        assertEquals(sum.getValue(1), 4.0 + 1.0);
+        assertEquals(sum.getCount(1), 2);
+    }
+
+    @Test
+    public void aggregateGroups() {
+        SeriesAggregator aggregator = new SeriesAggregator(new Downsampler(0, 10, 2), SeriesFunction.AVG);
+        aggregator.add("a", data(15, 1, 5, 2));
+        aggregator.add("b", data(12, 10));
+        aggregator.add("a", data(18, 3, 2, 4));
+        aggregator.add("b", data(3, 20));
+
+        List<AggregatedSeries> results = aggregator.aggregate();
+
+        assertEquals(results.size(), 2);
+        AggregatedSeries a = results.get(0);
+        assertEquals(a.getGroup(), "a");
+        assertEquals(a.getNumberOfSeries(), 2);
+        assertEquals(a.getValue(0), 3.0);
+        assertEquals(a.getValue(1), 2.0);
+
+        AggregatedSeries b = results.get(1);
+        assertEquals(b.getGroup(), "b");
+        assertEquals(b.getTimestamp(0), 0);
+        assertEquals(b.getValue(0), 20.0);
+        assertEquals(b.getCount(0), 1);
+        assertEquals(b.getTimestamp(1), 10);
+        assertEquals(b.getValue(1), 10.0);
+    }
+
+    @Test
+    public void minMaxAndPercentile() {
+        assertEquals(aggregateTenSeries(SeriesFunction.MIN).getValue(0), 10.0);
+        assertEquals(aggregateTenSeries(SeriesFunction.MAX).getValue(0), 100.0);
+        assertEquals(aggregateTenSeries(SeriesFunction.parse("p50")).getValue(0), 55.0);
+        assertEquals(aggregateTenSeries(SeriesFunction.percentile(90)).getValue(1), 9.5);
+        assertEquals(aggregateTenSeries(SeriesFunction.parse("p95")).getValue(1), 10.0);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void rejectDataThatIsNotInDescendingOrder() {
+        SeriesAggregator aggregator = new SeriesAggregator(new Downsampler(0, 10, 3), SeriesFunction.SUM);
+        aggregator.add(null, data(5, 1, 25, 1));
+        aggregator.aggregate();
+    }
+
+    @Test
+    public void parseFunctions() {
+        assertEquals(SeriesFunction.parse("sum"), SeriesFunction.SUM);
+        assertEquals(SeriesFunction.parse("p99.9"), SeriesFunction.percentile(99.9));
+        assertEquals(SeriesFunction.parse("p99.9").toString(), "p99.9");
+        assertEquals(SeriesFunction.parse("p50").toString(), "p50");
+        assertTrue(SeriesFunction.parse("max").getType() == SeriesFunction.Type.MAX);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectUnknownFunction() {
+        SeriesFunction.parse("median");
+    }
+
+    private AggregatedSeries aggregateTenSeries(SeriesFunction function) {
+        SeriesAggregator aggregator = new SeriesAggregator(new Downsampler(0, 40, 2), function);
+        for (int i = 1; i <= 10; ++i) {
+            aggregator.add(null, data(50, i, 10, i * 10));
+        }
+        return aggregator.aggregate().get(0);
+    }
+
+    /**
+     * @param timestampsAndValues Pairs of timestamps and values
+     */
+    private static Iterator<NumericData> data(double... timestampsAndValues) {
+        List<NumericData> data = new ArrayList<>();
+        for (int i = 0; i < timestampsAndValues.length; i += 2) {
+            data.add(new NumericData((long) timestampsAndValues[i], timestampsAndValues[i + 1]));
+        }
+        return data.iterator();
+    }
+}
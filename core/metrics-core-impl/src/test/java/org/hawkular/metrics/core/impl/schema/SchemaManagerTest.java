@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.schema;
+
+import static java.util.Arrays.asList;
+import static org.hawkular.metrics.core.api.MetricType.NUMERIC;
+import static org.joda.time.DateTime.now;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.hawkular.metrics.core.api.MetricId;
+import org.hawkular.metrics.core.api.NumericData;
+import org.hawkular.metrics.core.api.NumericMetric;
+import org.hawkular.metrics.core.api.TimeUUIDUtils;
+import org.hawkular.metrics.core.impl.cassandra.MetricsServiceCassandra;
+import org.hawkular.metrics.core.impl.cassandra.MetricsTest;
+import org.joda.time.DateTime;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.datastax.driver.core.Session;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CharStreams;
+
+/**
+ * Verifies that {@link SchemaManager} updates keyspaces that were created with the schema of an earlier version.
+ */
+public class SchemaManagerTest extends MetricsTest {
+
+    private String legacyKeyspace;
+
+    private SchemaManager schemaManager;
+
+    @BeforeClass
+    public void initClass() throws Exception {
+        initSession();
+        legacyKeyspace = getKeyspace() + "_legacy";
+        schemaManager = new SchemaManager(session);
+
+        session.execute("DROP KEYSPACE IF EXISTS " + legacyKeyspace);
+        try (InputStream inputStream = getClass().getResourceAsStream("/legacy-schema.cql");
+            InputStreamReader reader = new InputStreamReader(inputStream)) {
+            for (String cql : CharStreams.toString(reader).split("(?m)^-- #.*$")) {
+                if (!cql.startsWith("--")) {
+                    session.execute(cql.trim().replace("${keyspace}", legacyKeyspace));
+                }
+            }
+        }
+    }
+
+    @AfterClass
+    public void dropLegacyKeyspace() {
+        schemaManager.dropKeyspace(legacyKeyspace);
+    }
+
+    @Test
+    public void updateKeyspaceOfEarlierVersion() throws Exception {
+        schemaManager.createSchema(legacyKeyspace);
+        assertTrue(columnExists("data", "sketch"), "The sketch column should have been added to the data table");
+
+        assertTrue(tableExists("tags_v2"), "The tags_v2 table should have been created");
+        assertTrue(tableExists("rollup_leases"), "The rollup_leases table should have been created");
+        assertTrue(tableExists("rollup_progress"), "The rollup_progress table should have been created");
+        assertTrue(tableExists("settings"), "The settings table should have been created");
+
+        // The updates have been applied, so this should not try to apply them again
+        schemaManager.createSchema(legacyKeyspace);
+
+        // Data tagged before the upgrade is only stored in the tags table
+        DateTime end = now();
+        NumericMetric m0 = new NumericMetric("t1", new MetricId("m0"));
+        m0.addData(new NumericData(m0, TimeUUIDUtils.getTimeUUID(end.minusHours(2).getMillis()), 3.3));
+        session.execute("INSERT INTO " + legacyKeyspace + ".tags (tenant_id, tname, tvalue, type, metric, " +
+            "interval, time, n_value) VALUES (?, ?, ?, ?, ?, ?, ?, ?)", "t1", "t1", "1", NUMERIC.getCode(), "m0", "",
+            m0.getData().get(0).getTimeUUID(), 3.3);
+
+        Session legacySession = session.getCluster().connect(legacyKeyspace);
+        MetricsServiceCassandra metricsService = new MetricsServiceCassandra();
+        try {
+            // Fails if any of the statements cannot be prepared against the updated schema
+            metricsService.startUp(legacySession);
+
+            NumericMetric m1 = new NumericMetric("t1", new MetricId("m1"));
+            m1.addData(end.minusDays(1).getMillis(), 1.1);
+            m1.addData(end.minusMinutes(1).getMillis(), 2.2);
+            getUninterruptibly(metricsService.addNumericData(asList(m1)));
+
+            Map<String, Optional<String>> tags = ImmutableMap.of("t1", Optional.of("1"));
+            getUninterruptibly(metricsService.tagNumericData(m1, tags, end.minusDays(2).getMillis(),
+                end.getMillis()));
+
+            Map<MetricId, Set<NumericData>> actual = getUninterruptibly(metricsService.findNumericDataByTags("t1",
+                tags, end.minusDays(2).getMillis(), end.getMillis()));
+            assertEquals(actual, ImmutableMap.of(m0.getId(), ImmutableSet.copyOf(m0.getData()), m1.getId(),
+                ImmutableSet.copyOf(m1.getData())), "The tagged data does not match");
+        } finally {
+            metricsService.shutdown();
+            legacySession.close();
+        }
+    }
+
+    @Test
+    public void keepFirstStoredSetting() throws Exception {
+        schemaManager.createSchema(legacyKeyspace);
+
+        assertEquals(schemaManager.storeSetting(legacyKeyspace, "partition-size", "86400000"), "86400000",
+            "Expected the setting to be stored since it does not have a value yet");
+        assertEquals(schemaManager.storeSetting(legacyKeyspace, "partition-size", "3600000"), "86400000",
+            "Expected the value stored first to be kept");
+    }
+
+    private boolean tableExists(String table) {
+        return !session.execute("SELECT columnfamily_name FROM system.schema_columnfamilies WHERE " +
+            "keyspace_name = ? AND columnfamily_name = ?", legacyKeyspace, table).isExhausted();
+    }
+
+    private boolean columnExists(String table, String column) {
+        return !session.execute("SELECT column_name FROM system.schema_columns WHERE keyspace_name = ? AND " +
+            "columnfamily_name = ? AND column_name = ?", legacyKeyspace, table, column).isExhausted();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.tags;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.hawkular.metrics.core.api.MetricId;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class TagIndexTest {
+
+    private MetricId m1 = new MetricId("m1");
+    private MetricId m2 = new MetricId("m2");
+    private MetricId m3 = new MetricId("m3");
+
+    private TagIndex index;
+
+    @BeforeMethod
+    public void initIndex() {
+        index = new TagIndex();
+        index.putMetric(m1, ImmutableMap.of("host", "h1", "env", "prod"), 24);
+        index.putMetric(m2, ImmutableMap.of("host", "h2", "env", "test"), null);
+        index.putMetric(m3, ImmutableMap.of("host", "h3"), null);
+    }
+
+    @Test
+    public void findByTagValues() {
+        assertEquals(index.find(ImmutableMap.of()), asList(m1, m2, m3));
+        assertEquals(index.find(ImmutableMap.of("host", "h2")), asList(m2));
+        assertEquals(index.find(ImmutableMap.of("host", "h1|h3")), asList(m1, m3));
+        assertEquals(index.find(ImmutableMap.of("env", "*")), asList(m1, m2));
+        assertEquals(index.find(ImmutableMap.of("env", "!prod")), asList(m2, m3));
+        assertEquals(index.find(ImmutableMap.of("host", "!h1|h2")), asList(m3));
+        assertEquals(index.find(ImmutableMap.of("host", "h1|h2", "env", "test")), asList(m2));
+        assertEquals(index.find(ImmutableMap.of("host", "h4")), emptyList());
+        assertEquals(index.find(ImmutableMap.of("dc", "*")), emptyList());
+    }
+
+    @Test
+    public void updateTags() {
+        index.addTags(m3, ImmutableMap.of("env", "prod", "host", "h1"));
+        assertEquals(index.find(ImmutableMap.of("host", "h1")), asList(m1, m3));
+        assertEquals(index.find(ImmutableMap.of("host", "h3")), emptyList(), "The old tag value should be removed");
+
+        index.deleteTags(m1, asList("env"));
+        assertEquals(index.find(ImmutableMap.of("env", "prod")), asList(m3));
+        assertEquals(index.getTags(m1), ImmutableMap.of("host", "h1"));
+
+        index.putMetric(m1, ImmutableMap.of("dc", "east"), null);
+        assertEquals(index.find(ImmutableMap.of("host", "*")), asList(m2, m3));
+        assertEquals(index.find(ImmutableMap.of("dc", "east")), asList(m1));
+        assertNull(index.getDataRetention(m1));
+
+        MetricId m4 = new MetricId("m4");
+        index.addMetric(m4);
+        index.addMetric(m1);
+        assertEquals(index.size(), 4);
+        assertEquals(index.getTags(m1), ImmutableMap.of("dc", "east"), "Adding an indexed metric should not change it");
+        assertEquals(index.find(ImmutableMap.of("dc", "!east")), asList(m2, m3, m4));
+    }
+
+    @Test
+    public void reload() {
+        assertTrue(index.startReload());
+        assertFalse(index.startReload(), "Only one reload should run at a time");
+
+        // Updates made while the index is loading
+        index.addTags(m2, ImmutableMap.of("env", "prod"));
+        index.deleteTags(m1, asList("env"));
+
+        // The loaded index misses the updates, but has a metric created on another node
+        TagIndex loaded = new TagIndex();
+        loaded.putMetric(m1, ImmutableMap.of("host", "h1", "env", "prod"), 24);
+        loaded.putMetric(m2, ImmutableMap.of("host", "h2", "env", "test"), null);
+        MetricId m4 = new MetricId("m4");
+        loaded.putMetric(m4, ImmutableMap.of("host", "h4"), null);
+        index.finishReload(loaded);
+
+        assertEquals(index.size(), 3, "m3 was not loaded, so it should be removed");
+        assertEquals(index.find(ImmutableMap.of("host", "*")), asList(m1, m2, m4));
+        assertEquals(index.find(ImmutableMap.of("env", "prod")), asList(m2), "The updates should be reapplied");
+        assertEquals(index.getDataRetention(m1), Integer.valueOf(24));
+
+        assertTrue(index.startReload(), "A new reload can start once the previous one finished");
+        index.cancelReload();
+        index.addMetric(m3);
+        assertEquals(index.size(), 4);
+    }
+}
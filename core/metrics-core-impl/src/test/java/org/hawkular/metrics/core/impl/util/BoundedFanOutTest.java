@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.impl.util;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class BoundedFanOutTest {
+
+    @Test
+    public void limitQueriesInFlight() throws Exception {
+        List<SettableFuture<String>> queries = new ArrayList<>();
+        List<ListenableFuture<String>> results = new BoundedFanOut<String, String>(asList("a", "b", "c", "d", "e"),
+            2, id -> {
+                SettableFuture<String> query = SettableFuture.create();
+                queries.add(query);
+                return query;
+            }).start();
+
+        assertEquals(queries.size(), 2, "Expected only two queries to start");
+
+        queries.get(1).set("B");
+        assertEquals(queries.size(), 3, "Expected the next query to start when one completes");
+        assertTrue(results.get(1).isDone());
+        assertFalse(results.get(0).isDone());
+
+        queries.get(0).set("A");
+        queries.get(2).setException(new IllegalStateException());
+        queries.get(3).set("D");
+        queries.get(4).set("E");
+
+        assertEquals(queries.size(), 5);
+        assertEquals(results.get(0).get(), "A");
+        assertEquals(results.get(1).get(), "B");
+        try {
+            results.get(2).get();
+            throw new AssertionError("Expected the failure of the query to be propagated");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(results.get(4).get(), "E");
+    }
+
+    @Test
+    public void runQueriesThatCompleteImmediately() throws Exception {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100000; ++i) {
+            items.add(i);
+        }
+        AtomicInteger started = new AtomicInteger();
+        List<ListenableFuture<Integer>> results = new BoundedFanOut<Integer, Integer>(items, 4, i -> {
+            started.incrementAndGet();
+            return Futures.immediateFuture(i * 2);
+        }).start();
+
+        assertEquals(started.get(), items.size());
+        assertEquals(results.get(99999).get(), Integer.valueOf(2 * 99999));
+    }
+}
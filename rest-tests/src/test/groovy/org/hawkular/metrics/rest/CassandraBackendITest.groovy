@@ -25,6 +25,7 @@ import static org.joda.time.DateTime.now
 import static org.joda.time.Seconds.seconds
 import static org.junit.Assert.assertEquals
 import static org.junit.Assert.assertNotNull
+import static org.junit.Assert.assertNull
 import static org.junit.Assert.assertTrue
 
 class CassandraBackendITest extends RESTTest {
@@ -122,6 +123,35 @@ class CassandraBackendITest extends RESTTest {
     assertBucketedDataEquals(expectedData, response.data, assertBucketEquals)
   }
 
+  @Test
+  void queryForPercentilesOfBucketedNumericData() {
+    String tenantId = nextTenantId()
+    String metric = 'n1'
+    DateTime start = now().minusMinutes(10)
+    DateTime end = start.plusMinutes(2)
+
+    def data = (1..100).collect { [timestamp: start.plusMillis(it * 100).millis, value: it] }
+    def response = hawkularMetrics.post(path: "$tenantId/metrics/numeric/$metric/data", body: data)
+    assertEquals(200, response.status)
+
+    response = hawkularMetrics.get(path: "$tenantId/metrics/numeric/$metric/data", query: [start: start.millis,
+        end: end.millis, buckets: 2, percentiles: '50,99,100'])
+    assertEquals(200, response.status)
+    assertEquals(2, response.data.data.size())
+
+    def percentiles = response.data.data[0].percentiles
+    assertEquals([50.0, 99.0, 100.0], percentiles.collect { it.quantile })
+    assertEquals(50.0, percentiles[0].value, 50 * 0.01)
+    assertEquals(99.0, percentiles[1].value, 99 * 0.01)
+    assertDoubleEquals(100.0, percentiles[2].value)
+    assertNull(response.data.data[1].percentiles)
+
+    badGet(path: "$tenantId/metrics/numeric/$metric/data", query: [start: start.millis, end: end.millis,
+        buckets: 2, percentiles: 'p95']) { exception ->
+      assertEquals(400, exception.response.status)
+    }
+  }
+
   @Test
   void insertNumericDataForMultipleMetrics() {
     DateTime start = now().minusMinutes(10)
@@ -181,6 +211,126 @@ class CassandraBackendITest extends RESTTest {
     )
   }
 
+  @Test
+  void queryNumericDataOfMultipleMetrics() {
+    DateTime start = now().minusMinutes(10)
+    def tenantId = nextTenantId()
+
+    def response = hawkularMetrics.post(path: "$tenantId/metrics/numeric", body: [name: 'm1', tags: [env: 'prod']])
+    assertEquals(200, response.status)
+
+    response = hawkularMetrics.post(path: "$tenantId/metrics/numeric", body: [name: 'm2', tags: [env: 'prod']])
+    assertEquals(200, response.status)
+
+    response = hawkularMetrics.post(path: "$tenantId/metrics/numeric/data", body: [
+        [
+            name: 'm1',
+            data: [[timestamp: start.millis, value: 1.1], [timestamp: start.plusMinutes(1).millis, value: 1.2]]
+        ],
+        [name: 'm2', data: [[timestamp: start.millis, value: 2.1]]],
+        [name: 'm3', data: [[timestamp: start.millis, value: 3.1]]]
+    ])
+    assertEquals(200, response.status)
+
+    response = hawkularMetrics.post(path: "$tenantId/metrics/numeric/query", body: [
+        ids: ['m3', 'm4'],
+        tags: 'env:prod',
+        start: start.millis,
+        end: start.plusMinutes(2).millis
+    ])
+    assertEquals(200, response.status)
+    assertEquals(
+        [
+            [
+                tenantId: tenantId,
+                name    : 'm3',
+                data    : [[timestamp: start.millis, value: 3.1]]
+            ],
+            [
+                tenantId: tenantId,
+                name    : 'm1',
+                tags    : [env: 'prod'],
+                data    : [
+                    [timestamp: start.plusMinutes(1).millis, value: 1.2],
+                    [timestamp: start.millis, value: 1.1]
+                ]
+            ],
+            [
+                tenantId: tenantId,
+                name    : 'm2',
+                tags    : [env: 'prod'],
+                data    : [[timestamp: start.millis, value: 2.1]]
+            ]
+        ].sort { it.name },
+        response.data.sort { it.name }
+    )
+
+    response = hawkularMetrics.post(path: "$tenantId/metrics/numeric/query", body: [
+        ids: ['m1', 'm2'],
+        start: start.millis,
+        end: start.plusMinutes(2).millis,
+        buckets: 2
+    ])
+    assertEquals(200, response.status)
+    assertEquals(['m1', 'm2'], response.data.collect { it.name })
+    assertEquals(2, response.data[0].data.size())
+
+    badPost(path: "$tenantId/metrics/numeric/query", body: [start: start.millis]) { exception ->
+      assertEquals(400, exception.response.status)
+    }
+  }
+
+  @Test
+  void aggregateNumericDataGroupedByTag() {
+    DateTime start = now().minusMinutes(10)
+    def tenantId = nextTenantId()
+
+    [m1: 'h1', m2: 'h1', m3: 'h2'].each { name, host ->
+      def response = hawkularMetrics.post(path: "$tenantId/metrics/numeric",
+          body: [name: name, tags: [app: 'web', host: host]])
+      assertEquals(200, response.status)
+    }
+
+    def response = hawkularMetrics.post(path: "$tenantId/metrics/numeric/data", body: [
+        [
+            name: 'm1',
+            data: [[timestamp: start.millis, value: 1.0], [timestamp: start.plusMinutes(1).millis, value: 3.0]]
+        ],
+        [name: 'm2', data: [[timestamp: start.plusMinutes(2).millis, value: 4.0]]],
+        [name: 'm3', data: [[timestamp: start.millis, value: 5.0]]]
+    ])
+    assertEquals(200, response.status)
+
+    response = hawkularMetrics.get(path: "$tenantId/metrics/numeric/aggregate", query: [tags: 'app:web',
+        groupBy: 'host', function: 'sum', start: start.millis, end: start.plusMinutes(4).millis, buckets: 1])
+    assertEquals(200, response.status)
+    assertEquals(
+        [
+            [
+                tenantId      : tenantId,
+                function      : 'sum',
+                groupBy       : 'host',
+                group         : 'h1',
+                numberOfSeries: 2,
+                data          : [[timestamp: start.millis, value: 6.0]]
+            ],
+            [
+                tenantId      : tenantId,
+                function      : 'sum',
+                groupBy       : 'host',
+                group         : 'h2',
+                numberOfSeries: 1,
+                data          : [[timestamp: start.millis, value: 5.0]]
+            ]
+        ],
+        response.data.sort { it.group }
+    )
+
+    badGet(path: "$tenantId/metrics/numeric/aggregate", query: [tags: 'app:web', function: 'median']) { exception ->
+      assertEquals(400, exception.response.status)
+    }
+  }
+
   @Test
   void insertAvailabilityDataForMultipleMetrics() {
     DateTime start = now().minusMinutes(10)
@@ -240,6 +390,62 @@ class CassandraBackendITest extends RESTTest {
     )
   }
 
+  @Test
+  void insertAndQueryHistogramData() {
+    DateTime start = now().minusMinutes(10)
+    def tenantId = nextTenantId()
+
+    def response = hawkularMetrics.post(path: "$tenantId/metrics/histogram", body: [
+        name: 'h2',
+        tags: [units: 'ms']
+    ])
+    assertEquals(200, response.status)
+
+    response = hawkularMetrics.post(path: "$tenantId/metrics/histogram/h1/data", body: [
+        [timestamp: start.millis, values: (1..100).collect { it as double }],
+        [timestamp: start.plusMinutes(1).millis, values: (101..200).collect { it as double }]
+    ])
+    assertEquals(200, response.status)
+
+    response = hawkularMetrics.post(path: "$tenantId/metrics/histogram/data", body: [
+        [name: 'h2', data: [[timestamp: start.millis, values: [5.0, 15.0]]]]
+    ])
+    assertEquals(200, response.status)
+
+    response = hawkularMetrics.get(path: "$tenantId/metrics/histogram/h1/data", query: [start: start.millis,
+        end: start.plusMinutes(2).millis, percentiles: '50'])
+    assertEquals(200, response.status)
+    assertEquals(2, response.data.data.size())
+    assertEquals(start.plusMinutes(1).millis, response.data.data[0].timestamp)
+    assertEquals(100, response.data.data[0].count)
+    assertDoubleEquals(101.0, response.data.data[0].min)
+    assertDoubleEquals(200.0, response.data.data[0].max)
+
+    response = hawkularMetrics.get(path: "$tenantId/metrics/histogram/h1/data", query: [start: start.millis,
+        end: start.plusMinutes(2).millis, buckets: 1, percentiles: '50,100'])
+    assertEquals(200, response.status)
+    assertEquals(1, response.data.data.size())
+    def bucket = response.data.data[0]
+    assertEquals(200, bucket.count)
+    assertDoubleEquals(100.5, bucket.avg)
+    assertEquals(100.0, bucket.percentiles[0].value, 100 * 0.01)
+    assertEquals(200.0, bucket.percentiles[1].value, 200 * 0.01)
+
+    response = hawkularMetrics.get(path: "$tenantId/metrics/histogram/h2/data", query: [start: start.millis,
+        end: start.plusMinutes(2).millis])
+    assertEquals(200, response.status)
+    assertEquals([units: 'ms'], response.data.metadata)
+    assertEquals(2, response.data.data[0].count)
+
+    response = hawkularMetrics.get(path: "$tenantId/metrics", query: [type: 'hist'])
+    assertEquals(200, response.status)
+    assertEquals(['h1', 'h2'], response.data.collect { it.name }.sort())
+
+    badGet(path: "$tenantId/metrics/histogram/h1/data", query: [buckets: 0]) { exception ->
+      assertEquals(400, exception.response.status)
+    }
+  }
+
   @Test
   void createMetricsAndUpdateTags() {
     String tenantId = nextTenantId()
@@ -568,6 +774,16 @@ class CassandraBackendITest extends RESTTest {
         ],
         response.data
     )
+
+    response = hawkularMetrics.get(path: "$tenantId/tags/numeric/t3:3,t4:4",
+        query: [start: start.plusMinutes(9).millis, end: start.plusMinutes(10).millis])
+    assertEquals(200, response.status)
+    assertEquals(['n4'] as Set, response.data.keySet())
+    assertMetricEquals([
+        tenantId: tenantId,
+        name: 'n4',
+        data: [[timestamp: start.plusMinutes(9).millis, value: 181]]
+    ], response.data.n4)
   }
 
     void assertMetricsEquals(Map expected, Map actual) {
@@ -620,6 +836,16 @@ class CassandraBackendITest extends RESTTest {
     }
   }
 
+  static def badGet(args, errorHandler) {
+    try {
+      def object = hawkularMetrics.get(args)
+      fail("Expected exception to be thrown")
+      return object
+    } catch (e) {
+      errorHandler(e)
+    }
+  }
+
   static String nextTenantId() {
     return "T${TENANT_PREFIX}${TENANT_ID_COUNTER.incrementAndGet()}"
   }